@@ -0,0 +1,116 @@
+package org.openreceivable.aging;
+
+import org.openreceivable.enums.ContractType;
+import org.openreceivable.model.Contract;
+import org.openreceivable.repository.ContractRepository;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The configured aging policy of each contract type.
+ *
+ * Receivables age under the policy of their contract's type, or under the
+ * default policy if they have no contract, its type has no policy of its
+ * own, or the contract cannot be found. Contract types are looked up once
+ * per contract and remembered, since a contract keeps its type.
+ */
+public class AgingPolicies {
+
+    private final AgingPolicy defaultPolicy;
+    private final Map<ContractType, AgingPolicy> byContractType;
+    private final AgingPolicy[] byTypeOrdinal;
+    private final ContractRepository contractRepository;
+    private final Map<String, AgingPolicy> byContractId = new ConcurrentHashMap<>();
+    // Earliest next boundary under any policy, indexed by clamped aging days
+    private final int[] nextBoundaryByDay;
+
+    /**
+     * @param contractRepository where contract types are looked up, or null to
+     *                           age every receivable under the default policy
+     */
+    public AgingPolicies(AgingPolicy defaultPolicy, Map<ContractType, AgingPolicy> byContractType,
+                         ContractRepository contractRepository) {
+        this.defaultPolicy = defaultPolicy;
+        this.byContractType = Collections.unmodifiableMap(byContractType.isEmpty()
+                ? new EnumMap<>(ContractType.class) : new EnumMap<>(byContractType));
+        this.byTypeOrdinal = new AgingPolicy[ContractType.values().length];
+        for (ContractType type : ContractType.values()) {
+            byTypeOrdinal[type.ordinal()] = byContractType.getOrDefault(type, defaultPolicy);
+        }
+        this.contractRepository = contractRepository;
+
+        int days = 0;
+        for (AgingPolicy policy : byTypeOrdinal) {
+            days = Math.max(days, policy.getEdges()[AgingPolicy.EDGES - 1] + 2);
+        }
+        days = Math.max(days, defaultPolicy.getEdges()[AgingPolicy.EDGES - 1] + 2);
+        this.nextBoundaryByDay = new int[days];
+        for (int day = 0; day < days; day++) {
+            int next = earliest(defaultPolicy.nextBoundary(day), -1);
+            for (AgingPolicy policy : byTypeOrdinal) {
+                next = earliest(policy.nextBoundary(day), next);
+            }
+            nextBoundaryByDay[day] = next;
+        }
+    }
+
+    /**
+     * The standard policy for every receivable
+     */
+    public static AgingPolicies standard() {
+        return new AgingPolicies(AgingPolicy.STANDARD, Map.of(), null);
+    }
+
+    private static int earliest(int a, int b) {
+        return a < 0 ? b : b < 0 ? a : Math.min(a, b);
+    }
+
+    public AgingPolicy getDefault() {
+        return defaultPolicy;
+    }
+
+    /**
+     * Policies configured for particular contract types
+     */
+    public Map<ContractType, AgingPolicy> getByContractType() {
+        return byContractType;
+    }
+
+    public AgingPolicy forContractType(ContractType contractType) {
+        return contractType != null ? byTypeOrdinal[contractType.ordinal()] : defaultPolicy;
+    }
+
+    /**
+     * Policy of the receivables of a contract
+     */
+    public AgingPolicy forContract(String contractId) {
+        if (contractId == null || contractRepository == null) {
+            return defaultPolicy;
+        }
+        AgingPolicy policy = byContractId.get(contractId);
+        if (policy != null) {
+            return policy;
+        }
+        // Unknown contracts are not remembered, so one created later is picked up
+        Contract contract = contractRepository.findById(contractId).orElse(null);
+        if (contract == null) {
+            return defaultPolicy;
+        }
+        policy = forContractType(contract.getContractType());
+        byContractId.put(contractId, policy);
+        return policy;
+    }
+
+    /**
+     * Earliest aging days after agingDays at which a receivable changes
+     * category under some policy, or -1 if it is in the last category
+     * under all of them. Lets receivables be scheduled for aging without
+     * knowing their contract.
+     */
+    public int nextBoundary(int agingDays) {
+        return nextBoundaryByDay[Math.min(Math.max(agingDays, 0), nextBoundaryByDay.length - 1)];
+    }
+}
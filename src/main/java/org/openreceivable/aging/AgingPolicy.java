@@ -0,0 +1,123 @@
+package org.openreceivable.aging;
+
+import org.openreceivable.enums.AgingCategory;
+
+import java.util.Arrays;
+
+/**
+ * Aging bucket edges: the last day past due of each bounded category.
+ *
+ * CURRENT always holds receivables not yet past due and the last category
+ * everything past the last edge, so a policy has one edge per category in
+ * between. The standard policy's edges are 30, 60, 90 and 120 days.
+ *
+ * Category and next boundary are looked up in tables indexed by day count,
+ * built once per policy, so categorizing a receivable is a clamp and an
+ * array read.
+ */
+public final class AgingPolicy {
+
+    public static final int EDGES = AgingCategory.values().length - 2;
+
+    public static final AgingPolicy STANDARD = new AgingPolicy(30, 60, 90, 120);
+
+    private static final AgingCategory[] CATEGORIES = AgingCategory.values();
+
+    private final int[] edges;
+    // Indexed by aging days clamped to [0, last edge + 1]
+    private final byte[] categoryByDay;
+    private final int[] nextBoundaryByDay;
+
+    /**
+     * @param edges last day of each bounded category, strictly increasing and positive
+     */
+    public AgingPolicy(int... edges) {
+        if (edges.length != EDGES) {
+            throw new IllegalArgumentException("Aging policy needs " + EDGES + " edges: " + Arrays.toString(edges));
+        }
+        for (int i = 0; i < edges.length; i++) {
+            if (edges[i] <= (i == 0 ? 0 : edges[i - 1])) {
+                throw new IllegalArgumentException("Aging policy edges must be positive and increasing: "
+                        + Arrays.toString(edges));
+            }
+        }
+        this.edges = edges.clone();
+        int days = edges[edges.length - 1] + 2;
+        this.categoryByDay = new byte[days];
+        this.nextBoundaryByDay = new int[days];
+        int category = 0;
+        for (int day = 0; day < days; day++) {
+            if (day > 0 && (category == 0 || (category <= EDGES && day > edges[category - 1]))) {
+                category++;
+            }
+            categoryByDay[day] = (byte) category;
+            nextBoundaryByDay[day] = category == 0 ? 1 : category <= EDGES ? edges[category - 1] + 1 : -1;
+        }
+    }
+
+    /**
+     * Parse comma-separated edges, e.g. "30,60,90,120"
+     */
+    public static AgingPolicy parse(String edges) {
+        return new AgingPolicy(Arrays.stream(edges.split(","))
+                .mapToInt(edge -> Integer.parseInt(edge.trim()))
+                .toArray());
+    }
+
+    public AgingCategory categorize(int agingDays) {
+        return CATEGORIES[categoryIndex(agingDays)];
+    }
+
+    /**
+     * Ordinal of the aging category of agingDays
+     */
+    public int categoryIndex(int agingDays) {
+        return categoryByDay[Math.min(Math.max(agingDays, 0), categoryByDay.length - 1)];
+    }
+
+    /**
+     * Aging days at which a receivable aged agingDays next changes
+     * category, or -1 if it is already in the last category
+     */
+    public int nextBoundary(int agingDays) {
+        return nextBoundaryByDay[Math.min(Math.max(agingDays, 0), nextBoundaryByDay.length - 1)];
+    }
+
+    /**
+     * First day past due of a category; 0 for CURRENT
+     */
+    public int getFromDays(AgingCategory category) {
+        int ordinal = category.ordinal();
+        return ordinal == 0 ? 0 : ordinal == 1 ? 1 : edges[ordinal - 2] + 1;
+    }
+
+    /**
+     * Last day past due of a category, or null for the last, unbounded one
+     */
+    public Integer getToDays(AgingCategory category) {
+        int ordinal = category.ordinal();
+        if (ordinal > EDGES) {
+            return null;
+        }
+        return ordinal == 0 ? 0 : edges[ordinal - 1];
+    }
+
+    public int[] getEdges() {
+        return edges.clone();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || (o instanceof AgingPolicy && Arrays.equals(edges, ((AgingPolicy) o).edges));
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(edges);
+    }
+
+    @Override
+    public String toString() {
+        return "AgingPolicy" + Arrays.toString(edges);
+    }
+}
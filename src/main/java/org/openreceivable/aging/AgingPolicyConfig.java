@@ -0,0 +1,37 @@
+package org.openreceivable.aging;
+
+import org.openreceivable.enums.ContractType;
+import org.openreceivable.repository.ContractRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Configures aging bucket edges per contract type
+ */
+@Configuration
+public class AgingPolicyConfig {
+
+    /**
+     * Default edges from openreceivable.aging.policy.default, and edges for a
+     * contract type from openreceivable.aging.policy.&lt;type&gt; (e.g.
+     * openreceivable.aging.policy.lease) where set
+     */
+    @Bean
+    public AgingPolicies agingPolicies(ContractRepository contractRepository, Environment environment,
+                                       @Value("${openreceivable.aging.policy.default:30,60,90,120}") String defaultEdges) {
+        Map<ContractType, AgingPolicy> byContractType = new EnumMap<>(ContractType.class);
+        for (ContractType type : ContractType.values()) {
+            String edges = environment.getProperty("openreceivable.aging.policy." + type.name().toLowerCase(Locale.ROOT), "");
+            if (!edges.isEmpty()) {
+                byContractType.put(type, AgingPolicy.parse(edges));
+            }
+        }
+        return new AgingPolicies(AgingPolicy.parse(defaultEdges), byContractType, contractRepository);
+    }
+}
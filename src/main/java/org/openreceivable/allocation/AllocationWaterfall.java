@@ -0,0 +1,145 @@
+package org.openreceivable.allocation;
+
+import org.openreceivable.enums.AllocationComponent;
+import org.openreceivable.enums.ReceivableType;
+import org.openreceivable.model.Receivable;
+
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Order in which a payment is applied to a customer's open receivables.
+ *
+ * Each receivable type is booked to one allocation component (fee,
+ * interest or principal), and the components are ranked. By default
+ * receivables are paid oldest due date first, and on the same due date
+ * by component rank; component-first ranks by component before due date,
+ * so e.g. all fees are paid before any principal.
+ */
+public final class AllocationWaterfall {
+
+    private final AllocationComponent[] componentByType;
+    private final int[] rankByComponent;
+    private final boolean componentFirst;
+    private final Comparator<Key> order;
+
+    /**
+     * @param components every component, highest priority first
+     * @param componentByType component of each receivable type; unmapped types are principal
+     * @param componentFirst rank by component before due date
+     */
+    public AllocationWaterfall(List<AllocationComponent> components,
+                               Map<ReceivableType, AllocationComponent> componentByType,
+                               boolean componentFirst) {
+        if (components.size() != AllocationComponent.values().length
+                || !EnumSet.copyOf(components).equals(EnumSet.allOf(AllocationComponent.class))) {
+            throw new IllegalArgumentException("Waterfall must rank every allocation component once: " + components);
+        }
+        this.rankByComponent = new int[components.size()];
+        for (int rank = 0; rank < components.size(); rank++) {
+            rankByComponent[components.get(rank).ordinal()] = rank;
+        }
+        this.componentByType = new AllocationComponent[ReceivableType.values().length];
+        Arrays.fill(this.componentByType, AllocationComponent.PRINCIPAL);
+        componentByType.forEach((type, component) -> this.componentByType[type.ordinal()] = component);
+        this.componentFirst = componentFirst;
+
+        Comparator<Key> byDueDate = Comparator.comparingLong(key -> key.dueSecond);
+        Comparator<Key> byRank = Comparator.comparingInt(key -> key.rank);
+        this.order = (componentFirst ? byRank.thenComparing(byDueDate) : byDueDate.thenComparing(byRank))
+                .thenComparing(key -> key.receivableId);
+    }
+
+    /**
+     * Oldest first, fees before interest before principal, with fee-like
+     * receivable types booked as fees
+     */
+    public static AllocationWaterfall standard() {
+        return new AllocationWaterfall(
+                List.of(AllocationComponent.FEE, AllocationComponent.INTEREST, AllocationComponent.PRINCIPAL),
+                Map.of(ReceivableType.LATE_FEE, AllocationComponent.FEE,
+                        ReceivableType.DAMAGE_FEE, AllocationComponent.FEE,
+                        ReceivableType.EXCESS_MILEAGE, AllocationComponent.FEE),
+                false);
+    }
+
+    public AllocationComponent componentOf(ReceivableType receivableType) {
+        return receivableType != null ? componentByType[receivableType.ordinal()] : AllocationComponent.PRINCIPAL;
+    }
+
+    public boolean isComponentFirst() {
+        return componentFirst;
+    }
+
+    /**
+     * Receivable types booked to a component
+     */
+    public Set<ReceivableType> typesOf(AllocationComponent component) {
+        Set<ReceivableType> types = EnumSet.noneOf(ReceivableType.class);
+        for (ReceivableType type : ReceivableType.values()) {
+            if (componentByType[type.ordinal()] == component) {
+                types.add(type);
+            }
+        }
+        return types;
+    }
+
+    /**
+     * Position of a receivable in the waterfall, captured from its due date,
+     * type and ID
+     */
+    public Key keyOf(Receivable receivable) {
+        long dueSecond = receivable.getDueDate() != null
+                ? receivable.getDueDate().toEpochSecond(ZoneOffset.UTC) : Long.MAX_VALUE;
+        return new Key(receivable.getReceivableId(), rankByComponent[componentOf(receivable.getReceivableType()).ordinal()],
+                dueSecond);
+    }
+
+    /**
+     * Waterfall order of keys; receivables without a due date come last
+     */
+    public Comparator<Key> order() {
+        return order;
+    }
+
+    /**
+     * Immutable sort key of one receivable
+     */
+    public static final class Key {
+        private final String receivableId;
+        private final int rank;
+        private final long dueSecond;
+
+        private Key(String receivableId, int rank, long dueSecond) {
+            this.receivableId = receivableId;
+            this.rank = rank;
+            this.dueSecond = dueSecond;
+        }
+
+        public String getReceivableId() {
+            return receivableId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return rank == other.rank && dueSecond == other.dueSecond && receivableId.equals(other.receivableId);
+        }
+
+        @Override
+        public int hashCode() {
+            return receivableId.hashCode();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package org.openreceivable.allocation;
+
+import org.openreceivable.enums.AllocationComponent;
+import org.openreceivable.enums.ReceivableType;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Configures the payment allocation waterfall
+ */
+@Configuration
+public class AllocationWaterfallConfig {
+
+    /**
+     * Components in priority order from openreceivable.allocation.waterfall,
+     * the receivable types booked as fees and as interest (all others are
+     * principal), and whether component rank comes before due date
+     */
+    @Bean
+    public AllocationWaterfall allocationWaterfall(
+            @Value("${openreceivable.allocation.waterfall:FEE,INTEREST,PRINCIPAL}") String waterfall,
+            @Value("${openreceivable.allocation.fee-types:LATE_FEE,DAMAGE_FEE,EXCESS_MILEAGE}") String feeTypes,
+            @Value("${openreceivable.allocation.interest-types:}") String interestTypes,
+            @Value("${openreceivable.allocation.component-first:false}") boolean componentFirst) {
+        List<AllocationComponent> components = new ArrayList<>();
+        for (String component : waterfall.split(",")) {
+            components.add(AllocationComponent.valueOf(component.trim()));
+        }
+        Map<ReceivableType, AllocationComponent> componentByType = new EnumMap<>(ReceivableType.class);
+        map(feeTypes, AllocationComponent.FEE, componentByType);
+        map(interestTypes, AllocationComponent.INTEREST, componentByType);
+        return new AllocationWaterfall(components, componentByType, componentFirst);
+    }
+
+    private static void map(String types, AllocationComponent component,
+                            Map<ReceivableType, AllocationComponent> componentByType) {
+        for (String type : types.split(",")) {
+            if (!type.isBlank()) {
+                componentByType.put(ReceivableType.valueOf(type.trim()), component);
+            }
+        }
+    }
+}
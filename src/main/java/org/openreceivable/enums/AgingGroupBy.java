@@ -0,0 +1,10 @@
+package org.openreceivable.enums;
+
+/**
+ * Grouping of a portfolio aging report
+ */
+public enum AgingGroupBy {
+    CONTRACT_TYPE,
+    CUSTOMER_STATUS,
+    RECEIVABLE_TYPE
+}
@@ -0,0 +1,10 @@
+package org.openreceivable.enums;
+
+/**
+ * Part of a payment allocation a receivable's amount is booked to
+ */
+public enum AllocationComponent {
+    FEE,
+    INTEREST,
+    PRINCIPAL
+}
@@ -0,0 +1,128 @@
+package org.openreceivable.graphql;
+
+import graphql.schema.GraphQLObjectType;
+import graphql.schema.GraphQLSchema;
+import org.openreceivable.model.Customer;
+import org.openreceivable.model.Payment;
+import org.openreceivable.model.Receivable;
+import org.openreceivable.repository.CustomerRepository;
+import org.openreceivable.repository.PaymentRepository;
+import org.openreceivable.repository.ReceivableRepository;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Resolves Federation entity references (the _entities field) for the
+ * types this subgraph owns: Customer, Receivable and Payment, each by its
+ * @key field.
+ *
+ * The representations of one request are grouped by __typename and each
+ * group is looked up with one findAllById, so a router asking for a
+ * thousand receivables costs one lookup, not a thousand. Entities come back
+ * in the order of the representations, with null for a key not found.
+ */
+@Component
+public class FederatedEntities {
+
+    private final Map<String, EntityType<?>> types = new LinkedHashMap<>();
+
+    public FederatedEntities(CustomerRepository customerRepository,
+                             ReceivableRepository receivableRepository,
+                             PaymentRepository paymentRepository) {
+        register(new EntityType<>("Customer", "customerId", Customer.class,
+                customerRepository::findAllById, Customer::getCustomerId));
+        register(new EntityType<>("Receivable", "receivableId", Receivable.class,
+                receivableRepository::findAllById, Receivable::getReceivableId));
+        register(new EntityType<>("Payment", "paymentId", Payment.class,
+                paymentRepository::findAllById, Payment::getPaymentId));
+    }
+
+    private void register(EntityType<?> type) {
+        types.put(type.typeName, type);
+    }
+
+    /**
+     * An entity type this subgraph resolves, and how to look it up
+     */
+    private static final class EntityType<T> {
+        private final String typeName;
+        private final String keyField;
+        private final Class<T> entityClass;
+        private final Function<Collection<String>, List<T>> findAllById;
+        private final Function<T, String> idOf;
+
+        private EntityType(String typeName, String keyField, Class<T> entityClass,
+                           Function<Collection<String>, List<T>> findAllById, Function<T, String> idOf) {
+            this.typeName = typeName;
+            this.keyField = keyField;
+            this.entityClass = entityClass;
+            this.findAllById = findAllById;
+            this.idOf = idOf;
+        }
+
+        private Map<String, Object> byId(Set<String> ids) {
+            Map<String, Object> byId = new HashMap<>();
+            for (T entity : findAllById.apply(ids)) {
+                byId.put(idOf.apply(entity), entity);
+            }
+            return byId;
+        }
+    }
+
+    /**
+     * The entities for the representations, in the same order
+     */
+    public List<Object> fetch(List<Map<String, Object>> representations) {
+        // Positions of each type's representations, so results can be put back in order
+        Map<EntityType<?>, List<Integer>> positions = new LinkedHashMap<>();
+        String[] keys = new String[representations.size()];
+        for (int i = 0; i < representations.size(); i++) {
+            Map<String, Object> representation = representations.get(i);
+            Object typeName = representation.get("__typename");
+            EntityType<?> type = types.get(typeName);
+            if (type == null) {
+                throw new RuntimeException("Entity type not resolvable: " + typeName);
+            }
+            Object key = representation.get(type.keyField);
+            keys[i] = key != null ? key.toString() : null;
+            positions.computeIfAbsent(type, t -> new ArrayList<>()).add(i);
+        }
+
+        Object[] entities = new Object[representations.size()];
+        positions.forEach((type, indexes) -> {
+            Set<String> ids = new LinkedHashSet<>();
+            for (int i : indexes) {
+                if (keys[i] != null) {
+                    ids.add(keys[i]);
+                }
+            }
+            Map<String, Object> byId = ids.isEmpty() ? Map.of() : type.byId(ids);
+            for (int i : indexes) {
+                entities[i] = keys[i] != null ? byId.get(keys[i]) : null;
+            }
+        });
+        return Arrays.asList(entities);
+    }
+
+    /**
+     * The schema type of an entity returned by fetch()
+     */
+    public GraphQLObjectType typeOf(Object entity, GraphQLSchema schema) {
+        for (EntityType<?> type : types.values()) {
+            if (type.entityClass.isInstance(entity)) {
+                return schema.getObjectType(type.typeName);
+            }
+        }
+        throw new RuntimeException("Unable to resolve entity type: " + entity.getClass().getName());
+    }
+}
@@ -0,0 +1,31 @@
+package org.openreceivable.graphql.model;
+
+import org.openreceivable.enums.AgingCategory;
+
+/**
+ * Day range of one aging category under an aging policy
+ */
+public class AgingPolicyBucket {
+    private final AgingCategory category;
+    private final int fromDays;
+    private final Integer toDays;
+
+    public AgingPolicyBucket(AgingCategory category, int fromDays, Integer toDays) {
+        this.category = category;
+        this.fromDays = fromDays;
+        this.toDays = toDays;
+    }
+
+    // Getters
+    public AgingCategory getCategory() {
+        return category;
+    }
+
+    public int getFromDays() {
+        return fromDays;
+    }
+
+    public Integer getToDays() {
+        return toDays;
+    }
+}
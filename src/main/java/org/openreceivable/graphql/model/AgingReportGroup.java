@@ -0,0 +1,63 @@
+package org.openreceivable.graphql.model;
+
+import java.math.BigDecimal;
+
+/**
+ * One group of a portfolio aging report
+ */
+public class AgingReportGroup {
+    private final String group;
+    private final BigDecimal current;
+    private final BigDecimal days1To30;
+    private final BigDecimal days31To60;
+    private final BigDecimal days61To90;
+    private final BigDecimal days91To120;
+    private final BigDecimal over120;
+    private final BigDecimal totalOutstanding;
+
+    public AgingReportGroup(String group, BigDecimal current, BigDecimal days1To30,
+                            BigDecimal days31To60, BigDecimal days61To90, BigDecimal days91To120,
+                            BigDecimal over120, BigDecimal totalOutstanding) {
+        this.group = group;
+        this.current = current;
+        this.days1To30 = days1To30;
+        this.days31To60 = days31To60;
+        this.days61To90 = days61To90;
+        this.days91To120 = days91To120;
+        this.over120 = over120;
+        this.totalOutstanding = totalOutstanding;
+    }
+
+    // Getters
+    public String getGroup() {
+        return group;
+    }
+
+    public BigDecimal getCurrent() {
+        return current;
+    }
+
+    public BigDecimal getDays1To30() {
+        return days1To30;
+    }
+
+    public BigDecimal getDays31To60() {
+        return days31To60;
+    }
+
+    public BigDecimal getDays61To90() {
+        return days61To90;
+    }
+
+    public BigDecimal getDays91To120() {
+        return days91To120;
+    }
+
+    public BigDecimal getOver120() {
+        return over120;
+    }
+
+    public BigDecimal getTotalOutstanding() {
+        return totalOutstanding;
+    }
+}
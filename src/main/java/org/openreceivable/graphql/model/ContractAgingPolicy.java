@@ -0,0 +1,28 @@
+package org.openreceivable.graphql.model;
+
+import org.openreceivable.enums.ContractType;
+
+import java.util.List;
+
+/**
+ * Aging policy of a contract type, or the default policy if the contract
+ * type is null
+ */
+public class ContractAgingPolicy {
+    private final ContractType contractType;
+    private final List<AgingPolicyBucket> buckets;
+
+    public ContractAgingPolicy(ContractType contractType, List<AgingPolicyBucket> buckets) {
+        this.contractType = contractType;
+        this.buckets = buckets;
+    }
+
+    // Getters
+    public ContractType getContractType() {
+        return contractType;
+    }
+
+    public List<AgingPolicyBucket> getBuckets() {
+        return buckets;
+    }
+}
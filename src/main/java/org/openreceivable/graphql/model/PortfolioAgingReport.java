@@ -0,0 +1,34 @@
+package org.openreceivable.graphql.model;
+
+import org.openreceivable.enums.AgingGroupBy;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * Portfolio aging report response type
+ */
+public class PortfolioAgingReport {
+    private final AgingGroupBy groupBy;
+    private final List<AgingReportGroup> groups;
+    private final BigDecimal totalOutstanding;
+
+    public PortfolioAgingReport(AgingGroupBy groupBy, List<AgingReportGroup> groups, BigDecimal totalOutstanding) {
+        this.groupBy = groupBy;
+        this.groups = groups;
+        this.totalOutstanding = totalOutstanding;
+    }
+
+    // Getters
+    public AgingGroupBy getGroupBy() {
+        return groupBy;
+    }
+
+    public List<AgingReportGroup> getGroups() {
+        return groups;
+    }
+
+    public BigDecimal getTotalOutstanding() {
+        return totalOutstanding;
+    }
+}
@@ -0,0 +1,71 @@
+package org.openreceivable.graphql.resolver;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Joins for @BatchMapping relationship fields: the rows of one level of a
+ * response are resolved together with one repository lookup for all their
+ * keys, instead of one lookup per row.
+ */
+final class BatchLookups {
+
+    private BatchLookups() {
+    }
+
+    /**
+     * The entity each source refers to, e.g. a receivable's customer. A
+     * source whose reference is null or not found maps to null.
+     */
+    static <S, T> Map<S, T> one(List<S> sources, Function<S, String> reference,
+                                Function<Collection<String>, List<T>> findAllById, Function<T, String> id) {
+        Set<String> ids = new LinkedHashSet<>();
+        for (S source : sources) {
+            String key = reference.apply(source);
+            if (key != null) {
+                ids.add(key);
+            }
+        }
+        Map<String, T> byId = new HashMap<>();
+        if (!ids.isEmpty()) {
+            for (T target : findAllById.apply(ids)) {
+                byId.put(id.apply(target), target);
+            }
+        }
+        Map<S, T> result = new LinkedHashMap<>();
+        for (S source : sources) {
+            String key = reference.apply(source);
+            result.put(source, key != null ? byId.get(key) : null);
+        }
+        return result;
+    }
+
+    /**
+     * The entities referring to each source, e.g. a customer's payments;
+     * an empty list for a source nothing refers to
+     */
+    static <S, T> Map<S, List<T>> many(List<S> sources, Function<S, String> id,
+                                       Function<Collection<String>, List<T>> findByReferences,
+                                       Function<T, String> reference) {
+        Set<String> ids = new LinkedHashSet<>();
+        for (S source : sources) {
+            ids.add(id.apply(source));
+        }
+        Map<String, List<T>> byReference = new HashMap<>();
+        for (T target : findByReferences.apply(ids)) {
+            byReference.computeIfAbsent(reference.apply(target), key -> new ArrayList<>()).add(target);
+        }
+        Map<S, List<T>> result = new LinkedHashMap<>();
+        for (S source : sources) {
+            result.put(source, byReference.getOrDefault(id.apply(source), List.of()));
+        }
+        return result;
+    }
+}
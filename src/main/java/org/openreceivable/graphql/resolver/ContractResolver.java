@@ -0,0 +1,30 @@
+package org.openreceivable.graphql.resolver;
+
+import org.openreceivable.model.Contract;
+import org.openreceivable.model.Customer;
+import org.openreceivable.repository.CustomerRepository;
+import org.springframework.graphql.data.method.annotation.BatchMapping;
+import org.springframework.stereotype.Controller;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reactive type resolver for Contract entity
+ */
+@Controller
+public class ContractResolver {
+    
+    private final CustomerRepository customerRepository;
+    
+    public ContractResolver(CustomerRepository customerRepository) {
+        this.customerRepository = customerRepository;
+    }
+    
+    @BatchMapping(typeName = "Contract", field = "customer")
+    public Mono<Map<Contract, Customer>> customer(List<Contract> contracts) {
+        return Mono.fromCallable(() -> BatchLookups.one(contracts, Contract::getCustomerId,
+                customerRepository::findAllById, Customer::getCustomerId));
+    }
+}
@@ -1,18 +1,46 @@
 package org.openreceivable.graphql.resolver;
 
 import org.openreceivable.model.Customer;
+import org.openreceivable.model.Payment;
+import org.openreceivable.model.Receivable;
+import org.openreceivable.repository.PaymentRepository;
+import org.openreceivable.repository.ReceivableRepository;
+import org.springframework.graphql.data.method.annotation.BatchMapping;
 import org.springframework.graphql.data.method.annotation.SchemaMapping;
 import org.springframework.stereotype.Controller;
 import reactor.core.publisher.Mono;
 
+import java.util.List;
+import java.util.Map;
+
 /**
  * Reactive type resolver for Customer entity
  */
 @Controller
 public class CustomerResolver {
     
+    private final ReceivableRepository receivableRepository;
+    private final PaymentRepository paymentRepository;
+    
+    public CustomerResolver(ReceivableRepository receivableRepository, PaymentRepository paymentRepository) {
+        this.receivableRepository = receivableRepository;
+        this.paymentRepository = paymentRepository;
+    }
+    
     @SchemaMapping(typeName = "Customer", field = "fullName")
     public Mono<String> fullName(Customer customer) {
         return Mono.fromCallable(() -> customer.getFullName());
     }
+    
+    @BatchMapping(typeName = "Customer", field = "receivables")
+    public Mono<Map<Customer, List<Receivable>>> receivables(List<Customer> customers) {
+        return Mono.fromCallable(() -> BatchLookups.many(customers, Customer::getCustomerId,
+                receivableRepository::findByCustomerIds, Receivable::getCustomerId));
+    }
+    
+    @BatchMapping(typeName = "Customer", field = "payments")
+    public Mono<Map<Customer, List<Payment>>> payments(List<Customer> customers) {
+        return Mono.fromCallable(() -> BatchLookups.many(customers, Customer::getCustomerId,
+                paymentRepository::findByCustomerIds, Payment::getCustomerId));
+    }
 }
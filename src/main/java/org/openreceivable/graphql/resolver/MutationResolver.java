@@ -1,13 +1,18 @@
 package org.openreceivable.graphql.resolver;
 
+import org.openreceivable.enums.PaymentStatus;
 import org.openreceivable.graphql.input.*;
+import org.openreceivable.ingest.PaymentFileIngestion;
 import org.openreceivable.model.Address;
 import org.openreceivable.model.Customer;
+import org.openreceivable.model.Money;
 import org.openreceivable.model.Payment;
 import org.openreceivable.model.Receivable;
 import org.openreceivable.repository.CustomerRepository;
 import org.openreceivable.repository.PaymentRepository;
 import org.openreceivable.repository.ReceivableRepository;
+import org.openreceivable.service.OptimisticRetry;
+import org.openreceivable.service.PaymentService;
 import org.openreceivable.service.ReceivableService;
 import org.springframework.graphql.data.method.annotation.Argument;
 import org.springframework.graphql.data.method.annotation.MutationMapping;
@@ -15,6 +20,7 @@ import org.springframework.stereotype.Controller;
 import reactor.core.publisher.Mono;
 
 import java.time.LocalDateTime;
+import java.util.List;
 
 /**
  * Reactive GraphQL Mutation resolver for Open Receivable System
@@ -26,15 +32,21 @@ public class MutationResolver {
     private final ReceivableRepository receivableRepository;
     private final PaymentRepository paymentRepository;
     private final ReceivableService receivableService;
+    private final PaymentService paymentService;
+    private final PaymentFileIngestion paymentFileIngestion;
     
     public MutationResolver(CustomerRepository customerRepository,
                            ReceivableRepository receivableRepository,
                            PaymentRepository paymentRepository,
-                           ReceivableService receivableService) {
+                           ReceivableService receivableService,
+                           PaymentService paymentService,
+                           PaymentFileIngestion paymentFileIngestion) {
         this.customerRepository = customerRepository;
         this.receivableRepository = receivableRepository;
         this.paymentRepository = paymentRepository;
         this.receivableService = receivableService;
+        this.paymentService = paymentService;
+        this.paymentFileIngestion = paymentFileIngestion;
     }
     
     // Customer mutations
@@ -71,7 +83,7 @@ public class MutationResolver {
     
     @MutationMapping
     public Mono<Customer> updateCustomer(@Argument UpdateCustomerInput input) {
-        return Mono.fromCallable(() -> {
+        return Mono.fromCallable(() -> OptimisticRetry.onConflict(() -> {
             Customer customer = customerRepository.findById(input.getCustomerId())
                     .orElseThrow(() -> new RuntimeException("Customer not found: " + input.getCustomerId()));
             
@@ -116,8 +128,8 @@ public class MutationResolver {
             }
             
             customer.setModifiedDate(LocalDateTime.now());
-            return customerRepository.save(customer);
-        });
+            return customerRepository.save(customer, customer.getVersion());
+        }));
     }
     
     // Receivable mutations
@@ -130,7 +142,7 @@ public class MutationResolver {
             receivable.setCustomerId(input.getCustomerId());
             receivable.setReceivableType(input.getReceivableType());
             receivable.setDueDate(input.getDueDate());
-            receivable.setOriginalAmount(input.getOriginalAmount());
+            receivable.setOriginalMinorUnits(Money.toMinorUnitsExact(input.getOriginalAmount()));
             receivable.setInvoiceNumber(input.getInvoiceNumber());
             receivable.setDescription(input.getDescription());
             
@@ -140,7 +152,7 @@ public class MutationResolver {
     
     @MutationMapping
     public Mono<Receivable> updateReceivable(@Argument UpdateReceivableInput input) {
-        return Mono.fromCallable(() -> {
+        return Mono.fromCallable(() -> OptimisticRetry.onConflict(() -> {
             Receivable receivable = receivableRepository.findById(input.getReceivableId())
                     .orElseThrow(() -> new RuntimeException("Receivable not found: " + input.getReceivableId()));
             
@@ -148,39 +160,59 @@ public class MutationResolver {
                 receivable.setStatus(input.getStatus());
             }
             if (input.getPaidAmount() != null) {
-                receivable.setPaidAmount(input.getPaidAmount());
-                receivable.setOutstandingAmount(
-                    receivable.getOriginalAmount().subtract(input.getPaidAmount())
-                );
+                long paid = Money.toMinorUnitsExact(input.getPaidAmount());
+                receivable.setPaidMinorUnits(paid);
+                receivable.setOutstandingMinorUnits(Money.subtract(receivable.getOriginalMinorUnits(), paid));
             }
             if (input.getPaidDate() != null) {
                 receivable.setPaidDate(input.getPaidDate());
             }
             
-            return receivableRepository.save(receivable);
-        });
+            return receivableRepository.save(receivable, receivable.getVersion());
+        }));
     }
     
     // Payment mutations
     
     @MutationMapping
     public Mono<Payment> createPayment(@Argument CreatePaymentInput input) {
-        return Mono.fromCallable(() -> {
-            Payment payment = new Payment();
-            payment.setCustomerId(input.getCustomerId());
-            payment.setPaymentDate(input.getPaymentDate());
-            payment.setAmount(input.getAmount());
-            payment.setPaymentMethod(input.getPaymentMethod());
-            payment.setReferenceNumber(input.getReferenceNumber());
-            payment.setNotes(input.getNotes());
-            
-            return paymentRepository.save(payment);
-        });
+        return Mono.fromCallable(() -> paymentService.createPayment(toPayment(input)));
+    }
+    
+    @MutationMapping
+    public Mono<Payment> processPayment(@Argument CreatePaymentInput input) {
+        return Mono.fromCallable(() -> paymentService.processPayment(toPayment(input)));
+    }
+    
+    @MutationMapping
+    public Mono<List<PaymentFileIngestion.Result>> ingestPaymentFiles() {
+        return Mono.fromCallable(paymentFileIngestion::ingestPending);
+    }
+    
+    @MutationMapping
+    public Mono<Payment> reversePayment(@Argument String paymentId, @Argument PaymentStatus status) {
+        return Mono.fromCallable(() -> paymentService.reversePayment(paymentId, status));
+    }
+    
+    @MutationMapping
+    public Mono<List<Payment>> reversePayments(@Argument List<String> paymentIds, @Argument PaymentStatus status) {
+        return Mono.fromCallable(() -> paymentService.reversePayments(paymentIds, status));
+    }
+    
+    private Payment toPayment(CreatePaymentInput input) {
+        Payment payment = new Payment();
+        payment.setCustomerId(input.getCustomerId());
+        payment.setPaymentDate(input.getPaymentDate());
+        payment.setAmountMinorUnits(Money.toMinorUnitsExact(input.getAmount()));
+        payment.setPaymentMethod(input.getPaymentMethod());
+        payment.setReferenceNumber(input.getReferenceNumber());
+        payment.setNotes(input.getNotes());
+        return payment;
     }
     
     @MutationMapping
     public Mono<Payment> updatePayment(@Argument UpdatePaymentInput input) {
-        return Mono.fromCallable(() -> {
+        return Mono.fromCallable(() -> OptimisticRetry.onConflict(() -> {
             Payment payment = paymentRepository.findById(input.getPaymentId())
                     .orElseThrow(() -> new RuntimeException("Payment not found: " + input.getPaymentId()));
             
@@ -191,17 +223,17 @@ public class MutationResolver {
                 payment.setNotes(input.getNotes());
             }
             
-            return paymentRepository.save(payment);
-        });
+            return paymentRepository.save(payment, payment.getVersion());
+        }));
     }
     
     // Aging mutation
     
     @MutationMapping
-    public Mono<Boolean> updateAging() {
+    public Mono<Boolean> updateAging(@Argument LocalDateTime asOf) {
         return Mono.fromCallable(() -> {
             try {
-                receivableService.updateAging();
+                receivableService.updateAging(asOf);
                 return true;
             } catch (Exception e) {
                 return false;
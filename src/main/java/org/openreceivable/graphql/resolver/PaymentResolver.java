@@ -0,0 +1,40 @@
+package org.openreceivable.graphql.resolver;
+
+import org.openreceivable.model.Customer;
+import org.openreceivable.model.Payment;
+import org.openreceivable.model.PaymentAllocation;
+import org.openreceivable.repository.CustomerRepository;
+import org.openreceivable.repository.PaymentAllocationRepository;
+import org.springframework.graphql.data.method.annotation.BatchMapping;
+import org.springframework.stereotype.Controller;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reactive type resolver for Payment entity
+ */
+@Controller
+public class PaymentResolver {
+    
+    private final CustomerRepository customerRepository;
+    private final PaymentAllocationRepository allocationRepository;
+    
+    public PaymentResolver(CustomerRepository customerRepository, PaymentAllocationRepository allocationRepository) {
+        this.customerRepository = customerRepository;
+        this.allocationRepository = allocationRepository;
+    }
+    
+    @BatchMapping(typeName = "Payment", field = "customer")
+    public Mono<Map<Payment, Customer>> customer(List<Payment> payments) {
+        return Mono.fromCallable(() -> BatchLookups.one(payments, Payment::getCustomerId,
+                customerRepository::findAllById, Customer::getCustomerId));
+    }
+    
+    @BatchMapping(typeName = "Payment", field = "allocations")
+    public Mono<Map<Payment, List<PaymentAllocation>>> allocations(List<Payment> payments) {
+        return Mono.fromCallable(() -> BatchLookups.many(payments, Payment::getPaymentId,
+                allocationRepository::findByPaymentIds, PaymentAllocation::getPaymentId));
+    }
+}
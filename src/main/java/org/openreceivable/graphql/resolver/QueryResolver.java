@@ -1,13 +1,26 @@
 package org.openreceivable.graphql.resolver;
 
+import graphql.GraphQLContext;
+import org.openreceivable.aging.AgingPolicies;
+import org.openreceivable.aging.AgingPolicy;
+import org.openreceivable.enums.AgingCategory;
+import org.openreceivable.enums.AgingGroupBy;
+import org.openreceivable.enums.ContractType;
 import org.openreceivable.enums.CustomerStatus;
+import org.openreceivable.graphql.model.AgingPolicyBucket;
 import org.openreceivable.graphql.model.AgingReport;
+import org.openreceivable.graphql.model.AgingReportGroup;
+import org.openreceivable.graphql.model.ContractAgingPolicy;
+import org.openreceivable.graphql.model.PortfolioAgingReport;
 import org.openreceivable.model.Customer;
 import org.openreceivable.model.Payment;
+import org.openreceivable.model.PaymentAllocation;
 import org.openreceivable.model.Receivable;
 import org.openreceivable.repository.CustomerRepository;
 import org.openreceivable.repository.PaymentRepository;
 import org.openreceivable.repository.ReceivableRepository;
+import org.openreceivable.service.PaymentService;
+import org.openreceivable.service.PortfolioAgingService;
 import org.openreceivable.service.ReceivableService;
 import org.springframework.graphql.data.method.annotation.Argument;
 import org.springframework.graphql.data.method.annotation.QueryMapping;
@@ -16,6 +29,8 @@ import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -29,15 +44,27 @@ public class QueryResolver {
     private final ReceivableRepository receivableRepository;
     private final PaymentRepository paymentRepository;
     private final ReceivableService receivableService;
+    private final PaymentService paymentService;
+    private final PortfolioAgingService portfolioAgingService;
+    private final AgingPolicies agingPolicies;
+    private final RequestAsOf requestAsOf;
     
     public QueryResolver(CustomerRepository customerRepository,
                         ReceivableRepository receivableRepository,
                         PaymentRepository paymentRepository,
-                        ReceivableService receivableService) {
+                        ReceivableService receivableService,
+                        PaymentService paymentService,
+                        PortfolioAgingService portfolioAgingService,
+                        AgingPolicies agingPolicies,
+                        RequestAsOf requestAsOf) {
         this.customerRepository = customerRepository;
         this.receivableRepository = receivableRepository;
         this.paymentRepository = paymentRepository;
         this.receivableService = receivableService;
+        this.paymentService = paymentService;
+        this.portfolioAgingService = portfolioAgingService;
+        this.agingPolicies = agingPolicies;
+        this.requestAsOf = requestAsOf;
     }
     
     // Customer queries
@@ -79,8 +106,8 @@ public class QueryResolver {
     }
     
     @QueryMapping
-    public Flux<Receivable> overdueReceivables() {
-        return Mono.fromCallable(() -> receivableService.getOverdueReceivables())
+    public Flux<Receivable> overdueReceivables(@Argument LocalDateTime asOf, GraphQLContext context) {
+        return Mono.fromCallable(() -> receivableService.getOverdueReceivables(requestAsOf.forQuery(context, asOf)))
                 .flatMapMany(Flux::fromIterable);
     }
     
@@ -98,12 +125,19 @@ public class QueryResolver {
                 .flatMapMany(Flux::fromIterable);
     }
     
+    @QueryMapping
+    public Flux<PaymentAllocation> paymentAllocations(@Argument String paymentId) {
+        return Mono.fromCallable(() -> paymentService.getPaymentAllocations(paymentId))
+                .flatMapMany(Flux::fromIterable);
+    }
+    
     // Aging queries
     
     @QueryMapping
-    public Mono<AgingReport> customerAgingReport(@Argument String customerId) {
+    public Mono<AgingReport> customerAgingReport(@Argument String customerId, @Argument LocalDateTime asOf) {
+        // Without asOf the report is as of the last aging run, served from the maintained aggregates
         return Mono.fromCallable(() -> 
-                convertToAgingReport(customerId, receivableService.getCustomerAgingReport(customerId)));
+                convertToAgingReport(customerId, receivableService.getCustomerAgingReport(customerId, asOf)));
     }
     
     @QueryMapping
@@ -111,6 +145,53 @@ public class QueryResolver {
         return Mono.fromCallable(() -> receivableService.getCustomerOutstandingBalance(customerId));
     }
     
+    @QueryMapping
+    public Mono<PortfolioAgingReport> portfolioAgingReport(@Argument AgingGroupBy groupBy, @Argument LocalDateTime asOf,
+                                                           GraphQLContext context) {
+        return Mono.fromCallable(() -> {
+            LocalDateTime asOfDate = requestAsOf.forQuery(context, asOf);
+            List<AgingReportGroup> groups = new ArrayList<>();
+            BigDecimal total = BigDecimal.ZERO;
+            for (Map.Entry<String, Map<AgingCategory, BigDecimal>> group :
+                    portfolioAgingService.getPortfolioAgingReport(groupBy, asOfDate).entrySet()) {
+                Map<AgingCategory, BigDecimal> aging = group.getValue();
+                BigDecimal groupTotal = aging.values().stream().reduce(BigDecimal.ZERO, BigDecimal::add);
+                groups.add(new AgingReportGroup(
+                    group.getKey(),
+                    aging.get(AgingCategory.CURRENT),
+                    aging.get(AgingCategory.DAYS_1_30),
+                    aging.get(AgingCategory.DAYS_31_60),
+                    aging.get(AgingCategory.DAYS_61_90),
+                    aging.get(AgingCategory.DAYS_91_120),
+                    aging.get(AgingCategory.OVER_120),
+                    groupTotal
+                ));
+                total = total.add(groupTotal);
+            }
+            return new PortfolioAgingReport(groupBy, groups, total);
+        });
+    }
+    
+    @QueryMapping
+    public Flux<ContractAgingPolicy> agingPolicies() {
+        return Mono.fromCallable(() -> {
+            List<ContractAgingPolicy> policies = new ArrayList<>();
+            policies.add(convertToContractAgingPolicy(null, agingPolicies.getDefault()));
+            for (Map.Entry<ContractType, AgingPolicy> entry : agingPolicies.getByContractType().entrySet()) {
+                policies.add(convertToContractAgingPolicy(entry.getKey(), entry.getValue()));
+            }
+            return policies;
+        }).flatMapMany(Flux::fromIterable);
+    }
+    
+    private ContractAgingPolicy convertToContractAgingPolicy(ContractType contractType, AgingPolicy policy) {
+        List<AgingPolicyBucket> buckets = new ArrayList<>();
+        for (AgingCategory category : AgingCategory.values()) {
+            buckets.add(new AgingPolicyBucket(category, policy.getFromDays(category), policy.getToDays(category)));
+        }
+        return new ContractAgingPolicy(contractType, buckets);
+    }
+    
     /**
      * Convert aging category map to AgingReport
      */
@@ -1,18 +1,75 @@
 package org.openreceivable.graphql.resolver;
 
+import graphql.GraphQLContext;
+import org.openreceivable.aging.AgingPolicies;
+import org.openreceivable.enums.AgingCategory;
+import org.openreceivable.model.Contract;
+import org.openreceivable.model.Customer;
 import org.openreceivable.model.Receivable;
+import org.openreceivable.repository.ContractRepository;
+import org.openreceivable.repository.CustomerRepository;
+import org.springframework.graphql.data.method.annotation.Argument;
+import org.springframework.graphql.data.method.annotation.BatchMapping;
 import org.springframework.graphql.data.method.annotation.SchemaMapping;
 import org.springframework.stereotype.Controller;
 import reactor.core.publisher.Mono;
 
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
 /**
  * Reactive type resolver for Receivable entity
  */
 @Controller
 public class ReceivableResolver {
     
+    private final RequestAsOf requestAsOf;
+    private final AgingPolicies agingPolicies;
+    private final CustomerRepository customerRepository;
+    private final ContractRepository contractRepository;
+    
+    public ReceivableResolver(RequestAsOf requestAsOf, AgingPolicies agingPolicies,
+                              CustomerRepository customerRepository, ContractRepository contractRepository) {
+        this.requestAsOf = requestAsOf;
+        this.agingPolicies = agingPolicies;
+        this.customerRepository = customerRepository;
+        this.contractRepository = contractRepository;
+    }
+    
     @SchemaMapping(typeName = "Receivable", field = "isOverdue")
-    public Mono<Boolean> isOverdue(Receivable receivable) {
-        return Mono.fromCallable(() -> receivable.isOverdue());
+    public Mono<Boolean> isOverdue(Receivable receivable, @Argument LocalDateTime asOf, GraphQLContext context) {
+        return Mono.fromCallable(() -> receivable.isOverdue(requestAsOf.forField(context, asOf)));
+    }
+    
+    /**
+     * Aging days as of the request's as-of time; the stored value is only
+     * refreshed when the aging job moves the receivable into a new category
+     */
+    @SchemaMapping(typeName = "Receivable", field = "agingDays")
+    public Mono<Integer> agingDays(Receivable receivable, @Argument LocalDateTime asOf, GraphQLContext context) {
+        return Mono.fromCallable(() -> receivable.calculateAgingDays(requestAsOf.forField(context, asOf)));
+    }
+    
+    /**
+     * Aging category as of the request's as-of time, under the aging
+     * policy of the receivable's contract type
+     */
+    @SchemaMapping(typeName = "Receivable", field = "agingCategory")
+    public Mono<AgingCategory> agingCategory(Receivable receivable, @Argument LocalDateTime asOf, GraphQLContext context) {
+        return Mono.fromCallable(() -> agingPolicies.forContract(receivable.getContractId())
+                .categorize(receivable.calculateAgingDays(requestAsOf.forField(context, asOf))));
+    }
+    
+    @BatchMapping(typeName = "Receivable", field = "customer")
+    public Mono<Map<Receivable, Customer>> customer(List<Receivable> receivables) {
+        return Mono.fromCallable(() -> BatchLookups.one(receivables, Receivable::getCustomerId,
+                customerRepository::findAllById, Customer::getCustomerId));
+    }
+    
+    @BatchMapping(typeName = "Receivable", field = "contract")
+    public Mono<Map<Receivable, Contract>> contract(List<Receivable> receivables) {
+        return Mono.fromCallable(() -> BatchLookups.one(receivables, Receivable::getContractId,
+                contractRepository::findAllById, Contract::getContractId));
     }
 }
@@ -0,0 +1,63 @@
+package org.openreceivable.graphql.resolver;
+
+import graphql.GraphQLContext;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.time.LocalDateTime;
+
+/**
+ * As-of time shared by every aging calculation of one GraphQL request.
+ *
+ * The clock is read at most once per request and the result kept in the
+ * request's GraphQLContext, so all rows of a response are aged against the
+ * same instant. An asOf argument on a query becomes the as-of time of the
+ * whole request if it is the first to set one, so fields never see the time
+ * change under them; one on a field applies to that field only.
+ */
+@Component
+public class RequestAsOf {
+    
+    private static final String KEY = RequestAsOf.class.getName();
+    
+    private final Clock clock;
+    
+    public RequestAsOf(Clock clock) {
+        this.clock = clock;
+    }
+    
+    /**
+     * As-of time for a query: its asOf argument, which also becomes the as-of
+     * time of the rest of the request unless a sibling field has already
+     * read or set one, or else the request's as-of time
+     */
+    public LocalDateTime forQuery(GraphQLContext context, LocalDateTime asOf) {
+        if (asOf != null) {
+            synchronized (context) {
+                if (!context.hasKey(KEY)) {
+                    context.put(KEY, asOf);
+                }
+            }
+            return asOf;
+        }
+        return forField(context, null);
+    }
+    
+    /**
+     * As-of time for a field: its asOf argument or the request's as-of time
+     */
+    public LocalDateTime forField(GraphQLContext context, LocalDateTime asOf) {
+        if (asOf != null) {
+            return asOf;
+        }
+        // Fields resolve concurrently; the first one to get here reads the clock
+        synchronized (context) {
+            LocalDateTime requestAsOf = context.get(KEY);
+            if (requestAsOf == null) {
+                requestAsOf = LocalDateTime.now(clock);
+                context.put(KEY, requestAsOf);
+            }
+            return requestAsOf;
+        }
+    }
+}
@@ -2,6 +2,7 @@ package org.openreceivable.graphql.scalar;
 
 import graphql.language.StringValue;
 import graphql.schema.*;
+import org.openreceivable.model.Money;
 
 import java.math.BigDecimal;
 
@@ -19,7 +20,10 @@ public class BigDecimalScalar {
                     if (dataFetcherResult instanceof BigDecimal) {
                         return ((BigDecimal) dataFetcherResult).toPlainString();
                     }
-                    throw new CoercingSerializeException("Expected BigDecimal");
+                    if (dataFetcherResult instanceof Money) {
+                        return ((Money) dataFetcherResult).toBigDecimal().toPlainString();
+                    }
+                    throw new CoercingSerializeException("Expected BigDecimal or Money");
                 }
 
                 @Override
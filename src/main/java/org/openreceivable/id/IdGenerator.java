@@ -0,0 +1,27 @@
+package org.openreceivable.id;
+
+/**
+ * Source of entity IDs
+ */
+public interface IdGenerator {
+
+    /**
+     * Next ID in its binary form
+     */
+    long nextId();
+
+    /**
+     * Next ID in its string form
+     */
+    default String nextString() {
+        return Ids.format(nextId());
+    }
+
+    /**
+     * Only issue IDs above the given one from now on, e.g. the highest ID
+     * issued before a restart. Generators whose IDs are not ordered ignore
+     * it.
+     */
+    default void advancePast(long id) {
+    }
+}
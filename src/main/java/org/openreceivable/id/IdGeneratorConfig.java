@@ -0,0 +1,22 @@
+package org.openreceivable.id;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Configures the ID generator used for new entities
+ */
+@Configuration
+public class IdGeneratorConfig {
+
+    /**
+     * Time-ordered generator for this node, injected into the repositories,
+     * whose stores assign IDs to new entities. Nodes writing to shared
+     * storage need distinct node IDs (0-1023) for their IDs to stay unique.
+     */
+    @Bean
+    public IdGenerator idGenerator(@Value("${openreceivable.ids.node-id:0}") int nodeId) {
+        return new TimeOrderedIdGenerator(nodeId);
+    }
+}
@@ -0,0 +1,55 @@
+package org.openreceivable.id;
+
+import java.util.Arrays;
+
+/**
+ * String form of binary IDs.
+ *
+ * The string form is 13 characters of Crockford base32. It has a fixed
+ * width, so for non-negative IDs string order matches numeric order and
+ * time-ordered IDs stay time-ordered as strings.
+ */
+public final class Ids {
+
+    public static final int STRING_LENGTH = 13;
+
+    private static final char[] ALPHABET = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+    private static final byte[] VALUES = new byte[128];
+
+    static {
+        Arrays.fill(VALUES, (byte) -1);
+        for (int i = 0; i < ALPHABET.length; i++) {
+            VALUES[ALPHABET[i]] = (byte) i;
+            VALUES[Character.toLowerCase(ALPHABET[i])] = (byte) i;
+        }
+    }
+
+    private Ids() {
+    }
+
+    public static String format(long id) {
+        char[] chars = new char[STRING_LENGTH];
+        // 13 * 5 = 65 bits; the first character carries only the top 4 bits
+        for (int i = STRING_LENGTH - 1; i >= 0; i--) {
+            chars[i] = ALPHABET[(int) (id & 31)];
+            id >>>= 5;
+        }
+        return new String(chars);
+    }
+
+    public static long parse(String id) {
+        if (id.length() != STRING_LENGTH) {
+            throw new IllegalArgumentException("Not a compact ID: " + id);
+        }
+        long value = 0;
+        for (int i = 0; i < STRING_LENGTH; i++) {
+            char c = id.charAt(i);
+            int digit = c < 128 ? VALUES[c] : -1;
+            if (digit < 0 || (i == 0 && digit > 15)) {
+                throw new IllegalArgumentException("Not a compact ID: " + id);
+            }
+            value = (value << 5) | digit;
+        }
+        return value;
+    }
+}
@@ -0,0 +1,79 @@
+package org.openreceivable.id;
+
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Snowflake-style 64-bit IDs: 41 bits of milliseconds since 2024-01-01,
+ * 10 bits of node ID and a 12-bit sequence within the millisecond.
+ *
+ * IDs from one generator are strictly increasing. If the clock steps back,
+ * or more than 4096 IDs are requested in one millisecond, the generator
+ * keeps counting from the last timestamp it used instead of repeating one.
+ * Generation is a single compare-and-set, with no shared random source.
+ *
+ * The last timestamp used is only held in memory, so after a restart the
+ * generator must be advanced past the IDs already stored (advancePast) in
+ * case the clock is now behind it.
+ */
+public class TimeOrderedIdGenerator implements IdGenerator {
+
+    public static final long EPOCH_MILLIS = Instant.parse("2024-01-01T00:00:00Z").toEpochMilli();
+    public static final int NODE_BITS = 10;
+    public static final int SEQUENCE_BITS = 12;
+    public static final int MAX_NODE_ID = (1 << NODE_BITS) - 1;
+
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    private static final int TIMESTAMP_SHIFT = NODE_BITS + SEQUENCE_BITS;
+
+    private final long node;
+    private final LongSupplier clock;
+    private final AtomicLong last = new AtomicLong();
+
+    public TimeOrderedIdGenerator(int nodeId) {
+        this(nodeId, System::currentTimeMillis);
+    }
+
+    public TimeOrderedIdGenerator(int nodeId, LongSupplier clock) {
+        if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+            throw new IllegalArgumentException("Node ID must be between 0 and " + MAX_NODE_ID + ": " + nodeId);
+        }
+        this.node = (long) nodeId << SEQUENCE_BITS;
+        this.clock = clock;
+    }
+
+    @Override
+    public long nextId() {
+        while (true) {
+            long previous = last.get();
+            long previousTimestamp = previous >>> TIMESTAMP_SHIFT;
+            long timestamp = Math.max(clock.getAsLong() - EPOCH_MILLIS, previousTimestamp);
+            long sequence = 0;
+            if (timestamp == previousTimestamp && previous != 0) {
+                sequence = (previous & SEQUENCE_MASK) + 1;
+                if (sequence > SEQUENCE_MASK) {
+                    timestamp++;
+                    sequence = 0;
+                }
+            }
+            long id = (timestamp << TIMESTAMP_SHIFT) | node | sequence;
+            if (last.compareAndSet(previous, id)) {
+                return id;
+            }
+        }
+    }
+
+    @Override
+    public void advancePast(long id) {
+        // Only the timestamp and sequence of last are used, so another node's ID works as well
+        last.accumulateAndGet(id, Math::max);
+    }
+
+    /**
+     * Creation time encoded in an ID from this generator
+     */
+    public static Instant timestampOf(long id) {
+        return Instant.ofEpochMilli((id >>> TIMESTAMP_SHIFT) + EPOCH_MILLIS);
+    }
+}
@@ -0,0 +1,410 @@
+package org.openreceivable.ingest;
+
+import org.openreceivable.enums.PaymentMethod;
+import org.openreceivable.model.Contract;
+import org.openreceivable.model.Money;
+import org.openreceivable.model.Payment;
+import org.openreceivable.model.Receivable;
+import org.openreceivable.repository.ContractRepository;
+import org.openreceivable.repository.CustomerRepository;
+import org.openreceivable.repository.ReceivableRepository;
+import org.openreceivable.service.PaymentService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Streams lockbox and ACH remittance files into posted payments.
+ *
+ * A file is read line by line and cut into batches. Each batch is matched
+ * and posted on a worker: the invoice number is looked up first, then the
+ * contract number, then the customer ID, all through repository indexes,
+ * and the matched payments go through PaymentService.processPayments, which
+ * commits each customer's payments and allocations as one unit of work,
+ * saving them in batches. At most two batches per
+ * worker are read ahead, so memory stays bounded whatever the file size.
+ *
+ * Lines that cannot be parsed or matched go to a reject file next to the
+ * input (name.rejects: line number, reason and the line, tab separated).
+ * When the file is done a summary (name.summary) is written; files in the
+ * inbox directory that have a summary are not ingested again. A file cut
+ * short is ingested again from the start: payments it already posted have
+ * the same reference numbers, so they are not posted twice but go to the
+ * reject file as duplicates (see PaymentReferenceIndex), as do repeats of
+ * a payment within the file or from an earlier one. That is why a line
+ * without a reference number is rejected as malformed.
+ */
+@Component
+public class PaymentFileIngestion {
+
+    private static final Logger log = LoggerFactory.getLogger(PaymentFileIngestion.class);
+
+    static final String REJECTS_SUFFIX = ".rejects";
+    static final String SUMMARY_SUFFIX = ".summary";
+
+    private final CustomerRepository customerRepository;
+    private final ContractRepository contractRepository;
+    private final ReceivableRepository receivableRepository;
+    private final PaymentService paymentService;
+    private final Path directory;
+    private final int parallelism;
+    private final int batchSize;
+    private final PaymentMethod defaultMethod;
+
+    /**
+     * @param directory inbox of remittance files for ingestPending()
+     * @param parallelism worker threads, or 0 for one per available processor
+     * @param defaultMethod method of payments whose line does not give one
+     */
+    public PaymentFileIngestion(CustomerRepository customerRepository,
+                                ContractRepository contractRepository,
+                                ReceivableRepository receivableRepository,
+                                PaymentService paymentService,
+                                @Value("${openreceivable.ingest.directory:inbox}") String directory,
+                                @Value("${openreceivable.ingest.parallelism:0}") int parallelism,
+                                @Value("${openreceivable.ingest.batch-size:1000}") int batchSize,
+                                @Value("${openreceivable.ingest.default-method:CHECK}") PaymentMethod defaultMethod) {
+        this.customerRepository = customerRepository;
+        this.contractRepository = contractRepository;
+        this.receivableRepository = receivableRepository;
+        this.paymentService = paymentService;
+        this.directory = Paths.get(directory);
+        this.parallelism = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        this.batchSize = batchSize;
+        this.defaultMethod = defaultMethod;
+    }
+
+    /**
+     * Ingest every file in the inbox directory that has not been ingested
+     * yet, in name order
+     */
+    public List<Result> ingestPending() {
+        if (!Files.isDirectory(directory)) {
+            return List.of();
+        }
+        List<Path> pending;
+        try (Stream<Path> files = Files.list(directory)) {
+            pending = files.filter(Files::isRegularFile)
+                    .filter(file -> !isOutput(file) && !Files.exists(sibling(file, SUMMARY_SUFFIX)))
+                    .sorted()
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to list payment inbox " + directory, e);
+        }
+        List<Result> results = new ArrayList<>(pending.size());
+        for (Path file : pending) {
+            results.add(ingest(file));
+        }
+        return results;
+    }
+
+    /**
+     * Ingest one file in the format its name implies
+     */
+    public Result ingest(Path file) {
+        return ingest(file, RemittanceFormat.forFile(file));
+    }
+
+    public Result ingest(Path file, RemittanceFormat format) {
+        long started = System.nanoTime();
+        Counters counters = new Counters();
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        int permits = parallelism * 2;
+        Semaphore inFlight = new Semaphore(permits);
+        ExecutorService workers = Executors.newFixedThreadPool(parallelism);
+        try (BufferedReader in = Files.newBufferedReader(file);
+             Rejects rejects = new Rejects(Files.newBufferedWriter(sibling(file, REJECTS_SUFFIX)))) {
+            List<RemittanceLine> batch = new ArrayList<>(batchSize);
+            long lineNumber = 0;
+            String text;
+            while ((text = in.readLine()) != null && failure.get() == null) {
+                lineNumber++;
+                if (text.isBlank() || (lineNumber == 1 && format.isHeader(text))) {
+                    continue;
+                }
+                counters.lines.increment();
+                try {
+                    batch.add(format.parse(lineNumber, text));
+                } catch (RuntimeException e) {
+                    rejects.write(lineNumber, "Malformed line: " + e.getMessage(), text, counters);
+                    continue;
+                }
+                if (batch.size() == batchSize) {
+                    submit(batch, workers, inFlight, rejects, counters, failure);
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+            if (!batch.isEmpty()) {
+                submit(batch, workers, inFlight, rejects, counters, failure);
+            }
+            // Every batch has finished once all permits are back
+            inFlight.acquireUninterruptibly(permits);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to ingest payment file " + file, e);
+        } finally {
+            workers.shutdown();
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+
+        Result result = new Result(file, counters.lines.sum(), counters.posted.sum(), counters.duplicates.sum(),
+                counters.rejected.sum(), Money.toBigDecimal(counters.postedMinorUnits.sum()),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        writeSummary(result);
+        log.info("Ingested {}: {} lines, {} payments posted ({}), {} duplicates, {} rejected in {} ms",
+                file, result.getLines(), result.getPosted(), result.getAmountPosted(), result.getDuplicates(),
+                result.getRejected(), result.getWallTimeMillis());
+        return result;
+    }
+
+    private void submit(List<RemittanceLine> batch, ExecutorService workers, Semaphore inFlight,
+                        Rejects rejects, Counters counters, AtomicReference<RuntimeException> failure) {
+        inFlight.acquireUninterruptibly();
+        workers.execute(() -> {
+            try {
+                post(batch, rejects, counters);
+            } catch (RuntimeException e) {
+                failure.compareAndSet(null, e);
+            } finally {
+                inFlight.release();
+            }
+        });
+    }
+
+    private void post(List<RemittanceLine> batch, Rejects rejects, Counters counters) {
+        List<RemittanceLine> matched = new ArrayList<>(batch.size());
+        List<Payment> payments = new ArrayList<>(batch.size());
+        for (RemittanceLine line : batch) {
+            Payment payment = match(line, rejects, counters);
+            if (payment != null) {
+                matched.add(line);
+                payments.add(payment);
+            }
+        }
+        if (payments.isEmpty()) {
+            return;
+        }
+        // Payments skipped as already posted are missing from those returned
+        Set<Payment> posted = Collections.newSetFromMap(new IdentityHashMap<>());
+        posted.addAll(paymentService.processPayments(payments));
+        for (int i = 0; i < payments.size(); i++) {
+            Payment payment = payments.get(i);
+            if (posted.contains(payment)) {
+                counters.posted.increment();
+                counters.postedMinorUnits.add(payment.getAmountMinorUnits());
+            } else {
+                counters.duplicates.increment();
+                rejects.write(matched.get(i), "Duplicate of payment " + payment.getReferenceNumber()
+                        + " already posted", null);
+            }
+        }
+    }
+
+    /**
+     * The payment for a line, or null after rejecting it
+     */
+    private Payment match(RemittanceLine line, Rejects rejects, Counters counters) {
+        if (line.getAmount().signum() <= 0) {
+            rejects.write(line, "Amount must be positive", counters);
+            return null;
+        }
+        String customerId = line.getCustomerId();
+        String contractId = null;
+        String receivableId = null;
+        if (line.getInvoiceNumber() != null) {
+            List<Receivable> invoiced = receivableRepository.findByInvoiceNumber(line.getInvoiceNumber());
+            // An unknown or ambiguous invoice still leaves the payment to the customer's waterfall
+            if (invoiced.size() == 1) {
+                Receivable receivable = invoiced.get(0);
+                if (customerId != null && !customerId.equals(receivable.getCustomerId())) {
+                    rejects.write(line, "Invoice " + line.getInvoiceNumber() + " belongs to another customer", counters);
+                    return null;
+                }
+                customerId = receivable.getCustomerId();
+                contractId = receivable.getContractId();
+                receivableId = receivable.getReceivableId();
+            }
+        }
+        if (contractId == null && line.getContractNumber() != null) {
+            Contract contract = contractRepository.findByContractNumber(line.getContractNumber()).orElse(null);
+            if (contract != null) {
+                if (customerId != null && !customerId.equals(contract.getCustomerId())) {
+                    rejects.write(line, "Contract " + line.getContractNumber() + " belongs to another customer",
+                            counters);
+                    return null;
+                }
+                customerId = contract.getCustomerId();
+                contractId = contract.getContractId();
+            }
+        }
+        if (customerId == null || !customerRepository.exists(customerId)) {
+            rejects.write(line, "No matching customer", counters);
+            return null;
+        }
+
+        Payment payment = new Payment();
+        payment.setCustomerId(customerId);
+        payment.setContractId(contractId);
+        payment.setReceivableId(receivableId);
+        payment.setPaymentDate(line.getPaymentDate());
+        payment.setAmount(line.getAmount());
+        payment.setPaymentMethod(line.getPaymentMethod() != null ? line.getPaymentMethod() : defaultMethod);
+        payment.setReferenceNumber(line.getReferenceNumber());
+        return payment;
+    }
+
+    private void writeSummary(Result result) {
+        Properties properties = new Properties();
+        properties.setProperty("lines", String.valueOf(result.getLines()));
+        properties.setProperty("posted", String.valueOf(result.getPosted()));
+        properties.setProperty("duplicates", String.valueOf(result.getDuplicates()));
+        properties.setProperty("rejected", String.valueOf(result.getRejected()));
+        properties.setProperty("amountPosted", result.getAmountPosted().toPlainString());
+        properties.setProperty("wallTimeMillis", String.valueOf(result.getWallTimeMillis()));
+        Path summary = sibling(result.getFile(), SUMMARY_SUFFIX);
+        Path temp = sibling(result.getFile(), SUMMARY_SUFFIX + ".tmp");
+        try {
+            try (Writer out = Files.newBufferedWriter(temp)) {
+                properties.store(out, "Payment file " + result.getFile().getFileName());
+            }
+            Files.move(temp, summary, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write payment file summary " + summary, e);
+        }
+    }
+
+    private static boolean isOutput(Path file) {
+        String name = file.getFileName().toString();
+        return name.endsWith(REJECTS_SUFFIX) || name.endsWith(SUMMARY_SUFFIX) || name.endsWith(".tmp");
+    }
+
+    static Path sibling(Path file, String suffix) {
+        return file.resolveSibling(file.getFileName() + suffix);
+    }
+
+    private static final class Counters {
+        private final LongAdder lines = new LongAdder();
+        private final LongAdder posted = new LongAdder();
+        private final LongAdder duplicates = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+        private final LongAdder postedMinorUnits = new LongAdder();
+    }
+
+    /**
+     * Reject file shared by the reader and the workers
+     */
+    private static final class Rejects implements AutoCloseable {
+        private final Writer out;
+
+        private Rejects(Writer out) {
+            this.out = out;
+        }
+
+        private void write(RemittanceLine line, String reason, Counters counters) {
+            write(line.getLineNumber(), reason, line.getText(), counters);
+        }
+
+        /**
+         * Write a line, counting it as rejected unless counters is null
+         */
+        private synchronized void write(long lineNumber, String reason, String text, Counters counters) {
+            if (counters != null) {
+                counters.rejected.increment();
+            }
+            try {
+                out.write(lineNumber + "\t" + reason + "\t" + text + "\n");
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to write payment rejects", e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    /**
+     * Outcome of ingesting one file
+     */
+    public static final class Result {
+        private final Path file;
+        private final long lines;
+        private final long posted;
+        private final long duplicates;
+        private final long rejected;
+        private final BigDecimal amountPosted;
+        private final long wallTimeMillis;
+
+        private Result(Path file, long lines, long posted, long duplicates, long rejected,
+                       BigDecimal amountPosted, long wallTimeMillis) {
+            this.file = file;
+            this.lines = lines;
+            this.posted = posted;
+            this.duplicates = duplicates;
+            this.rejected = rejected;
+            this.amountPosted = amountPosted;
+            this.wallTimeMillis = wallTimeMillis;
+        }
+
+        public Path getFile() {
+            return file;
+        }
+
+        /**
+         * Payment lines read, excluding a header and blank lines
+         */
+        public long getLines() {
+            return lines;
+        }
+
+        public long getPosted() {
+            return posted;
+        }
+
+        /**
+         * Matched lines not posted because their payment already was
+         */
+        public long getDuplicates() {
+            return duplicates;
+        }
+
+        public long getRejected() {
+            return rejected;
+        }
+
+        public BigDecimal getAmountPosted() {
+            return amountPosted;
+        }
+
+        public long getWallTimeMillis() {
+            return wallTimeMillis;
+        }
+    }
+}
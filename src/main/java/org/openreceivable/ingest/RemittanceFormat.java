@@ -0,0 +1,122 @@
+package org.openreceivable.ingest;
+
+import org.openreceivable.enums.PaymentMethod;
+import org.openreceivable.model.Money;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+
+/**
+ * Layouts of remittance files. Parsing a malformed line throws a
+ * RuntimeException whose message says what is wrong with it. Every line
+ * must carry a reference number: it is what keeps a payment from being
+ * posted twice when a file is ingested again.
+ */
+public enum RemittanceFormat {
+
+    /**
+     * Comma separated, without quoting:
+     * referenceNumber,paymentDate,amount[,paymentMethod[,customerId[,contractNumber[,invoiceNumber]]]]
+     * with an ISO date (2024-06-01) and a decimal amount (125.50) of at
+     * most two decimal places. A first line starting with "reference" is a
+     * header.
+     */
+    CSV {
+        @Override
+        public boolean isHeader(String line) {
+            return line.regionMatches(true, 0, "reference", 0, "reference".length());
+        }
+
+        @Override
+        public RemittanceLine parse(long lineNumber, String line) {
+            String[] fields = line.split(",", -1);
+            if (fields.length < 3) {
+                throw new IllegalArgumentException("Expected at least 3 fields but found " + fields.length);
+            }
+            String method = field(fields, 3);
+            return new RemittanceLine(lineNumber, line, reference(field(fields, 0)),
+                    LocalDate.parse(fields[1].trim()).atStartOfDay(),
+                    amount(fields[2].trim()),
+                    method != null ? PaymentMethod.valueOf(method.toUpperCase(Locale.ROOT)) : null,
+                    field(fields, 4), field(fields, 5), field(fields, 6));
+        }
+    },
+
+    /**
+     * Fixed columns, as in bank lockbox and ACH remittance extracts
+     * (1-based, inclusive): reference 1-20, payment date 21-28 (yyyyMMdd),
+     * amount in cents 29-40, customer ID 41-72, contract number 73-92,
+     * invoice number 93-112. Text fields are space padded and the method
+     * is the file's default.
+     */
+    FIXED_WIDTH {
+        @Override
+        public boolean isHeader(String line) {
+            return false;
+        }
+
+        @Override
+        public RemittanceLine parse(long lineNumber, String line) {
+            if (line.length() < 40) {
+                throw new IllegalArgumentException("Expected at least 40 columns but found " + line.length());
+            }
+            String cents = column(line, 28, 40);
+            if (cents == null) {
+                throw new IllegalArgumentException("Missing amount");
+            }
+            return new RemittanceLine(lineNumber, line, reference(column(line, 0, 20)),
+                    LocalDate.parse(line.substring(20, 28), DateTimeFormatter.BASIC_ISO_DATE).atStartOfDay(),
+                    BigDecimal.valueOf(Long.parseLong(cents), 2), null,
+                    column(line, 40, 72), column(line, 72, 92), column(line, 92, 112));
+        }
+    };
+
+    /**
+     * Whether a line is a column header rather than a payment
+     */
+    public abstract boolean isHeader(String line);
+
+    public abstract RemittanceLine parse(long lineNumber, String line);
+
+    /**
+     * CSV for .csv files, fixed width for any other
+     */
+    public static RemittanceFormat forFile(Path file) {
+        return file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".csv") ? CSV : FIXED_WIDTH;
+    }
+
+    /**
+     * A decimal amount, rejected rather than rounded if it has more
+     * decimal places than the currency
+     */
+    private static BigDecimal amount(String value) {
+        BigDecimal amount = new BigDecimal(value);
+        return Money.toBigDecimal(Money.toMinorUnitsExact(amount));
+    }
+
+    private static String reference(String value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Missing reference number");
+        }
+        return value;
+    }
+
+    private static String field(String[] fields, int index) {
+        if (index >= fields.length) {
+            return null;
+        }
+        String value = fields[index].trim();
+        return value.isEmpty() ? null : value;
+    }
+
+    private static String column(String line, int from, int to) {
+        if (from >= line.length()) {
+            return null;
+        }
+        String value = line.substring(from, Math.min(to, line.length())).trim();
+        return value.isEmpty() ? null : value;
+    }
+}
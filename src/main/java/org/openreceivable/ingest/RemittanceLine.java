@@ -0,0 +1,81 @@
+package org.openreceivable.ingest;
+
+import org.openreceivable.enums.PaymentMethod;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * One payment read from a remittance file. The reference number is always
+ * present. The customer ID, contract number and invoice number are all
+ * optional; at least one must identify the customer for the payment to be
+ * posted.
+ */
+public final class RemittanceLine {
+
+    private final long lineNumber;
+    private final String text;
+    private final String referenceNumber;
+    private final LocalDateTime paymentDate;
+    private final BigDecimal amount;
+    private final PaymentMethod paymentMethod;
+    private final String customerId;
+    private final String contractNumber;
+    private final String invoiceNumber;
+
+    public RemittanceLine(long lineNumber, String text, String referenceNumber, LocalDateTime paymentDate,
+                          BigDecimal amount, PaymentMethod paymentMethod, String customerId,
+                          String contractNumber, String invoiceNumber) {
+        this.lineNumber = lineNumber;
+        this.text = text;
+        this.referenceNumber = referenceNumber;
+        this.paymentDate = paymentDate;
+        this.amount = amount;
+        this.paymentMethod = paymentMethod;
+        this.customerId = customerId;
+        this.contractNumber = contractNumber;
+        this.invoiceNumber = invoiceNumber;
+    }
+
+    public long getLineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * The line as read, for the reject file
+     */
+    public String getText() {
+        return text;
+    }
+
+    public String getReferenceNumber() {
+        return referenceNumber;
+    }
+
+    public LocalDateTime getPaymentDate() {
+        return paymentDate;
+    }
+
+    public BigDecimal getAmount() {
+        return amount;
+    }
+
+    /**
+     * Method given on the line, or null for the file's default
+     */
+    public PaymentMethod getPaymentMethod() {
+        return paymentMethod;
+    }
+
+    public String getCustomerId() {
+        return customerId;
+    }
+
+    public String getContractNumber() {
+        return contractNumber;
+    }
+
+    public String getInvoiceNumber() {
+        return invoiceNumber;
+    }
+}
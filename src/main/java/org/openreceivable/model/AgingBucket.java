@@ -1,10 +1,10 @@
 package org.openreceivable.model;
 
+import org.openreceivable.aging.AgingPolicy;
 import org.openreceivable.enums.AgingCategory;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
-import java.util.UUID;
 
 /**
  * AgingBucket entity for categorizing receivables by age
@@ -14,12 +14,11 @@ public class AgingBucket {
     private String receivableId;
     private String customerId;
     private AgingCategory agingCategory;
-    private BigDecimal amount;
+    private long amountMinorUnits;
     private LocalDateTime asOfDate;
     private LocalDateTime createdDate;
 
     public AgingBucket() {
-        this.bucketId = UUID.randomUUID().toString();
         this.createdDate = LocalDateTime.now();
     }
 
@@ -57,11 +56,19 @@ public class AgingBucket {
     }
 
     public BigDecimal getAmount() {
-        return amount;
+        return Money.toBigDecimal(amountMinorUnits);
     }
 
     public void setAmount(BigDecimal amount) {
-        this.amount = amount;
+        this.amountMinorUnits = Money.toMinorUnits(amount);
+    }
+
+    public long getAmountMinorUnits() {
+        return amountMinorUnits;
+    }
+
+    public void setAmountMinorUnits(long amountMinorUnits) {
+        this.amountMinorUnits = amountMinorUnits;
     }
 
     public LocalDateTime getAsOfDate() {
@@ -81,22 +88,21 @@ public class AgingBucket {
     }
 
     /**
-     * Determine aging category based on aging days
+     * Determine aging category based on aging days, under the standard
+     * policy; receivables age under the policy of their contract type
+     * (see AgingPolicies)
      */
     public static AgingCategory determineCategory(int agingDays) {
-        if (agingDays <= 0) {
-            return AgingCategory.CURRENT;
-        } else if (agingDays <= 30) {
-            return AgingCategory.DAYS_1_30;
-        } else if (agingDays <= 60) {
-            return AgingCategory.DAYS_31_60;
-        } else if (agingDays <= 90) {
-            return AgingCategory.DAYS_61_90;
-        } else if (agingDays <= 120) {
-            return AgingCategory.DAYS_91_120;
-        } else {
-            return AgingCategory.OVER_120;
-        }
+        return AgingPolicy.STANDARD.categorize(agingDays);
+    }
+
+    /**
+     * Aging days at which a receivable aged agingDays next changes
+     * category under the standard policy, or -1 if it is already in the
+     * last category
+     */
+    public static int nextBoundary(int agingDays) {
+        return AgingPolicy.STANDARD.nextBoundary(agingDays);
     }
 
     @Override
@@ -106,7 +112,7 @@ public class AgingBucket {
                 ", receivableId='" + receivableId + '\'' +
                 ", customerId='" + customerId + '\'' +
                 ", agingCategory=" + agingCategory +
-                ", amount=" + amount +
+                ", amount=" + getAmount() +
                 ", asOfDate=" + asOfDate +
                 '}';
     }
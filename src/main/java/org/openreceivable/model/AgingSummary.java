@@ -0,0 +1,116 @@
+package org.openreceivable.model;
+
+import org.openreceivable.enums.AgingCategory;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * AgingSummary entity: a customer's aging snapshots for one day and
+ * category, compacted once the individual snapshots pass retention
+ */
+public class AgingSummary {
+    private String summaryId;
+    private String customerId;
+    private AgingCategory agingCategory;
+    private LocalDateTime asOfDate;
+    private long amountMinorUnits;
+    private Integer receivableCount;
+    private LocalDateTime createdDate;
+    // Snapshots folded in whose deletion is not yet confirmed, so a retried
+    // compaction does not fold them twice
+    private Set<String> foldedBucketIds;
+
+    public AgingSummary() {
+        this.receivableCount = 0;
+        this.foldedBucketIds = new LinkedHashSet<>();
+        this.createdDate = LocalDateTime.now();
+    }
+
+    // Getters and Setters
+    public String getSummaryId() {
+        return summaryId;
+    }
+
+    public void setSummaryId(String summaryId) {
+        this.summaryId = summaryId;
+    }
+
+    public String getCustomerId() {
+        return customerId;
+    }
+
+    public void setCustomerId(String customerId) {
+        this.customerId = customerId;
+    }
+
+    public AgingCategory getAgingCategory() {
+        return agingCategory;
+    }
+
+    public void setAgingCategory(AgingCategory agingCategory) {
+        this.agingCategory = agingCategory;
+    }
+
+    public LocalDateTime getAsOfDate() {
+        return asOfDate;
+    }
+
+    public void setAsOfDate(LocalDateTime asOfDate) {
+        this.asOfDate = asOfDate;
+    }
+
+    public BigDecimal getAmount() {
+        return Money.toBigDecimal(amountMinorUnits);
+    }
+
+    public void setAmount(BigDecimal amount) {
+        this.amountMinorUnits = Money.toMinorUnits(amount);
+    }
+
+    public long getAmountMinorUnits() {
+        return amountMinorUnits;
+    }
+
+    public void setAmountMinorUnits(long amountMinorUnits) {
+        this.amountMinorUnits = amountMinorUnits;
+    }
+
+    public Integer getReceivableCount() {
+        return receivableCount;
+    }
+
+    public void setReceivableCount(Integer receivableCount) {
+        this.receivableCount = receivableCount;
+    }
+
+    public LocalDateTime getCreatedDate() {
+        return createdDate;
+    }
+
+    public void setCreatedDate(LocalDateTime createdDate) {
+        this.createdDate = createdDate;
+    }
+
+    public Set<String> getFoldedBucketIds() {
+        return foldedBucketIds;
+    }
+
+    public void setFoldedBucketIds(Set<String> foldedBucketIds) {
+        this.foldedBucketIds = foldedBucketIds;
+    }
+
+    @Override
+    public String toString() {
+        return "AgingSummary{" +
+                "summaryId='" + summaryId + '\'' +
+                ", customerId='" + customerId + '\'' +
+                ", agingCategory=" + agingCategory +
+                ", asOfDate=" + asOfDate +
+                ", amount=" + getAmount() +
+                ", receivableCount=" + receivableCount +
+                '}';
+    }
+}
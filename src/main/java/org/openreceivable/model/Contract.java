@@ -6,12 +6,11 @@ import org.openreceivable.enums.PaymentFrequency;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
-import java.util.UUID;
 
 /**
  * Contract entity for lease or loan agreements
  */
-public class Contract {
+public class Contract implements Versioned {
     private String contractId;
     private String customerId;
     private String vehicleId;
@@ -32,9 +31,9 @@ public class Contract {
     private BigDecimal securityDeposit;
     private LocalDateTime createdDate;
     private LocalDateTime modifiedDate;
+    private Long version;
 
     public Contract() {
-        this.contractId = UUID.randomUUID().toString();
         this.createdDate = LocalDateTime.now();
         this.modifiedDate = LocalDateTime.now();
     }
@@ -200,6 +199,16 @@ public class Contract {
         this.modifiedDate = modifiedDate;
     }
 
+    @Override
+    public Long getVersion() {
+        return version;
+    }
+
+    @Override
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
     @Override
     public String toString() {
         return "Contract{" +
@@ -4,12 +4,11 @@ import org.openreceivable.enums.CustomerStatus;
 import org.openreceivable.enums.CustomerType;
 
 import java.time.LocalDateTime;
-import java.util.UUID;
 
 /**
  * Customer entity
  */
-public class Customer {
+public class Customer implements Versioned {
     private String customerId;
     private CustomerType customerType;
     private String firstName;
@@ -23,9 +22,9 @@ public class Customer {
     private CustomerStatus status;
     private LocalDateTime createdDate;
     private LocalDateTime modifiedDate;
+    private Long version;
 
     public Customer() {
-        this.customerId = UUID.randomUUID().toString();
         this.createdDate = LocalDateTime.now();
         this.modifiedDate = LocalDateTime.now();
     }
@@ -145,6 +144,16 @@ public class Customer {
         return (firstName != null ? firstName : "") + " " + (lastName != null ? lastName : "");
     }
 
+    @Override
+    public Long getVersion() {
+        return version;
+    }
+
+    @Override
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
     @Override
     public String toString() {
         return "Customer{" +
@@ -0,0 +1,141 @@
+package org.openreceivable.model;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Currency;
+
+/**
+ * Monetary amount held as a long count of minor units (cents).
+ *
+ * Entities hold their amounts as minor units and expose them both raw
+ * (getXxxMinorUnits) and as BigDecimal for the GraphQL API, so a BigDecimal
+ * is only made when a value leaves the service. Hot paths (payment
+ * allocation, aging, balance sums) work on the raw long values through the
+ * static methods here, which never allocate. Instances are for APIs that
+ * want a typed value.
+ *
+ * All arithmetic is overflow-checked and throws ArithmeticException rather
+ * than wrapping. Amounts that come in from outside (remittance files, API
+ * input) are converted with toMinorUnitsExact, which rejects more decimal
+ * places than the currency allows; toMinorUnits rounds them half-even, for
+ * amounts the service computes itself such as interest and proration.
+ */
+public final class Money implements Comparable<Money> {
+
+    public static final Currency CURRENCY = Currency.getInstance("USD");
+    public static final int SCALE = CURRENCY.getDefaultFractionDigits();
+    public static final Money ZERO = new Money(0);
+
+    private final long minorUnits;
+
+    private Money(long minorUnits) {
+        this.minorUnits = minorUnits;
+    }
+
+    public static Money ofMinorUnits(long minorUnits) {
+        return minorUnits == 0 ? ZERO : new Money(minorUnits);
+    }
+
+    /**
+     * Convert a BigDecimal amount; null is treated as zero
+     */
+    public static Money of(BigDecimal amount) {
+        return ofMinorUnits(toMinorUnits(amount));
+    }
+
+    public long getMinorUnits() {
+        return minorUnits;
+    }
+
+    public BigDecimal toBigDecimal() {
+        return toBigDecimal(minorUnits);
+    }
+
+    public Money plus(Money other) {
+        return ofMinorUnits(add(minorUnits, other.minorUnits));
+    }
+
+    public Money minus(Money other) {
+        return ofMinorUnits(subtract(minorUnits, other.minorUnits));
+    }
+
+    public boolean isZero() {
+        return minorUnits == 0;
+    }
+
+    public int signum() {
+        return Long.signum(minorUnits);
+    }
+
+    @Override
+    public int compareTo(Money other) {
+        return Long.compare(minorUnits, other.minorUnits);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || (o instanceof Money && ((Money) o).minorUnits == minorUnits);
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(minorUnits);
+    }
+
+    @Override
+    public String toString() {
+        return toBigDecimal().toPlainString();
+    }
+
+    // Minor-unit arithmetic
+
+    /**
+     * Minor units of a BigDecimal amount, rounded half-even; null is
+     * treated as zero
+     */
+    public static long toMinorUnits(BigDecimal amount) {
+        if (amount == null) {
+            return 0;
+        }
+        return amount.setScale(SCALE, RoundingMode.HALF_EVEN).unscaledValue().longValueExact();
+    }
+
+    /**
+     * Minor units of an amount given from outside; null is treated as zero
+     *
+     * @throws ArithmeticException if it has more decimal places than the
+     *         currency allows, instead of rounding it
+     */
+    public static long toMinorUnitsExact(BigDecimal amount) {
+        if (amount == null) {
+            return 0;
+        }
+        BigDecimal scaled;
+        try {
+            scaled = amount.setScale(SCALE, RoundingMode.UNNECESSARY);
+        } catch (ArithmeticException e) {
+            throw new ArithmeticException("Amount " + amount.toPlainString() + " has more than " + SCALE
+                    + " decimal places");
+        }
+        return scaled.unscaledValue().longValueExact();
+    }
+
+    public static BigDecimal toBigDecimal(long minorUnits) {
+        return BigDecimal.valueOf(minorUnits, SCALE);
+    }
+
+    public static long add(long a, long b) {
+        return Math.addExact(a, b);
+    }
+
+    public static long subtract(long a, long b) {
+        return Math.subtractExact(a, b);
+    }
+
+    /**
+     * Multiply by a whole-number quantity
+     */
+    public static long multiply(long minorUnits, long quantity) {
+        return Math.multiplyExact(minorUnits, quantity);
+    }
+}
@@ -5,27 +5,26 @@ import org.openreceivable.enums.PaymentStatus;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
-import java.util.UUID;
 
 /**
  * Payment entity representing payments made by customers
  */
-public class Payment {
+public class Payment implements Versioned {
     private String paymentId;
     private String receivableId;
     private String customerId;
     private String contractId;
     private LocalDateTime paymentDate;
-    private BigDecimal amount;
+    private long amountMinorUnits;
     private PaymentMethod paymentMethod;
     private String referenceNumber;
     private PaymentStatus status;
     private String processedBy;
     private String notes;
     private LocalDateTime createdDate;
+    private Long version;
 
     public Payment() {
-        this.paymentId = UUID.randomUUID().toString();
         this.createdDate = LocalDateTime.now();
     }
 
@@ -71,11 +70,19 @@ public class Payment {
     }
 
     public BigDecimal getAmount() {
-        return amount;
+        return Money.toBigDecimal(amountMinorUnits);
     }
 
     public void setAmount(BigDecimal amount) {
-        this.amount = amount;
+        this.amountMinorUnits = Money.toMinorUnits(amount);
+    }
+
+    public long getAmountMinorUnits() {
+        return amountMinorUnits;
+    }
+
+    public void setAmountMinorUnits(long amountMinorUnits) {
+        this.amountMinorUnits = amountMinorUnits;
     }
 
     public PaymentMethod getPaymentMethod() {
@@ -126,6 +133,16 @@ public class Payment {
         this.createdDate = createdDate;
     }
 
+    @Override
+    public Long getVersion() {
+        return version;
+    }
+
+    @Override
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
     @Override
     public String toString() {
         return "Payment{" +
@@ -134,7 +151,7 @@ public class Payment {
                 ", customerId='" + customerId + '\'' +
                 ", contractId='" + contractId + '\'' +
                 ", paymentDate=" + paymentDate +
-                ", amount=" + amount +
+                ", amount=" + getAmount() +
                 ", paymentMethod=" + paymentMethod +
                 ", status=" + status +
                 '}';
@@ -2,7 +2,6 @@ package org.openreceivable.model;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
-import java.util.UUID;
 
 /**
  * PaymentAllocation entity representing allocation of payments to receivables
@@ -11,14 +10,13 @@ public class PaymentAllocation {
     private String allocationId;
     private String paymentId;
     private String receivableId;
-    private BigDecimal amount;
+    private long amountMinorUnits;
     private LocalDateTime allocationDate;
-    private BigDecimal principalAmount;
-    private BigDecimal interestAmount;
-    private BigDecimal feeAmount;
+    private long principalMinorUnits;
+    private long interestMinorUnits;
+    private long feeMinorUnits;
 
     public PaymentAllocation() {
-        this.allocationId = UUID.randomUUID().toString();
         this.allocationDate = LocalDateTime.now();
     }
 
@@ -48,11 +46,19 @@ public class PaymentAllocation {
     }
 
     public BigDecimal getAmount() {
-        return amount;
+        return Money.toBigDecimal(amountMinorUnits);
     }
 
     public void setAmount(BigDecimal amount) {
-        this.amount = amount;
+        this.amountMinorUnits = Money.toMinorUnits(amount);
+    }
+
+    public long getAmountMinorUnits() {
+        return amountMinorUnits;
+    }
+
+    public void setAmountMinorUnits(long amountMinorUnits) {
+        this.amountMinorUnits = amountMinorUnits;
     }
 
     public LocalDateTime getAllocationDate() {
@@ -64,27 +70,51 @@ public class PaymentAllocation {
     }
 
     public BigDecimal getPrincipalAmount() {
-        return principalAmount;
+        return Money.toBigDecimal(principalMinorUnits);
     }
 
     public void setPrincipalAmount(BigDecimal principalAmount) {
-        this.principalAmount = principalAmount;
+        this.principalMinorUnits = Money.toMinorUnits(principalAmount);
+    }
+
+    public long getPrincipalMinorUnits() {
+        return principalMinorUnits;
+    }
+
+    public void setPrincipalMinorUnits(long principalMinorUnits) {
+        this.principalMinorUnits = principalMinorUnits;
     }
 
     public BigDecimal getInterestAmount() {
-        return interestAmount;
+        return Money.toBigDecimal(interestMinorUnits);
     }
 
     public void setInterestAmount(BigDecimal interestAmount) {
-        this.interestAmount = interestAmount;
+        this.interestMinorUnits = Money.toMinorUnits(interestAmount);
+    }
+
+    public long getInterestMinorUnits() {
+        return interestMinorUnits;
+    }
+
+    public void setInterestMinorUnits(long interestMinorUnits) {
+        this.interestMinorUnits = interestMinorUnits;
     }
 
     public BigDecimal getFeeAmount() {
-        return feeAmount;
+        return Money.toBigDecimal(feeMinorUnits);
     }
 
     public void setFeeAmount(BigDecimal feeAmount) {
-        this.feeAmount = feeAmount;
+        this.feeMinorUnits = Money.toMinorUnits(feeAmount);
+    }
+
+    public long getFeeMinorUnits() {
+        return feeMinorUnits;
+    }
+
+    public void setFeeMinorUnits(long feeMinorUnits) {
+        this.feeMinorUnits = feeMinorUnits;
     }
 
     @Override
@@ -93,7 +123,7 @@ public class PaymentAllocation {
                 "allocationId='" + allocationId + '\'' +
                 ", paymentId='" + paymentId + '\'' +
                 ", receivableId='" + receivableId + '\'' +
-                ", amount=" + amount +
+                ", amount=" + getAmount() +
                 ", allocationDate=" + allocationDate +
                 '}';
     }
@@ -6,31 +6,29 @@ import org.openreceivable.enums.ReceivableType;
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
-import java.util.UUID;
 
 /**
  * Receivable entity representing amounts owed
  */
-public class Receivable {
+public class Receivable implements Versioned {
     private String receivableId;
     private String contractId;
     private String customerId;
     private ReceivableType receivableType;
     private LocalDateTime dueDate;
-    private BigDecimal originalAmount;
-    private BigDecimal outstandingAmount;
-    private BigDecimal paidAmount;
+    private long originalMinorUnits;
+    private long outstandingMinorUnits;
+    private long paidMinorUnits;
     private ReceivableStatus status;
     private String invoiceNumber;
     private String description;
     private LocalDateTime createdDate;
     private LocalDateTime paidDate;
     private Integer agingDays;
+    private Long version;
 
     public Receivable() {
-        this.receivableId = UUID.randomUUID().toString();
         this.createdDate = LocalDateTime.now();
-        this.paidAmount = BigDecimal.ZERO;
     }
 
     // Getters and Setters
@@ -75,27 +73,51 @@ public class Receivable {
     }
 
     public BigDecimal getOriginalAmount() {
-        return originalAmount;
+        return Money.toBigDecimal(originalMinorUnits);
     }
 
     public void setOriginalAmount(BigDecimal originalAmount) {
-        this.originalAmount = originalAmount;
+        this.originalMinorUnits = Money.toMinorUnits(originalAmount);
+    }
+
+    public long getOriginalMinorUnits() {
+        return originalMinorUnits;
+    }
+
+    public void setOriginalMinorUnits(long originalMinorUnits) {
+        this.originalMinorUnits = originalMinorUnits;
     }
 
     public BigDecimal getOutstandingAmount() {
-        return outstandingAmount;
+        return Money.toBigDecimal(outstandingMinorUnits);
     }
 
     public void setOutstandingAmount(BigDecimal outstandingAmount) {
-        this.outstandingAmount = outstandingAmount;
+        this.outstandingMinorUnits = Money.toMinorUnits(outstandingAmount);
+    }
+
+    public long getOutstandingMinorUnits() {
+        return outstandingMinorUnits;
+    }
+
+    public void setOutstandingMinorUnits(long outstandingMinorUnits) {
+        this.outstandingMinorUnits = outstandingMinorUnits;
     }
 
     public BigDecimal getPaidAmount() {
-        return paidAmount;
+        return Money.toBigDecimal(paidMinorUnits);
     }
 
     public void setPaidAmount(BigDecimal paidAmount) {
-        this.paidAmount = paidAmount;
+        this.paidMinorUnits = Money.toMinorUnits(paidAmount);
+    }
+
+    public long getPaidMinorUnits() {
+        return paidMinorUnits;
+    }
+
+    public void setPaidMinorUnits(long paidMinorUnits) {
+        this.paidMinorUnits = paidMinorUnits;
     }
 
     public ReceivableStatus getStatus() {
@@ -146,25 +168,48 @@ public class Receivable {
         this.agingDays = agingDays;
     }
 
+    @Override
+    public Long getVersion() {
+        return version;
+    }
+
+    @Override
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
     /**
      * Calculate aging days based on current date
      */
     public int calculateAgingDays() {
+        return calculateAgingDays(LocalDateTime.now());
+    }
+
+    /**
+     * Calculate aging days as of the given time
+     */
+    public int calculateAgingDays(LocalDateTime asOfDate) {
         if (dueDate == null || status == ReceivableStatus.PAID) {
             return 0;
         }
-        LocalDateTime now = LocalDateTime.now();
-        if (now.isBefore(dueDate)) {
+        if (asOfDate.isBefore(dueDate)) {
             return 0;
         }
-        return (int) ChronoUnit.DAYS.between(dueDate, now);
+        return (int) ChronoUnit.DAYS.between(dueDate, asOfDate);
     }
 
     /**
      * Check if receivable is overdue
      */
     public boolean isOverdue() {
-        return calculateAgingDays() > 0 && status != ReceivableStatus.PAID;
+        return isOverdue(LocalDateTime.now());
+    }
+
+    /**
+     * Check if receivable is overdue as of the given time
+     */
+    public boolean isOverdue(LocalDateTime asOfDate) {
+        return calculateAgingDays(asOfDate) > 0 && status != ReceivableStatus.PAID;
     }
 
     @Override
@@ -175,8 +220,8 @@ public class Receivable {
                 ", customerId='" + customerId + '\'' +
                 ", receivableType=" + receivableType +
                 ", dueDate=" + dueDate +
-                ", originalAmount=" + originalAmount +
-                ", outstandingAmount=" + outstandingAmount +
+                ", originalAmount=" + getOriginalAmount() +
+                ", outstandingAmount=" + getOutstandingAmount() +
                 ", status=" + status +
                 '}';
     }
@@ -5,7 +5,6 @@ import org.openreceivable.enums.VehicleStatus;
 
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
-import java.util.UUID;
 
 /**
  * Vehicle entity
@@ -26,7 +25,6 @@ public class Vehicle {
     private String licensePlate;
 
     public Vehicle() {
-        this.vehicleId = UUID.randomUUID().toString();
     }
 
     // Getters and Setters
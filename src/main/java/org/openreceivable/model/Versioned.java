@@ -0,0 +1,15 @@
+package org.openreceivable.model;
+
+/**
+ * An entity whose store keeps a version number, incremented on every save.
+ *
+ * The version is null until the entity is first saved. A copy read from a
+ * repository carries the version it was read at, which a conditional save
+ * then checks is still current.
+ */
+public interface Versioned {
+
+    Long getVersion();
+
+    void setVersion(Long version);
+}
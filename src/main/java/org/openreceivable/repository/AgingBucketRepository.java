@@ -13,10 +13,17 @@ import java.util.Optional;
 public interface AgingBucketRepository {
     
     /**
-     * Save an aging bucket
+     * Save an aging bucket, replacing any bucket of the same receivable
+     * and day
      */
     AgingBucket save(AgingBucket bucket);
     
+    /**
+     * Save a batch of aging buckets with the same replacement rule as
+     * save, waiting for durability once per batch
+     */
+    List<AgingBucket> saveAll(List<AgingBucket> buckets);
+    
     /**
      * Find aging bucket by ID
      */
@@ -32,16 +39,26 @@ public interface AgingBucketRepository {
      */
     List<AgingBucket> findByReceivableId(String receivableId);
     
+    /**
+     * Find the aging bucket of a receivable for the day of the given date
+     */
+    Optional<AgingBucket> findByReceivableIdAndAsOfDate(String receivableId, LocalDateTime asOfDate);
+    
     /**
      * Find all aging buckets by category
      */
     List<AgingBucket> findByAgingCategory(AgingCategory category);
     
     /**
-     * Find all aging buckets as of a specific date
+     * Find all aging buckets for the day of the given date
      */
     List<AgingBucket> findByAsOfDate(LocalDateTime asOfDate);
     
+    /**
+     * Find all aging buckets dated before the given cutoff
+     */
+    List<AgingBucket> findByAsOfDateBefore(LocalDateTime cutoff);
+    
     /**
      * Find all aging buckets
      */
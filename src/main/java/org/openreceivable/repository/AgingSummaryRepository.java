@@ -0,0 +1,55 @@
+package org.openreceivable.repository;
+
+import org.openreceivable.enums.AgingCategory;
+import org.openreceivable.model.AgingSummary;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Repository interface for AgingSummary entity
+ */
+public interface AgingSummaryRepository {
+    
+    /**
+     * Save an aging summary, replacing any summary with the same customer,
+     * day and category
+     */
+    AgingSummary save(AgingSummary summary);
+    
+    /**
+     * Find aging summary by ID
+     */
+    Optional<AgingSummary> findById(String summaryId);
+    
+    /**
+     * Find the summary of a customer for one day and category
+     */
+    Optional<AgingSummary> find(String customerId, LocalDateTime asOfDate, AgingCategory category);
+    
+    /**
+     * Find all aging summaries for a customer
+     */
+    List<AgingSummary> findByCustomerId(String customerId);
+    
+    /**
+     * Find all aging summaries for the day of the given date
+     */
+    List<AgingSummary> findByAsOfDate(LocalDateTime asOfDate);
+    
+    /**
+     * Find all aging summaries
+     */
+    List<AgingSummary> findAll();
+    
+    /**
+     * Delete an aging summary
+     */
+    void delete(String summaryId);
+    
+    /**
+     * Check if aging summary exists
+     */
+    boolean exists(String summaryId);
+}
@@ -3,6 +3,7 @@ package org.openreceivable.repository;
 import org.openreceivable.enums.ContractStatus;
 import org.openreceivable.model.Contract;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -16,11 +17,25 @@ public interface ContractRepository {
      */
     Contract save(Contract contract);
     
+    /**
+     * Save a contract only if its stored version is still expectedVersion,
+     * or, if that is null, only if it is new. Its version is then the new one.
+     *
+     * @throws org.openreceivable.repository.store.OptimisticLockException
+     *         if another writer saved it since that version was read
+     */
+    Contract save(Contract contract, Long expectedVersion);
+    
     /**
      * Find contract by ID
      */
     Optional<Contract> findById(String contractId);
     
+    /**
+     * Find the contracts with the given IDs, skipping IDs not found
+     */
+    List<Contract> findAllById(Collection<String> contractIds);
+    
     /**
      * Find contract by contract number
      */
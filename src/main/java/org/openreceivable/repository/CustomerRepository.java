@@ -3,6 +3,7 @@ package org.openreceivable.repository;
 import org.openreceivable.enums.CustomerStatus;
 import org.openreceivable.model.Customer;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -16,11 +17,25 @@ public interface CustomerRepository {
      */
     Customer save(Customer customer);
     
+    /**
+     * Save a customer only if its stored version is still expectedVersion,
+     * or, if that is null, only if it is new. Its version is then the new one.
+     *
+     * @throws org.openreceivable.repository.store.OptimisticLockException
+     *         if another writer saved it since that version was read
+     */
+    Customer save(Customer customer, Long expectedVersion);
+    
     /**
      * Find customer by ID
      */
     Optional<Customer> findById(String customerId);
     
+    /**
+     * Find the customers with the given IDs, skipping IDs not found
+     */
+    List<Customer> findAllById(Collection<String> customerIds);
+    
     /**
      * Find customer by email
      */
@@ -2,6 +2,7 @@ package org.openreceivable.repository;
 
 import org.openreceivable.model.PaymentAllocation;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -15,6 +16,11 @@ public interface PaymentAllocationRepository {
      */
     PaymentAllocation save(PaymentAllocation allocation);
     
+    /**
+     * Save a batch of payment allocations, waiting for durability once per batch
+     */
+    List<PaymentAllocation> saveAll(List<PaymentAllocation> allocations);
+    
     /**
      * Find payment allocation by ID
      */
@@ -25,6 +31,11 @@ public interface PaymentAllocationRepository {
      */
     List<PaymentAllocation> findByPaymentId(String paymentId);
     
+    /**
+     * Find all allocations for any of the given payments
+     */
+    List<PaymentAllocation> findByPaymentIds(Collection<String> paymentIds);
+    
     /**
      * Find all allocations for a receivable
      */
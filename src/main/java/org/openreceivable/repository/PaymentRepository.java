@@ -4,6 +4,7 @@ import org.openreceivable.enums.PaymentStatus;
 import org.openreceivable.model.Payment;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
@@ -12,21 +13,50 @@ import java.util.Optional;
  */
 public interface PaymentRepository {
     
+    /**
+     * A new payment ID, for a payment that is referred to before it is saved
+     */
+    String nextId();
+    
     /**
      * Save a payment
      */
     Payment save(Payment payment);
     
+    /**
+     * Save a payment only if its stored version is still expectedVersion,
+     * or, if that is null, only if it is new. Its version is then the new one.
+     *
+     * @throws org.openreceivable.repository.store.OptimisticLockException
+     *         if another writer saved it since that version was read
+     */
+    Payment save(Payment payment, Long expectedVersion);
+    
+    /**
+     * Save a batch of payments, waiting for durability once per batch
+     */
+    List<Payment> saveAll(List<Payment> payments);
+    
     /**
      * Find payment by ID
      */
     Optional<Payment> findById(String paymentId);
     
+    /**
+     * Find the payments with the given IDs, skipping IDs not found
+     */
+    List<Payment> findAllById(Collection<String> paymentIds);
+    
     /**
      * Find all payments for a customer
      */
     List<Payment> findByCustomerId(String customerId);
     
+    /**
+     * Find all payments for any of the given customers
+     */
+    List<Payment> findByCustomerIds(Collection<String> customerIds);
+    
     /**
      * Find all payments for a receivable
      */
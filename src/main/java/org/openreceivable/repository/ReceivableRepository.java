@@ -4,11 +4,17 @@ import org.openreceivable.enums.ReceivableStatus;
 import org.openreceivable.model.Receivable;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 /**
  * Repository interface for Receivable entity
+ *
+ * Every finder returns the caller's own copies, so a receivable found can
+ * be changed and saved, conditionally on its version, without changing
+ * what other readers see before the save.
  */
 public interface ReceivableRepository {
     
@@ -17,21 +23,57 @@ public interface ReceivableRepository {
      */
     Receivable save(Receivable receivable);
     
+    /**
+     * Save a receivable only if its stored version is still expectedVersion,
+     * or, if that is null, only if it is new. Its version is then the new one.
+     *
+     * @throws org.openreceivable.repository.store.OptimisticLockException
+     *         if another writer saved it since that version was read
+     */
+    Receivable save(Receivable receivable, Long expectedVersion);
+    
+    /**
+     * Save a batch of receivables, waiting for durability once per batch
+     */
+    List<Receivable> saveAll(List<Receivable> receivables);
+    
+    /**
+     * Save a batch of receivables, each only if it is still at the version
+     * it carries, and return those another writer saved in the meantime,
+     * which were left unsaved
+     */
+    List<Receivable> saveAllIfCurrent(List<Receivable> receivables);
+    
     /**
      * Find receivable by ID
      */
     Optional<Receivable> findById(String receivableId);
     
+    /**
+     * Find the receivables with the given IDs, skipping IDs not found
+     */
+    List<Receivable> findAllById(Collection<String> receivableIds);
+    
     /**
      * Find all receivables for a customer
      */
     List<Receivable> findByCustomerId(String customerId);
     
+    /**
+     * Find all receivables for any of the given customers
+     */
+    List<Receivable> findByCustomerIds(Collection<String> customerIds);
+    
     /**
      * Find all receivables for a contract
      */
     List<Receivable> findByContractId(String contractId);
     
+    /**
+     * Find the receivables billed under an invoice number
+     */
+    List<Receivable> findByInvoiceNumber(String invoiceNumber);
+    
     /**
      * Find all receivables by status
      */
@@ -47,6 +89,21 @@ public interface ReceivableRepository {
      */
     List<Receivable> findByDueDateBetween(LocalDateTime startDate, LocalDateTime endDate);
     
+    /**
+     * Stream open (not PAID) receivables in due date order, from fromDate
+     * (inclusive) up to toDate (exclusive). Either bound may be null.
+     * The stream is lazy, so callers can stop after the rows they need.
+     */
+    Stream<Receivable> streamOpenByDueDate(LocalDateTime fromDate, LocalDateTime toDate);
+    
+    /**
+     * Find open receivables whose next aging category boundary, based on
+     * their recorded agingDays, falls at or before asOfDate. Receivables
+     * that have never been aged are always included. The results are to be
+     * saved with saveAllIfCurrent().
+     */
+    List<Receivable> findDueForAging(LocalDateTime asOfDate);
+    
     /**
      * Find all receivables
      */
@@ -0,0 +1,281 @@
+package org.openreceivable.repository.aggregate;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.openreceivable.aging.AgingPolicies;
+import org.openreceivable.enums.AgingCategory;
+import org.openreceivable.enums.ReceivableStatus;
+import org.openreceivable.model.Money;
+import org.openreceivable.model.Receivable;
+import org.openreceivable.repository.store.IndexedStore;
+import org.openreceivable.repository.store.StoreBackedRepository;
+import org.openreceivable.repository.store.StoreView;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Materialized per-customer aging totals.
+ *
+ * For every customer this keeps the outstanding amount of unpaid
+ * receivables per aging category plus the total outstanding amount, in
+ * minor units. It is a view of the receivable IndexedStore, so receivable
+ * creates, payment allocations, status changes and aging transitions all
+ * update it as part of the save, and reading a customer's totals is a map
+ * lookup. Categories follow the receivable's stored agingDays, i.e. they
+ * are as of the last aging run, under its contract type's aging policy.
+ *
+ * A verification job periodically recomputes every customer from the store
+ * and logs any drift (openreceivable.aggregates.verify-interval-minutes,
+ * 0 disables it).
+ *
+ * Enabled unless openreceivable.aggregates.customer-aging.enabled=false.
+ */
+@Component
+@ConditionalOnProperty(name = "openreceivable.aggregates.customer-aging.enabled", havingValue = "true", matchIfMissing = true)
+public class CustomerAgingAggregates implements StoreView<Receivable, CustomerAgingAggregates.Contribution> {
+
+    private static final Logger log = LoggerFactory.getLogger(CustomerAgingAggregates.class);
+
+    private static final AgingCategory[] CATEGORIES = AgingCategory.values();
+    private static final int TOTAL = CATEGORIES.length;
+    private static final int NO_CATEGORY = -1;
+
+    private final IndexedStore<Receivable> store;
+    private final AgingPolicies agingPolicies;
+    private final long verifyIntervalMinutes;
+    private final Map<String, long[]> totals = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService scheduler;
+
+    public CustomerAgingAggregates(StoreBackedRepository<Receivable> receivableRepository) {
+        this(receivableRepository, AgingPolicies.standard(), 0);
+    }
+
+    @Autowired
+    public CustomerAgingAggregates(StoreBackedRepository<Receivable> receivableRepository,
+                                   AgingPolicies agingPolicies,
+                                   @Value("${openreceivable.aggregates.verify-interval-minutes:60}") long verifyIntervalMinutes) {
+        this.store = receivableRepository.getStore();
+        this.agingPolicies = agingPolicies;
+        this.verifyIntervalMinutes = verifyIntervalMinutes;
+        store.addView(this);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (verifyIntervalMinutes > 0) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "customer-aggregate-verify");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(this::scheduledVerify,
+                    verifyIntervalMinutes, verifyIntervalMinutes, TimeUnit.MINUTES);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * What one receivable adds to its customer's totals
+     */
+    static final class Contribution {
+        private final String customerId;
+        private final int category;
+        private final long outstanding;
+
+        private Contribution(String customerId, int category, long outstanding) {
+            this.customerId = customerId;
+            this.category = category;
+            this.outstanding = outstanding;
+        }
+    }
+
+    @Override
+    public Contribution capture(Receivable receivable) {
+        if (receivable.getCustomerId() == null) {
+            return null;
+        }
+        return new Contribution(receivable.getCustomerId(), categoryOf(receivable),
+                receivable.getOutstandingMinorUnits());
+    }
+
+    @Override
+    public void apply(String id, Contribution before, Contribution after) {
+        if (before != null) {
+            add(before, -1);
+        }
+        if (after != null) {
+            add(after, 1);
+        }
+    }
+
+    private void add(Contribution contribution, int sign) {
+        long[] customer = totals.computeIfAbsent(contribution.customerId, key -> new long[TOTAL + 1]);
+        long amount = Money.multiply(contribution.outstanding, sign);
+        synchronized (customer) {
+            if (contribution.category != NO_CATEGORY) {
+                customer[contribution.category] = Money.add(customer[contribution.category], amount);
+            }
+            customer[TOTAL] = Money.add(customer[TOTAL], amount);
+        }
+    }
+
+    private int categoryOf(Receivable receivable) {
+        if (receivable.getStatus() == ReceivableStatus.PAID) {
+            return NO_CATEGORY;
+        }
+        Integer agingDays = receivable.getAgingDays();
+        return agingPolicies.forContract(receivable.getContractId()).categoryIndex(agingDays != null ? agingDays : 0);
+    }
+
+    // Reads
+
+    /**
+     * Current totals of a customer; all zero for an unknown customer
+     */
+    public CustomerAging get(String customerId) {
+        long[] customer = customerId != null ? totals.get(customerId) : null;
+        if (customer == null) {
+            return new CustomerAging(customerId, new long[TOTAL + 1]);
+        }
+        synchronized (customer) {
+            return new CustomerAging(customerId, customer.clone());
+        }
+    }
+
+    /**
+     * Recompute every customer's totals from the store and return the
+     * customers whose materialized totals differ. A mismatch is rechecked
+     * against a second recomputation first, so a write in flight during
+     * the scan is not reported as drift.
+     */
+    public List<Drift> verify() {
+        Map<String, long[]> expected = recompute(store.stream());
+        Set<String> customers = new HashSet<>(expected.keySet());
+        customers.addAll(totals.keySet());
+        List<String> suspects = mismatched(expected, customers);
+        if (suspects.isEmpty()) {
+            return List.of();
+        }
+        Set<String> recheck = new HashSet<>(suspects);
+        Map<String, long[]> again = recompute(store.stream().filter(r -> recheck.contains(r.getCustomerId())));
+        List<Drift> drift = new ArrayList<>();
+        for (String customerId : mismatched(again, recheck)) {
+            long[] recomputed = again.getOrDefault(customerId, new long[TOTAL + 1]);
+            drift.add(new Drift(get(customerId), new CustomerAging(customerId, recomputed)));
+        }
+        return drift;
+    }
+
+    private void scheduledVerify() {
+        try {
+            long started = System.nanoTime();
+            List<Drift> drift = verify();
+            for (Drift d : drift) {
+                log.warn("Customer aggregate drift for {}: materialized total {}, recomputed total {}",
+                        d.getCustomerId(), d.getMaterialized().getTotal(), d.getRecomputed().getTotal());
+            }
+            log.info("Verified aggregates of {} customers in {} ms, {} drifted", totals.size(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started), drift.size());
+        } catch (RuntimeException e) {
+            log.error("Customer aggregate verification failed", e);
+        }
+    }
+
+    private Map<String, long[]> recompute(Stream<Receivable> receivables) {
+        Map<String, long[]> result = new HashMap<>();
+        receivables.forEach(receivable -> {
+            if (receivable.getCustomerId() == null) {
+                return;
+            }
+            long[] customer = result.computeIfAbsent(receivable.getCustomerId(), key -> new long[TOTAL + 1]);
+            long amount = receivable.getOutstandingMinorUnits();
+            int category = categoryOf(receivable);
+            if (category != NO_CATEGORY) {
+                customer[category] = Money.add(customer[category], amount);
+            }
+            customer[TOTAL] = Money.add(customer[TOTAL], amount);
+        });
+        return result;
+    }
+
+    /**
+     * The given customers whose materialized totals differ from the expected
+     * ones; a customer missing from expected should have all-zero totals
+     */
+    private List<String> mismatched(Map<String, long[]> expected, Collection<String> customers) {
+        long[] none = new long[TOTAL + 1];
+        return customers.stream()
+                .filter(customerId -> !Arrays.equals(get(customerId).values, expected.getOrDefault(customerId, none)))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * A customer's outstanding amounts per aging category and in total
+     */
+    public static final class CustomerAging {
+        private final String customerId;
+        private final long[] values;
+
+        private CustomerAging(String customerId, long[] values) {
+            this.customerId = customerId;
+            this.values = values;
+        }
+
+        public String getCustomerId() {
+            return customerId;
+        }
+
+        public BigDecimal getOutstanding(AgingCategory category) {
+            return Money.toBigDecimal(values[category.ordinal()]);
+        }
+
+        public BigDecimal getTotal() {
+            return Money.toBigDecimal(values[TOTAL]);
+        }
+    }
+
+    /**
+     * Materialized and recomputed totals of a customer that disagree
+     */
+    public static final class Drift {
+        private final CustomerAging materialized;
+        private final CustomerAging recomputed;
+
+        private Drift(CustomerAging materialized, CustomerAging recomputed) {
+            this.materialized = materialized;
+            this.recomputed = recomputed;
+        }
+
+        public String getCustomerId() {
+            return materialized.getCustomerId();
+        }
+
+        public CustomerAging getMaterialized() {
+            return materialized;
+        }
+
+        public CustomerAging getRecomputed() {
+            return recomputed;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package org.openreceivable.repository.aggregate;
+
+import org.openreceivable.allocation.AllocationWaterfall;
+import org.openreceivable.enums.ReceivableStatus;
+import org.openreceivable.model.Money;
+import org.openreceivable.model.Receivable;
+import org.openreceivable.repository.store.StoreBackedRepository;
+import org.openreceivable.repository.store.StoreView;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Each customer's open receivables in payment allocation order.
+ *
+ * A receivable is open while it has an outstanding amount and is neither
+ * PAID nor WRITTEN_OFF. Every customer has a sorted set of the waterfall
+ * keys of its open receivables, kept current as a view of the receivable
+ * IndexedStore, so a payment walks the receivables it pays off in order
+ * and each save moves one key in O(log n).
+ *
+ * Enabled unless openreceivable.aggregates.open-receivables.enabled=false.
+ */
+@Component
+@ConditionalOnProperty(name = "openreceivable.aggregates.open-receivables.enabled", havingValue = "true", matchIfMissing = true)
+public class CustomerOpenReceivables implements StoreView<Receivable, CustomerOpenReceivables.Position> {
+
+    private final AllocationWaterfall waterfall;
+    private final Map<String, NavigableSet<AllocationWaterfall.Key>> byCustomer = new ConcurrentHashMap<>();
+
+    public CustomerOpenReceivables(StoreBackedRepository<Receivable> receivableRepository) {
+        this(receivableRepository, AllocationWaterfall.standard());
+    }
+
+    @Autowired
+    public CustomerOpenReceivables(StoreBackedRepository<Receivable> receivableRepository,
+                                   AllocationWaterfall waterfall) {
+        this.waterfall = waterfall;
+        receivableRepository.getStore().addView(this);
+    }
+
+    /**
+     * Where one open receivable sits
+     */
+    static final class Position {
+        private final String customerId;
+        private final AllocationWaterfall.Key key;
+
+        private Position(String customerId, AllocationWaterfall.Key key) {
+            this.customerId = customerId;
+            this.key = key;
+        }
+    }
+
+    @Override
+    public Position capture(Receivable receivable) {
+        if (receivable.getCustomerId() == null
+                || receivable.getStatus() == ReceivableStatus.PAID
+                || receivable.getStatus() == ReceivableStatus.WRITTEN_OFF
+                || receivable.getOutstandingMinorUnits() <= 0) {
+            return null;
+        }
+        return new Position(receivable.getCustomerId(), waterfall.keyOf(receivable));
+    }
+
+    @Override
+    public void apply(String id, Position before, Position after) {
+        if (before != null) {
+            NavigableSet<AllocationWaterfall.Key> keys = byCustomer.get(before.customerId);
+            if (keys != null) {
+                keys.remove(before.key);
+            }
+        }
+        if (after != null) {
+            byCustomer.computeIfAbsent(after.customerId,
+                    customerId -> new ConcurrentSkipListSet<>(waterfall.order())).add(after.key);
+        }
+    }
+
+    /**
+     * IDs of a customer's open receivables in waterfall order. The iterator
+     * is weakly consistent: receivables paid off while it is in use drop
+     * out of it, so it can be walked while allocating.
+     */
+    public Iterator<String> inAllocationOrder(String customerId) {
+        NavigableSet<AllocationWaterfall.Key> keys = customerId != null ? byCustomer.get(customerId) : null;
+        if (keys == null) {
+            return Collections.emptyIterator();
+        }
+        Iterator<AllocationWaterfall.Key> iterator = keys.iterator();
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public String next() {
+                return iterator.next().getReceivableId();
+            }
+        };
+    }
+
+    /**
+     * Number of open receivables of a customer
+     */
+    public int count(String customerId) {
+        NavigableSet<AllocationWaterfall.Key> keys = customerId != null ? byCustomer.get(customerId) : null;
+        return keys != null ? keys.size() : 0;
+    }
+}
@@ -0,0 +1,362 @@
+package org.openreceivable.repository.aggregate;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.openreceivable.model.Payment;
+import org.openreceivable.repository.store.IndexedStore;
+import org.openreceivable.repository.store.StoreBackedRepository;
+import org.openreceivable.repository.store.StoreView;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.time.Clock;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
+
+/**
+ * Recently posted payments by (customerId, paymentMethod, referenceNumber),
+ * so a retried post returns the original payment instead of crediting the
+ * account twice.
+ *
+ * Each key is held as a 64-bit fingerprint mapped to the payment ID and
+ * posting time; a hit is confirmed against the stored payment, so a
+ * fingerprint collision is never taken for a duplicate. The index is a view
+ * of the payment IndexedStore, so payments saved by any path, including
+ * recovery, are indexed. Posting through postOnce() or tryClaim() first
+ * claims the key, so concurrent posts of one key run once.
+ *
+ * Keys are kept for openreceivable.payments.dedupe.retention-days after the
+ * payment was created and swept every sweep-interval-minutes, so memory is
+ * bounded by the payments posted within the window, not by all payments.
+ * Payments without a reference number are never deduplicated.
+ *
+ * Enabled unless openreceivable.payments.dedupe.enabled=false.
+ */
+@Component
+@ConditionalOnProperty(name = "openreceivable.payments.dedupe.enabled", havingValue = "true", matchIfMissing = true)
+public class PaymentReferenceIndex implements StoreView<Payment, PaymentReferenceIndex.Entry> {
+
+    private static final Logger log = LoggerFactory.getLogger(PaymentReferenceIndex.class);
+
+    private final IndexedStore<Payment> store;
+    private final Clock clock;
+    private final long retentionSeconds;
+    private final long sweepIntervalMinutes;
+    private final Map<Long, Entry> entries = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService scheduler;
+
+    public PaymentReferenceIndex(StoreBackedRepository<Payment> paymentRepository, Clock clock) {
+        this(paymentRepository, clock, 35, 0);
+    }
+
+    /**
+     * @param clock the application clock, so retention follows
+     *        openreceivable.clock.fixed like the rest of the application
+     */
+    @Autowired
+    public PaymentReferenceIndex(StoreBackedRepository<Payment> paymentRepository, Clock clock,
+                                 @Value("${openreceivable.payments.dedupe.retention-days:35}") long retentionDays,
+                                 @Value("${openreceivable.payments.dedupe.sweep-interval-minutes:60}") long sweepIntervalMinutes) {
+        this.store = paymentRepository.getStore();
+        this.clock = clock;
+        this.retentionSeconds = TimeUnit.DAYS.toSeconds(retentionDays);
+        this.sweepIntervalMinutes = sweepIntervalMinutes;
+        store.addView(this);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (sweepIntervalMinutes > 0) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "payment-dedupe-sweep");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(this::scheduledSweep,
+                    sweepIntervalMinutes, sweepIntervalMinutes, TimeUnit.MINUTES);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * A posted payment, or a claim on its key while it is being posted
+     */
+    static final class Entry {
+        private final long fingerprint;
+        private final String paymentId;
+        private final long postedSecond;
+        private final CompletableFuture<Payment> pending;
+
+        private Entry(long fingerprint, String paymentId, long postedSecond, CompletableFuture<Payment> pending) {
+            this.fingerprint = fingerprint;
+            this.paymentId = paymentId;
+            this.postedSecond = postedSecond;
+            this.pending = pending;
+        }
+    }
+
+    @Override
+    public Entry capture(Payment payment) {
+        if (payment.getReferenceNumber() == null || payment.getCreatedDate() == null) {
+            return null;
+        }
+        return new Entry(fingerprint(payment), payment.getPaymentId(),
+                postedSecond(payment), null);
+    }
+
+    @Override
+    public void apply(String id, Entry before, Entry after) {
+        // An entry whose payment is deleted is dropped when next looked up.
+        // A saved payment takes its key over from a claim still pending, so
+        // it stays indexed even if that claim is then released.
+        if (after != null && !isExpired(after, now())) {
+            entries.compute(after.fingerprint, (key, existing) -> existing == null || existing.pending != null
+                    || isExpired(existing, now()) ? after : existing);
+        }
+    }
+
+    @Override
+    public boolean keepsState() {
+        return false;
+    }
+
+    /**
+     * Post a payment unless one with the same key was posted within the
+     * retention window, in which case that payment is returned and post is
+     * not run. A post of the same key already under way is waited for.
+     */
+    public Payment postOnce(Payment payment, UnaryOperator<Payment> post) {
+        if (payment.getReferenceNumber() == null) {
+            return post.apply(payment);
+        }
+        long fingerprint = fingerprint(payment);
+        while (true) {
+            Claim claim = new Claim(new Entry(fingerprint, null, now(), new CompletableFuture<>()), null);
+            Entry existing = entries.putIfAbsent(fingerprint, claim.entry);
+            if (existing == null) {
+                return claim.post(payment, post);
+            }
+            if (existing.pending != null) {
+                try {
+                    existing.pending.join();
+                } catch (CompletionException e) {
+                    // That post failed and released the key, so claim it again
+                }
+                continue;
+            }
+            Lookup lookup = lookup(existing, payment);
+            if (lookup == Lookup.DUPLICATE) {
+                return store.get(existing.paymentId).orElseThrow();
+            }
+            if (lookup == Lookup.COLLISION) {
+                return post.apply(payment);
+            }
+        }
+    }
+
+    /**
+     * Claim a payment's key for a post the caller makes, or return null if
+     * the payment is a duplicate of one posted. The caller must then call
+     * posted() or release() on the claim.
+     *
+     * If a post of the key is under way, e.g. an earlier payment of the
+     * same batch, the claim returned is in progress (see isInProgress())
+     * and holds nothing: the caller waits for that post with awaitOther()
+     * and claims again. Unlike postOnce() this does not wait itself, so a
+     * caller can release the claims it holds first and never waits on a
+     * post that waits on it.
+     */
+    public Claim tryClaim(Payment payment) {
+        if (payment.getReferenceNumber() == null) {
+            return new Claim(null, null);
+        }
+        long fingerprint = fingerprint(payment);
+        while (true) {
+            Claim claim = new Claim(new Entry(fingerprint, null, now(), new CompletableFuture<>()), null);
+            Entry existing = entries.putIfAbsent(fingerprint, claim.entry);
+            if (existing == null) {
+                return claim;
+            }
+            if (existing.pending != null) {
+                return new Claim(null, existing.pending);
+            }
+            Lookup lookup = lookup(existing, payment);
+            if (lookup == Lookup.DUPLICATE) {
+                return null;
+            }
+            if (lookup == Lookup.COLLISION) {
+                return new Claim(null, null);
+            }
+        }
+    }
+
+    /**
+     * Number of keys held, including claims
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Drop keys past the retention window
+     */
+    public int sweep() {
+        long now = now();
+        int before = entries.size();
+        entries.values().removeIf(entry -> entry.pending == null && isExpired(entry, now));
+        return before - entries.size();
+    }
+
+    private void scheduledSweep() {
+        try {
+            int removed = sweep();
+            if (removed > 0) {
+                log.info("Payment dedupe sweep dropped {} expired keys, {} held", removed, entries.size());
+            }
+        } catch (RuntimeException e) {
+            log.error("Payment dedupe sweep failed", e);
+        }
+    }
+
+    private enum Lookup { DUPLICATE, COLLISION, GONE }
+
+    /**
+     * Check a posted entry against the payment being posted. Expired entries
+     * and those whose payment was deleted are removed (GONE).
+     */
+    private Lookup lookup(Entry existing, Payment payment) {
+        Payment original = isExpired(existing, now()) ? null : store.get(existing.paymentId).orElse(null);
+        if (original == null) {
+            entries.remove(existing.fingerprint, existing);
+            return Lookup.GONE;
+        }
+        return Objects.equals(original.getCustomerId(), payment.getCustomerId())
+                && original.getPaymentMethod() == payment.getPaymentMethod()
+                && Objects.equals(original.getReferenceNumber(), payment.getReferenceNumber())
+                ? Lookup.DUPLICATE : Lookup.COLLISION;
+    }
+
+    private boolean isExpired(Entry entry, long now) {
+        return entry.postedSecond < now - retentionSeconds;
+    }
+
+    private long now() {
+        return clock.instant().getEpochSecond();
+    }
+
+    /**
+     * When a payment was created. The payment repository stamps createdDate
+     * from the same clock, in its zone, so retention runs on one time source.
+     */
+    private long postedSecond(Payment payment) {
+        return payment.getCreatedDate().atZone(clock.getZone()).toEpochSecond();
+    }
+
+    /**
+     * FNV-1a over the key fields, separated so that shifting characters
+     * between fields changes the hash
+     */
+    static long fingerprint(Payment payment) {
+        long hash = 0xcbf29ce484222325L;
+        hash = hash(hash, payment.getCustomerId());
+        hash = hash(hash, payment.getPaymentMethod() != null ? payment.getPaymentMethod().name() : null);
+        return hash(hash, payment.getReferenceNumber());
+    }
+
+    private static long hash(long hash, String value) {
+        if (value != null) {
+            for (int i = 0; i < value.length(); i++) {
+                hash = (hash ^ value.charAt(i)) * 0x100000001b3L;
+            }
+        }
+        return (hash ^ 0xFFFF) * 0x100000001b3L;
+    }
+
+    /**
+     * A key held while its payment is posted
+     */
+    public final class Claim {
+        private final Entry entry;
+        private final CompletableFuture<Payment> other;
+
+        private Claim(Entry entry, CompletableFuture<Payment> other) {
+            this.entry = entry;
+            this.other = other;
+        }
+
+        /**
+         * Whether another post held the key, so this claim holds nothing
+         * and the payment must be claimed again once awaitOther() returns
+         */
+        public boolean isInProgress() {
+            return other != null;
+        }
+
+        /**
+         * Wait until the other post of the key has saved its payment or
+         * given up
+         */
+        public void awaitOther() {
+            if (other != null) {
+                try {
+                    other.join();
+                } catch (CompletionException e) {
+                    // Released: claiming again takes the key over
+                }
+            }
+        }
+
+        /**
+         * The payment was saved: later posts of the key return it
+         */
+        public void posted(Payment payment) {
+            if (entry != null) {
+                long postedSecond = payment.getCreatedDate() != null ? postedSecond(payment) : entry.postedSecond;
+                entries.replace(entry.fingerprint, entry,
+                        new Entry(entry.fingerprint, payment.getPaymentId(), postedSecond, null));
+                entry.pending.complete(payment);
+            }
+        }
+
+        /**
+         * The payment was not saved: free the key for another post. A key
+         * a saved payment has taken over is kept.
+         */
+        public void release() {
+            if (entry != null) {
+                entries.remove(entry.fingerprint, entry);
+                entry.pending.completeExceptionally(new RuntimeException("Payment post abandoned"));
+            }
+        }
+
+        private Payment post(Payment payment, UnaryOperator<Payment> post) {
+            Payment saved;
+            try {
+                saved = post.apply(payment);
+            } catch (RuntimeException | Error e) {
+                release();
+                throw e;
+            }
+            posted(saved);
+            return saved;
+        }
+    }
+}
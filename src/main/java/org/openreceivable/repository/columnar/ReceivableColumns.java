@@ -0,0 +1,600 @@
+package org.openreceivable.repository.columnar;
+
+import org.openreceivable.aging.AgingPolicies;
+import org.openreceivable.aging.AgingPolicy;
+import org.openreceivable.enums.AgingCategory;
+import org.openreceivable.enums.ReceivableStatus;
+import org.openreceivable.enums.ReceivableType;
+import org.openreceivable.model.Money;
+import org.openreceivable.model.Receivable;
+import org.openreceivable.repository.store.StoreBackedRepository;
+import org.openreceivable.repository.store.StoreView;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+import java.util.stream.IntStream;
+
+/**
+ * Columnar copy of the scan-heavy receivable fields.
+ *
+ * Each receivable occupies one slot across a set of primitive arrays:
+ * amounts in minor units, due date as epoch day plus second of day, status
+ * and type as ordinals, customer and contract as dense int keys. Aggregations
+ * run as loops over these arrays instead of chasing BigDecimal and
+ * LocalDateTime references through millions of objects.
+ *
+ * The columns are a view of the receivable IndexedStore, so they follow every
+ * save and delete made through the repository. Slots of deleted receivables
+ * are reused. Receivables of one customer are chained through a linked list
+ * of slots so a customer's balance does not need a full scan.
+ *
+ * Writers take the write lock for the few array stores of one receivable.
+ * Readers do not lock as a rule: they read optimistically and validate
+ * (StampedLock.tryOptimisticRead), try again if a write came in between,
+ * and take the read lock only after repeated failures. Aging totals are
+ * computed in one pass over the slots, split into ranges that are scanned
+ * in parallel and each read this way, so a scan holds writers off for at
+ * most one range. Each range is consistent in itself, but like the store's
+ * indexes the ranges of one pass may be read moments apart. Each contract
+ * key's aging policy is looked up once per pass, outside the lock.
+ *
+ * Amounts are kept as Money minor units; values with more precision than
+ * the currency allows are rounded half-even.
+ *
+ * Enabled unless openreceivable.columnar.receivables.enabled=false.
+ */
+@Component
+@ConditionalOnProperty(name = "openreceivable.columnar.receivables.enabled", havingValue = "true", matchIfMissing = true)
+public class ReceivableColumns implements StoreView<Receivable, ReceivableColumns.Row> {
+
+    private static final byte FREE = -1;
+    private static final byte NO_ORDINAL = -2;
+    private static final int NO_DUE_DATE = Integer.MIN_VALUE;
+    private static final int NONE = -1;
+    private static final byte PAID = (byte) ReceivableStatus.PAID.ordinal();
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int CATEGORIES = AgingCategory.values().length;
+    private static final int SCAN_RANGE_SLOTS = 16 * 1024;
+    private static final int OPTIMISTIC_ATTEMPTS = 3;
+    // Returned by a range scan that met keys not classified yet
+    private static final long[] MISSING_KEYS = new long[0];
+    private static final String[] TYPE_NAMES = Arrays.stream(ReceivableType.values())
+            .map(Enum::name).toArray(String[]::new);
+
+    private final AgingPolicies agingPolicies;
+    private final StampedLock lock = new StampedLock();
+
+    // Written under the write lock, read as in read()
+    private final Map<String, Integer> slotById = new HashMap<>();
+    private final Map<String, Integer> customerKeys = new HashMap<>();
+    private final Map<String, Integer> contractKeys = new HashMap<>();
+    private String[] customerIdByKey = new String[INITIAL_CAPACITY];
+    private String[] contractIdByKey = new String[INITIAL_CAPACITY];
+    private String[] idBySlot = new String[INITIAL_CAPACITY];
+    private long[] outstanding = new long[INITIAL_CAPACITY];
+    private long[] original = new long[INITIAL_CAPACITY];
+    private int[] dueDay = new int[INITIAL_CAPACITY];
+    private int[] dueSecond = new int[INITIAL_CAPACITY];
+    private byte[] status = new byte[INITIAL_CAPACITY];
+    private byte[] type = new byte[INITIAL_CAPACITY];
+    private int[] customer = new int[INITIAL_CAPACITY];
+    private int[] contract = new int[INITIAL_CAPACITY];
+    private int[] nextOfCustomer = new int[INITIAL_CAPACITY];
+    private int[] prevOfCustomer = new int[INITIAL_CAPACITY];
+    private int[] customerHead = new int[INITIAL_CAPACITY];
+    private int[] freeSlots = new int[16];
+    private int freeCount;
+    private int highWater;
+
+    public ReceivableColumns(StoreBackedRepository<Receivable> receivableRepository) {
+        this(receivableRepository, AgingPolicies.standard());
+    }
+
+    @Autowired
+    public ReceivableColumns(StoreBackedRepository<Receivable> receivableRepository, AgingPolicies agingPolicies) {
+        this.agingPolicies = agingPolicies;
+        Arrays.fill(status, FREE);
+        Arrays.fill(customerHead, NONE);
+        receivableRepository.getStore().addView(this);
+    }
+
+    /**
+     * Column values captured from one receivable
+     */
+    static final class Row {
+        private final String customerId;
+        private final String contractId;
+        private final long outstanding;
+        private final long original;
+        private final int dueDay;
+        private final int dueSecond;
+        private final byte status;
+        private final byte type;
+
+        private Row(Receivable receivable) {
+            LocalDateTime due = receivable.getDueDate();
+            this.customerId = receivable.getCustomerId();
+            this.contractId = receivable.getContractId();
+            this.outstanding = receivable.getOutstandingMinorUnits();
+            this.original = receivable.getOriginalMinorUnits();
+            this.dueDay = due != null ? (int) due.toLocalDate().toEpochDay() : NO_DUE_DATE;
+            this.dueSecond = due != null ? due.toLocalTime().toSecondOfDay() : 0;
+            this.status = receivable.getStatus() != null ? (byte) receivable.getStatus().ordinal() : NO_ORDINAL;
+            this.type = receivable.getReceivableType() != null ? (byte) receivable.getReceivableType().ordinal() : NO_ORDINAL;
+        }
+    }
+
+    @Override
+    public Row capture(Receivable receivable) {
+        return new Row(receivable);
+    }
+
+    @Override
+    public void apply(String id, Row before, Row after) {
+        long stamp = lock.writeLock();
+        try {
+            if (after == null) {
+                Integer slot = slotById.remove(id);
+                if (slot != null) {
+                    release(slot);
+                }
+                return;
+            }
+            Integer existing = slotById.get(id);
+            int slot;
+            if (existing != null) {
+                slot = existing;
+                unlinkCustomer(slot);
+            } else {
+                slot = allocate();
+                slotById.put(id, slot);
+                idBySlot[slot] = id;
+            }
+            outstanding[slot] = after.outstanding;
+            original[slot] = after.original;
+            dueDay[slot] = after.dueDay;
+            dueSecond[slot] = after.dueSecond;
+            status[slot] = after.status;
+            type[slot] = after.type;
+            customer[slot] = keyOf(customerKeys, after.customerId);
+            contract[slot] = keyOf(contractKeys, after.contractId);
+            linkCustomer(slot);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    // Aggregations
+
+    /**
+     * Sum of outstanding amounts of a customer's receivables
+     */
+    public BigDecimal getCustomerOutstanding(String customerId) {
+        if (customerId == null) {
+            return Money.toBigDecimal(0);
+        }
+        return Money.toBigDecimal(read(() -> {
+            Integer key = customerKeys.get(customerId);
+            long total = 0;
+            if (key != null) {
+                int[] next = nextOfCustomer;
+                long[] amounts = outstanding;
+                // A chain being relinked can loop when read optimistically
+                int steps = next.length;
+                for (int slot = customerHead[key]; slot != NONE; slot = next[slot]) {
+                    if (--steps < 0) {
+                        return null;
+                    }
+                    total = Money.add(total, amounts[slot]);
+                }
+            }
+            return total;
+        }));
+    }
+
+    /**
+     * Outstanding amount and count of unpaid receivables per aging category
+     * as of the given time. Aging days are whole days past due, matching
+     * Receivable.calculateAgingDays.
+     */
+    public AgingTotals getAgingTotals(LocalDateTime asOfDate) {
+        return new AgingTotals(totals(asOfDate, null, null, 0), 0, 1);
+    }
+
+    /**
+     * What a grouped aging report classifies receivables by
+     */
+    public enum Dimension {
+        CUSTOMER,
+        CONTRACT,
+        RECEIVABLE_TYPE
+    }
+
+    /**
+     * Aging totals of unpaid receivables grouped by a classification of one
+     * dimension. The classifier maps each distinct customer ID, contract ID
+     * or receivable type name to a group in [0, groups), or to -1 if it fits
+     * none. Returns groups + 1 totals; the last holds receivables that fit
+     * no group or have no value for the dimension.
+     *
+     * Each distinct value is classified once per call, outside the lock,
+     * so the classifier may look up other repositories.
+     */
+    public AgingTotals[] getAgingTotals(LocalDateTime asOfDate, Dimension dimension,
+                                        ToIntFunction<String> classifier, int groups) {
+        long[] totals = totals(asOfDate, dimension, classifier, groups);
+        AgingTotals[] result = new AgingTotals[groups + 1];
+        for (int group = 0; group <= groups; group++) {
+            result[group] = new AgingTotals(totals, group, groups + 1);
+        }
+        return result;
+    }
+
+    /**
+     * Classify the dimension's values and look up each contract's aging
+     * policy outside the lock, then scan. A null dimension totals
+     * everything in one group.
+     */
+    private long[] totals(LocalDateTime asOfDate, Dimension dimension, ToIntFunction<String> classifier, int groups) {
+        Keys keys = new Keys(dimension, classifier, groups, new int[0], new AgingPolicy[0]).extend();
+        return scan(asOfDate, keys, dimension != null ? groups + 1 : 1);
+    }
+
+    /**
+     * The dimension values and contract IDs known at one moment. Names
+     * below the counts are never changed, so they can be read unlocked.
+     */
+    private static final class KnownKeys {
+        private final String[] names;
+        private final int count;
+        private final String[] contractIds;
+        private final int contracts;
+
+        private KnownKeys(String[] names, int count, String[] contractIds, int contracts) {
+            this.names = names;
+            this.count = count;
+            this.contractIds = contractIds;
+            this.contracts = contracts;
+        }
+    }
+
+    /**
+     * Group of each dimension key and aging policy of each contract key,
+     * extended when a scan meets keys added since
+     */
+    private final class Keys {
+        private final Dimension dimension;
+        private final ToIntFunction<String> classifier;
+        private final int groups;
+        private final int[] groupOf;
+        private final AgingPolicy[] policyOf;
+
+        private Keys(Dimension dimension, ToIntFunction<String> classifier, int groups,
+                     int[] groupOf, AgingPolicy[] policyOf) {
+            this.dimension = dimension;
+            this.classifier = classifier;
+            this.groups = groups;
+            this.groupOf = groupOf;
+            this.policyOf = policyOf;
+        }
+
+        /**
+         * These keys plus those added since, classified outside the lock
+         */
+        private Keys extend() {
+            KnownKeys known = read(() -> new KnownKeys(dimension != null ? namesOf(dimension) : null,
+                    dimension != null ? countOf(dimension) : 0, contractIdByKey, contractKeys.size()));
+            int[] groupOf = this.groupOf;
+            if (known.count > groupOf.length) {
+                groupOf = Arrays.copyOf(groupOf, known.count);
+                for (int key = this.groupOf.length; key < known.count; key++) {
+                    int group = classifier.applyAsInt(known.names[key]);
+                    groupOf[key] = group >= 0 && group < groups ? group : groups;
+                }
+            }
+            AgingPolicy[] policyOf = this.policyOf;
+            if (known.contracts > policyOf.length) {
+                policyOf = Arrays.copyOf(policyOf, known.contracts);
+                for (int key = this.policyOf.length; key < known.contracts; key++) {
+                    policyOf[key] = agingPolicies.forContract(known.contractIds[key]);
+                }
+            }
+            return new Keys(dimension, classifier, groups, groupOf, policyOf);
+        }
+    }
+
+    private String[] namesOf(Dimension dimension) {
+        switch (dimension) {
+            case CUSTOMER:
+                return customerIdByKey;
+            case CONTRACT:
+                return contractIdByKey;
+            default:
+                return TYPE_NAMES;
+        }
+    }
+
+    private int countOf(Dimension dimension) {
+        switch (dimension) {
+            case CUSTOMER:
+                return customerKeys.size();
+            case CONTRACT:
+                return contractKeys.size();
+            default:
+                return TYPE_NAMES.length;
+        }
+    }
+
+    /**
+     * Sum outstanding amounts and counts per group and category, scanning
+     * ranges of slots in parallel. A null dimension puts every receivable
+     * in group 0; otherwise keys.groupOf maps a dimension key to its group
+     * and keys without a group go to the last one. keys.policyOf maps a
+     * contract key to its aging policy.
+     */
+    private long[] scan(LocalDateTime asOfDate, Keys keys, int groups) {
+        int asOfDay = (int) asOfDate.toLocalDate().toEpochDay();
+        int asOfSecond = asOfDate.toLocalTime().toSecondOfDay();
+        int end = read(() -> highWater);
+        int ranges = Math.max(1, (end + SCAN_RANGE_SLOTS - 1) / SCAN_RANGE_SLOTS);
+        IntStream rangeIndexes = IntStream.range(0, ranges);
+        return (ranges > 1 ? rangeIndexes.parallel() : rangeIndexes)
+                .mapToObj(r -> scanRange(r * SCAN_RANGE_SLOTS, Math.min(end, (r + 1) * SCAN_RANGE_SLOTS),
+                        asOfDay, asOfSecond, keys, groups))
+                .reduce(ReceivableColumns::merge)
+                .orElseThrow();
+    }
+
+    private long[] scanRange(int from, int to, int asOfDay, int asOfSecond, Keys keys, int groups) {
+        while (true) {
+            Keys current = keys;
+            long[] totals = read(() -> sumRange(from, to, asOfDay, asOfSecond, current, groups));
+            if (totals != MISSING_KEYS) {
+                return totals;
+            }
+            keys = keys.extend();
+        }
+    }
+
+    /**
+     * Totals of one range of slots, or MISSING_KEYS if a slot has a key
+     * added since keys was classified
+     */
+    private long[] sumRange(int from, int to, int asOfDay, int asOfSecond, Keys keys, int groups) {
+        // Amounts for group g and category c at g * CATEGORIES + c, counts after all amounts
+        long[] totals = new long[groups * CATEGORIES * 2];
+        int countOffset = groups * CATEGORIES;
+        int unknown = groups - 1;
+        Dimension dimension = keys.dimension;
+        int[] groupOf = keys.groupOf;
+        AgingPolicy[] policyOf = keys.policyOf;
+        AgingPolicy defaultPolicy = agingPolicies.getDefault();
+        byte[] status = this.status;
+        int[] dueDay = this.dueDay;
+        int[] dueSecond = this.dueSecond;
+        int[] customer = this.customer;
+        int[] contract = this.contract;
+        byte[] type = this.type;
+        long[] outstanding = this.outstanding;
+        for (int slot = from; slot < to; slot++) {
+            byte s = status[slot];
+            if (s == FREE || s == PAID) {
+                continue;
+            }
+            int day = dueDay[slot];
+            int days = day != NO_DUE_DATE ? asOfDay - day - (asOfSecond < dueSecond[slot] ? 1 : 0) : 0;
+            int group;
+            if (dimension == null) {
+                group = 0;
+            } else {
+                int key = dimension == Dimension.CUSTOMER ? customer[slot]
+                        : dimension == Dimension.CONTRACT ? contract[slot] : type[slot];
+                if (key >= groupOf.length) {
+                    return MISSING_KEYS;
+                }
+                group = key >= 0 ? groupOf[key] : unknown;
+            }
+            int contractKey = contract[slot];
+            if (contractKey >= policyOf.length) {
+                return MISSING_KEYS;
+            }
+            AgingPolicy policy = contractKey >= 0 ? policyOf[contractKey] : defaultPolicy;
+            int index = group * CATEGORIES + policy.categoryIndex(days);
+            totals[index] = Money.add(totals[index], outstanding[slot]);
+            totals[countOffset + index]++;
+        }
+        return totals;
+    }
+
+    private static long[] merge(long[] a, long[] b) {
+        for (int i = 0; i < a.length; i++) {
+            a[i] = Money.add(a[i], b[i]);
+        }
+        return a;
+    }
+
+    /**
+     * Number of receivables held in the columns
+     */
+    public int size() {
+        return read(slotById::size);
+    }
+
+    /**
+     * Run a read of the columns without blocking writers: optimistically,
+     * again if a write came in meanwhile, and under the read lock only once
+     * OPTIMISTIC_ATTEMPTS have failed. An optimistic attempt may see state
+     * torn by a write, so reader may then throw or return null; either way
+     * its result is discarded. Under the read lock it must return non-null.
+     */
+    private <R> R read(Supplier<R> reader) {
+        for (int attempt = 0; attempt < OPTIMISTIC_ATTEMPTS; attempt++) {
+            long stamp = lock.tryOptimisticRead();
+            if (stamp == 0) {
+                Thread.onSpinWait();
+                continue;
+            }
+            R result;
+            try {
+                result = reader.get();
+            } catch (RuntimeException e) {
+                result = null;
+            }
+            if (result != null && lock.validate(stamp)) {
+                return result;
+            }
+        }
+        long stamp = lock.readLock();
+        try {
+            return reader.get();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // Slot management, all called with the write lock held
+
+    private int allocate() {
+        if (freeCount > 0) {
+            return freeSlots[--freeCount];
+        }
+        if (highWater == status.length) {
+            grow(status.length * 2);
+        }
+        return highWater++;
+    }
+
+    private void release(int slot) {
+        unlinkCustomer(slot);
+        status[slot] = FREE;
+        outstanding[slot] = 0;
+        original[slot] = 0;
+        idBySlot[slot] = null;
+        if (freeCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+        }
+        freeSlots[freeCount++] = slot;
+    }
+
+    private void grow(int capacity) {
+        int previous = status.length;
+        idBySlot = Arrays.copyOf(idBySlot, capacity);
+        outstanding = Arrays.copyOf(outstanding, capacity);
+        original = Arrays.copyOf(original, capacity);
+        dueDay = Arrays.copyOf(dueDay, capacity);
+        dueSecond = Arrays.copyOf(dueSecond, capacity);
+        status = Arrays.copyOf(status, capacity);
+        type = Arrays.copyOf(type, capacity);
+        customer = Arrays.copyOf(customer, capacity);
+        contract = Arrays.copyOf(contract, capacity);
+        nextOfCustomer = Arrays.copyOf(nextOfCustomer, capacity);
+        prevOfCustomer = Arrays.copyOf(prevOfCustomer, capacity);
+        Arrays.fill(status, previous, capacity, FREE);
+    }
+
+    private int keyOf(Map<String, Integer> keys, String value) {
+        if (value == null) {
+            return NONE;
+        }
+        Integer key = keys.get(value);
+        if (key == null) {
+            key = keys.size();
+            if (keys == customerKeys) {
+                if (key == customerHead.length) {
+                    int previous = customerHead.length;
+                    customerHead = Arrays.copyOf(customerHead, previous * 2);
+                    Arrays.fill(customerHead, previous, customerHead.length, NONE);
+                    customerIdByKey = Arrays.copyOf(customerIdByKey, previous * 2);
+                }
+                customerIdByKey[key] = value;
+            } else {
+                if (key == contractIdByKey.length) {
+                    contractIdByKey = Arrays.copyOf(contractIdByKey, key * 2);
+                }
+                contractIdByKey[key] = value;
+            }
+            keys.put(value, key);
+        }
+        return key;
+    }
+
+    private void linkCustomer(int slot) {
+        int key = customer[slot];
+        prevOfCustomer[slot] = NONE;
+        if (key == NONE) {
+            nextOfCustomer[slot] = NONE;
+            return;
+        }
+        int head = customerHead[key];
+        nextOfCustomer[slot] = head;
+        if (head != NONE) {
+            prevOfCustomer[head] = slot;
+        }
+        customerHead[key] = slot;
+    }
+
+    private void unlinkCustomer(int slot) {
+        int key = customer[slot];
+        if (key == NONE) {
+            return;
+        }
+        int prev = prevOfCustomer[slot];
+        int next = nextOfCustomer[slot];
+        if (prev != NONE) {
+            nextOfCustomer[prev] = next;
+        } else {
+            customerHead[key] = next;
+        }
+        if (next != NONE) {
+            prevOfCustomer[next] = prev;
+        }
+        customer[slot] = NONE;
+    }
+
+    /**
+     * Outstanding amount and receivable count per aging category
+     */
+    public static final class AgingTotals {
+        private final long[] totals;
+        private final int offset;
+        private final int countOffset;
+
+        /**
+         * View of one group within the totals laid out by scan()
+         */
+        private AgingTotals(long[] totals, int group, int groups) {
+            this.totals = totals;
+            this.offset = group * CATEGORIES;
+            this.countOffset = groups * CATEGORIES + offset;
+        }
+
+        public BigDecimal getOutstanding(AgingCategory category) {
+            return Money.toBigDecimal(getOutstandingMinorUnits(category));
+        }
+
+        public long getOutstandingMinorUnits(AgingCategory category) {
+            return totals[offset + category.ordinal()];
+        }
+
+        public long getCount(AgingCategory category) {
+            return totals[countOffset + category.ordinal()];
+        }
+
+        public BigDecimal getTotalOutstanding() {
+            long total = 0;
+            for (int category = 0; category < CATEGORIES; category++) {
+                total = Money.add(total, totals[offset + category]);
+            }
+            return Money.toBigDecimal(total);
+        }
+    }
+}
@@ -1,71 +1,169 @@
 package org.openreceivable.repository.impl;
 
 import org.openreceivable.enums.AgingCategory;
+import org.openreceivable.id.IdGenerator;
+import org.openreceivable.id.TimeOrderedIdGenerator;
 import org.openreceivable.model.AgingBucket;
 import org.openreceivable.repository.AgingBucketRepository;
+import org.openreceivable.repository.store.DuplicateKeyException;
+import org.openreceivable.repository.store.HashIndex;
+import org.openreceivable.repository.store.IndexedStore;
+import org.openreceivable.repository.store.StoreBackedRepository;
+import org.openreceivable.repository.store.OrderedIndex;
+import org.openreceivable.repository.store.UniqueIndex;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDateTime;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 /**
- * In-memory implementation of AgingBucketRepository
+ * In-memory implementation of AgingBucketRepository.
+ *
+ * Buckets are daily aging snapshots, unique per (receivable, day): saving
+ * a bucket without an ID replaces the receivable's snapshot for that day
+ * instead of adding another. As-of dates are truncated to the start of the
+ * day, and the as-of date index answers date lookups and retention scans.
  */
 @Repository
-public class InMemoryAgingBucketRepository implements AgingBucketRepository {
+public class InMemoryAgingBucketRepository implements AgingBucketRepository, StoreBackedRepository<AgingBucket> {
     
-    private final Map<String, AgingBucket> buckets = new ConcurrentHashMap<>();
+    private final IndexedStore<AgingBucket> buckets =
+            new IndexedStore<>("agingBuckets", AgingBucket.class, AgingBucket::getBucketId, AgingBucket::setBucketId);
+    
+    private final UniqueIndex<AgingBucket, List<Object>> byReceivableAndDate =
+            buckets.uniqueIndex("receivableAsOfDate", b -> keyOf(b.getReceivableId(), b.getAsOfDate()));
+    private final HashIndex<AgingBucket, String> byCustomer =
+            buckets.hashIndex("customerId", AgingBucket::getCustomerId);
+    private final HashIndex<AgingBucket, String> byReceivable =
+            buckets.hashIndex("receivableId", AgingBucket::getReceivableId);
+    private final HashIndex<AgingBucket, AgingCategory> byCategory =
+            buckets.hashIndex("agingCategory", AgingBucket::getAgingCategory);
+    private final OrderedIndex<AgingBucket, LocalDateTime> byAsOfDate =
+            buckets.orderedIndex("asOfDate", AgingBucket::getAsOfDate);
+    
+    public InMemoryAgingBucketRepository() {
+        this(new TimeOrderedIdGenerator(0));
+    }
+    
+    @Autowired
+    public InMemoryAgingBucketRepository(IdGenerator idGenerator) {
+        buckets.useIdGenerator(idGenerator);
+    }
+    
+    private static List<Object> keyOf(String receivableId, LocalDateTime asOfDate) {
+        if (receivableId == null || asOfDate == null) {
+            return null;
+        }
+        return List.of(receivableId, asOfDate);
+    }
     
     @Override
     public AgingBucket save(AgingBucket bucket) {
-        if (bucket.getBucketId() == null || bucket.getBucketId().isEmpty()) {
-            bucket.setBucketId(UUID.randomUUID().toString());
+        boolean upsert = prepare(bucket);
+        while (true) {
+            if (upsert) {
+                assignExistingId(bucket);
+            }
+            try {
+                return buckets.put(bucket);
+            } catch (DuplicateKeyException e) {
+                // Another writer inserted the same snapshot first; replace theirs
+                if (!upsert) {
+                    throw e;
+                }
+            }
         }
+    }
+    
+    @Override
+    public List<AgingBucket> saveAll(List<AgingBucket> batch) {
+        boolean[] upsert = new boolean[batch.size()];
+        for (int i = 0; i < upsert.length; i++) {
+            AgingBucket bucket = batch.get(i);
+            upsert[i] = prepare(bucket);
+            if (upsert[i]) {
+                assignExistingId(bucket);
+            }
+        }
+        try {
+            return buckets.putAll(batch);
+        } catch (DuplicateKeyException e) {
+            // Lost a race for some snapshot key; saving is idempotent, so
+            // redo the batch one bucket at a time
+            List<AgingBucket> saved = new ArrayList<>(batch.size());
+            for (int i = 0; i < upsert.length; i++) {
+                if (upsert[i]) {
+                    batch.get(i).setBucketId(null);
+                }
+                saved.add(save(batch.get(i)));
+            }
+            return saved;
+        }
+    }
+    
+    /**
+     * Normalize a bucket before saving; returns whether it is an upsert
+     */
+    private boolean prepare(AgingBucket bucket) {
         if (bucket.getCreatedDate() == null) {
             bucket.setCreatedDate(LocalDateTime.now());
         }
-        buckets.put(bucket.getBucketId(), bucket);
-        return bucket;
+        if (bucket.getAsOfDate() != null) {
+            bucket.setAsOfDate(bucket.getAsOfDate().toLocalDate().atStartOfDay());
+        }
+        return bucket.getBucketId() == null;
+    }
+    
+    private void assignExistingId(AgingBucket bucket) {
+        bucket.setBucketId(findByReceivableIdAndAsOfDate(bucket.getReceivableId(), bucket.getAsOfDate())
+                .map(AgingBucket::getBucketId).orElse(null));
     }
     
     @Override
     public Optional<AgingBucket> findById(String bucketId) {
-        return Optional.ofNullable(buckets.get(bucketId));
+        return buckets.get(bucketId);
     }
     
     @Override
     public List<AgingBucket> findByCustomerId(String customerId) {
-        return buckets.values().stream()
-                .filter(b -> customerId.equals(b.getCustomerId()))
-                .collect(Collectors.toList());
+        return byCustomer.find(customerId);
     }
     
     @Override
     public List<AgingBucket> findByReceivableId(String receivableId) {
-        return buckets.values().stream()
-                .filter(b -> receivableId.equals(b.getReceivableId()))
-                .collect(Collectors.toList());
+        return byReceivable.find(receivableId);
+    }
+    
+    @Override
+    public Optional<AgingBucket> findByReceivableIdAndAsOfDate(String receivableId, LocalDateTime asOfDate) {
+        if (asOfDate == null) {
+            return Optional.empty();
+        }
+        return byReceivableAndDate.find(keyOf(receivableId, asOfDate.toLocalDate().atStartOfDay()));
     }
     
     @Override
     public List<AgingBucket> findByAgingCategory(AgingCategory category) {
-        return buckets.values().stream()
-                .filter(b -> category.equals(b.getAgingCategory()))
-                .collect(Collectors.toList());
+        return byCategory.find(category);
     }
     
     @Override
     public List<AgingBucket> findByAsOfDate(LocalDateTime asOfDate) {
-        return buckets.values().stream()
-                .filter(b -> asOfDate.equals(b.getAsOfDate()))
+        return byAsOfDate.equalTo(asOfDate.toLocalDate().atStartOfDay())
+                .collect(Collectors.toList());
+    }
+    
+    @Override
+    public List<AgingBucket> findByAsOfDateBefore(LocalDateTime cutoff) {
+        return byAsOfDate.range(null, false, cutoff, false)
                 .collect(Collectors.toList());
     }
     
     @Override
     public List<AgingBucket> findAll() {
-        return new ArrayList<>(buckets.values());
+        return buckets.findAll();
     }
     
     @Override
@@ -75,6 +173,11 @@ public class InMemoryAgingBucketRepository implements AgingBucketRepository {
     
     @Override
     public boolean exists(String bucketId) {
-        return buckets.containsKey(bucketId);
+        return buckets.contains(bucketId);
+    }
+    
+    @Override
+    public IndexedStore<AgingBucket> getStore() {
+        return buckets;
     }
 }
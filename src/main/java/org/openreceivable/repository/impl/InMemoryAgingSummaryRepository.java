@@ -0,0 +1,122 @@
+package org.openreceivable.repository.impl;
+
+import org.openreceivable.enums.AgingCategory;
+import org.openreceivable.id.IdGenerator;
+import org.openreceivable.id.TimeOrderedIdGenerator;
+import org.openreceivable.model.AgingSummary;
+import org.openreceivable.repository.AgingSummaryRepository;
+import org.openreceivable.repository.store.DuplicateKeyException;
+import org.openreceivable.repository.store.HashIndex;
+import org.openreceivable.repository.store.IndexedStore;
+import org.openreceivable.repository.store.OrderedIndex;
+import org.openreceivable.repository.store.StoreBackedRepository;
+import org.openreceivable.repository.store.UniqueIndex;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * In-memory implementation of AgingSummaryRepository.
+ *
+ * Summaries are unique per (customer, day, category); saving a summary
+ * without an ID replaces the existing one for its key. As-of dates are
+ * truncated to the start of the day.
+ */
+@Repository
+public class InMemoryAgingSummaryRepository implements AgingSummaryRepository, StoreBackedRepository<AgingSummary> {
+    
+    private final IndexedStore<AgingSummary> summaries =
+            new IndexedStore<>("agingSummaries", AgingSummary.class, AgingSummary::getSummaryId, AgingSummary::setSummaryId);
+    
+    private final UniqueIndex<AgingSummary, List<Object>> byCustomerDateCategory =
+            summaries.uniqueIndex("customerDateCategory", s -> keyOf(s.getCustomerId(), s.getAsOfDate(), s.getAgingCategory()));
+    private final HashIndex<AgingSummary, String> byCustomer =
+            summaries.hashIndex("customerId", AgingSummary::getCustomerId);
+    private final OrderedIndex<AgingSummary, LocalDateTime> byAsOfDate =
+            summaries.orderedIndex("asOfDate", AgingSummary::getAsOfDate);
+    
+    public InMemoryAgingSummaryRepository() {
+        this(new TimeOrderedIdGenerator(0));
+    }
+    
+    @Autowired
+    public InMemoryAgingSummaryRepository(IdGenerator idGenerator) {
+        summaries.useIdGenerator(idGenerator);
+    }
+    
+    private static List<Object> keyOf(String customerId, LocalDateTime asOfDate, AgingCategory category) {
+        if (customerId == null || asOfDate == null || category == null) {
+            return null;
+        }
+        return List.of(customerId, asOfDate, category);
+    }
+    
+    @Override
+    public AgingSummary save(AgingSummary summary) {
+        if (summary.getAsOfDate() != null) {
+            summary.setAsOfDate(summary.getAsOfDate().toLocalDate().atStartOfDay());
+        }
+        boolean upsert = summary.getSummaryId() == null;
+        while (true) {
+            if (upsert) {
+                summary.setSummaryId(find(summary.getCustomerId(), summary.getAsOfDate(), summary.getAgingCategory())
+                        .map(AgingSummary::getSummaryId).orElse(null));
+            }
+            try {
+                return summaries.put(summary);
+            } catch (DuplicateKeyException e) {
+                // Another writer inserted the same key first; replace theirs
+                if (!upsert) {
+                    throw e;
+                }
+            }
+        }
+    }
+    
+    @Override
+    public Optional<AgingSummary> findById(String summaryId) {
+        return summaries.get(summaryId);
+    }
+    
+    @Override
+    public Optional<AgingSummary> find(String customerId, LocalDateTime asOfDate, AgingCategory category) {
+        if (asOfDate == null) {
+            return Optional.empty();
+        }
+        return byCustomerDateCategory.find(keyOf(customerId, asOfDate.toLocalDate().atStartOfDay(), category));
+    }
+    
+    @Override
+    public List<AgingSummary> findByCustomerId(String customerId) {
+        return byCustomer.find(customerId);
+    }
+    
+    @Override
+    public List<AgingSummary> findByAsOfDate(LocalDateTime asOfDate) {
+        return byAsOfDate.equalTo(asOfDate.toLocalDate().atStartOfDay())
+                .collect(Collectors.toList());
+    }
+    
+    @Override
+    public List<AgingSummary> findAll() {
+        return summaries.findAll();
+    }
+    
+    @Override
+    public void delete(String summaryId) {
+        summaries.remove(summaryId);
+    }
+    
+    @Override
+    public boolean exists(String summaryId) {
+        return summaries.contains(summaryId);
+    }
+    
+    @Override
+    public IndexedStore<AgingSummary> getStore() {
+        return summaries;
+    }
+}
@@ -1,72 +1,103 @@
 package org.openreceivable.repository.impl;
 
 import org.openreceivable.enums.ContractStatus;
+import org.openreceivable.id.IdGenerator;
+import org.openreceivable.id.TimeOrderedIdGenerator;
 import org.openreceivable.model.Contract;
 import org.openreceivable.repository.ContractRepository;
+import org.openreceivable.repository.persistence.BinaryEntityCodecs;
+import org.openreceivable.repository.persistence.EntityCodec;
+import org.openreceivable.repository.store.HashIndex;
+import org.openreceivable.repository.store.IndexedStore;
+import org.openreceivable.repository.store.StoreBackedRepository;
+import org.openreceivable.repository.store.UniqueIndex;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDateTime;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
 
 /**
  * In-memory implementation of ContractRepository
  */
 @Repository
-public class InMemoryContractRepository implements ContractRepository {
+public class InMemoryContractRepository implements ContractRepository, StoreBackedRepository<Contract> {
     
-    private final Map<String, Contract> contracts = new ConcurrentHashMap<>();
+    private final IndexedStore<Contract> contracts =
+            new IndexedStore<>("contracts", Contract.class, Contract::getContractId, Contract::setContractId);
+    
+    private final UniqueIndex<Contract, String> byContractNumber =
+            contracts.uniqueIndex("contractNumber", Contract::getContractNumber);
+    private final HashIndex<Contract, String> byCustomer =
+            contracts.hashIndex("customerId", Contract::getCustomerId);
+    private final HashIndex<Contract, String> byVehicle =
+            contracts.hashIndex("vehicleId", Contract::getVehicleId);
+    private final HashIndex<Contract, ContractStatus> byStatus =
+            contracts.hashIndex("status", Contract::getStatus);
+    
+    public InMemoryContractRepository() {
+        this(new TimeOrderedIdGenerator(0));
+    }
+    
+    @Autowired
+    public InMemoryContractRepository(IdGenerator idGenerator) {
+        contracts.useIdGenerator(idGenerator);
+        EntityCodec<Contract> codec = BinaryEntityCodecs.forType(Contract.class);
+        contracts.copyOnRead(codec::encode, codec::decode);
+    }
     
     @Override
     public Contract save(Contract contract) {
-        if (contract.getContractId() == null || contract.getContractId().isEmpty()) {
-            contract.setContractId(UUID.randomUUID().toString());
-        }
+        stamp(contract);
+        return contracts.put(contract);
+    }
+    
+    @Override
+    public Contract save(Contract contract, Long expectedVersion) {
+        stamp(contract);
+        return contracts.putIfVersion(contract, expectedVersion);
+    }
+    
+    private static void stamp(Contract contract) {
         if (contract.getCreatedDate() == null) {
             contract.setCreatedDate(LocalDateTime.now());
         }
         contract.setModifiedDate(LocalDateTime.now());
-        contracts.put(contract.getContractId(), contract);
-        return contract;
     }
     
     @Override
     public Optional<Contract> findById(String contractId) {
-        return Optional.ofNullable(contracts.get(contractId));
+        return contracts.get(contractId);
+    }
+    
+    @Override
+    public List<Contract> findAllById(Collection<String> contractIds) {
+        return contracts.resolve(new LinkedHashSet<>(contractIds));
     }
     
     @Override
     public Optional<Contract> findByContractNumber(String contractNumber) {
-        return contracts.values().stream()
-                .filter(c -> contractNumber.equals(c.getContractNumber()))
-                .findFirst();
+        return byContractNumber.find(contractNumber);
     }
     
     @Override
     public List<Contract> findByCustomerId(String customerId) {
-        return contracts.values().stream()
-                .filter(c -> customerId.equals(c.getCustomerId()))
-                .collect(Collectors.toList());
+        return byCustomer.find(customerId);
     }
     
     @Override
     public List<Contract> findByVehicleId(String vehicleId) {
-        return contracts.values().stream()
-                .filter(c -> vehicleId.equals(c.getVehicleId()))
-                .collect(Collectors.toList());
+        return byVehicle.find(vehicleId);
     }
     
     @Override
     public List<Contract> findByStatus(ContractStatus status) {
-        return contracts.values().stream()
-                .filter(c -> status.equals(c.getStatus()))
-                .collect(Collectors.toList());
+        return byStatus.find(status);
     }
     
     @Override
     public List<Contract> findAll() {
-        return new ArrayList<>(contracts.values());
+        return contracts.findAll();
     }
     
     @Override
@@ -76,6 +107,11 @@ public class InMemoryContractRepository implements ContractRepository {
     
     @Override
     public boolean exists(String contractId) {
-        return contracts.containsKey(contractId);
+        return contracts.contains(contractId);
+    }
+    
+    @Override
+    public IndexedStore<Contract> getStore() {
+        return contracts;
     }
 }
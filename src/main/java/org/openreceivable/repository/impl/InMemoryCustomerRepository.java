@@ -1,65 +1,99 @@
 package org.openreceivable.repository.impl;
 
 import org.openreceivable.enums.CustomerStatus;
+import org.openreceivable.id.IdGenerator;
+import org.openreceivable.id.TimeOrderedIdGenerator;
 import org.openreceivable.model.Customer;
 import org.openreceivable.repository.CustomerRepository;
+import org.openreceivable.repository.persistence.BinaryEntityCodecs;
+import org.openreceivable.repository.persistence.EntityCodec;
+import org.openreceivable.repository.store.HashIndex;
+import org.openreceivable.repository.store.IndexedStore;
+import org.openreceivable.repository.store.StoreBackedRepository;
+import org.openreceivable.repository.store.UniqueIndex;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDateTime;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
 
 /**
  * In-memory implementation of CustomerRepository
+ *
+ * Email and tax ID are unique indexes; saving a second customer with the same
+ * value fails with a DuplicateKeyException. findById returns a copy.
  */
 @Repository
-public class InMemoryCustomerRepository implements CustomerRepository {
+public class InMemoryCustomerRepository implements CustomerRepository, StoreBackedRepository<Customer> {
     
-    private final Map<String, Customer> customers = new ConcurrentHashMap<>();
+    private final IndexedStore<Customer> customers =
+            new IndexedStore<>("customers", Customer.class, Customer::getCustomerId, Customer::setCustomerId);
+    
+    private final UniqueIndex<Customer, String> byEmail =
+            customers.uniqueIndex("email", Customer::getEmail);
+    private final UniqueIndex<Customer, String> byTaxId =
+            customers.uniqueIndex("taxId", Customer::getTaxId);
+    private final HashIndex<Customer, CustomerStatus> byStatus =
+            customers.hashIndex("status", Customer::getStatus);
+    
+    public InMemoryCustomerRepository() {
+        this(new TimeOrderedIdGenerator(0));
+    }
+    
+    @Autowired
+    public InMemoryCustomerRepository(IdGenerator idGenerator) {
+        customers.useIdGenerator(idGenerator);
+        EntityCodec<Customer> codec = BinaryEntityCodecs.forType(Customer.class);
+        customers.copyOnRead(codec::encode, codec::decode);
+    }
     
     @Override
     public Customer save(Customer customer) {
-        if (customer.getCustomerId() == null || customer.getCustomerId().isEmpty()) {
-            customer.setCustomerId(UUID.randomUUID().toString());
-        }
+        stamp(customer);
+        return customers.put(customer);
+    }
+    
+    @Override
+    public Customer save(Customer customer, Long expectedVersion) {
+        stamp(customer);
+        return customers.putIfVersion(customer, expectedVersion);
+    }
+    
+    private static void stamp(Customer customer) {
         if (customer.getCreatedDate() == null) {
             customer.setCreatedDate(LocalDateTime.now());
         }
         customer.setModifiedDate(LocalDateTime.now());
-        customers.put(customer.getCustomerId(), customer);
-        return customer;
     }
     
     @Override
     public Optional<Customer> findById(String customerId) {
-        return Optional.ofNullable(customers.get(customerId));
+        return customers.get(customerId);
+    }
+    
+    @Override
+    public List<Customer> findAllById(Collection<String> customerIds) {
+        return customers.resolve(new LinkedHashSet<>(customerIds));
     }
     
     @Override
     public Optional<Customer> findByEmail(String email) {
-        return customers.values().stream()
-                .filter(c -> email.equals(c.getEmail()))
-                .findFirst();
+        return byEmail.find(email);
     }
     
     @Override
     public Optional<Customer> findByTaxId(String taxId) {
-        return customers.values().stream()
-                .filter(c -> taxId.equals(c.getTaxId()))
-                .findFirst();
+        return byTaxId.find(taxId);
     }
     
     @Override
     public List<Customer> findByStatus(CustomerStatus status) {
-        return customers.values().stream()
-                .filter(c -> status.equals(c.getStatus()))
-                .collect(Collectors.toList());
+        return byStatus.find(status);
     }
     
     @Override
     public List<Customer> findAll() {
-        return new ArrayList<>(customers.values());
+        return customers.findAll();
     }
     
     @Override
@@ -69,6 +103,11 @@ public class InMemoryCustomerRepository implements CustomerRepository {
     
     @Override
     public boolean exists(String customerId) {
-        return customers.containsKey(customerId);
+        return customers.contains(customerId);
+    }
+    
+    @Override
+    public IndexedStore<Customer> getStore() {
+        return customers;
     }
 }
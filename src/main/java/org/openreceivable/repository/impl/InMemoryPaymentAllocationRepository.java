@@ -1,53 +1,77 @@
 package org.openreceivable.repository.impl;
 
+import org.openreceivable.id.IdGenerator;
+import org.openreceivable.id.TimeOrderedIdGenerator;
 import org.openreceivable.model.PaymentAllocation;
 import org.openreceivable.repository.PaymentAllocationRepository;
+import org.openreceivable.repository.store.HashIndex;
+import org.openreceivable.repository.store.IndexedStore;
+import org.openreceivable.repository.store.StoreBackedRepository;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 
-import java.time.LocalDateTime;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
 
 /**
  * In-memory implementation of PaymentAllocationRepository
  */
 @Repository
-public class InMemoryPaymentAllocationRepository implements PaymentAllocationRepository {
+public class InMemoryPaymentAllocationRepository implements PaymentAllocationRepository, StoreBackedRepository<PaymentAllocation> {
     
-    private final Map<String, PaymentAllocation> allocations = new ConcurrentHashMap<>();
+    private final IndexedStore<PaymentAllocation> allocations =
+            new IndexedStore<>("allocations", PaymentAllocation.class, PaymentAllocation::getAllocationId, PaymentAllocation::setAllocationId);
+    
+    private final HashIndex<PaymentAllocation, String> byPayment =
+            allocations.hashIndex("paymentId", PaymentAllocation::getPaymentId);
+    private final HashIndex<PaymentAllocation, String> byReceivable =
+            allocations.hashIndex("receivableId", PaymentAllocation::getReceivableId);
+    
+    public InMemoryPaymentAllocationRepository() {
+        this(new TimeOrderedIdGenerator(0));
+    }
+    
+    @Autowired
+    public InMemoryPaymentAllocationRepository(IdGenerator idGenerator) {
+        allocations.useIdGenerator(idGenerator);
+    }
     
     @Override
     public PaymentAllocation save(PaymentAllocation allocation) {
-        if (allocation.getAllocationId() == null || allocation.getAllocationId().isEmpty()) {
-            allocation.setAllocationId(UUID.randomUUID().toString());
-        }
-        allocations.put(allocation.getAllocationId(), allocation);
-        return allocation;
+        return allocations.put(allocation);
+    }
+    
+    @Override
+    public List<PaymentAllocation> saveAll(List<PaymentAllocation> batch) {
+        return allocations.putAll(batch);
     }
     
     @Override
     public Optional<PaymentAllocation> findById(String allocationId) {
-        return Optional.ofNullable(allocations.get(allocationId));
+        return allocations.get(allocationId);
     }
     
     @Override
     public List<PaymentAllocation> findByPaymentId(String paymentId) {
-        return allocations.values().stream()
-                .filter(a -> paymentId.equals(a.getPaymentId()))
-                .collect(Collectors.toList());
+        return byPayment.find(paymentId);
+    }
+    
+    @Override
+    public List<PaymentAllocation> findByPaymentIds(Collection<String> paymentIds) {
+        List<PaymentAllocation> result = new ArrayList<>();
+        for (String paymentId : new LinkedHashSet<>(paymentIds)) {
+            result.addAll(byPayment.find(paymentId));
+        }
+        return result;
     }
     
     @Override
     public List<PaymentAllocation> findByReceivableId(String receivableId) {
-        return allocations.values().stream()
-                .filter(a -> receivableId.equals(a.getReceivableId()))
-                .collect(Collectors.toList());
+        return byReceivable.find(receivableId);
     }
     
     @Override
     public List<PaymentAllocation> findAll() {
-        return new ArrayList<>(allocations.values());
+        return allocations.findAll();
     }
     
     @Override
@@ -57,6 +81,11 @@ public class InMemoryPaymentAllocationRepository implements PaymentAllocationRep
     
     @Override
     public boolean exists(String allocationId) {
-        return allocations.containsKey(allocationId);
+        return allocations.contains(allocationId);
+    }
+    
+    @Override
+    public IndexedStore<PaymentAllocation> getStore() {
+        return allocations;
     }
 }
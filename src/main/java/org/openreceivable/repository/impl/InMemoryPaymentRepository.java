@@ -1,73 +1,147 @@
 package org.openreceivable.repository.impl;
 
 import org.openreceivable.enums.PaymentStatus;
+import org.openreceivable.id.IdGenerator;
+import org.openreceivable.id.TimeOrderedIdGenerator;
 import org.openreceivable.model.Payment;
 import org.openreceivable.repository.PaymentRepository;
+import org.openreceivable.repository.persistence.BinaryEntityCodecs;
+import org.openreceivable.repository.persistence.EntityCodec;
+import org.openreceivable.repository.store.HashIndex;
+import org.openreceivable.repository.store.IndexedStore;
+import org.openreceivable.repository.store.OffHeapRecordStorage;
+import org.openreceivable.repository.store.StoreBackedRepository;
+import org.openreceivable.repository.store.OrderedIndex;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Repository;
 
+import java.time.Clock;
 import java.time.LocalDateTime;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 /**
  * In-memory implementation of PaymentRepository
  */
 @Repository
-public class InMemoryPaymentRepository implements PaymentRepository {
+public class InMemoryPaymentRepository implements PaymentRepository, StoreBackedRepository<Payment> {
     
-    private final Map<String, Payment> payments = new ConcurrentHashMap<>();
+    private final IndexedStore<Payment> payments =
+            new IndexedStore<>("payments", Payment.class, Payment::getPaymentId, Payment::setPaymentId);
+    
+    private final HashIndex<Payment, String> byCustomer =
+            payments.hashIndex("customerId", Payment::getCustomerId);
+    private final HashIndex<Payment, String> byReceivable =
+            payments.hashIndex("receivableId", Payment::getReceivableId);
+    private final HashIndex<Payment, PaymentStatus> byStatus =
+            payments.hashIndex("status", Payment::getStatus);
+    private final OrderedIndex<Payment, LocalDateTime> byPaymentDate =
+            payments.orderedIndex("paymentDate", Payment::getPaymentDate);
+    
+    private final Clock clock;
+    
+    public InMemoryPaymentRepository() {
+        this(false, new TimeOrderedIdGenerator(0), Clock.systemDefaultZone());
+    }
+    
+    /**
+     * @param offHeap keep payments in off-heap memory, decoding a copy on every read;
+     *                otherwise findById still returns a copy
+     * @param clock the application clock, which stamps createdDate and so
+     *        also times the payment dedupe window (see PaymentReferenceIndex)
+     */
+    @Autowired
+    public InMemoryPaymentRepository(@Value("${openreceivable.storage.off-heap.enabled:false}") boolean offHeap,
+                                     IdGenerator idGenerator, Clock clock) {
+        this.clock = clock;
+        payments.useIdGenerator(idGenerator);
+        EntityCodec<Payment> codec = BinaryEntityCodecs.forType(Payment.class);
+        if (offHeap) {
+            payments.storeOffHeap(new OffHeapRecordStorage(), codec::encode, codec::decode);
+        }
+        payments.copyOnRead(codec::encode, codec::decode);
+    }
+    
+    @Override
+    public String nextId() {
+        return payments.nextId();
+    }
     
     @Override
     public Payment save(Payment payment) {
-        if (payment.getPaymentId() == null || payment.getPaymentId().isEmpty()) {
-            payment.setPaymentId(UUID.randomUUID().toString());
+        stampCreated(payment, LocalDateTime.now(clock));
+        return payments.put(payment);
+    }
+    
+    @Override
+    public Payment save(Payment payment, Long expectedVersion) {
+        stampCreated(payment, LocalDateTime.now(clock));
+        return payments.putIfVersion(payment, expectedVersion);
+    }
+    
+    @Override
+    public List<Payment> saveAll(List<Payment> batch) {
+        LocalDateTime now = LocalDateTime.now(clock);
+        for (Payment payment : batch) {
+            stampCreated(payment, now);
         }
-        if (payment.getCreatedDate() == null) {
-            payment.setCreatedDate(LocalDateTime.now());
+        return payments.putAll(batch);
+    }
+    
+    /**
+     * Date a payment that has never been stored (it has no version yet)
+     * from the application clock, in place of the time it was constructed
+     */
+    private static void stampCreated(Payment payment, LocalDateTime now) {
+        if (payment.getVersion() == null) {
+            payment.setCreatedDate(now);
         }
-        payments.put(payment.getPaymentId(), payment);
-        return payment;
     }
     
     @Override
     public Optional<Payment> findById(String paymentId) {
-        return Optional.ofNullable(payments.get(paymentId));
+        return payments.get(paymentId);
+    }
+    
+    @Override
+    public List<Payment> findAllById(Collection<String> paymentIds) {
+        return payments.resolve(new LinkedHashSet<>(paymentIds));
     }
     
     @Override
     public List<Payment> findByCustomerId(String customerId) {
-        return payments.values().stream()
-                .filter(p -> customerId.equals(p.getCustomerId()))
-                .collect(Collectors.toList());
+        return byCustomer.find(customerId);
+    }
+    
+    @Override
+    public List<Payment> findByCustomerIds(Collection<String> customerIds) {
+        List<Payment> result = new ArrayList<>();
+        for (String customerId : new LinkedHashSet<>(customerIds)) {
+            result.addAll(byCustomer.find(customerId));
+        }
+        return result;
     }
     
     @Override
     public List<Payment> findByReceivableId(String receivableId) {
-        return payments.values().stream()
-                .filter(p -> receivableId.equals(p.getReceivableId()))
-                .collect(Collectors.toList());
+        return byReceivable.find(receivableId);
     }
     
     @Override
     public List<Payment> findByStatus(PaymentStatus status) {
-        return payments.values().stream()
-                .filter(p -> status.equals(p.getStatus()))
-                .collect(Collectors.toList());
+        return byStatus.find(status);
     }
     
     @Override
     public List<Payment> findByPaymentDateBetween(LocalDateTime startDate, LocalDateTime endDate) {
-        return payments.values().stream()
-                .filter(p -> p.getPaymentDate() != null &&
-                            !p.getPaymentDate().isBefore(startDate) &&
-                            !p.getPaymentDate().isAfter(endDate))
+        return byPaymentDate.range(startDate, true, endDate, true)
                 .collect(Collectors.toList());
     }
     
     @Override
     public List<Payment> findAll() {
-        return new ArrayList<>(payments.values());
+        return payments.findAll();
     }
     
     @Override
@@ -77,6 +151,11 @@ public class InMemoryPaymentRepository implements PaymentRepository {
     
     @Override
     public boolean exists(String paymentId) {
-        return payments.containsKey(paymentId);
+        return payments.contains(paymentId);
+    }
+    
+    @Override
+    public IndexedStore<Payment> getStore() {
+        return payments;
     }
 }
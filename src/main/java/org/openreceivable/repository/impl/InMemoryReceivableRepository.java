@@ -1,81 +1,212 @@
 package org.openreceivable.repository.impl;
 
+import org.openreceivable.aging.AgingPolicies;
 import org.openreceivable.enums.ReceivableStatus;
+import org.openreceivable.id.IdGenerator;
+import org.openreceivable.id.TimeOrderedIdGenerator;
 import org.openreceivable.model.Receivable;
 import org.openreceivable.repository.ReceivableRepository;
+import org.openreceivable.repository.persistence.BinaryEntityCodecs;
+import org.openreceivable.repository.persistence.EntityCodec;
+import org.openreceivable.repository.store.HashIndex;
+import org.openreceivable.repository.store.IndexedStore;
+import org.openreceivable.repository.store.OffHeapRecordStorage;
+import org.openreceivable.repository.store.StoreBackedRepository;
+import org.openreceivable.repository.store.OrderedIndex;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDateTime;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * In-memory implementation of ReceivableRepository
+ *
+ * Customer, contract, invoice number and status lookups are served from
+ * hash indexes. Due dates are kept in two ordered indexes, one for open
+ * receivables and one for PAID ones, so overdue and date range queries only
+ * visit matching rows.
+ * A third ordered index schedules each open receivable at the time it next
+ * crosses an aging category boundary, so the aging job only visits
+ * receivables whose category can have changed.
+ *
+ * Every finder returns the caller's own copies, never the instances the
+ * store and its indexes hold, so a caller can change a result and save it
+ * without other readers seeing the change first.
  */
 @Repository
-public class InMemoryReceivableRepository implements ReceivableRepository {
+public class InMemoryReceivableRepository implements ReceivableRepository, StoreBackedRepository<Receivable> {
     
-    private final Map<String, Receivable> receivables = new ConcurrentHashMap<>();
+    private final IndexedStore<Receivable> receivables =
+            new IndexedStore<>("receivables", Receivable.class, Receivable::getReceivableId, Receivable::setReceivableId);
+    
+    private final HashIndex<Receivable, String> byCustomer =
+            receivables.hashIndex("customerId", Receivable::getCustomerId);
+    private final HashIndex<Receivable, String> byContract =
+            receivables.hashIndex("contractId", Receivable::getContractId);
+    private final HashIndex<Receivable, String> byInvoiceNumber =
+            receivables.hashIndex("invoiceNumber", Receivable::getInvoiceNumber);
+    private final HashIndex<Receivable, ReceivableStatus> byStatus =
+            receivables.hashIndex("status", Receivable::getStatus);
+    private final OrderedIndex<Receivable, LocalDateTime> openByDueDate =
+            receivables.orderedIndex("openDueDate", r -> r.getStatus() != ReceivableStatus.PAID ? r.getDueDate() : null);
+    private final OrderedIndex<Receivable, LocalDateTime> paidByDueDate =
+            receivables.orderedIndex("paidDueDate", r -> r.getStatus() == ReceivableStatus.PAID ? r.getDueDate() : null);
+    private final OrderedIndex<Receivable, LocalDateTime> byNextAgingBoundary =
+            receivables.orderedIndex("nextAgingBoundary", this::nextAgingBoundary);
+    
+    private final AgingPolicies agingPolicies;
+    
+    public InMemoryReceivableRepository() {
+        this(false, AgingPolicies.standard(), new TimeOrderedIdGenerator(0));
+    }
+    
+    /**
+     * @param offHeap keep receivables in off-heap memory, decoding a copy on every read;
+     *                otherwise finders still return copies
+     * @param agingPolicies policies whose boundaries receivables are scheduled at; taken
+     *                      here so they are known before any receivable is recovered
+     */
+    @Autowired
+    public InMemoryReceivableRepository(@Value("${openreceivable.storage.off-heap.enabled:false}") boolean offHeap,
+                                        AgingPolicies agingPolicies,
+                                        IdGenerator idGenerator) {
+        this.agingPolicies = agingPolicies;
+        receivables.useIdGenerator(idGenerator);
+        EntityCodec<Receivable> codec = BinaryEntityCodecs.forType(Receivable.class);
+        if (offHeap) {
+            receivables.storeOffHeap(new OffHeapRecordStorage(), codec::encode, codec::decode);
+        }
+        receivables.copyOnRead(codec::encode, codec::decode);
+    }
     
     @Override
     public Receivable save(Receivable receivable) {
-        if (receivable.getReceivableId() == null || receivable.getReceivableId().isEmpty()) {
-            receivable.setReceivableId(UUID.randomUUID().toString());
+        if (receivable.getCreatedDate() == null) {
+            receivable.setCreatedDate(LocalDateTime.now());
         }
+        return receivables.put(receivable);
+    }
+    
+    @Override
+    public Receivable save(Receivable receivable, Long expectedVersion) {
         if (receivable.getCreatedDate() == null) {
             receivable.setCreatedDate(LocalDateTime.now());
         }
-        receivables.put(receivable.getReceivableId(), receivable);
-        return receivable;
+        return receivables.putIfVersion(receivable, expectedVersion);
+    }
+    
+    @Override
+    public List<Receivable> saveAll(List<Receivable> batch) {
+        LocalDateTime now = LocalDateTime.now();
+        for (Receivable receivable : batch) {
+            if (receivable.getCreatedDate() == null) {
+                receivable.setCreatedDate(now);
+            }
+        }
+        return receivables.putAll(batch);
+    }
+    
+    @Override
+    public List<Receivable> saveAllIfCurrent(List<Receivable> batch) {
+        return receivables.putAllIfCurrent(batch);
     }
     
     @Override
     public Optional<Receivable> findById(String receivableId) {
-        return Optional.ofNullable(receivables.get(receivableId));
+        return receivables.get(receivableId);
+    }
+    
+    @Override
+    public List<Receivable> findAllById(Collection<String> receivableIds) {
+        return copies(receivables.resolve(new LinkedHashSet<>(receivableIds)));
     }
     
     @Override
     public List<Receivable> findByCustomerId(String customerId) {
-        return receivables.values().stream()
-                .filter(r -> customerId.equals(r.getCustomerId()))
-                .collect(Collectors.toList());
+        return copies(byCustomer.find(customerId));
+    }
+    
+    @Override
+    public List<Receivable> findByCustomerIds(Collection<String> customerIds) {
+        List<Receivable> result = new ArrayList<>();
+        for (String customerId : new LinkedHashSet<>(customerIds)) {
+            result.addAll(byCustomer.find(customerId));
+        }
+        return copies(result);
     }
     
     @Override
     public List<Receivable> findByContractId(String contractId) {
-        return receivables.values().stream()
-                .filter(r -> contractId.equals(r.getContractId()))
-                .collect(Collectors.toList());
+        return copies(byContract.find(contractId));
+    }
+    
+    @Override
+    public List<Receivable> findByInvoiceNumber(String invoiceNumber) {
+        return copies(byInvoiceNumber.find(invoiceNumber));
     }
     
     @Override
     public List<Receivable> findByStatus(ReceivableStatus status) {
-        return receivables.values().stream()
-                .filter(r -> status.equals(r.getStatus()))
-                .collect(Collectors.toList());
+        return copies(byStatus.find(status));
     }
     
     @Override
     public List<Receivable> findOverdue(LocalDateTime asOfDate) {
-        return receivables.values().stream()
-                .filter(r -> r.getDueDate() != null && r.getDueDate().isBefore(asOfDate) &&
-                            !ReceivableStatus.PAID.equals(r.getStatus()))
+        return openByDueDate.range(null, false, asOfDate, false)
+                .map(receivables::copy)
                 .collect(Collectors.toList());
     }
     
     @Override
     public List<Receivable> findByDueDateBetween(LocalDateTime startDate, LocalDateTime endDate) {
-        return receivables.values().stream()
-                .filter(r -> r.getDueDate() != null &&
-                            !r.getDueDate().isBefore(startDate) &&
-                            !r.getDueDate().isAfter(endDate))
+        return Stream.concat(
+                        openByDueDate.range(startDate, true, endDate, true),
+                        paidByDueDate.range(startDate, true, endDate, true))
+                .map(receivables::copy)
+                .collect(Collectors.toList());
+    }
+    
+    @Override
+    public Stream<Receivable> streamOpenByDueDate(LocalDateTime fromDate, LocalDateTime toDate) {
+        return openByDueDate.range(fromDate, true, toDate, false).map(receivables::copy);
+    }
+    
+    @Override
+    public List<Receivable> findDueForAging(LocalDateTime asOfDate) {
+        return byNextAgingBoundary.range(null, false, asOfDate, true)
+                .map(receivables::copy)
                 .collect(Collectors.toList());
     }
     
+    /**
+     * When an open receivable next changes aging category: its due date plus
+     * the next boundary after its recorded aging days under any policy, so
+     * its contract need not be looked up. Never-aged receivables sort first;
+     * paid ones and those past the last boundary are not indexed.
+     */
+    private LocalDateTime nextAgingBoundary(Receivable receivable) {
+        if (receivable.getStatus() == ReceivableStatus.PAID || receivable.getDueDate() == null) {
+            return null;
+        }
+        if (receivable.getAgingDays() == null) {
+            return LocalDateTime.MIN;
+        }
+        int boundary = agingPolicies.nextBoundary(receivable.getAgingDays());
+        return boundary >= 0 ? receivable.getDueDate().plusDays(boundary) : null;
+    }
+    
     @Override
     public List<Receivable> findAll() {
-        return new ArrayList<>(receivables.values());
+        return copies(receivables.findAll());
+    }
+    
+    private List<Receivable> copies(List<Receivable> found) {
+        found.replaceAll(receivables::copy);
+        return found;
     }
     
     @Override
@@ -85,6 +216,11 @@ public class InMemoryReceivableRepository implements ReceivableRepository {
     
     @Override
     public boolean exists(String receivableId) {
-        return receivables.containsKey(receivableId);
+        return receivables.contains(receivableId);
+    }
+    
+    @Override
+    public IndexedStore<Receivable> getStore() {
+        return receivables;
     }
 }
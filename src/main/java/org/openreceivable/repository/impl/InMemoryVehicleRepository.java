@@ -1,54 +1,65 @@
 package org.openreceivable.repository.impl;
 
 import org.openreceivable.enums.VehicleStatus;
+import org.openreceivable.id.IdGenerator;
+import org.openreceivable.id.TimeOrderedIdGenerator;
 import org.openreceivable.model.Vehicle;
 import org.openreceivable.repository.VehicleRepository;
+import org.openreceivable.repository.store.HashIndex;
+import org.openreceivable.repository.store.IndexedStore;
+import org.openreceivable.repository.store.StoreBackedRepository;
+import org.openreceivable.repository.store.UniqueIndex;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Repository;
 
-import java.time.LocalDateTime;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
 
 /**
  * In-memory implementation of VehicleRepository
  */
 @Repository
-public class InMemoryVehicleRepository implements VehicleRepository {
+public class InMemoryVehicleRepository implements VehicleRepository, StoreBackedRepository<Vehicle> {
     
-    private final Map<String, Vehicle> vehicles = new ConcurrentHashMap<>();
+    private final IndexedStore<Vehicle> vehicles =
+            new IndexedStore<>("vehicles", Vehicle.class, Vehicle::getVehicleId, Vehicle::setVehicleId);
+    
+    private final UniqueIndex<Vehicle, String> byVin =
+            vehicles.uniqueIndex("vin", Vehicle::getVin);
+    private final HashIndex<Vehicle, VehicleStatus> byStatus =
+            vehicles.hashIndex("status", Vehicle::getStatus);
+    
+    public InMemoryVehicleRepository() {
+        this(new TimeOrderedIdGenerator(0));
+    }
+    
+    @Autowired
+    public InMemoryVehicleRepository(IdGenerator idGenerator) {
+        vehicles.useIdGenerator(idGenerator);
+    }
     
     @Override
     public Vehicle save(Vehicle vehicle) {
-        if (vehicle.getVehicleId() == null || vehicle.getVehicleId().isEmpty()) {
-            vehicle.setVehicleId(UUID.randomUUID().toString());
-        }
-        vehicles.put(vehicle.getVehicleId(), vehicle);
-        return vehicle;
+        return vehicles.put(vehicle);
     }
     
     @Override
     public Optional<Vehicle> findById(String vehicleId) {
-        return Optional.ofNullable(vehicles.get(vehicleId));
+        return vehicles.get(vehicleId);
     }
     
     @Override
     public Optional<Vehicle> findByVin(String vin) {
-        return vehicles.values().stream()
-                .filter(v -> vin.equals(v.getVin()))
-                .findFirst();
+        return byVin.find(vin);
     }
     
     @Override
     public List<Vehicle> findByStatus(VehicleStatus status) {
-        return vehicles.values().stream()
-                .filter(v -> status.equals(v.getStatus()))
-                .collect(Collectors.toList());
+        return byStatus.find(status);
     }
     
     @Override
     public List<Vehicle> findAll() {
-        return new ArrayList<>(vehicles.values());
+        return vehicles.findAll();
     }
     
     @Override
@@ -58,6 +69,11 @@ public class InMemoryVehicleRepository implements VehicleRepository {
     
     @Override
     public boolean exists(String vehicleId) {
-        return vehicles.containsKey(vehicleId);
+        return vehicles.contains(vehicleId);
+    }
+    
+    @Override
+    public IndexedStore<Vehicle> getStore() {
+        return vehicles;
     }
 }
@@ -0,0 +1,402 @@
+package org.openreceivable.repository.persistence;
+
+import org.openreceivable.enums.*;
+import org.openreceivable.model.*;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * Hand-written binary codecs for the domain entities.
+ *
+ * Fields are written in a fixed order per entity; enums are stored by
+ * ordinal. Any change to a layout, or a reordering of an enum, must bump
+ * FORMAT_VERSION so old snapshots are rejected instead of misread.
+ */
+public final class BinaryEntityCodecs {
+
+    public static final int FORMAT_VERSION = 4;
+
+    private static final Map<Class<?>, EntityCodec<?>> CODECS = Map.of(
+            Customer.class, new CustomerCodec(),
+            Vehicle.class, new VehicleCodec(),
+            Contract.class, new ContractCodec(),
+            Receivable.class, new ReceivableCodec(),
+            Payment.class, new PaymentCodec(),
+            PaymentAllocation.class, new PaymentAllocationCodec(),
+            AgingBucket.class, new AgingBucketCodec(),
+            AgingSummary.class, new AgingSummaryCodec());
+
+    private BinaryEntityCodecs() {
+    }
+
+    /**
+     * Codec for the given entity type
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> EntityCodec<T> forType(Class<T> type) {
+        EntityCodec<T> codec = (EntityCodec<T>) CODECS.get(type);
+        if (codec == null) {
+            throw new IllegalArgumentException("No binary codec for " + type.getName());
+        }
+        return codec;
+    }
+
+    /**
+     * Base class handling the writer buffer; one scratch writer per thread
+     */
+    private abstract static class Codec<T> implements EntityCodec<T> {
+
+        private static final ThreadLocal<BinaryWriter> WRITER =
+                ThreadLocal.withInitial(() -> new BinaryWriter(256));
+
+        @Override
+        public byte[] encode(T entity) {
+            BinaryWriter out = WRITER.get();
+            out.reset();
+            write(out, entity);
+            return out.toByteArray();
+        }
+
+        @Override
+        public T decode(ByteBuffer buffer) {
+            return read(new BinaryReader(buffer));
+        }
+
+        abstract void write(BinaryWriter out, T entity);
+
+        abstract T read(BinaryReader in);
+    }
+
+    private static final class CustomerCodec extends Codec<Customer> {
+        private static final CustomerType[] TYPES = CustomerType.values();
+        private static final CustomerStatus[] STATUSES = CustomerStatus.values();
+
+        @Override
+        void write(BinaryWriter out, Customer c) {
+            out.writeString(c.getCustomerId());
+            out.writeEnum(c.getCustomerType());
+            out.writeString(c.getFirstName());
+            out.writeString(c.getLastName());
+            out.writeString(c.getBusinessName());
+            out.writeString(c.getEmail());
+            out.writeString(c.getPhone());
+            Address address = c.getAddress();
+            out.writeByte(address != null ? 1 : 0);
+            if (address != null) {
+                out.writeString(address.getStreet1());
+                out.writeString(address.getStreet2());
+                out.writeString(address.getCity());
+                out.writeString(address.getState());
+                out.writeString(address.getPostalCode());
+                out.writeString(address.getCountry());
+            }
+            out.writeString(c.getTaxId());
+            out.writeInteger(c.getCreditScore());
+            out.writeEnum(c.getStatus());
+            out.writeDateTime(c.getCreatedDate());
+            out.writeDateTime(c.getModifiedDate());
+            out.writeOptionalLong(c.getVersion());
+        }
+
+        @Override
+        Customer read(BinaryReader in) {
+            Customer c = new Customer();
+            c.setCustomerId(in.readString());
+            c.setCustomerType(in.readEnum(TYPES));
+            c.setFirstName(in.readString());
+            c.setLastName(in.readString());
+            c.setBusinessName(in.readString());
+            c.setEmail(in.readString());
+            c.setPhone(in.readString());
+            if (in.readByte() != 0) {
+                Address address = new Address();
+                address.setStreet1(in.readString());
+                address.setStreet2(in.readString());
+                address.setCity(in.readString());
+                address.setState(in.readString());
+                address.setPostalCode(in.readString());
+                address.setCountry(in.readString());
+                c.setAddress(address);
+            }
+            c.setTaxId(in.readString());
+            c.setCreditScore(in.readInteger());
+            c.setStatus(in.readEnum(STATUSES));
+            c.setCreatedDate(in.readDateTime());
+            c.setModifiedDate(in.readDateTime());
+            c.setVersion(in.readOptionalLong());
+            return c;
+        }
+    }
+
+    private static final class VehicleCodec extends Codec<Vehicle> {
+        private static final VehicleStatus[] STATUSES = VehicleStatus.values();
+        private static final VehicleCondition[] CONDITIONS = VehicleCondition.values();
+
+        @Override
+        void write(BinaryWriter out, Vehicle v) {
+            out.writeString(v.getVehicleId());
+            out.writeString(v.getVin());
+            out.writeString(v.getMake());
+            out.writeString(v.getModel());
+            out.writeInteger(v.getYear());
+            out.writeString(v.getColor());
+            out.writeInteger(v.getMileage());
+            out.writeDecimal(v.getPurchasePrice());
+            out.writeDecimal(v.getCurrentValue());
+            out.writeEnum(v.getStatus());
+            out.writeEnum(v.getCondition());
+            out.writeDateTime(v.getAcquisitionDate());
+            out.writeString(v.getLicensePlate());
+        }
+
+        @Override
+        Vehicle read(BinaryReader in) {
+            Vehicle v = new Vehicle();
+            v.setVehicleId(in.readString());
+            v.setVin(in.readString());
+            v.setMake(in.readString());
+            v.setModel(in.readString());
+            v.setYear(in.readInteger());
+            v.setColor(in.readString());
+            v.setMileage(in.readInteger());
+            v.setPurchasePrice(in.readDecimal());
+            v.setCurrentValue(in.readDecimal());
+            v.setStatus(in.readEnum(STATUSES));
+            v.setCondition(in.readEnum(CONDITIONS));
+            v.setAcquisitionDate(in.readDateTime());
+            v.setLicensePlate(in.readString());
+            return v;
+        }
+    }
+
+    private static final class ContractCodec extends Codec<Contract> {
+        private static final ContractType[] TYPES = ContractType.values();
+        private static final ContractStatus[] STATUSES = ContractStatus.values();
+        private static final PaymentFrequency[] FREQUENCIES = PaymentFrequency.values();
+
+        @Override
+        void write(BinaryWriter out, Contract c) {
+            out.writeString(c.getContractId());
+            out.writeString(c.getCustomerId());
+            out.writeString(c.getVehicleId());
+            out.writeEnum(c.getContractType());
+            out.writeString(c.getContractNumber());
+            out.writeDateTime(c.getStartDate());
+            out.writeDateTime(c.getEndDate());
+            out.writeEnum(c.getStatus());
+            out.writeDecimal(c.getPrincipalAmount());
+            out.writeDecimal(c.getInterestRate());
+            out.writeInteger(c.getTerm());
+            out.writeEnum(c.getPaymentFrequency());
+            out.writeDecimal(c.getMonthlyPayment());
+            out.writeDecimal(c.getDownPayment());
+            out.writeDecimal(c.getResidualValue());
+            out.writeInteger(c.getMileageLimit());
+            out.writeDecimal(c.getExcessMileageRate());
+            out.writeDecimal(c.getSecurityDeposit());
+            out.writeDateTime(c.getCreatedDate());
+            out.writeDateTime(c.getModifiedDate());
+            out.writeOptionalLong(c.getVersion());
+        }
+
+        @Override
+        Contract read(BinaryReader in) {
+            Contract c = new Contract();
+            c.setContractId(in.readString());
+            c.setCustomerId(in.readString());
+            c.setVehicleId(in.readString());
+            c.setContractType(in.readEnum(TYPES));
+            c.setContractNumber(in.readString());
+            c.setStartDate(in.readDateTime());
+            c.setEndDate(in.readDateTime());
+            c.setStatus(in.readEnum(STATUSES));
+            c.setPrincipalAmount(in.readDecimal());
+            c.setInterestRate(in.readDecimal());
+            c.setTerm(in.readInteger());
+            c.setPaymentFrequency(in.readEnum(FREQUENCIES));
+            c.setMonthlyPayment(in.readDecimal());
+            c.setDownPayment(in.readDecimal());
+            c.setResidualValue(in.readDecimal());
+            c.setMileageLimit(in.readInteger());
+            c.setExcessMileageRate(in.readDecimal());
+            c.setSecurityDeposit(in.readDecimal());
+            c.setCreatedDate(in.readDateTime());
+            c.setModifiedDate(in.readDateTime());
+            c.setVersion(in.readOptionalLong());
+            return c;
+        }
+    }
+
+    private static final class ReceivableCodec extends Codec<Receivable> {
+        private static final ReceivableType[] TYPES = ReceivableType.values();
+        private static final ReceivableStatus[] STATUSES = ReceivableStatus.values();
+
+        @Override
+        void write(BinaryWriter out, Receivable r) {
+            out.writeString(r.getReceivableId());
+            out.writeString(r.getContractId());
+            out.writeString(r.getCustomerId());
+            out.writeEnum(r.getReceivableType());
+            out.writeDateTime(r.getDueDate());
+            out.writeLong(r.getOriginalMinorUnits());
+            out.writeLong(r.getOutstandingMinorUnits());
+            out.writeLong(r.getPaidMinorUnits());
+            out.writeEnum(r.getStatus());
+            out.writeString(r.getInvoiceNumber());
+            out.writeString(r.getDescription());
+            out.writeDateTime(r.getCreatedDate());
+            out.writeDateTime(r.getPaidDate());
+            out.writeInteger(r.getAgingDays());
+            out.writeOptionalLong(r.getVersion());
+        }
+
+        @Override
+        Receivable read(BinaryReader in) {
+            Receivable r = new Receivable();
+            r.setReceivableId(in.readString());
+            r.setContractId(in.readString());
+            r.setCustomerId(in.readString());
+            r.setReceivableType(in.readEnum(TYPES));
+            r.setDueDate(in.readDateTime());
+            r.setOriginalMinorUnits(in.readLong());
+            r.setOutstandingMinorUnits(in.readLong());
+            r.setPaidMinorUnits(in.readLong());
+            r.setStatus(in.readEnum(STATUSES));
+            r.setInvoiceNumber(in.readString());
+            r.setDescription(in.readString());
+            r.setCreatedDate(in.readDateTime());
+            r.setPaidDate(in.readDateTime());
+            r.setAgingDays(in.readInteger());
+            r.setVersion(in.readOptionalLong());
+            return r;
+        }
+    }
+
+    private static final class PaymentCodec extends Codec<Payment> {
+        private static final PaymentMethod[] METHODS = PaymentMethod.values();
+        private static final PaymentStatus[] STATUSES = PaymentStatus.values();
+
+        @Override
+        void write(BinaryWriter out, Payment p) {
+            out.writeString(p.getPaymentId());
+            out.writeString(p.getReceivableId());
+            out.writeString(p.getCustomerId());
+            out.writeString(p.getContractId());
+            out.writeDateTime(p.getPaymentDate());
+            out.writeLong(p.getAmountMinorUnits());
+            out.writeEnum(p.getPaymentMethod());
+            out.writeString(p.getReferenceNumber());
+            out.writeEnum(p.getStatus());
+            out.writeString(p.getProcessedBy());
+            out.writeString(p.getNotes());
+            out.writeDateTime(p.getCreatedDate());
+            out.writeOptionalLong(p.getVersion());
+        }
+
+        @Override
+        Payment read(BinaryReader in) {
+            Payment p = new Payment();
+            p.setPaymentId(in.readString());
+            p.setReceivableId(in.readString());
+            p.setCustomerId(in.readString());
+            p.setContractId(in.readString());
+            p.setPaymentDate(in.readDateTime());
+            p.setAmountMinorUnits(in.readLong());
+            p.setPaymentMethod(in.readEnum(METHODS));
+            p.setReferenceNumber(in.readString());
+            p.setStatus(in.readEnum(STATUSES));
+            p.setProcessedBy(in.readString());
+            p.setNotes(in.readString());
+            p.setCreatedDate(in.readDateTime());
+            p.setVersion(in.readOptionalLong());
+            return p;
+        }
+    }
+
+    private static final class PaymentAllocationCodec extends Codec<PaymentAllocation> {
+        @Override
+        void write(BinaryWriter out, PaymentAllocation a) {
+            out.writeString(a.getAllocationId());
+            out.writeString(a.getPaymentId());
+            out.writeString(a.getReceivableId());
+            out.writeLong(a.getAmountMinorUnits());
+            out.writeDateTime(a.getAllocationDate());
+            out.writeLong(a.getPrincipalMinorUnits());
+            out.writeLong(a.getInterestMinorUnits());
+            out.writeLong(a.getFeeMinorUnits());
+        }
+
+        @Override
+        PaymentAllocation read(BinaryReader in) {
+            PaymentAllocation a = new PaymentAllocation();
+            a.setAllocationId(in.readString());
+            a.setPaymentId(in.readString());
+            a.setReceivableId(in.readString());
+            a.setAmountMinorUnits(in.readLong());
+            a.setAllocationDate(in.readDateTime());
+            a.setPrincipalMinorUnits(in.readLong());
+            a.setInterestMinorUnits(in.readLong());
+            a.setFeeMinorUnits(in.readLong());
+            return a;
+        }
+    }
+
+    private static final class AgingBucketCodec extends Codec<AgingBucket> {
+        private static final AgingCategory[] CATEGORIES = AgingCategory.values();
+
+        @Override
+        void write(BinaryWriter out, AgingBucket b) {
+            out.writeString(b.getBucketId());
+            out.writeString(b.getReceivableId());
+            out.writeString(b.getCustomerId());
+            out.writeEnum(b.getAgingCategory());
+            out.writeLong(b.getAmountMinorUnits());
+            out.writeDateTime(b.getAsOfDate());
+            out.writeDateTime(b.getCreatedDate());
+        }
+
+        @Override
+        AgingBucket read(BinaryReader in) {
+            AgingBucket b = new AgingBucket();
+            b.setBucketId(in.readString());
+            b.setReceivableId(in.readString());
+            b.setCustomerId(in.readString());
+            b.setAgingCategory(in.readEnum(CATEGORIES));
+            b.setAmountMinorUnits(in.readLong());
+            b.setAsOfDate(in.readDateTime());
+            b.setCreatedDate(in.readDateTime());
+            return b;
+        }
+    }
+
+    private static final class AgingSummaryCodec extends Codec<AgingSummary> {
+        private static final AgingCategory[] CATEGORIES = AgingCategory.values();
+
+        @Override
+        void write(BinaryWriter out, AgingSummary s) {
+            out.writeString(s.getSummaryId());
+            out.writeString(s.getCustomerId());
+            out.writeEnum(s.getAgingCategory());
+            out.writeDateTime(s.getAsOfDate());
+            out.writeLong(s.getAmountMinorUnits());
+            out.writeInteger(s.getReceivableCount());
+            out.writeDateTime(s.getCreatedDate());
+            out.writeStrings(s.getFoldedBucketIds());
+        }
+
+        @Override
+        AgingSummary read(BinaryReader in) {
+            AgingSummary s = new AgingSummary();
+            s.setSummaryId(in.readString());
+            s.setCustomerId(in.readString());
+            s.setAgingCategory(in.readEnum(CATEGORIES));
+            s.setAsOfDate(in.readDateTime());
+            s.setAmountMinorUnits(in.readLong());
+            s.setReceivableCount(in.readInteger());
+            s.setCreatedDate(in.readDateTime());
+            s.setFoldedBucketIds(in.readStrings());
+            return s;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package org.openreceivable.repository.persistence;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Reads the binary entity format written by BinaryWriter
+ */
+final class BinaryReader {
+
+    private final ByteBuffer buffer;
+
+    BinaryReader(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    byte readByte() {
+        return buffer.get();
+    }
+
+    int readInt() {
+        return buffer.getInt();
+    }
+
+    long readLong() {
+        return buffer.getLong();
+    }
+
+    String readString() {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        if (buffer.hasArray()) {
+            String value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(),
+                    length, StandardCharsets.UTF_8);
+            buffer.position(buffer.position() + length);
+            return value;
+        }
+        byte[] encoded = new byte[length];
+        buffer.get(encoded);
+        return new String(encoded, StandardCharsets.UTF_8);
+    }
+
+    Integer readInteger() {
+        return buffer.get() != 0 ? buffer.getInt() : null;
+    }
+
+    Long readOptionalLong() {
+        return buffer.get() != 0 ? buffer.getLong() : null;
+    }
+
+    BigDecimal readDecimal() {
+        byte scale = buffer.get();
+        if (scale == -128) {
+            return null;
+        }
+        int length = buffer.get();
+        if (length == 0) {
+            return BigDecimal.valueOf(buffer.getLong(), scale);
+        }
+        byte[] unscaled = new byte[length];
+        buffer.get(unscaled);
+        return new BigDecimal(new BigInteger(unscaled), scale);
+    }
+
+    LocalDateTime readDateTime() {
+        long epochSecond = buffer.getLong();
+        if (epochSecond == BinaryWriter.NULL_DATE_TIME) {
+            return null;
+        }
+        return LocalDateTime.ofEpochSecond(epochSecond, buffer.getInt(), ZoneOffset.UTC);
+    }
+
+    Set<String> readStrings() {
+        int count = buffer.getInt();
+        if (count < 0) {
+            return null;
+        }
+        Set<String> values = new LinkedHashSet<>(Math.max(16, count * 2));
+        for (int i = 0; i < count; i++) {
+            values.add(readString());
+        }
+        return values;
+    }
+
+    <E extends Enum<E>> E readEnum(E[] values) {
+        byte ordinal = buffer.get();
+        return ordinal >= 0 ? values[ordinal] : null;
+    }
+}
@@ -0,0 +1,151 @@
+package org.openreceivable.repository.persistence;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Growable big-endian buffer for the binary entity format.
+ * Every writeX method for a reference type accepts null.
+ */
+final class BinaryWriter {
+
+    static final long NULL_DATE_TIME = Long.MIN_VALUE;
+
+    private byte[] bytes;
+    private int position;
+
+    BinaryWriter(int initialCapacity) {
+        this.bytes = new byte[initialCapacity];
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(bytes, position);
+    }
+
+    void reset() {
+        position = 0;
+    }
+
+    int size() {
+        return position;
+    }
+
+    /**
+     * View of the written bytes, valid until the next write or reset
+     */
+    ByteBuffer buffer() {
+        return ByteBuffer.wrap(bytes, 0, position);
+    }
+
+    private void ensure(int extra) {
+        if (position + extra > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, position + extra));
+        }
+    }
+
+    void writeByte(int value) {
+        ensure(1);
+        bytes[position++] = (byte) value;
+    }
+
+    void writeInt(int value) {
+        ensure(4);
+        bytes[position++] = (byte) (value >>> 24);
+        bytes[position++] = (byte) (value >>> 16);
+        bytes[position++] = (byte) (value >>> 8);
+        bytes[position++] = (byte) value;
+    }
+
+    void writeLong(long value) {
+        writeInt((int) (value >>> 32));
+        writeInt((int) value);
+    }
+
+    void writeBytes(byte[] value) {
+        ensure(value.length);
+        System.arraycopy(value, 0, bytes, position, value.length);
+        position += value.length;
+    }
+
+    void writeString(String value) {
+        if (value == null) {
+            writeInt(-1);
+            return;
+        }
+        byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+        writeInt(encoded.length);
+        writeBytes(encoded);
+    }
+
+    void writeInteger(Integer value) {
+        writeByte(value != null ? 1 : 0);
+        if (value != null) {
+            writeInt(value);
+        }
+    }
+
+    void writeOptionalLong(Long value) {
+        writeByte(value != null ? 1 : 0);
+        if (value != null) {
+            writeLong(value);
+        }
+    }
+
+    /**
+     * Scale byte (-128 marks null), then the unscaled value as a long when it
+     * fits or as length-prefixed two's complement bytes when it does not
+     */
+    void writeDecimal(BigDecimal value) {
+        if (value == null) {
+            writeByte(-128);
+            return;
+        }
+        if (value.scale() <= Byte.MIN_VALUE || value.scale() > Byte.MAX_VALUE) {
+            value = value.stripTrailingZeros();
+        }
+        writeByte(value.scale());
+        if (value.unscaledValue().bitLength() < 64) {
+            writeByte(0);
+            writeLong(value.unscaledValue().longValue());
+        } else {
+            byte[] unscaled = value.unscaledValue().toByteArray();
+            writeByte(unscaled.length);
+            writeBytes(unscaled);
+        }
+    }
+
+    /**
+     * Epoch second (UTC) and nanos; NULL_DATE_TIME marks null
+     */
+    void writeDateTime(LocalDateTime value) {
+        if (value == null) {
+            writeLong(NULL_DATE_TIME);
+            return;
+        }
+        writeLong(value.toEpochSecond(ZoneOffset.UTC));
+        writeInt(value.getNano());
+    }
+
+    /**
+     * Count, then each string; -1 marks null
+     */
+    void writeStrings(Collection<String> values) {
+        if (values == null) {
+            writeInt(-1);
+            return;
+        }
+        writeInt(values.size());
+        for (String value : values) {
+            writeString(value);
+        }
+    }
+
+    void writeEnum(Enum<?> value) {
+        writeByte(value != null ? value.ordinal() : -1);
+    }
+}
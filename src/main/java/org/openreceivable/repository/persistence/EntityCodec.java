@@ -0,0 +1,19 @@
+package org.openreceivable.repository.persistence;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Converts entities to and from the bytes stored in logs and snapshots
+ */
+public interface EntityCodec<T> {
+
+    /**
+     * Encode an entity
+     */
+    byte[] encode(T entity);
+
+    /**
+     * Decode an entity from the remaining bytes of the buffer
+     */
+    T decode(ByteBuffer buffer);
+}
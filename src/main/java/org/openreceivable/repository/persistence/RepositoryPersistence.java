@@ -0,0 +1,186 @@
+package org.openreceivable.repository.persistence;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.openreceivable.repository.store.IndexedStore;
+import org.openreceivable.repository.store.StoreBackedRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Durable mode for the in-memory repositories.
+ *
+ * On startup the stores are rebuilt from the latest snapshot plus the tail of
+ * the write-ahead log. From then on every save and delete is logged before it
+ * returns, and a snapshot is taken periodically (and on shutdown) so that
+ * replay only ever covers the log written since the last snapshot. The
+ * writes of a WriteGroup are logged as one record and recovered together.
+ *
+ * Enabled with openreceivable.persistence.enabled=true.
+ */
+@Component
+@ConditionalOnProperty(name = "openreceivable.persistence.enabled", havingValue = "true")
+public class RepositoryPersistence {
+
+    private static final Logger log = LoggerFactory.getLogger(RepositoryPersistence.class);
+
+    private final List<IndexedStore<?>> stores = new ArrayList<>();
+    private final Map<String, IndexedStore<?>> storesByName = new HashMap<>();
+    private final Map<String, EntityCodec<?>> codecs = new HashMap<>();
+
+    private final Path directory;
+    private final long segmentBytes;
+    private final long snapshotIntervalMinutes;
+    private final boolean fsync;
+
+    // Writers hold the read side while logging; a snapshot briefly takes the
+    // write side to pick an LSN that every visible write is covered by
+    private final ReentrantReadWriteLock writeGate = new ReentrantReadWriteLock();
+
+    private WriteAheadLog wal;
+    private ScheduledExecutorService scheduler;
+
+    public RepositoryPersistence(List<StoreBackedRepository<?>> repositories,
+                                 @Value("${openreceivable.persistence.directory:data}") String directory,
+                                 @Value("${openreceivable.persistence.segment-size-mb:64}") long segmentSizeMb,
+                                 @Value("${openreceivable.persistence.snapshot-interval-minutes:15}") long snapshotIntervalMinutes,
+                                 @Value("${openreceivable.persistence.fsync:true}") boolean fsync) {
+        for (StoreBackedRepository<?> repository : repositories) {
+            IndexedStore<?> store = repository.getStore();
+            stores.add(store);
+            storesByName.put(store.getName(), store);
+            codecs.put(store.getName(), BinaryEntityCodecs.forType(store.getEntityType()));
+        }
+        this.directory = Paths.get(directory);
+        this.segmentBytes = segmentSizeMb * 1024 * 1024;
+        this.snapshotIntervalMinutes = snapshotIntervalMinutes;
+        this.fsync = fsync;
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        long lastLsn = recover();
+        wal = new WriteAheadLog(directory, segmentBytes, fsync, lastLsn);
+        for (IndexedStore<?> store : stores) {
+            attach(store);
+        }
+        if (snapshotIntervalMinutes > 0) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "repository-snapshot");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(this::scheduledSnapshot,
+                    snapshotIntervalMinutes, snapshotIntervalMinutes, TimeUnit.MINUTES);
+        }
+    }
+
+    @PreDestroy
+    public void stop() throws IOException {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        try {
+            snapshot();
+        } finally {
+            wal.close();
+        }
+    }
+
+    /**
+     * Load the latest snapshot and replay the log written after it
+     */
+    private long recover() throws IOException {
+        long started = System.nanoTime();
+        Optional<Path> snapshot = SnapshotFile.latest(directory);
+        long snapshotLsn = 0;
+        if (snapshot.isPresent()) {
+            SnapshotFile.LoadResult loaded = SnapshotFile.load(snapshot.get(), storesByName, codecs);
+            double seconds = Math.max(System.nanoTime() - started, 1) / 1e9;
+            log.info("Loaded snapshot {}: {} records, {} MB in {} chunks in {} ms ({} records/s, {} MB/s)",
+                    snapshot.get().getFileName(), loaded.records, String.format("%.1f", loaded.bytes / 1048576.0),
+                    loaded.chunks, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started),
+                    Math.round(loaded.records / seconds), String.format("%.1f", loaded.bytes / 1048576.0 / seconds));
+            snapshotLsn = loaded.lsn;
+        }
+        long[] replayed = new long[1];
+        long lastLsn = WriteAheadLog.replay(directory, snapshotLsn, record -> {
+            IndexedStore<?> store = storesByName.get(record.getStore());
+            if (store == null) {
+                return;
+            }
+            if (record.getOp() == WriteAheadLog.OP_PUT) {
+                SnapshotFile.put(store, codecs.get(record.getStore()), record.getPayload());
+            } else {
+                store.remove(record.getId());
+            }
+            replayed[0]++;
+        });
+        // Generators only remember the IDs issued since startup
+        for (IndexedStore<?> store : stores) {
+            store.seedIdGenerator();
+        }
+        log.info("Recovered repositories from {} at LSN {} plus {} log records in {} ms",
+                snapshot.map(Path::getFileName).map(Path::toString).orElse("no snapshot"),
+                snapshotLsn, replayed[0], TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        return lastLsn;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> void attach(IndexedStore<T> store) {
+        EntityCodec<T> codec = (EntityCodec<T>) codecs.get(store.getName());
+        store.attachLogView(new WalView<>(store.getName(), codec, wal, writeGate.readLock(), fsync));
+    }
+
+    /**
+     * Write a snapshot of every store and drop the log segments it covers
+     */
+    public synchronized Path snapshot() throws IOException {
+        long lsn;
+        writeGate.writeLock().lock();
+        try {
+            lsn = wal.lastAssignedLsn();
+            wal.roll();
+        } finally {
+            writeGate.writeLock().unlock();
+        }
+        Path written = SnapshotFile.write(directory, lsn, stores, codecs, this::awaitGroupsLogged);
+        SnapshotFile.deleteOlderThan(directory, written);
+        wal.deleteSegmentsThrough(lsn);
+        log.info("Wrote repository snapshot {}", written.getFileName());
+        return written;
+    }
+
+    /**
+     * Wait until every write group open while the stores were copied has
+     * been logged and flushed. The copy may hold part of such a group, and
+     * only its record, replayed after the snapshot, completes it.
+     */
+    private void awaitGroupsLogged() {
+        // Groups hold the read side until their record is appended
+        writeGate.writeLock().lock();
+        writeGate.writeLock().unlock();
+        wal.flush();
+    }
+
+    private void scheduledSnapshot() {
+        try {
+            snapshot();
+        } catch (IOException | UncheckedIOException e) {
+            log.error("Repository snapshot failed", e);
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package org.openreceivable.repository.persistence;
+
+import org.openreceivable.repository.store.IndexedStore;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Point-in-time copy of every store, named after the log LSN it covers.
+ *
+ * A snapshot may be fuzzy: entities written while it is taken can appear in
+ * their newer state. That is harmless because recovery replays every log
+ * record after the snapshot LSN, and replaying a full-state put or a delete
+ * is idempotent.
+ *
+ * Layout (version 2), all big-endian:
+ * <pre>
+ *   header    int magic, int version, int codec version, long lsn
+ *   chunks    int length + encoded entity, repeated; one store per chunk
+ *   directory int chunk count, then per chunk: store name, long offset,
+ *             int byte length, int record count
+ *   trailer   long directory offset, int magic
+ * </pre>
+ * Chunks are a few MB each so that loading can memory-map them and decode
+ * them in parallel; the directory sits at the end so the writer can stream.
+ */
+final class SnapshotFile {
+
+    private static final String PREFIX = "snapshot-";
+    private static final String SUFFIX = ".snap";
+    private static final int MAGIC = 0x4F52534E; // "ORSN"
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 20;
+    private static final int TRAILER_BYTES = 12;
+    private static final int CHUNK_BYTES = 4 * 1024 * 1024;
+
+    private SnapshotFile() {
+    }
+
+    /**
+     * Write a snapshot of the given stores and return its path. The file is
+     * written under a temporary name and renamed once complete, so a crash
+     * never leaves a partial snapshot behind under a valid name.
+     * beforePublish runs once the file is complete, before the rename.
+     */
+    static Path write(Path directory, long lsn, List<IndexedStore<?>> stores,
+                      Map<String, EntityCodec<?>> codecs, Runnable beforePublish) throws IOException {
+        Path target = directory.resolve(String.format("%s%020d%s", PREFIX, lsn, SUFFIX));
+        Path temp = directory.resolve(target.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            BinaryWriter out = new BinaryWriter(CHUNK_BYTES + (1 << 16));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(BinaryEntityCodecs.FORMAT_VERSION);
+            out.writeLong(lsn);
+            writeFully(channel, out);
+
+            List<Chunk> chunks = new ArrayList<>();
+            for (IndexedStore<?> store : stores) {
+                writeStore(channel, out, store, codecs.get(store.getName()), chunks);
+            }
+
+            long directoryOffset = channel.position();
+            out.reset();
+            out.writeInt(chunks.size());
+            for (Chunk chunk : chunks) {
+                out.writeString(chunk.store);
+                out.writeLong(chunk.offset);
+                out.writeInt(chunk.length);
+                out.writeInt(chunk.records);
+            }
+            out.writeLong(directoryOffset);
+            out.writeInt(MAGIC);
+            writeFully(channel, out);
+            channel.force(true);
+        }
+        beforePublish.run();
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        return target;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> void writeStore(FileChannel channel, BinaryWriter out, IndexedStore<T> store,
+                                       EntityCodec<?> codec, List<Chunk> chunks) throws IOException {
+        EntityCodec<T> typed = (EntityCodec<T>) codec;
+        out.reset();
+        int records = 0;
+        for (T entity : (Iterable<T>) store.stream()::iterator) {
+            byte[] payload = typed.encode(entity);
+            out.writeInt(payload.length);
+            out.writeBytes(payload);
+            records++;
+            if (out.size() >= CHUNK_BYTES) {
+                chunks.add(new Chunk(store.getName(), channel.position(), out.size(), records));
+                writeFully(channel, out);
+                records = 0;
+            }
+        }
+        if (records > 0) {
+            chunks.add(new Chunk(store.getName(), channel.position(), out.size(), records));
+            writeFully(channel, out);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, BinaryWriter out) throws IOException {
+        ByteBuffer buffer = out.buffer();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        out.reset();
+    }
+
+    /**
+     * Find the most recent complete snapshot
+     */
+    static Optional<Path> latest(Path directory) throws IOException {
+        return list(directory).stream().reduce((first, second) -> second);
+    }
+
+    /**
+     * Delete every snapshot older than the given one, plus stray temp files
+     */
+    static void deleteOlderThan(Path directory, Path keep) throws IOException {
+        for (Path snapshot : list(directory)) {
+            if (lsnOf(snapshot) < lsnOf(keep)) {
+                Files.deleteIfExists(snapshot);
+            }
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path temp : files.filter(p -> p.getFileName().toString().endsWith(SUFFIX + ".tmp"))
+                    .collect(Collectors.toList())) {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    /**
+     * Outcome of loading a snapshot
+     */
+    static final class LoadResult {
+        final long lsn;
+        final long records;
+        final long bytes;
+        final int chunks;
+
+        private LoadResult(long lsn, long records, long bytes, int chunks) {
+            this.lsn = lsn;
+            this.records = records;
+            this.bytes = bytes;
+            this.chunks = chunks;
+        }
+    }
+
+    /**
+     * Load a snapshot into the stores it names. Chunks are mapped read-only
+     * and decoded in parallel; stores accept concurrent puts, and no two
+     * chunks hold the same entity.
+     */
+    static LoadResult load(Path snapshot, Map<String, IndexedStore<?>> stores,
+                           Map<String, EntityCodec<?>> codecs) throws IOException {
+        try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES + TRAILER_BYTES) {
+                throw new IOException("Not a supported snapshot: " + snapshot);
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION
+                    || header.getInt() != BinaryEntityCodecs.FORMAT_VERSION) {
+                throw new IOException("Not a supported snapshot: " + snapshot);
+            }
+            long lsn = header.getLong();
+
+            ByteBuffer trailer = channel.map(FileChannel.MapMode.READ_ONLY, size - TRAILER_BYTES, TRAILER_BYTES);
+            long directoryOffset = trailer.getLong();
+            if (trailer.getInt() != MAGIC || directoryOffset < HEADER_BYTES
+                    || directoryOffset > size - TRAILER_BYTES) {
+                throw new IOException("Snapshot has no valid chunk directory: " + snapshot);
+            }
+            BinaryReader directory = new BinaryReader(channel.map(FileChannel.MapMode.READ_ONLY,
+                    directoryOffset, size - TRAILER_BYTES - directoryOffset));
+            int count = directory.readInt();
+            List<Chunk> chunks = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                chunks.add(new Chunk(directory.readString(), directory.readLong(),
+                        directory.readInt(), directory.readInt()));
+            }
+
+            AtomicLong records = new AtomicLong();
+            List<MappedByteBuffer> mapped = new ArrayList<>(count);
+            for (Chunk chunk : chunks) {
+                mapped.add(channel.map(FileChannel.MapMode.READ_ONLY, chunk.offset, chunk.length));
+            }
+            try {
+                IntStream.range(0, count).parallel().forEach(i -> {
+                    Chunk chunk = chunks.get(i);
+                    records.addAndGet(decodeChunk(mapped.get(i), stores.get(chunk.store), codecs.get(chunk.store)));
+                });
+            } catch (RuntimeException e) {
+                throw new IOException("Corrupt snapshot: " + snapshot, e);
+            }
+            return new LoadResult(lsn, records.get(), size, count);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> long decodeChunk(ByteBuffer data, IndexedStore<T> store, EntityCodec<?> codec) {
+        if (store == null) {
+            return 0;
+        }
+        EntityCodec<T> typed = (EntityCodec<T>) codec;
+        long records = 0;
+        while (data.hasRemaining()) {
+            int length = data.getInt();
+            ByteBuffer payload = data.slice();
+            payload.limit(length);
+            store.restore(typed.decode(payload));
+            data.position(data.position() + length);
+            records++;
+        }
+        return records;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <T> void put(IndexedStore<T> store, EntityCodec<?> codec, ByteBuffer payload) {
+        if (store == null) {
+            return;
+        }
+        store.restore(((EntityCodec<T>) codec).decode(payload));
+    }
+
+    private static List<Path> list(Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return List.of();
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(p -> {
+                        String name = p.getFileName().toString();
+                        return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+                    })
+                    .sorted((a, b) -> Long.compare(lsnOf(a), lsnOf(b)))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static long lsnOf(Path snapshot) {
+        String name = snapshot.getFileName().toString();
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+
+    /**
+     * Directory entry for one run of records from a single store
+     */
+    private static final class Chunk {
+        private final String store;
+        private final long offset;
+        private final int length;
+        private final int records;
+
+        private Chunk(String store, long offset, int length, int records) {
+            this.store = store;
+            this.offset = offset;
+            this.length = length;
+            this.records = records;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package org.openreceivable.repository.persistence;
+
+import org.openreceivable.repository.store.StoreView;
+import org.openreceivable.repository.store.WriteGroup;
+
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Store view that appends every put and delete to the write-ahead log.
+ *
+ * It is attached as the store's log view, so it runs after the indexes and
+ * materialized views have taken the write; if the append fails, e.g. on a
+ * full disk, the store rolls all of them back and the write is not made.
+ *
+ * The record is appended inside the store's per-entity critical section, so
+ * the log order of writes to one entity matches the order they were applied.
+ * Waiting for the group commit happens afterwards in afterWrite(), outside
+ * that section; within a putAll batch it happens once, for the last record,
+ * in afterBatch().
+ *
+ * Writes made while a WriteGroup is open on the thread are staged instead,
+ * in one batch per log shared by the views of all stores, and appended as a
+ * single record when the group commits. The write gate is held from the
+ * first staged write until then, so a snapshot never picks an LSN while the
+ * stores hold part of a group that is not yet logged.
+ */
+final class WalView<T> implements StoreView<T, T> {
+
+    // A thread performs one store write at a time, so these can be shared by
+    // the views of all stores
+    private static final ThreadLocal<Long> PENDING_LSN = new ThreadLocal<>();
+    private static final ThreadLocal<Lock> HELD_GATE = new ThreadLocal<>();
+    private static final ThreadLocal<Long> BATCH_LSN = new ThreadLocal<>();
+
+    private final String storeName;
+    private final EntityCodec<T> codec;
+    private final WriteAheadLog wal;
+    private final Lock writeGate;
+    private final boolean waitForDurability;
+
+    WalView(String storeName, EntityCodec<T> codec, WriteAheadLog wal, Lock writeGate,
+            boolean waitForDurability) {
+        this.storeName = storeName;
+        this.codec = codec;
+        this.wal = wal;
+        this.writeGate = writeGate;
+        this.waitForDurability = waitForDurability;
+    }
+
+    @Override
+    public T capture(T entity) {
+        return entity;
+    }
+
+    @Override
+    public boolean keepsState() {
+        return false;
+    }
+
+    @Override
+    public void apply(String id, T before, T after) {
+        WriteGroup group = WriteGroup.current();
+        if (group != null) {
+            GroupedRecords records = group.member(wal, () -> new GroupedRecords(wal, writeGate, waitForDurability));
+            if (after != null) {
+                records.batch.add(WriteAheadLog.OP_PUT, storeName, id, codec.encode(after));
+            } else {
+                records.batch.add(WriteAheadLog.OP_DELETE, storeName, id, null);
+            }
+            return;
+        }
+        // Held until afterWrite so a snapshot cannot pick an LSN between this
+        // record being logged and the entity being visible in the store
+        writeGate.lock();
+        HELD_GATE.set(writeGate);
+        long lsn = after != null
+                ? wal.append(WriteAheadLog.OP_PUT, storeName, id, codec.encode(after))
+                : wal.append(WriteAheadLog.OP_DELETE, storeName, id, null);
+        PENDING_LSN.set(lsn);
+    }
+
+    @Override
+    public void afterWrite() {
+        releaseGate();
+        Long lsn = PENDING_LSN.get();
+        if (lsn != null) {
+            PENDING_LSN.remove();
+            if (waitForDurability) {
+                wal.awaitDurable(lsn);
+            }
+        }
+    }
+
+    @Override
+    public void afterBatchedWrite() {
+        releaseGate();
+        Long lsn = PENDING_LSN.get();
+        if (lsn != null) {
+            PENDING_LSN.remove();
+            Long batch = BATCH_LSN.get();
+            BATCH_LSN.set(batch != null ? Math.max(batch, lsn) : lsn);
+        }
+    }
+
+    @Override
+    public void afterBatch() {
+        Long lsn = BATCH_LSN.get();
+        if (lsn != null) {
+            BATCH_LSN.remove();
+            if (waitForDurability) {
+                wal.awaitDurable(lsn);
+            }
+        }
+    }
+
+    private void releaseGate() {
+        Lock held = HELD_GATE.get();
+        if (held != null) {
+            HELD_GATE.remove();
+            held.unlock();
+        }
+    }
+
+    /**
+     * The writes of a group to one log, appended as one record on commit
+     */
+    private static final class GroupedRecords implements WriteGroup.Member {
+        private final WriteAheadLog wal;
+        private final Lock writeGate;
+        private final boolean waitForDurability;
+        private final WriteAheadLog.Batch batch = new WriteAheadLog.Batch();
+
+        private GroupedRecords(WriteAheadLog wal, Lock writeGate, boolean waitForDurability) {
+            this.wal = wal;
+            this.writeGate = writeGate;
+            this.waitForDurability = waitForDurability;
+            writeGate.lock();
+        }
+
+        @Override
+        public void commit() {
+            long lsn;
+            try {
+                lsn = wal.append(batch);
+            } finally {
+                writeGate.unlock();
+            }
+            if (waitForDurability) {
+                wal.awaitDurable(lsn);
+            }
+        }
+
+        @Override
+        public void abort(Throwable cause) {
+            try {
+                // The stores now differ from what the log can recover, so nothing more may be logged
+                wal.fail(cause);
+            } finally {
+                writeGate.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,550 @@
+package org.openreceivable.repository.persistence;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Segmented, append-only write-ahead log with group commit.
+ *
+ * Writers append records into an in-memory batch and get back a log
+ * sequence number (LSN). A single flusher thread writes whole batches to the
+ * current segment and issues one fsync per batch, so under load many
+ * mutations share each fsync instead of paying for their own. Writers that
+ * need durability wait in awaitDurable() until their LSN has been flushed.
+ *
+ * Record layout: int bodyLength, int crc32(body), long lsn, body, where body
+ * is op, store name, entity ID and the encoded entity (empty for deletes).
+ * A batch record (OP_BATCH) instead has a body of op, record count and the
+ * bodies of its records, each preceded by its length; its records share its
+ * LSN and checksum, so replay sees either all of them or none.
+ * Segments are named after the first LSN they contain.
+ *
+ * A failed flush is fatal for the log: the records of the failed batch and
+ * any appended after it never become durable, and every later append is
+ * refused. Since the log views append inside the store's write, the stores
+ * then reject every further write instead of running ahead of the log; the
+ * writes whose flush failed stay visible in memory but are not recovered
+ * after a restart.
+ */
+public class WriteAheadLog implements Closeable {
+
+    public static final byte OP_PUT = 1;
+    public static final byte OP_DELETE = 2;
+    public static final byte OP_BATCH = 3;
+
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int HEADER_BYTES = 16;
+
+    private final Path directory;
+    private final long segmentBytes;
+    private final boolean fsync;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition recordsPending = lock.newCondition();
+    private final Condition batchFlushed = lock.newCondition();
+
+    // Guarded by lock
+    private ByteArrayOutputStream activeBatch = new ByteArrayOutputStream(64 * 1024);
+    private ByteArrayOutputStream flushingBatch = new ByteArrayOutputStream(64 * 1024);
+    private long lastAssignedLsn;
+    private long batchFirstLsn;
+    private long durableLsn;
+    private boolean rollRequested;
+    private boolean closed;
+    private IOException failure;
+
+    // Owned by the flusher thread
+    private FileChannel segment;
+    private long segmentSize;
+
+    private final SegmentOpener opener;
+    private final Thread flusher;
+
+    /**
+     * Opens the channel of a new segment
+     */
+    interface SegmentOpener {
+        FileChannel open(Path path) throws IOException;
+    }
+
+    /**
+     * Open the log for appending. New records start at lastLsn + 1 in a
+     * fresh segment; existing segments are left untouched.
+     */
+    public WriteAheadLog(Path directory, long segmentBytes, boolean fsync, long lastLsn) throws IOException {
+        this(directory, segmentBytes, fsync, lastLsn, path -> FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND));
+    }
+
+    WriteAheadLog(Path directory, long segmentBytes, boolean fsync, long lastLsn,
+                  SegmentOpener opener) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.opener = opener;
+        this.segmentBytes = segmentBytes;
+        this.fsync = fsync;
+        this.lastAssignedLsn = lastLsn;
+        this.durableLsn = lastLsn;
+        this.flusher = new Thread(this::flushLoop, "wal-flusher");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * Append a record and return its LSN. The record is not durable until
+     * awaitDurable(lsn) returns.
+     *
+     * @throws UncheckedIOException if an earlier flush failed
+     */
+    public long append(byte op, String store, String id, byte[] payload) {
+        return appendBody(encodeBody(op, store, id, payload));
+    }
+
+    /**
+     * Append the records of a batch as one record and return its LSN
+     *
+     * @throws UncheckedIOException if an earlier flush failed
+     */
+    public long append(Batch batch) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(5 + batch.records.size());
+        body.write(OP_BATCH);
+        writeInt(body, batch.count);
+        body.writeBytes(batch.records.toByteArray());
+        return appendBody(body.toByteArray());
+    }
+
+    private long appendBody(byte[] body) {
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("Write-ahead log is closed");
+            }
+            if (failure != null) {
+                throw new UncheckedIOException("Write-ahead log flush failed", failure);
+            }
+            long lsn = ++lastAssignedLsn;
+            if (activeBatch.size() == 0) {
+                batchFirstLsn = lsn;
+            }
+            writeInt(activeBatch, body.length);
+            writeInt(activeBatch, (int) crc.getValue());
+            writeLong(activeBatch, lsn);
+            activeBatch.write(body, 0, body.length);
+            recordsPending.signal();
+            return lsn;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Block until every record up to and including lsn has been written and,
+     * if fsync is enabled, forced to disk
+     */
+    public void awaitDurable(long lsn) {
+        lock.lock();
+        try {
+            while (durableLsn < lsn && failure == null) {
+                batchFlushed.awaitUninterruptibly();
+            }
+            if (durableLsn < lsn) {
+                throw new UncheckedIOException("Write-ahead log flush failed", failure);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Block until every record appended so far is durable
+     *
+     * @throws UncheckedIOException if a flush failed or the log was failed
+     *         with fail(), even if those records were flushed before
+     */
+    public void flush() {
+        lock.lock();
+        try {
+            long lsn = lastAssignedLsn;
+            while (durableLsn < lsn && failure == null) {
+                batchFlushed.awaitUninterruptibly();
+            }
+            if (failure != null) {
+                throw new UncheckedIOException("Write-ahead log flush failed", failure);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Fail the log as a failed flush would, because the stores hold writes
+     * it must not record. Nothing can be appended afterwards.
+     */
+    public void fail(Throwable cause) {
+        lock.lock();
+        try {
+            if (failure == null) {
+                failure = new IOException("Write-ahead log failed: stores hold unrecorded writes", cause);
+            }
+            batchFlushed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * LSN of the most recently appended record
+     */
+    public long lastAssignedLsn() {
+        lock.lock();
+        try {
+            return lastAssignedLsn;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Start a new segment with the next batch, so that everything appended
+     * so far can be dropped once it is covered by a snapshot
+     */
+    public void roll() {
+        lock.lock();
+        try {
+            rollRequested = true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Delete segments whose records all have an LSN of at most lsn
+     */
+    public void deleteSegmentsThrough(long lsn) throws IOException {
+        List<Path> segments = listSegments(directory);
+        for (int i = 0; i + 1 < segments.size(); i++) {
+            if (firstLsn(segments.get(i + 1)) <= lsn + 1) {
+                Files.deleteIfExists(segments.get(i));
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            closed = true;
+            recordsPending.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (segment != null) {
+            segment.close();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void flushLoop() {
+        while (true) {
+            long firstLsn;
+            long lastLsn;
+            boolean roll;
+            lock.lock();
+            try {
+                while (activeBatch.size() == 0 && !closed) {
+                    recordsPending.awaitUninterruptibly();
+                }
+                if (activeBatch.size() == 0) {
+                    return;
+                }
+                ByteArrayOutputStream full = activeBatch;
+                activeBatch = flushingBatch;
+                flushingBatch = full;
+                firstLsn = batchFirstLsn;
+                lastLsn = lastAssignedLsn;
+                roll = rollRequested;
+                rollRequested = false;
+            } finally {
+                lock.unlock();
+            }
+
+            IOException error = null;
+            try {
+                write(flushingBatch, firstLsn, roll);
+            } catch (IOException e) {
+                error = e;
+            } catch (RuntimeException e) {
+                // e.g. a channel that cannot be written; waiters must not hang on it
+                error = new IOException(e);
+            }
+            flushingBatch.reset();
+
+            lock.lock();
+            try {
+                if (error != null) {
+                    failure = error;
+                    // Nothing will flush what is still buffered
+                    activeBatch.reset();
+                } else {
+                    durableLsn = lastLsn;
+                }
+                batchFlushed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            if (error != null) {
+                return;
+            }
+        }
+    }
+
+    private void write(ByteArrayOutputStream batch, long firstLsn, boolean roll) throws IOException {
+        if (segment == null || roll || segmentSize >= segmentBytes) {
+            if (segment != null) {
+                segment.close();
+            }
+            segment = opener.open(segmentPath(directory, firstLsn));
+            segmentSize = segment.size();
+        }
+        batch.writeTo(Channels.newOutputStream(segment));
+        segmentSize += batch.size();
+        if (fsync) {
+            segment.force(false);
+        }
+    }
+
+    /**
+     * Records collected to be appended as one batch record
+     */
+    public static final class Batch {
+        private final ByteArrayOutputStream records = new ByteArrayOutputStream(1024);
+        private int count;
+
+        public void add(byte op, String store, String id, byte[] payload) {
+            byte[] body = encodeBody(op, store, id, payload);
+            writeInt(records, body.length);
+            records.write(body, 0, body.length);
+            count++;
+        }
+
+        public boolean isEmpty() {
+            return count == 0;
+        }
+    }
+
+    // Replay
+
+    /**
+     * A record read back from the log; the records of a batch are read
+     * back one by one
+     */
+    public static final class LogRecord {
+        private final long lsn;
+        private final byte op;
+        private final String store;
+        private final String id;
+        private final ByteBuffer payload;
+
+        LogRecord(long lsn, byte op, String store, String id, ByteBuffer payload) {
+            this.lsn = lsn;
+            this.op = op;
+            this.store = store;
+            this.id = id;
+            this.payload = payload;
+        }
+
+        public long getLsn() {
+            return lsn;
+        }
+
+        public byte getOp() {
+            return op;
+        }
+
+        public String getStore() {
+            return store;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public ByteBuffer getPayload() {
+            return payload;
+        }
+    }
+
+    /**
+     * Replay every record with an LSN greater than afterLsn, in LSN order,
+     * and return the last LSN found. A torn or corrupt record at the end of
+     * the log (an interrupted flush) is truncated away; nothing after it is
+     * replayed. The records of a batch are passed on only once all of them
+     * have been read back intact.
+     */
+    public static long replay(Path directory, long afterLsn, Consumer<LogRecord> consumer) throws IOException {
+        long lastLsn = afterLsn;
+        if (!Files.isDirectory(directory)) {
+            return lastLsn;
+        }
+        List<Path> segments = listSegments(directory);
+        for (int i = 0; i < segments.size(); i++) {
+            Path path = segments.get(i);
+            // A segment only holds LSNs below the next segment's first LSN
+            if (i + 1 < segments.size() && firstLsn(segments.get(i + 1)) <= afterLsn + 1) {
+                continue;
+            }
+            long validBytes = 0;
+            boolean torn = false;
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                while (data.remaining() >= HEADER_BYTES) {
+                    int length = data.getInt();
+                    int checksum = data.getInt();
+                    long lsn = data.getLong();
+                    if (length < 0 || length > data.remaining()) {
+                        torn = true;
+                        break;
+                    }
+                    ByteBuffer body = data.slice();
+                    body.limit(length);
+                    CRC32 crc = new CRC32();
+                    crc.update(body.duplicate());
+                    if ((int) crc.getValue() != checksum) {
+                        torn = true;
+                        break;
+                    }
+                    data.position(data.position() + length);
+                    validBytes = data.position();
+                    if (lsn > afterLsn) {
+                        decode(lsn, body).forEach(consumer);
+                        lastLsn = lsn;
+                    }
+                }
+                torn |= data.hasRemaining();
+            }
+            if (torn) {
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                    channel.truncate(validBytes);
+                }
+                for (int j = i + 1; j < segments.size(); j++) {
+                    Files.deleteIfExists(segments.get(j));
+                }
+                break;
+            }
+        }
+        return lastLsn;
+    }
+
+    // Encoding helpers
+
+    private static byte[] encodeBody(byte op, String store, String id, byte[] payload) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(
+                    32 + id.length() + (payload != null ? payload.length : 0));
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(op);
+            out.writeUTF(store);
+            out.writeUTF(id);
+            int length = payload != null ? payload.length : 0;
+            out.writeInt(length);
+            if (length > 0) {
+                out.write(payload);
+            }
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static List<LogRecord> decode(long lsn, ByteBuffer body) {
+        if (body.get(body.position()) != OP_BATCH) {
+            return List.of(decodeBody(lsn, body));
+        }
+        body.get();
+        int count = body.getInt();
+        List<LogRecord> records = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int length = body.getInt();
+            ByteBuffer record = body.slice();
+            record.limit(length);
+            records.add(decodeBody(lsn, record));
+            body.position(body.position() + length);
+        }
+        return records;
+    }
+
+    private static LogRecord decodeBody(long lsn, ByteBuffer body) {
+        byte op = body.get();
+        String store = readUtf(body);
+        String id = readUtf(body);
+        int length = body.getInt();
+        ByteBuffer payload = body.slice();
+        payload.limit(length);
+        return new LogRecord(lsn, op, store, id, payload);
+    }
+
+    static String readUtf(ByteBuffer buffer) {
+        try {
+            int length = buffer.getShort() & 0xFFFF;
+            byte[] encoded = new byte[length + 2];
+            encoded[0] = (byte) (length >>> 8);
+            encoded[1] = (byte) length;
+            buffer.get(encoded, 2, length);
+            return new DataInputStream(new ByteArrayInputStream(encoded)).readUTF();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    private static void writeLong(ByteArrayOutputStream out, long value) {
+        writeInt(out, (int) (value >>> 32));
+        writeInt(out, (int) value);
+    }
+
+    static List<Path> listSegments(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(p -> {
+                        String name = p.getFileName().toString();
+                        return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+                    })
+                    .sorted((a, b) -> Long.compare(firstLsn(a), firstLsn(b)))
+                    .collect(Collectors.toCollection(ArrayList::new));
+        }
+    }
+
+    private static long firstLsn(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static Path segmentPath(Path directory, long firstLsn) {
+        return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, firstLsn, SEGMENT_SUFFIX));
+    }
+}
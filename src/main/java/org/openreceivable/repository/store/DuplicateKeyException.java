@@ -0,0 +1,26 @@
+package org.openreceivable.repository.store;
+
+/**
+ * Thrown when a save would give two entities the same unique index key
+ */
+public class DuplicateKeyException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String index;
+    private final Object key;
+
+    public DuplicateKeyException(String index, Object key) {
+        super("Duplicate key for " + index + ": " + key);
+        this.index = index;
+        this.key = key;
+    }
+
+    public String getIndex() {
+        return index;
+    }
+
+    public Object getKey() {
+        return key;
+    }
+}
@@ -0,0 +1,71 @@
+package org.openreceivable.repository.store;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Non-unique hash index: key to the IDs of every entity with that key.
+ * Entities whose key is null are not indexed.
+ */
+public class HashIndex<T, K> implements StoreView<T, K> {
+
+    private final IndexedStore<T> store;
+    private final String name;
+    private final Function<T, K> keyExtractor;
+    private final Map<K, Set<String>> ids = new ConcurrentHashMap<>();
+
+    HashIndex(IndexedStore<T> store, String name, Function<T, K> keyExtractor) {
+        this.store = store;
+        this.name = name;
+        this.keyExtractor = keyExtractor;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Find all entities with the given key
+     */
+    public List<T> find(K key) {
+        Set<String> matches = key != null ? ids.get(key) : null;
+        return store.resolve(matches != null ? matches : Set.of());
+    }
+
+    /**
+     * Number of entities indexed under the given key
+     */
+    public int count(K key) {
+        Set<String> matches = key != null ? ids.get(key) : null;
+        return matches != null ? matches.size() : 0;
+    }
+
+    @Override
+    public K capture(T entity) {
+        return keyExtractor.apply(entity);
+    }
+
+    @Override
+    public void apply(String id, K before, K after) {
+        if (Objects.equals(before, after)) {
+            return;
+        }
+        if (before != null) {
+            ids.computeIfPresent(before, (k, set) -> {
+                set.remove(id);
+                return set.isEmpty() ? null : set;
+            });
+        }
+        if (after != null) {
+            ids.compute(after, (k, set) -> {
+                Set<String> target = set != null ? set : ConcurrentHashMap.newKeySet();
+                target.add(id);
+                return target;
+            });
+        }
+    }
+}
@@ -0,0 +1,613 @@
+package org.openreceivable.repository.store;
+
+import org.openreceivable.id.IdGenerator;
+import org.openreceivable.id.Ids;
+import org.openreceivable.id.TimeOrderedIdGenerator;
+import org.openreceivable.model.Versioned;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Concurrent in-memory entity store with declared secondary indexes.
+ *
+ * Entities live in a ConcurrentHashMap keyed by ID. Every put and remove for
+ * an ID runs inside that map's compute(), so writes to the same entity are
+ * serialized and each registered view (index) sees them in order. Writes to
+ * different entities proceed in parallel; readers never block and may see
+ * an index that is momentarily ahead of or behind the primary map.
+ *
+ * Unique indexes are applied first, then the other views and last the log
+ * views (see attachLogView), so a write is logged only once every in-memory
+ * view has taken it. If any view rejects a write or fails, e.g. a unique
+ * index on a duplicate key or the log on an I/O error, every view already
+ * applied is rolled back and the store is left unchanged.
+ *
+ * By default entities are held on the heap as given. A store switched to
+ * off-heap mode with storeOffHeap() instead encodes each entity into an
+ * OffHeapRecordStorage on put and decodes a fresh copy on every read, so
+ * only the index structures stay on the heap. Callers must then save an
+ * entity for a change to it to be seen by other readers.
+ *
+ * Entities put without an ID get one from the store's IdGenerator, which
+ * the owning repository sets to the application's with useIdGenerator().
+ * A new entity, one put without an ID or a versioned one that has never
+ * been stored, is only inserted: if its ID is taken, e.g. because the
+ * generator repeated an ID issued before a restart, the put fails instead
+ * of replacing the stored entity. Recovery calls seedIdGenerator() so the
+ * generator continues past the IDs already held.
+ *
+ * Every entry carries a version, incremented by each put inside the same
+ * compute(), so putIfVersion() is an atomic compare-and-set. Versioned
+ * entities have the new version written back to them. With copyOnRead()
+ * get() hands each caller its own copy, so a read-modify-write does not
+ * mutate the instance other readers hold before its conditional put wins.
+ *
+ * @param <T> entity type
+ */
+public class IndexedStore<T> {
+
+    private static final long ABSENT = 0;
+    private static final long ANY_VERSION = -1;
+    private static final long RESTORED_VERSION = -2;
+
+    private final String name;
+    private final Class<T> entityType;
+    private final Function<T, String> idGetter;
+    private final BiConsumer<T, String> idSetter;
+    private final boolean versioned;
+
+    private final Map<String, Entry<T>> entries = new ConcurrentHashMap<>();
+    private final List<StoreView<T, ?>> uniqueViews = new CopyOnWriteArrayList<>();
+    private final List<StoreView<T, ?>> views = new CopyOnWriteArrayList<>();
+    private final List<StoreView<T, ?>> logViews = new CopyOnWriteArrayList<>();
+    // The view lists in the order they are applied, indexed by Entry kind
+    private final List<List<StoreView<T, ?>>> kinds = List.of(uniqueViews, views, logViews);
+
+    private OffHeapRecordStorage offHeap;
+    private Function<T, byte[]> encoder;
+    private Function<ByteBuffer, T> decoder;
+    private UnaryOperator<T> copier;
+    private volatile IdGenerator idGenerator = new TimeOrderedIdGenerator(0);
+
+    public IndexedStore(String name, Class<T> entityType,
+                        Function<T, String> idGetter, BiConsumer<T, String> idSetter) {
+        this.name = name;
+        this.entityType = entityType;
+        this.idGetter = idGetter;
+        this.idSetter = idSetter;
+        this.versioned = Versioned.class.isAssignableFrom(entityType);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Class<T> getEntityType() {
+        return entityType;
+    }
+
+    public String idOf(T entity) {
+        return idGetter.apply(entity);
+    }
+
+    /**
+     * Assign new IDs from the given generator instead of the store's own
+     */
+    public void useIdGenerator(IdGenerator idGenerator) {
+        this.idGenerator = idGenerator;
+    }
+
+    /**
+     * Advance the store's generator past the highest generated ID it holds,
+     * so IDs issued before a restart are not issued again. IDs not in the
+     * compact form were not generated and are ignored.
+     */
+    public void seedIdGenerator() {
+        long highest = -1;
+        for (String id : entries.keySet()) {
+            if (id.length() == Ids.STRING_LENGTH) {
+                try {
+                    highest = Math.max(highest, Ids.parse(id));
+                } catch (IllegalArgumentException e) {
+                    // Not a compact ID
+                }
+            }
+        }
+        if (highest >= 0) {
+            idGenerator.advancePast(highest);
+        }
+    }
+
+    /**
+     * A new ID from the store's generator, for an entity that must be
+     * referred to before it is put
+     */
+    public String nextId() {
+        return idGenerator.nextString();
+    }
+
+    /**
+     * Keep entities in off-heap memory from now on. Must be called while
+     * the store is empty.
+     */
+    public synchronized void storeOffHeap(OffHeapRecordStorage storage,
+                                          Function<T, byte[]> encoder, Function<ByteBuffer, T> decoder) {
+        if (!entries.isEmpty()) {
+            throw new IllegalStateException("Store " + name + " must be empty to move off-heap");
+        }
+        this.offHeap = storage;
+        this.encoder = encoder;
+        this.decoder = decoder;
+    }
+
+    public boolean isOffHeap() {
+        return offHeap != null;
+    }
+
+    /**
+     * Have get() and copy() return a copy of an on-heap entity made by
+     * encoding and decoding it. Off-heap reads are always copies.
+     */
+    public synchronized void copyOnRead(Function<T, byte[]> encoder, Function<ByteBuffer, T> decoder) {
+        this.copier = entity -> decoder.apply(ByteBuffer.wrap(encoder.apply(entity)));
+    }
+
+    /**
+     * A copy of an entity read from this store that the caller may modify
+     * freely; the entity itself when reads are not copied or already copies
+     */
+    public T copy(T entity) {
+        return offHeap == null && copier != null && entity != null ? copier.apply(entity) : entity;
+    }
+
+    // Index and view registration
+
+    public <K> UniqueIndex<T, K> uniqueIndex(String indexName, Function<T, K> keyExtractor) {
+        UniqueIndex<T, K> index = new UniqueIndex<>(this, indexName, keyExtractor);
+        register(index, true);
+        return index;
+    }
+
+    public <K> HashIndex<T, K> hashIndex(String indexName, Function<T, K> keyExtractor) {
+        HashIndex<T, K> index = new HashIndex<>(this, indexName, keyExtractor);
+        register(index, false);
+        return index;
+    }
+
+    public <K extends Comparable<? super K>> OrderedIndex<T, K> orderedIndex(String indexName,
+                                                                          Function<T, K> keyExtractor) {
+        OrderedIndex<T, K> index = new OrderedIndex<>(this, indexName, keyExtractor);
+        register(index, false);
+        return index;
+    }
+
+    /**
+     * Register a custom view. Existing entities are fed to it as inserts.
+     */
+    public <S> void addView(StoreView<T, S> view) {
+        register(view, false);
+    }
+
+    /**
+     * Register a view that records writes from now on, e.g. a write-ahead
+     * log. It is applied after every other view, whenever they were
+     * registered, so a write it fails to record is rolled back from all of
+     * them. Existing entities are not fed to it.
+     */
+    public <S> void attachLogView(StoreView<T, S> view) {
+        register(view, Entry.LOG, false);
+    }
+
+    private void register(StoreView<T, ?> view, boolean unique) {
+        register(view, unique ? Entry.UNIQUE : Entry.OTHER, true);
+    }
+
+    private synchronized void register(StoreView<T, ?> view, int kind, boolean backfill) {
+        // Appending the view to the entries' captured state requires that no
+        // write interleaves; views are normally registered before first use
+        for (Map.Entry<String, Entry<T>> e : entries.entrySet()) {
+            entries.computeIfPresent(e.getKey(), (id, entry) -> {
+                // The entry is current while its key is locked, so its block cannot be freed
+                T entity = offHeap != null ? decoder.apply(offHeap.read(entry.address)) : entry.entity;
+                return entry.withView(view, kind, id, backfill, entity);
+            });
+        }
+        kinds.get(kind).add(view);
+    }
+
+    // Writes
+
+    /**
+     * Insert or replace an entity, assigning a new ID if it has none
+     *
+     * @throws OptimisticLockException if the entity is new but its ID is taken
+     */
+    public T put(T entity) {
+        return put(entity, ANY_VERSION, false);
+    }
+
+    /**
+     * Insert or replace an entity only if the stored version is still
+     * expectedVersion, or, if that is null, only if there is no entity with
+     * its ID yet. The check and the write are one atomic step.
+     *
+     * @throws OptimisticLockException if the stored version differs
+     */
+    public T putIfVersion(T entity, Long expectedVersion) {
+        return put(entity, expectedVersion != null ? expectedVersion : ABSENT, false);
+    }
+
+    /**
+     * Put each versioned entity only if it is still at the version it
+     * carries, returning those that were changed by another writer since
+     * and so were not stored. Batched like putAll().
+     */
+    public List<T> putAllIfCurrent(Collection<? extends T> entities) {
+        if (!versioned) {
+            throw new IllegalStateException("Store " + name + " does not hold versioned entities");
+        }
+        List<T> conflicts = new ArrayList<>();
+        try {
+            for (T entity : entities) {
+                Long version = ((Versioned) entity).getVersion();
+                try {
+                    put(entity, version != null ? version : ABSENT, true);
+                } catch (OptimisticLockException e) {
+                    conflicts.add(entity);
+                }
+            }
+        } finally {
+            afterBatch();
+        }
+        return conflicts;
+    }
+
+    /**
+     * Put an entity recovered from a snapshot or log, keeping the version
+     * it was saved with
+     */
+    public T restore(T entity) {
+        return put(entity, RESTORED_VERSION, false);
+    }
+
+    /**
+     * Put each entity in turn. Views finish each write as usual but defer
+     * blocking work to the end of the batch (see StoreView.afterBatch), so
+     * e.g. a durable store waits for one log flush instead of one per
+     * entity. Stops at the first failure; entities before it stay stored.
+     */
+    public List<T> putAll(Collection<? extends T> entities) {
+        List<T> stored = new ArrayList<>(entities.size());
+        try {
+            for (T entity : entities) {
+                stored.add(put(entity, ANY_VERSION, true));
+            }
+        } finally {
+            afterBatch();
+        }
+        return stored;
+    }
+
+    private void afterBatch() {
+        for (List<StoreView<T, ?>> kind : kinds) {
+            for (StoreView<T, ?> view : kind) {
+                view.afterBatch();
+            }
+        }
+    }
+
+    /**
+     * @param expectedVersion stored version required, ABSENT for none,
+     *                        ANY_VERSION to skip the check or RESTORED_VERSION
+     *                        to keep the entity's own version
+     */
+    private T put(T entity, long expectedVersion, boolean batched) {
+        String id = idGetter.apply(entity);
+        long expected = expectedVersion;
+        if (id == null || id.isEmpty()) {
+            id = nextId();
+            idSetter.accept(entity, id);
+            expected = ABSENT;
+        } else if (expected == ANY_VERSION && versioned && ((Versioned) entity).getVersion() == null) {
+            // Never stored, so it must not replace whatever holds its ID
+            expected = ABSENT;
+        }
+        long checkedVersion = expected;
+        long address = offHeap != null ? offHeap.write(encoder.apply(entity)) : Entry.ON_HEAP;
+        Object[] replaced = new Object[1];
+        boolean stored = false;
+        try {
+            entries.compute(id, (key, previous) -> {
+                long current = previous != null ? previous.version : ABSENT;
+                if (checkedVersion >= ABSENT && checkedVersion != current) {
+                    throw new OptimisticLockException(name, key,
+                            checkedVersion != ABSENT ? checkedVersion : null,
+                            previous != null ? current : null);
+                }
+                long version = current + 1;
+                Long given = versioned ? ((Versioned) entity).getVersion() : null;
+                if (expectedVersion == RESTORED_VERSION && given != null) {
+                    version = given;
+                }
+                // Views capture the entity with its new version, e.g. for the log
+                if (versioned) {
+                    ((Versioned) entity).setVersion(version);
+                }
+                try {
+                    Entry<T> next = capture(entity, address, version);
+                    applyAll(key, previous, next);
+                    dropUnkeptState(next);
+                    replaced[0] = previous;
+                    return next;
+                } catch (RuntimeException e) {
+                    if (versioned) {
+                        ((Versioned) entity).setVersion(given);
+                    }
+                    throw e;
+                }
+            });
+            stored = true;
+        } finally {
+            afterWrite(batched);
+            if (offHeap != null) {
+                // Freed only once the new entry is visible, see materialize()
+                @SuppressWarnings("unchecked")
+                Entry<T> released = stored ? (Entry<T>) replaced[0] : null;
+                if (!stored) {
+                    offHeap.free(address);
+                } else if (released != null) {
+                    offHeap.free(released.address);
+                }
+            }
+        }
+        return entity;
+    }
+
+    /**
+     * Remove an entity, returning it if it was present
+     */
+    public Optional<T> remove(String id) {
+        Object[] removed = new Object[1];
+        try {
+            entries.computeIfPresent(id, (key, previous) -> {
+                applyAll(key, previous, null);
+                removed[0] = previous;
+                return null;
+            });
+        } finally {
+            afterWrite(false);
+        }
+        @SuppressWarnings("unchecked")
+        Entry<T> entry = (Entry<T>) removed[0];
+        if (entry == null) {
+            return Optional.empty();
+        }
+        if (offHeap == null) {
+            return Optional.of(entry.entity);
+        }
+        T entity = decoder.apply(offHeap.read(entry.address));
+        offHeap.free(entry.address);
+        return Optional.of(entity);
+    }
+
+    // Reads
+
+    /**
+     * The entity with the given ID; a copy if copyOnRead() is set
+     */
+    public Optional<T> get(String id) {
+        Entry<T> entry = id != null ? entries.get(id) : null;
+        return Optional.ofNullable(entry != null ? copy(materialize(id, entry)) : null);
+    }
+
+    /**
+     * Current version of the entity with the given ID, or null if absent
+     */
+    public Long versionOf(String id) {
+        Entry<T> entry = id != null ? entries.get(id) : null;
+        return entry != null ? entry.version : null;
+    }
+
+    public boolean contains(String id) {
+        return id != null && entries.containsKey(id);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public Stream<T> stream() {
+        if (offHeap == null) {
+            return entries.values().stream().map(e -> e.entity);
+        }
+        return entries.entrySet().stream()
+                .map(e -> materialize(e.getKey(), e.getValue()))
+                .filter(Objects::nonNull);
+    }
+
+    public List<T> findAll() {
+        return stream().collect(Collectors.toList());
+    }
+
+    /**
+     * Look up entities by ID, skipping IDs that are not (or no longer) present
+     */
+    public List<T> resolve(Collection<String> ids) {
+        List<T> result = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            Entry<T> entry = entries.get(id);
+            T entity = entry != null ? materialize(id, entry) : null;
+            if (entity != null) {
+                result.add(entity);
+            }
+        }
+        return result;
+    }
+
+    Stream<T> resolve(Stream<String> ids) {
+        return ids.map(id -> {
+                    Entry<T> entry = entries.get(id);
+                    return entry != null ? materialize(id, entry) : null;
+                })
+                .filter(Objects::nonNull);
+    }
+
+    // Internals
+
+    /**
+     * The entity held by an entry. Off-heap records are decoded without
+     * locking; a block is only freed after its entry has been replaced, so a
+     * decode is trusted only if the entry is still current afterwards.
+     * Returns null if the entity was removed in the meantime.
+     */
+    private T materialize(String id, Entry<T> entry) {
+        if (offHeap == null) {
+            return entry.entity;
+        }
+        while (true) {
+            T entity;
+            RuntimeException failure = null;
+            try {
+                entity = decoder.apply(offHeap.read(entry.address));
+            } catch (RuntimeException e) {
+                entity = null;
+                failure = e;
+            }
+            Entry<T> current = entries.get(id);
+            if (current == entry) {
+                if (failure != null) {
+                    throw failure;
+                }
+                // The record was encoded before its put assigned the version
+                if (versioned) {
+                    ((Versioned) entity).setVersion(entry.version);
+                }
+                return entity;
+            }
+            if (current == null) {
+                return null;
+            }
+            entry = current;
+        }
+    }
+
+    private Entry<T> capture(T entity, long address, long version) {
+        Object[][] state = new Object[kinds.size()][];
+        for (int kind = 0; kind < state.length; kind++) {
+            List<StoreView<T, ?>> kindViews = kinds.get(kind);
+            state[kind] = new Object[kindViews.size()];
+            for (int i = 0; i < state[kind].length; i++) {
+                state[kind][i] = kindViews.get(i).capture(entity);
+            }
+        }
+        return address == Entry.ON_HEAP
+                ? new Entry<>(entity, Entry.ON_HEAP, version, state)
+                : new Entry<>(null, address, version, state);
+    }
+
+    /**
+     * Apply a write to every view in order. If one throws, the views
+     * already applied get the reverse change, newest first; a view that
+     * keeps no state is rolled back with a null after.
+     */
+    private void applyAll(String id, Entry<T> previous, Entry<T> next) {
+        int kind = 0;
+        int applied = 0;
+        try {
+            for (; kind < kinds.size(); kind++) {
+                List<StoreView<T, ?>> kindViews = kinds.get(kind);
+                for (applied = 0; applied < kindViews.size(); applied++) {
+                    apply(kindViews.get(applied), id, stateOf(previous, kind, applied), stateOf(next, kind, applied));
+                }
+            }
+        } catch (RuntimeException e) {
+            for (; kind >= 0; kind--) {
+                List<StoreView<T, ?>> kindViews = kinds.get(kind);
+                for (int i = applied - 1; i >= 0; i--) {
+                    try {
+                        apply(kindViews.get(i), id, stateOf(next, kind, i), stateOf(previous, kind, i));
+                    } catch (RuntimeException rollbackFailure) {
+                        e.addSuppressed(rollbackFailure);
+                    }
+                }
+                applied = kind > 0 ? kinds.get(kind - 1).size() : 0;
+            }
+            throw e;
+        }
+    }
+
+    private static Object stateOf(Entry<?> entry, int kind, int view) {
+        return entry != null ? entry.state[kind][view] : null;
+    }
+
+    private void dropUnkeptState(Entry<T> entry) {
+        for (int kind = 0; kind < entry.state.length; kind++) {
+            for (int i = 0; i < entry.state[kind].length; i++) {
+                if (!kinds.get(kind).get(i).keepsState()) {
+                    entry.state[kind][i] = null;
+                }
+            }
+        }
+    }
+
+    private void afterWrite(boolean batched) {
+        for (List<StoreView<T, ?>> kind : kinds) {
+            for (StoreView<T, ?> view : kind) {
+                if (batched) {
+                    view.afterBatchedWrite();
+                } else {
+                    view.afterWrite();
+                }
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T, S> void apply(StoreView<T, S> view, String id, Object before, Object after) {
+        view.apply(id, (S) before, (S) after);
+    }
+
+    /**
+     * Stored entity, or its off-heap address, plus the state each view
+     * captured when it was written
+     */
+    private static final class Entry<T> {
+        private static final long ON_HEAP = -1;
+
+        // Kinds of view, in the order they are applied
+        private static final int UNIQUE = 0;
+        private static final int OTHER = 1;
+        private static final int LOG = 2;
+
+        private final T entity;
+        private final long address;
+        private final long version;
+        private final Object[][] state;
+
+        private Entry(T entity, long address, long version, Object[][] state) {
+            this.entity = entity;
+            this.address = address;
+            this.version = version;
+            this.state = state;
+        }
+
+        private Entry<T> withView(StoreView<T, ?> view, int kind, String id, boolean backfill, T current) {
+            Object captured = view.capture(current);
+            if (backfill) {
+                apply(view, id, null, captured);
+            }
+            Object[][] next = state.clone();
+            next[kind] = Arrays.copyOf(state[kind], state[kind].length + 1);
+            next[kind][next[kind].length - 1] = view.keepsState() ? captured : null;
+            return new Entry<>(entity, address, version, next);
+        }
+    }
+}
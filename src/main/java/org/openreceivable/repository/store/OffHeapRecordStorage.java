@@ -0,0 +1,151 @@
+package org.openreceivable.repository.store;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Variable-length records in direct (off-heap) memory.
+ *
+ * Memory is reserved in large slabs of direct ByteBuffers and carved into
+ * power-of-two blocks. A block holds an int length header followed by the
+ * record. Freed blocks go onto a free list for their size class and are
+ * reused before the slab is extended, so a store with a stable population
+ * stops allocating after warm-up and the heap never sees the record bytes.
+ *
+ * An address is the slab index in the high 32 bits and the block offset in
+ * the low 32 bits. Reads do not lock: a reader racing with free() of the
+ * same block may see bytes of a later record, so callers must check that the
+ * address is still current after reading (see IndexedStore).
+ */
+public class OffHeapRecordStorage {
+
+    public static final int DEFAULT_SLAB_BYTES = 64 * 1024 * 1024;
+
+    private static final int MIN_BLOCK_SHIFT = 5;
+    private static final int HEADER_BYTES = 4;
+
+    private final int slabBytes;
+    private final int maxBlockShift;
+
+    // Slabs are only ever appended; readers index into a snapshot of the list
+    private volatile ByteBuffer[] slabs = new ByteBuffer[0];
+
+    // Guarded by this
+    private int bumpOffset;
+    private final List<long[]> freeLists = new ArrayList<>();
+    private final int[] freeCounts;
+    private long usedBytes;
+
+    public OffHeapRecordStorage() {
+        this(DEFAULT_SLAB_BYTES);
+    }
+
+    public OffHeapRecordStorage(int slabBytes) {
+        if (Integer.bitCount(slabBytes) != 1 || slabBytes < (1 << MIN_BLOCK_SHIFT)) {
+            throw new IllegalArgumentException("Slab size must be a power of two: " + slabBytes);
+        }
+        this.slabBytes = slabBytes;
+        this.maxBlockShift = Integer.numberOfTrailingZeros(slabBytes);
+        for (int shift = MIN_BLOCK_SHIFT; shift <= maxBlockShift; shift++) {
+            freeLists.add(new long[16]);
+        }
+        this.freeCounts = new int[freeLists.size()];
+    }
+
+    /**
+     * Copy a record into off-heap memory and return its address
+     */
+    public long write(byte[] record) {
+        int shift = blockShift(record.length);
+        long address = allocate(shift);
+        ByteBuffer slab = slabs[slabOf(address)];
+        int offset = offsetOf(address);
+        slab.putInt(offset, record.length);
+        slab.put(offset + HEADER_BYTES, record);
+        return address;
+    }
+
+    /**
+     * Read-only view of the record at the given address
+     */
+    public ByteBuffer read(long address) {
+        ByteBuffer slab = slabs[slabOf(address)];
+        int offset = offsetOf(address);
+        int length = slab.getInt(offset);
+        int capacity = (1 << maxBlockShift) - HEADER_BYTES;
+        if (length < 0 || length > capacity || offset + HEADER_BYTES + length > slab.capacity()) {
+            // Only possible when racing with free(); the caller retries
+            throw new IllegalStateException("Record at " + address + " was freed");
+        }
+        return slab.slice(offset + HEADER_BYTES, length).asReadOnlyBuffer();
+    }
+
+    /**
+     * Return a block to its free list
+     */
+    public synchronized void free(long address) {
+        ByteBuffer slab = slabs[slabOf(address)];
+        int shift = blockShift(slab.getInt(offsetOf(address)));
+        int sizeClass = shift - MIN_BLOCK_SHIFT;
+        long[] free = freeLists.get(sizeClass);
+        if (freeCounts[sizeClass] == free.length) {
+            free = Arrays.copyOf(free, free.length * 2);
+            freeLists.set(sizeClass, free);
+        }
+        free[freeCounts[sizeClass]++] = address;
+        usedBytes -= 1L << shift;
+    }
+
+    /**
+     * Bytes of off-heap memory reserved in slabs
+     */
+    public long getReservedBytes() {
+        return (long) slabs.length * slabBytes;
+    }
+
+    /**
+     * Bytes of off-heap memory in blocks currently holding records
+     */
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    private synchronized long allocate(int shift) {
+        int sizeClass = shift - MIN_BLOCK_SHIFT;
+        usedBytes += 1L << shift;
+        if (freeCounts[sizeClass] > 0) {
+            return freeLists.get(sizeClass)[--freeCounts[sizeClass]];
+        }
+        int blockBytes = 1 << shift;
+        ByteBuffer[] current = slabs;
+        if (current.length == 0 || bumpOffset + blockBytes > slabBytes) {
+            // The tail of the previous slab is left unused
+            ByteBuffer[] extended = Arrays.copyOf(current, current.length + 1);
+            extended[current.length] = ByteBuffer.allocateDirect(slabBytes);
+            slabs = extended;
+            bumpOffset = 0;
+        }
+        long address = ((long) (slabs.length - 1) << 32) | bumpOffset;
+        bumpOffset += blockBytes;
+        return address;
+    }
+
+    private int blockShift(int recordLength) {
+        int needed = recordLength + HEADER_BYTES;
+        int shift = Math.max(MIN_BLOCK_SHIFT, 32 - Integer.numberOfLeadingZeros(needed - 1));
+        if (shift > maxBlockShift) {
+            throw new IllegalArgumentException("Record of " + recordLength + " bytes exceeds the slab size");
+        }
+        return shift;
+    }
+
+    private static int slabOf(long address) {
+        return (int) (address >>> 32);
+    }
+
+    private static int offsetOf(long address) {
+        return (int) address;
+    }
+}
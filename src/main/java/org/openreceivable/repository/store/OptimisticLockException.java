@@ -0,0 +1,47 @@
+package org.openreceivable.repository.store;
+
+/**
+ * Thrown when a conditional save finds the entity at another version than
+ * the one expected, i.e. another writer saved it since it was read
+ */
+public class OptimisticLockException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String store;
+    private final String id;
+    private final Long expectedVersion;
+    private final Long actualVersion;
+
+    public OptimisticLockException(String store, String id, Long expectedVersion, Long actualVersion) {
+        super("Version conflict in " + store + " for " + id + ": expected "
+                + (expectedVersion != null ? expectedVersion : "none") + " but was "
+                + (actualVersion != null ? actualVersion : "none"));
+        this.store = store;
+        this.id = id;
+        this.expectedVersion = expectedVersion;
+        this.actualVersion = actualVersion;
+    }
+
+    public String getStore() {
+        return store;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Version the caller read, or null if it expected no entity
+     */
+    public Long getExpectedVersion() {
+        return expectedVersion;
+    }
+
+    /**
+     * Version found, or null if there was no entity
+     */
+    public Long getActualVersion() {
+        return actualVersion;
+    }
+}
@@ -0,0 +1,135 @@
+package org.openreceivable.repository.store;
+
+import java.util.NavigableSet;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Ordered index over a comparable key, supporting range scans in key order.
+ * Ties are broken by entity ID. Entities whose key is null are not indexed,
+ * which lets an index cover only a subset of the store (e.g. open receivables).
+ */
+public class OrderedIndex<T, K extends Comparable<? super K>> implements StoreView<T, K> {
+
+    private final IndexedStore<T> store;
+    private final String name;
+    private final Function<T, K> keyExtractor;
+    private final NavigableSet<Key<K>> keys = new ConcurrentSkipListSet<>();
+
+    OrderedIndex(IndexedStore<T> store, String name, Function<T, K> keyExtractor) {
+        this.store = store;
+        this.name = name;
+        this.keyExtractor = keyExtractor;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Lazily stream the entities whose key lies in the given range, in key
+     * order. A null bound leaves that side of the range open.
+     */
+    public Stream<T> range(K from, boolean fromInclusive, K to, boolean toInclusive) {
+        Key<K> lower = from != null ? Key.bound(from, fromInclusive ? -1 : 1) : null;
+        Key<K> upper = to != null ? Key.bound(to, toInclusive ? 1 : -1) : null;
+        NavigableSet<Key<K>> range;
+        if (lower != null && upper != null) {
+            if (lower.compareTo(upper) > 0) {
+                return Stream.empty();
+            }
+            range = keys.subSet(lower, false, upper, false);
+        } else if (lower != null) {
+            range = keys.tailSet(lower, false);
+        } else if (upper != null) {
+            range = keys.headSet(upper, false);
+        } else {
+            range = keys;
+        }
+        return store.resolve(range.stream().map(key -> key.id));
+    }
+
+    /**
+     * Stream the entities whose key equals the given value
+     */
+    public Stream<T> equalTo(K value) {
+        return range(value, true, value, true);
+    }
+
+    /**
+     * Number of indexed entities
+     */
+    public int size() {
+        return keys.size();
+    }
+
+    @Override
+    public K capture(T entity) {
+        return keyExtractor.apply(entity);
+    }
+
+    @Override
+    public void apply(String id, K before, K after) {
+        if (Objects.equals(before, after)) {
+            return;
+        }
+        if (before != null) {
+            keys.remove(new Key<>(before, id, 0));
+        }
+        if (after != null) {
+            keys.add(new Key<>(after, id, 0));
+        }
+    }
+
+    /**
+     * Index entry: the key value plus entity ID. Bounds carry no ID and a
+     * bias of -1 or +1 so they sort just before or just after every entry
+     * with the same value.
+     */
+    private static final class Key<K extends Comparable<? super K>> implements Comparable<Key<K>> {
+        private final K value;
+        private final String id;
+        private final int bias;
+
+        private Key(K value, String id, int bias) {
+            this.value = value;
+            this.id = id;
+            this.bias = bias;
+        }
+
+        private static <K extends Comparable<? super K>> Key<K> bound(K value, int bias) {
+            return new Key<>(value, null, bias);
+        }
+
+        @Override
+        public int compareTo(Key<K> other) {
+            int byValue = value.compareTo(other.value);
+            if (byValue != 0) {
+                return byValue;
+            }
+            if (id == null || other.id == null) {
+                return Integer.compare(bias, other.bias);
+            }
+            return id.compareTo(other.id);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key<?> other = (Key<?>) o;
+            return value.equals(other.value) && Objects.equals(id, other.id) && bias == other.bias;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(value, id, bias);
+        }
+    }
+}
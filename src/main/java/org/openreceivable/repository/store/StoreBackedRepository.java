@@ -0,0 +1,13 @@
+package org.openreceivable.repository.store;
+
+/**
+ * Implemented by repositories that keep their entities in an IndexedStore,
+ * so infrastructure such as persistence can reach the underlying store
+ */
+public interface StoreBackedRepository<T> {
+
+    /**
+     * The store holding this repository's entities
+     */
+    IndexedStore<T> getStore();
+}
@@ -0,0 +1,61 @@
+package org.openreceivable.repository.store;
+
+/**
+ * A structure derived from the entities of an IndexedStore, kept current on
+ * every put and remove.
+ *
+ * The store cannot diff entities itself because callers mutate the instance
+ * they got from a finder and then save it again. Instead each view captures
+ * the state it cares about when an entity is written, and on the next write
+ * it receives both the previously captured state and the new one.
+ *
+ * @param <T> entity type
+ * @param <S> captured state, null when the entity contributes nothing
+ */
+public interface StoreView<T, S> {
+
+    /**
+     * Capture the part of the entity this view depends on
+     */
+    S capture(T entity);
+
+    /**
+     * Apply a change for one entity. before is null for an insert and after
+     * is null for a delete. Calls for the same ID never run concurrently.
+     */
+    void apply(String id, S before, S after);
+
+    /**
+     * Whether the store must keep the captured state to pass back as before
+     * on the next write. Views that ignore before return false so the store
+     * does not hold on to state (e.g. a whole entity) it never needs.
+     */
+    default boolean keepsState() {
+        return true;
+    }
+
+    /**
+     * Called on the writing thread once a put or remove has returned from
+     * the per-entity critical section, whether or not it succeeded. Views
+     * that need to block (e.g. waiting for a log flush) do it here so other
+     * writers are not held up.
+     */
+    default void afterWrite() {
+    }
+
+    /**
+     * Called in place of afterWrite for each write of a putAll. Views can
+     * defer blocking work (e.g. waiting for a log flush) to afterBatch so
+     * the batch waits once instead of once per entity.
+     */
+    default void afterBatchedWrite() {
+        afterWrite();
+    }
+
+    /**
+     * Called once on the writing thread when a putAll has finished, whether
+     * or not it succeeded
+     */
+    default void afterBatch() {
+    }
+}
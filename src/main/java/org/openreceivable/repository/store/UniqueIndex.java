@@ -0,0 +1,63 @@
+package org.openreceivable.repository.store;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Unique hash index: key to the ID of the single entity holding it.
+ * Entities whose key is null are not indexed.
+ */
+public class UniqueIndex<T, K> implements StoreView<T, K> {
+
+    private final IndexedStore<T> store;
+    private final String name;
+    private final Function<T, K> keyExtractor;
+    private final Map<K, String> ids = new ConcurrentHashMap<>();
+
+    UniqueIndex(IndexedStore<T> store, String name, Function<T, K> keyExtractor) {
+        this.store = store;
+        this.name = name;
+        this.keyExtractor = keyExtractor;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Find the entity holding the given key
+     */
+    public Optional<T> find(K key) {
+        String id = key != null ? ids.get(key) : null;
+        return id != null ? store.get(id) : Optional.empty();
+    }
+
+    @Override
+    public K capture(T entity) {
+        return keyExtractor.apply(entity);
+    }
+
+    /**
+     * Claims the new key before releasing the old one. Throws
+     * DuplicateKeyException without changing anything if another entity
+     * already holds the new key.
+     */
+    @Override
+    public void apply(String id, K before, K after) {
+        if (Objects.equals(before, after)) {
+            return;
+        }
+        if (after != null) {
+            String owner = ids.putIfAbsent(after, id);
+            if (owner != null && !owner.equals(id)) {
+                throw new DuplicateKeyException(store.getName() + "." + name, after);
+            }
+        }
+        if (before != null) {
+            ids.remove(before, id);
+        }
+    }
+}
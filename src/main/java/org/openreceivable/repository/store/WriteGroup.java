@@ -0,0 +1,118 @@
+package org.openreceivable.repository.store;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Store writes one thread makes, to any number of stores, that must be made
+ * durable together.
+ *
+ * While a group is open on a thread, views that record writes (see
+ * IndexedStore.attachLogView) collect that thread's writes in a member of
+ * the group instead of recording each one as it is made, e.g. a write-ahead
+ * log stages them for a single record. commit() ends the group and has
+ * every member record what it collected; abort() ends it and has them
+ * record nothing.
+ *
+ * The stores themselves still take each write as it is made, so readers
+ * see them one at a time; a group only governs what is recorded.
+ */
+public final class WriteGroup {
+
+    private static final ThreadLocal<WriteGroup> CURRENT = new ThreadLocal<>();
+
+    private final Map<Object, Member> members = new LinkedHashMap<>();
+
+    private WriteGroup() {
+    }
+
+    /**
+     * A view's share of a group, e.g. the records it staged for one log
+     */
+    public interface Member {
+
+        /**
+         * Record everything collected, as one unit
+         */
+        void commit();
+
+        /**
+         * Record nothing. The collected writes could not be completed or
+         * undone, so what the stores hold must not be recorded either.
+         */
+        void abort(Throwable cause);
+    }
+
+    /**
+     * Open a group on the calling thread
+     *
+     * @throws IllegalStateException if one is already open
+     */
+    public static WriteGroup begin() {
+        if (CURRENT.get() != null) {
+            throw new IllegalStateException("A write group is already open on this thread");
+        }
+        WriteGroup group = new WriteGroup();
+        CURRENT.set(group);
+        return group;
+    }
+
+    /**
+     * The group open on the calling thread, or null
+     */
+    public static WriteGroup current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * The member registered under key, created on first use
+     */
+    @SuppressWarnings("unchecked")
+    public <M extends Member> M member(Object key, Supplier<M> create) {
+        return (M) members.computeIfAbsent(key, k -> create.get());
+    }
+
+    /**
+     * End the group and have each member record what it collected
+     */
+    public void commit() {
+        end();
+        RuntimeException failure = null;
+        for (Member member : members.values()) {
+            try {
+                member.commit();
+            } catch (RuntimeException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * End the group without recording any of it
+     */
+    public void abort(Throwable cause) {
+        end();
+        for (Member member : members.values()) {
+            try {
+                member.abort(cause);
+            } catch (RuntimeException e) {
+                cause.addSuppressed(e);
+            }
+        }
+    }
+
+    private void end() {
+        if (CURRENT.get() != this) {
+            throw new IllegalStateException("Write group is not open on this thread");
+        }
+        CURRENT.remove();
+    }
+}
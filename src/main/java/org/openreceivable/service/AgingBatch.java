@@ -0,0 +1,389 @@
+package org.openreceivable.service;
+
+import jakarta.annotation.PreDestroy;
+import org.openreceivable.aging.AgingPolicies;
+import org.openreceivable.aging.AgingPolicy;
+import org.openreceivable.enums.AgingCategory;
+import org.openreceivable.enums.ReceivableStatus;
+import org.openreceivable.model.AgingBucket;
+import org.openreceivable.model.Receivable;
+import org.openreceivable.repository.AgingBucketRepository;
+import org.openreceivable.repository.ReceivableRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Parallel aging run over the receivables due for aging.
+ *
+ * Due receivables are split into partitions by customer hash, so all of a
+ * customer's receivables are aged by one worker, and the partitions run on
+ * a ForkJoinPool shared by all runs. Each partition writes its receivables and aging buckets
+ * in batches. Receivables are categorized under the aging policy of their
+ * contract's type, and saved only if no other writer, e.g. a payment, has
+ * saved them since they were read; those that lost are read and aged again.
+ *
+ * With a checkpoint file configured, the run's as-of date and every
+ * partition that has committed are recorded as it goes. A run that was
+ * killed is resumed by the next run as of the same date, which skips the
+ * committed partitions. Partitions that were cut short only redo what is
+ * still due, since aged receivables leave the due index. A run as of any
+ * other date discards the checkpoint and ages everything due as of its own
+ * date, which re-ages what the killed run had committed.
+ */
+@Component
+public class AgingBatch {
+
+    private static final Logger log = LoggerFactory.getLogger(AgingBatch.class);
+
+    private final ReceivableRepository receivableRepository;
+    private final AgingBucketRepository agingBucketRepository;
+    private final AgingPolicies agingPolicies;
+    private final int partitions;
+    private final ForkJoinPool pool;
+    private final int batchSize;
+    private final Path checkpointFile;
+
+    /**
+     * @param parallelism worker threads, or 0 for one per available processor
+     * @param checkpointFile where to record progress, or empty to disable checkpoints
+     */
+    public AgingBatch(ReceivableRepository receivableRepository,
+                      AgingBucketRepository agingBucketRepository,
+                      AgingPolicies agingPolicies,
+                      @Value("${openreceivable.aging.partitions:64}") int partitions,
+                      @Value("${openreceivable.aging.parallelism:0}") int parallelism,
+                      @Value("${openreceivable.aging.batch-size:1000}") int batchSize,
+                      @Value("${openreceivable.aging.checkpoint-file:}") String checkpointFile) {
+        this.receivableRepository = receivableRepository;
+        this.agingBucketRepository = agingBucketRepository;
+        this.agingPolicies = agingPolicies;
+        this.partitions = partitions;
+        this.pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+        this.batchSize = batchSize;
+        this.checkpointFile = checkpointFile != null && !checkpointFile.isEmpty() ? Paths.get(checkpointFile) : null;
+    }
+
+    @PreDestroy
+    public void stop() {
+        pool.shutdown();
+    }
+
+    /**
+     * Age every receivable due as of the given time, finishing an
+     * interrupted run if it was as of the same time
+     */
+    public Result run(LocalDateTime asOfDate) {
+        long started = System.nanoTime();
+        Checkpoint checkpoint = readCheckpoint();
+        if (checkpoint != null && !checkpoint.asOfDate.equals(asOfDate)) {
+            log.warn("Discarding aging checkpoint {} of an interrupted run as of {}; running as of {} instead",
+                    checkpointFile, checkpoint.asOfDate, asOfDate);
+            checkpoint = null;
+        }
+        if (checkpoint != null) {
+            log.info("Resuming aging run as of {}: {} of {} partitions already committed",
+                    checkpoint.asOfDate, checkpoint.completed.size(), partitions);
+        } else {
+            checkpoint = new Checkpoint(asOfDate, ConcurrentHashMap.newKeySet());
+            writeCheckpoint(checkpoint);
+        }
+
+        List<List<Receivable>> due = new ArrayList<>(partitions);
+        for (int p = 0; p < partitions; p++) {
+            due.add(new ArrayList<>());
+        }
+        for (Receivable receivable : receivableRepository.findDueForAging(asOfDate)) {
+            due.get(partitionOf(receivable.getCustomerId())).add(receivable);
+        }
+
+        List<ForkJoinTask<PartitionResult>> tasks = new ArrayList<>();
+        for (int p = 0; p < partitions; p++) {
+            if (checkpoint.completed.contains(p)) {
+                continue;
+            }
+            int partition = p;
+            Checkpoint progress = checkpoint;
+            tasks.add(pool.submit(() -> runPartition(partition, due.get(partition), asOfDate, progress)));
+        }
+        List<PartitionResult> results = new ArrayList<>();
+        for (ForkJoinTask<PartitionResult> task : tasks) {
+            results.add(task.join());
+        }
+        deleteCheckpoint();
+
+        Result result = new Result(asOfDate, results, partitions - results.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        log.info("Aging run as of {}: {} receivables, {} transitions in {} partitions ({} resumed) in {} ms",
+                asOfDate, result.getProcessed(), result.getTransitions(), partitions,
+                result.getPartitionsSkipped(), result.getWallTimeMillis());
+        return result;
+    }
+
+    int partitionOf(String customerId) {
+        return Math.floorMod(Objects.hashCode(customerId), partitions);
+    }
+
+    private PartitionResult runPartition(int partition, List<Receivable> receivables, LocalDateTime asOfDate,
+                                         Checkpoint checkpoint) {
+        long started = System.nanoTime();
+        int transitions = 0;
+        for (int from = 0; from < receivables.size(); from += batchSize) {
+            transitions += ageBatch(receivables.subList(from, Math.min(from + batchSize, receivables.size())),
+                    asOfDate);
+        }
+        checkpoint.completed.add(partition);
+        writeCheckpoint(checkpoint);
+
+        PartitionResult result = new PartitionResult(partition, receivables.size(), transitions,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+        if (result.getProcessed() > 0) {
+            log.info("Aging partition {}: {} receivables, {} transitions in {} ms ({} receivables/s)",
+                    partition, result.getProcessed(), result.getTransitions(), result.getMillis(),
+                    Math.round(result.getProcessed() * 1000.0 / Math.max(result.getMillis(), 1)));
+        }
+        return result;
+    }
+
+    /**
+     * Age and save one batch, returning the number of transitions. Receivables
+     * saved by another writer since they were read are read and aged again,
+     * up to OptimisticRetry.DEFAULT_ATTEMPTS times; any still losing stay due
+     * and are aged by the next run.
+     */
+    private int ageBatch(List<Receivable> batch, LocalDateTime asOfDate) {
+        List<AgingBucket> buckets = new ArrayList<>();
+        List<Receivable> pending = batch;
+        for (int attempt = 1; !pending.isEmpty(); attempt++) {
+            Map<String, AgingBucket> aged = new LinkedHashMap<>();
+            for (Receivable receivable : pending) {
+                AgingBucket bucket = age(receivable, asOfDate);
+                if (bucket != null) {
+                    aged.put(receivable.getReceivableId(), bucket);
+                }
+            }
+            // Saving reschedules each receivable at its next boundary
+            List<Receivable> conflicts = receivableRepository.saveAllIfCurrent(pending);
+            for (Receivable conflict : conflicts) {
+                aged.remove(conflict.getReceivableId());
+            }
+            buckets.addAll(aged.values());
+            if (conflicts.isEmpty()) {
+                break;
+            }
+            if (attempt >= OptimisticRetry.DEFAULT_ATTEMPTS) {
+                log.warn("Aging left {} receivables that kept changing for the next run", conflicts.size());
+                break;
+            }
+            pending = new ArrayList<>(conflicts.size());
+            for (Receivable conflict : conflicts) {
+                receivableRepository.findById(conflict.getReceivableId())
+                        .filter(receivable -> receivable.getStatus() != ReceivableStatus.PAID)
+                        .ifPresent(pending::add);
+            }
+        }
+        // Buckets are upserted, so a resumed run replaces rather than duplicates
+        agingBucketRepository.saveAll(buckets);
+        return buckets.size();
+    }
+
+    /**
+     * Recompute a receivable's aging and return the bucket to record, or
+     * null if its category did not change
+     */
+    private AgingBucket age(Receivable receivable, LocalDateTime asOfDate) {
+        Integer previousDays = receivable.getAgingDays();
+        int agingDays = receivable.calculateAgingDays(asOfDate);
+        receivable.setAgingDays(agingDays);
+        if (agingDays > 0) {
+            receivable.setStatus(ReceivableStatus.OVERDUE);
+        }
+
+        AgingPolicy policy = agingPolicies.forContract(receivable.getContractId());
+        AgingCategory category = policy.categorize(agingDays);
+        if (previousDays != null && policy.categorize(previousDays) == category) {
+            return null;
+        }
+        AgingBucket bucket = new AgingBucket();
+        bucket.setReceivableId(receivable.getReceivableId());
+        bucket.setCustomerId(receivable.getCustomerId());
+        bucket.setAgingCategory(category);
+        bucket.setAmountMinorUnits(receivable.getOutstandingMinorUnits());
+        bucket.setAsOfDate(asOfDate);
+        return bucket;
+    }
+
+    // Checkpoint file
+
+    /**
+     * Progress of a run: its as-of date and the partitions committed so far
+     */
+    private static final class Checkpoint {
+        private final LocalDateTime asOfDate;
+        private final Set<Integer> completed;
+
+        private Checkpoint(LocalDateTime asOfDate, Set<Integer> completed) {
+            this.asOfDate = asOfDate;
+            this.completed = completed;
+        }
+    }
+
+    private Checkpoint readCheckpoint() {
+        if (checkpointFile == null || !Files.exists(checkpointFile)) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (Reader in = Files.newBufferedReader(checkpointFile)) {
+            properties.load(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read aging checkpoint " + checkpointFile, e);
+        }
+        if (!String.valueOf(partitions).equals(properties.getProperty("partitions"))) {
+            // Partitioning changed, so committed partitions mean nothing now
+            log.warn("Ignoring aging checkpoint {} written for {} partitions", checkpointFile,
+                    properties.getProperty("partitions"));
+            return null;
+        }
+        Set<Integer> completed = ConcurrentHashMap.newKeySet();
+        String list = properties.getProperty("completed", "");
+        if (!list.isEmpty()) {
+            for (String partition : list.split(",")) {
+                completed.add(Integer.parseInt(partition));
+            }
+        }
+        return new Checkpoint(LocalDateTime.parse(properties.getProperty("asOfDate")), completed);
+    }
+
+    /**
+     * Replace the checkpoint file atomically, so a crash leaves either the
+     * old or the new progress
+     */
+    private synchronized void writeCheckpoint(Checkpoint checkpoint) {
+        if (checkpointFile == null) {
+            return;
+        }
+        Properties properties = new Properties();
+        properties.setProperty("asOfDate", checkpoint.asOfDate.toString());
+        properties.setProperty("partitions", String.valueOf(partitions));
+        properties.setProperty("completed", new TreeSet<>(checkpoint.completed).stream()
+                .map(String::valueOf).collect(Collectors.joining(",")));
+        Path temp = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+        try {
+            if (checkpointFile.getParent() != null) {
+                Files.createDirectories(checkpointFile.getParent());
+            }
+            try (Writer out = Files.newBufferedWriter(temp)) {
+                properties.store(out, "Aging run checkpoint");
+            }
+            Files.move(temp, checkpointFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write aging checkpoint " + checkpointFile, e);
+        }
+    }
+
+    private void deleteCheckpoint() {
+        if (checkpointFile == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(checkpointFile);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to delete aging checkpoint " + checkpointFile, e);
+        }
+    }
+
+    // Results
+
+    /**
+     * Outcome of one partition
+     */
+    public static final class PartitionResult {
+        private final int partition;
+        private final int processed;
+        private final int transitions;
+        private final long millis;
+
+        private PartitionResult(int partition, int processed, int transitions, long millis) {
+            this.partition = partition;
+            this.processed = processed;
+            this.transitions = transitions;
+            this.millis = millis;
+        }
+
+        public int getPartition() {
+            return partition;
+        }
+
+        public int getProcessed() {
+            return processed;
+        }
+
+        public int getTransitions() {
+            return transitions;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+    }
+
+    /**
+     * Outcome of a run; partitions committed by an earlier, interrupted run
+     * are counted as skipped
+     */
+    public static final class Result {
+        private final LocalDateTime asOfDate;
+        private final List<PartitionResult> partitions;
+        private final int partitionsSkipped;
+        private final long wallTimeMillis;
+
+        private Result(LocalDateTime asOfDate, List<PartitionResult> partitions, int partitionsSkipped,
+                       long wallTimeMillis) {
+            this.asOfDate = asOfDate;
+            this.partitions = partitions;
+            this.partitionsSkipped = partitionsSkipped;
+            this.wallTimeMillis = wallTimeMillis;
+        }
+
+        public LocalDateTime getAsOfDate() {
+            return asOfDate;
+        }
+
+        public List<PartitionResult> getPartitions() {
+            return partitions;
+        }
+
+        public int getPartitionsSkipped() {
+            return partitionsSkipped;
+        }
+
+        public long getWallTimeMillis() {
+            return wallTimeMillis;
+        }
+
+        public int getProcessed() {
+            return partitions.stream().mapToInt(PartitionResult::getProcessed).sum();
+        }
+
+        public int getTransitions() {
+            return partitions.stream().mapToInt(PartitionResult::getTransitions).sum();
+        }
+    }
+}
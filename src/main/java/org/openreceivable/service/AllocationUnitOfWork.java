@@ -0,0 +1,274 @@
+package org.openreceivable.service;
+
+import org.openreceivable.enums.ReceivableStatus;
+import org.openreceivable.model.Money;
+import org.openreceivable.model.Payment;
+import org.openreceivable.model.PaymentAllocation;
+import org.openreceivable.model.Receivable;
+import org.openreceivable.repository.PaymentAllocationRepository;
+import org.openreceivable.repository.PaymentRepository;
+import org.openreceivable.repository.ReceivableRepository;
+import org.openreceivable.repository.store.OptimisticLockException;
+import org.openreceivable.repository.store.WriteGroup;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * The writes of a payment's allocation, or of its reversal, staged in
+ * memory and committed together. A unit may also carry several new
+ * payments of the same customers, e.g. one customer's share of a
+ * remittance batch.
+ *
+ * Receivables are read through the unit, which hands out its own copy of
+ * each and remembers how it stood, so allocating changes nothing anyone
+ * else can see. commit() then saves the changed receivables in one
+ * conditional batch, followed by the allocations in one batch and last the
+ * payments. If another writer saved one of the receivables since it was
+ * read, or a later write fails, the writes already made are undone by
+ * compensating writes: receivables are put back, allocations and new
+ * payments deleted.
+ *
+ * All of it, compensating writes included, is made in one WriteGroup, so
+ * durable repositories log the unit as a single record that recovery
+ * applies whole or not at all. If a compensating write fails, the group is
+ * aborted instead: none of the unit is logged, the log takes no further
+ * writes and commit() throws IllegalStateException, leaving the last
+ * durable state to be recovered on restart.
+ *
+ * In memory the three repositories are separate stores that take the
+ * writes one after another, so a concurrent reader may see the
+ * receivables paid before their allocations and payments appear, or
+ * writes that are then undone. Readers holding the customers' locks see a
+ * unit's writes all at once.
+ *
+ * A unit is used by one thread, which holds the locks of the customers
+ * whose receivables it reads (see CustomerLocks).
+ */
+final class AllocationUnitOfWork {
+
+    private final ReceivableRepository receivableRepository;
+    private final Map<String, Staged> receivables = new LinkedHashMap<>();
+    private final List<PaymentAllocation> allocations = new ArrayList<>();
+    private final List<RuntimeException> undoFailures = new ArrayList<>();
+
+    AllocationUnitOfWork(ReceivableRepository receivableRepository) {
+        this.receivableRepository = receivableRepository;
+    }
+
+    /**
+     * A receivable read by the unit and the fields allocation changes, as read
+     */
+    private static final class Staged {
+        private final Receivable receivable;
+        private final Long version;
+        private final long paidMinorUnits;
+        private final long outstandingMinorUnits;
+        private final ReceivableStatus status;
+        private final LocalDateTime paidDate;
+        private boolean changed;
+
+        private Staged(Receivable receivable) {
+            this.receivable = receivable;
+            this.version = receivable.getVersion();
+            this.paidMinorUnits = receivable.getPaidMinorUnits();
+            this.outstandingMinorUnits = receivable.getOutstandingMinorUnits();
+            this.status = receivable.getStatus();
+            this.paidDate = receivable.getPaidDate();
+        }
+    }
+
+    /**
+     * The unit's copy of a receivable, with any changes made so far
+     */
+    Optional<Receivable> read(String receivableId) {
+        Staged staged = receivables.get(receivableId);
+        if (staged != null) {
+            return Optional.of(staged.receivable);
+        }
+        return receivableRepository.findById(receivableId).map(receivable -> {
+            receivables.put(receivableId, new Staged(receivable));
+            return receivable;
+        });
+    }
+
+    /**
+     * Record an allocation to a receivable read through the unit, whose
+     * copy has been changed to match
+     */
+    void record(PaymentAllocation allocation) {
+        receivables.get(allocation.getReceivableId()).changed = true;
+        allocations.add(allocation);
+    }
+
+    /**
+     * Save the changed receivables, then the payment's allocations and the
+     * payment itself, conditionally on the version it carries (none for a
+     * new payment)
+     *
+     * @throws OptimisticLockException if a receivable or the payment was
+     *         saved by another writer since it was read; the writes made
+     *         are undone then, and a retry needs a new unit
+     * @throws IllegalStateException if a failed commit could not be undone
+     */
+    Payment commit(Payment payment, PaymentRepository paymentRepository,
+                   PaymentAllocationRepository allocationRepository) {
+        return commit(allocationRepository, () -> paymentRepository.save(payment, payment.getVersion()), () -> { });
+    }
+
+    /**
+     * Save the changed receivables, then the allocations of all the
+     * payments in one batch and the payments, all new, in another
+     */
+    List<Payment> commitNew(List<Payment> payments, PaymentRepository paymentRepository,
+                            PaymentAllocationRepository allocationRepository) {
+        return commit(allocationRepository, () -> paymentRepository.saveAll(payments), () -> {
+            for (Payment payment : payments) {
+                // Only a payment this save stored has a version; one whose ID was taken is left alone
+                if (payment.getVersion() != null) {
+                    paymentRepository.delete(payment.getPaymentId());
+                }
+            }
+        });
+    }
+
+    /**
+     * Make the unit's writes in one write group, logged as a whole once
+     * they are made or, if they failed, once they are undone
+     */
+    private <R> R commit(PaymentAllocationRepository allocationRepository, Supplier<R> savePayments,
+                         Runnable unsavePayments) {
+        WriteGroup group = WriteGroup.begin();
+        R saved;
+        try {
+            saved = write(allocationRepository, savePayments, unsavePayments);
+        } catch (RuntimeException | Error e) {
+            if (undoFailures.isEmpty()) {
+                // The stores are back as before; the log gets the writes together with their undoing
+                try {
+                    group.commit();
+                } catch (RuntimeException logFailure) {
+                    e.addSuppressed(logFailure);
+                }
+                throw e;
+            }
+            IllegalStateException incomplete = new IllegalStateException(
+                    "Failed allocation commit could not be undone; its writes are not logged", e);
+            undoFailures.forEach(incomplete::addSuppressed);
+            group.abort(incomplete);
+            throw incomplete;
+        }
+        group.commit();
+        return saved;
+    }
+
+    /**
+     * Save the receivables and allocations, then the payments with
+     * savePayments, undoing what was written if any step fails.
+     * unsavePayments takes back what a failed savePayments left saved;
+     * compensating writes that fail are collected in undoFailures.
+     */
+    private <R> R write(PaymentAllocationRepository allocationRepository, Supplier<R> savePayments,
+                        Runnable unsavePayments) {
+        List<Staged> changed = new ArrayList<>();
+        List<Receivable> toSave = new ArrayList<>();
+        for (Staged staged : receivables.values()) {
+            if (staged.changed) {
+                changed.add(staged);
+                toSave.add(staged.receivable);
+            }
+        }
+        Set<Receivable> conflicts = Collections.newSetFromMap(new IdentityHashMap<>());
+        try {
+            conflicts.addAll(receivableRepository.saveAllIfCurrent(toSave));
+        } catch (RuntimeException | Error e) {
+            // Stops at the first failure, so only the receivables past their read version were saved
+            changed.removeIf(staged -> !isSaved(staged));
+            rollBack(changed);
+            throw e;
+        }
+        if (!conflicts.isEmpty()) {
+            Receivable conflict = conflicts.iterator().next();
+            changed.removeIf(staged -> conflicts.contains(staged.receivable));
+            OptimisticLockException e = new OptimisticLockException("receivables", conflict.getReceivableId(),
+                    conflict.getVersion(), receivableRepository.findById(conflict.getReceivableId())
+                            .map(Receivable::getVersion).orElse(null));
+            rollBack(changed);
+            throw e;
+        }
+
+        // The payments go last, so their save is the last step that can fail
+        try {
+            allocationRepository.saveAll(allocations);
+            return savePayments.get();
+        } catch (RuntimeException | Error e) {
+            try {
+                unsavePayments.run();
+                for (PaymentAllocation allocation : allocations) {
+                    if (allocation.getAllocationId() != null) {
+                        allocationRepository.delete(allocation.getAllocationId());
+                    }
+                }
+            } catch (RuntimeException undo) {
+                undoFailures.add(undo);
+            }
+            rollBack(changed);
+            throw e;
+        }
+    }
+
+    private static boolean isSaved(Staged staged) {
+        Long version = staged.receivable.getVersion();
+        return version != null && !version.equals(staged.version);
+    }
+
+    /**
+     * Put back receivables this unit saved, collecting any failure to do so
+     */
+    private void rollBack(List<Staged> saved) {
+        for (Staged staged : saved) {
+            try {
+                OptimisticRetry.onConflict(() -> restore(staged));
+            } catch (RuntimeException e) {
+                undoFailures.add(e);
+            }
+        }
+    }
+
+    /**
+     * Put the fields allocation changed back as read. If another writer
+     * has saved the receivable since, only the amount this unit applied is
+     * taken back and the fields it did not change are left alone.
+     */
+    private Receivable restore(Staged staged) {
+        Receivable current = receivableRepository.findById(staged.receivable.getReceivableId()).orElse(null);
+        if (current == null) {
+            return null;
+        }
+        if (current.getVersion() != null && current.getVersion().equals(staged.receivable.getVersion())) {
+            current.setPaidMinorUnits(staged.paidMinorUnits);
+            current.setOutstandingMinorUnits(staged.outstandingMinorUnits);
+            current.setStatus(staged.status);
+            current.setPaidDate(staged.paidDate);
+        } else {
+            long applied = Money.subtract(staged.receivable.getPaidMinorUnits(), staged.paidMinorUnits);
+            current.setPaidMinorUnits(Money.subtract(current.getPaidMinorUnits(), applied));
+            current.setOutstandingMinorUnits(Money.add(current.getOutstandingMinorUnits(), applied));
+            if (current.getStatus() == staged.receivable.getStatus()) {
+                current.setStatus(staged.status);
+            }
+            if (current.getPaidDate() != null && current.getPaidDate().equals(staged.receivable.getPaidDate())) {
+                current.setPaidDate(staged.paidDate);
+            }
+        }
+        return receivableRepository.save(current, current.getVersion());
+    }
+}
@@ -0,0 +1,86 @@
+package org.openreceivable.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Striped locks serializing writes to a customer's receivables.
+ *
+ * Each customer maps to one of a fixed number of locks by hash, so work
+ * for the same customer runs one at a time while work for customers on
+ * different stripes runs in parallel. Memory stays fixed however many
+ * customers there are; unrelated customers sharing a stripe only wait
+ * for each other.
+ *
+ * Work spanning several customers takes their stripes in index order, so
+ * two such calls cannot deadlock. Locks are reentrant.
+ */
+@Component
+public class CustomerLocks {
+
+    private final ReentrantLock[] stripes;
+    private final int mask;
+
+    public CustomerLocks() {
+        this(1024);
+    }
+
+    /**
+     * @param stripes number of locks, rounded up to a power of two
+     */
+    @Autowired
+    public CustomerLocks(@Value("${openreceivable.payments.lock-stripes:1024}") int stripes) {
+        int size = Integer.highestOneBit(Math.max(stripes - 1, 1)) << 1;
+        this.stripes = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            this.stripes[i] = new ReentrantLock();
+        }
+        this.mask = size - 1;
+    }
+
+    /**
+     * Run work while holding the customer's stripe
+     */
+    public <T> T withCustomer(String customerId, Supplier<T> work) {
+        ReentrantLock lock = stripes[stripeOf(customerId)];
+        lock.lock();
+        try {
+            return work.get();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Run work while holding the stripes of all the customers
+     */
+    public <T> T withCustomers(Collection<String> customerIds, Supplier<T> work) {
+        int[] held = customerIds.stream().mapToInt(this::stripeOf).distinct().sorted().toArray();
+        int locked = 0;
+        try {
+            for (int stripe : held) {
+                stripes[stripe].lock();
+                locked++;
+            }
+            return work.get();
+        } finally {
+            for (int i = locked - 1; i >= 0; i--) {
+                stripes[held[i]].unlock();
+            }
+        }
+    }
+
+    int stripeOf(String customerId) {
+        int h = customerId != null ? customerId.hashCode() : 0;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    int size() {
+        return stripes.length;
+    }
+}
@@ -0,0 +1,44 @@
+package org.openreceivable.service;
+
+import org.openreceivable.repository.store.OptimisticLockException;
+
+import java.util.function.Supplier;
+
+/**
+ * Retries a read-modify-write whose conditional save lost to another writer.
+ *
+ * Each attempt must read what it changes afresh, so a retry works on the
+ * state the other writer saved. Conflicts are expected to be short-lived,
+ * so attempts only yield in between; once they are used up the last
+ * OptimisticLockException is thrown.
+ */
+public final class OptimisticRetry {
+
+    public static final int DEFAULT_ATTEMPTS = 10;
+
+    private OptimisticRetry() {
+    }
+
+    /**
+     * Run an attempt, retrying on version conflicts up to DEFAULT_ATTEMPTS times
+     */
+    public static <T> T onConflict(Supplier<T> attempt) {
+        return onConflict(DEFAULT_ATTEMPTS, attempt);
+    }
+
+    /**
+     * Run an attempt, retrying on version conflicts up to the given number of times
+     */
+    public static <T> T onConflict(int attempts, Supplier<T> attempt) {
+        for (int i = 1; ; i++) {
+            try {
+                return attempt.get();
+            } catch (OptimisticLockException e) {
+                if (i >= attempts) {
+                    throw e;
+                }
+                Thread.yield();
+            }
+        }
+    }
+}
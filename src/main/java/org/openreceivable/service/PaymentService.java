@@ -1,20 +1,67 @@
 package org.openreceivable.service;
 
+import jakarta.annotation.PreDestroy;
+import org.openreceivable.allocation.AllocationWaterfall;
+import org.openreceivable.enums.AllocationComponent;
+import org.openreceivable.enums.PaymentStatus;
 import org.openreceivable.enums.ReceivableStatus;
+import org.openreceivable.model.Money;
 import org.openreceivable.model.Payment;
 import org.openreceivable.model.PaymentAllocation;
 import org.openreceivable.model.Receivable;
 import org.openreceivable.repository.PaymentAllocationRepository;
 import org.openreceivable.repository.PaymentRepository;
 import org.openreceivable.repository.ReceivableRepository;
+import org.openreceivable.repository.aggregate.CustomerOpenReceivables;
+import org.openreceivable.repository.aggregate.PaymentReferenceIndex;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.math.BigDecimal;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.BiConsumer;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
 
 /**
  * Service for processing payments and allocating them to receivables
+ *
+ * Payments are applied along the allocation waterfall: oldest receivable
+ * first, fees before interest before principal (see AllocationWaterfall).
+ * Each allocation books its amount to the component of the receivable's
+ * type.
+ *
+ * Allocation holds the striped lock of every customer whose receivables it
+ * touches (see CustomerLocks), and reads each receivable after taking it,
+ * so concurrent payments for one customer cannot lose each other's updates
+ * while payments for other customers run in parallel. Receivables are saved
+ * conditionally on the version read, so a write from outside allocation,
+ * e.g. an update or the aging run, is not overwritten either: the
+ * receivable is read again and the allocation retried (see OptimisticRetry).
+ *
+ * A payment's writes, to its receivables, the payment itself and its
+ * allocations, are staged and committed together (see
+ * AllocationUnitOfWork). If the commit fails partway the writes made are
+ * undone, so a payment that failed leaves no trace once the call has
+ * thrown; concurrent readers may see its writes in between.
+ *
+ * Posting is idempotent on (customerId, paymentMethod, referenceNumber)
+ * within the retention window of PaymentReferenceIndex: posting a payment
+ * again returns the one first posted and allocates nothing.
  */
 @Service
 public class PaymentService {
@@ -22,71 +69,424 @@ public class PaymentService {
     private final PaymentRepository paymentRepository;
     private final ReceivableRepository receivableRepository;
     private final PaymentAllocationRepository allocationRepository;
+    private final AllocationWaterfall waterfall;
+    private final Optional<CustomerOpenReceivables> openReceivables;
+    private final CustomerLocks customerLocks;
+    private final Optional<PaymentReferenceIndex> references;
+    private final ForkJoinPool reversalPool;
     
     public PaymentService(PaymentRepository paymentRepository, 
                          ReceivableRepository receivableRepository,
-                         PaymentAllocationRepository allocationRepository) {
+                         PaymentAllocationRepository allocationRepository,
+                         AllocationWaterfall waterfall,
+                         Optional<CustomerOpenReceivables> openReceivables,
+                         CustomerLocks customerLocks,
+                         Optional<PaymentReferenceIndex> references) {
+        this(paymentRepository, receivableRepository, allocationRepository, waterfall, openReceivables,
+                customerLocks, references, 0);
+    }
+    
+    /**
+     * @param reversalParallelism threads reversing a batch of payments, or 0
+     *        for one per available processor
+     */
+    @Autowired
+    public PaymentService(PaymentRepository paymentRepository, 
+                         ReceivableRepository receivableRepository,
+                         PaymentAllocationRepository allocationRepository,
+                         AllocationWaterfall waterfall,
+                         Optional<CustomerOpenReceivables> openReceivables,
+                         CustomerLocks customerLocks,
+                         Optional<PaymentReferenceIndex> references,
+                         @Value("${openreceivable.payments.reversal-parallelism:0}") int reversalParallelism) {
         this.paymentRepository = paymentRepository;
         this.receivableRepository = receivableRepository;
         this.allocationRepository = allocationRepository;
+        this.waterfall = waterfall;
+        this.openReceivables = openReceivables;
+        this.customerLocks = customerLocks;
+        this.references = references;
+        this.reversalPool = new ForkJoinPool(reversalParallelism > 0
+                ? reversalParallelism : Runtime.getRuntime().availableProcessors());
+    }
+    
+    @PreDestroy
+    public void stop() {
+        reversalPool.shutdown();
+    }
+    
+    /**
+     * Save a payment without allocating it, unless it was already posted
+     */
+    public Payment createPayment(Payment payment) {
+        return postOnce(payment, paymentRepository::save);
     }
     
     /**
-     * Process a payment and allocate it to receivables
-     * Follows the priority: Fees -> Interest -> Principal
+     * Process a payment and allocate it across the customer's open
+     * receivables in waterfall order. Only the receivables the payment
+     * reaches are read; any amount left once all are paid stays unapplied.
+     */
+    public Payment processPayment(Payment payment) {
+        return postOnce(payment, this::allocateInOrder);
+    }
+    
+    private Payment allocateInOrder(Payment payment) {
+        return post(payment, Collections.singleton(payment.getCustomerId()), (unit, now) ->
+                allocateInOrder(payment, unit, payment.getAmountMinorUnits(), now));
+    }
+    
+    /**
+     * Apply up to available minor units of a payment along its customer's
+     * waterfall and return the amount left over
+     */
+    private long allocateInOrder(Payment payment, AllocationUnitOfWork unit, long available, LocalDateTime now) {
+        long remaining = available;
+        Iterator<String> receivableIds = inAllocationOrder(payment.getCustomerId());
+        while (remaining > 0 && receivableIds.hasNext()) {
+            remaining = Money.subtract(remaining, allocate(payment, unit, receivableIds.next(), remaining, now));
+        }
+        return remaining;
+    }
+    
+    /**
+     * Process a batch of payments, e.g. from a remittance file. Each
+     * customer's payments are allocated in turn under its lock and committed
+     * as one unit of work, which saves their receivables, allocations and
+     * payments in a batch each: a payment naming one of its customer's
+     * receivables pays that receivable first and the rest along the
+     * waterfall.
+     *
+     * Payments already posted, including repeats within the batch, are
+     * skipped; only the payments posted are returned. A payment whose
+     * reference another post is still posting is claimed again once that
+     * post has finished, and posted if it failed. If one customer's unit
+     * fails, the customers committed before it stay posted and the failure
+     * is thrown.
+     */
+    public List<Payment> processPayments(List<Payment> payments) {
+        if (references.isEmpty()) {
+            return allocateAll(payments, (payment, saved) -> { });
+        }
+        List<Payment> toPost = new ArrayList<>(payments.size());
+        Map<Payment, PaymentReferenceIndex.Claim> claims = new IdentityHashMap<>();
+        List<Payment> waiting = new ArrayList<>();
+        List<PaymentReferenceIndex.Claim> inProgress = new ArrayList<>();
+        for (Payment payment : payments) {
+            PaymentReferenceIndex.Claim claim = references.get().tryClaim(payment);
+            if (claim != null && claim.isInProgress()) {
+                waiting.add(payment);
+                inProgress.add(claim);
+            } else if (claim != null) {
+                toPost.add(payment);
+                claims.put(payment, claim);
+            }
+        }
+        List<Payment> posted;
+        try {
+            posted = allocateAll(toPost, (payment, saved) -> {
+                PaymentReferenceIndex.Claim claim = claims.remove(payment);
+                if (claim != null) {
+                    claim.posted(saved);
+                }
+            });
+        } finally {
+            // Only the claims of payments whose unit did not commit are left
+            claims.values().forEach(PaymentReferenceIndex.Claim::release);
+        }
+        if (waiting.isEmpty()) {
+            return posted;
+        }
+        // Waited for only now that this batch holds no claims, so two
+        // batches never wait on each other
+        inProgress.forEach(PaymentReferenceIndex.Claim::awaitOther);
+        List<Payment> result = new ArrayList<>(posted);
+        result.addAll(processPayments(waiting));
+        return result;
+    }
+    
+    /**
+     * Allocate and commit the payments customer by customer, passing each
+     * payment and its saved self to posted once its customer's unit has
+     * committed. Returns the saved payments in the order given.
+     */
+    private List<Payment> allocateAll(List<Payment> payments, BiConsumer<Payment, Payment> posted) {
+        Map<String, List<Payment>> byCustomer = new LinkedHashMap<>();
+        for (Payment payment : payments) {
+            // Allocations refer to the payments before they are saved
+            if (payment.getPaymentId() == null) {
+                payment.setPaymentId(paymentRepository.nextId());
+            }
+            byCustomer.computeIfAbsent(payment.getCustomerId(), customerId -> new ArrayList<>()).add(payment);
+        }
+        
+        Map<Payment, Payment> savedPayments = new IdentityHashMap<>();
+        byCustomer.forEach((customerId, customerPayments) -> {
+            List<Payment> saved = customerLocks.withCustomer(customerId, () -> OptimisticRetry.onConflict(() -> {
+                AllocationUnitOfWork unit = new AllocationUnitOfWork(receivableRepository);
+                LocalDateTime now = LocalDateTime.now();
+                for (Payment payment : customerPayments) {
+                    long amount = payment.getAmountMinorUnits();
+                    long directed = payment.getReceivableId() == null ? 0 : unit.read(payment.getReceivableId())
+                            .filter(receivable -> Objects.equals(customerId, receivable.getCustomerId()))
+                            .map(receivable -> allocate(payment, unit, receivable.getReceivableId(), amount, now))
+                            .orElse(0L);
+                    allocateInOrder(payment, unit, Money.subtract(amount, directed), now);
+                }
+                return unit.commitNew(customerPayments, paymentRepository, allocationRepository);
+            }));
+            for (int i = 0; i < customerPayments.size(); i++) {
+                savedPayments.put(customerPayments.get(i), saved.get(i));
+                posted.accept(customerPayments.get(i), saved.get(i));
+            }
+        });
+        List<Payment> result = new ArrayList<>(payments.size());
+        for (Payment payment : payments) {
+            result.add(savedPayments.get(payment));
+        }
+        return result;
+    }
+    
+    /**
+     * Process a payment and allocate it to the given receivables in order
      */
     public Payment processPayment(Payment payment, List<String> receivableIds) {
-        // Save the payment
-        Payment savedPayment = paymentRepository.save(payment);
+        return postOnce(payment, toPost -> allocateInOrder(toPost, receivableIds));
+    }
+    
+    private Payment allocateInOrder(Payment payment, List<String> receivableIds) {
+        // Customers whose stripes to take; receivables are read again once they are held
+        Set<String> customerIds = new HashSet<>();
+        for (String receivableId : receivableIds) {
+            customerIds.add(findReceivable(receivableId).getCustomerId());
+        }
+        return post(payment, customerIds, (unit, now) -> {
+            long remaining = payment.getAmountMinorUnits();
+            for (String receivableId : receivableIds) {
+                if (remaining <= 0) {
+                    break;
+                }
+                // Deleted since the customers were collected: nothing is committed
+                unit.read(receivableId).orElseThrow(() -> new RuntimeException("Receivable not found: " + receivableId));
+                remaining = Money.subtract(remaining, allocate(payment, unit, receivableId, remaining, now));
+            }
+        });
+    }
+    
+    private Receivable findReceivable(String receivableId) {
+        return receivableRepository.findById(receivableId)
+                .orElseThrow(() -> new RuntimeException("Receivable not found: " + receivableId));
+    }
+    
+    private Payment postOnce(Payment payment, UnaryOperator<Payment> post) {
+        return references.isPresent() ? references.get().postOnce(payment, post) : post.apply(payment);
+    }
+    
+    /**
+     * Allocate a payment in a unit of work under the customers' locks and
+     * commit it, starting over with a new unit if a receivable was saved by
+     * another writer in between
+     */
+    private Payment post(Payment payment, Set<String> customerIds,
+                         BiConsumer<AllocationUnitOfWork, LocalDateTime> allocation) {
+        // Allocations refer to the payment before it is saved
+        if (payment.getPaymentId() == null) {
+            payment.setPaymentId(paymentRepository.nextId());
+        }
+        return customerLocks.withCustomers(customerIds, () -> OptimisticRetry.onConflict(() -> {
+            AllocationUnitOfWork unit = new AllocationUnitOfWork(receivableRepository);
+            allocation.accept(unit, LocalDateTime.now());
+            return unit.commit(payment, paymentRepository, allocationRepository);
+        }));
+    }
+    
+    /**
+     * IDs of a customer's open receivables in waterfall order. The caller
+     * holds the customer's lock.
+     */
+    private Iterator<String> inAllocationOrder(String customerId) {
+        return openReceivables.isPresent()
+                ? openReceivables.get().inAllocationOrder(customerId)
+                : openInAllocationOrder(customerId).iterator();
+    }
+    
+    /**
+     * Without the open receivables view: the customer's open receivables,
+     * sorted
+     */
+    private List<String> openInAllocationOrder(String customerId) {
+        Comparator<Receivable> order = Comparator.comparing(waterfall::keyOf, waterfall.order());
+        return receivableRepository.findByCustomerId(customerId).stream()
+                .filter(PaymentService::isOpen)
+                .sorted(order)
+                .map(Receivable::getReceivableId)
+                .collect(Collectors.toList());
+    }
+    
+    private static boolean isOpen(Receivable receivable) {
+        return receivable.getStatus() != ReceivableStatus.PAID
+                && receivable.getStatus() != ReceivableStatus.WRITTEN_OFF
+                && receivable.getOutstandingMinorUnits() > 0;
+    }
+    
+    /**
+     * Apply a payment to the unit's copy of a receivable, staging the
+     * allocation for the unit's commit. A receivable deleted meanwhile is
+     * skipped.
+     */
+    private long allocate(Payment payment, AllocationUnitOfWork unit, String receivableId, long available,
+                          LocalDateTime now) {
+        return unit.read(receivableId).map(receivable -> {
+            PaymentAllocation allocation = apply(payment, receivable, available, now);
+            if (allocation == null) {
+                return 0L;
+            }
+            unit.record(allocation);
+            return allocation.getAmountMinorUnits();
+        }).orElse(0L);
+    }
+    
+    /**
+     * Change a receivable for up to available minor units of a payment and
+     * return the allocation, or null if the receivable is not open
+     */
+    private PaymentAllocation apply(Payment payment, Receivable receivable, long available, LocalDateTime now) {
+        if (!isOpen(receivable)) {
+            return null;
+        }
+        // Amounts are worked in the entities' minor units; no BigDecimal is made
+        long outstanding = receivable.getOutstandingMinorUnits();
+        long toApply = Math.min(available, outstanding);
         
-        BigDecimal remainingAmount = payment.getAmount();
+        PaymentAllocation allocation = new PaymentAllocation();
+        allocation.setPaymentId(payment.getPaymentId());
+        allocation.setReceivableId(receivable.getReceivableId());
+        allocation.setAmountMinorUnits(toApply);
+        allocation.setAllocationDate(now);
+        AllocationComponent component = waterfall.componentOf(receivable.getReceivableType());
+        allocation.setFeeMinorUnits(component == AllocationComponent.FEE ? toApply : 0);
+        allocation.setInterestMinorUnits(component == AllocationComponent.INTEREST ? toApply : 0);
+        allocation.setPrincipalMinorUnits(component == AllocationComponent.PRINCIPAL ? toApply : 0);
         
-        // Allocate payment to each receivable in order
-        for (String receivableId : receivableIds) {
-            if (remainingAmount.compareTo(BigDecimal.ZERO) <= 0) {
-                break;
+        long newOutstanding = Money.subtract(outstanding, toApply);
+        receivable.setPaidMinorUnits(Money.add(receivable.getPaidMinorUnits(), toApply));
+        receivable.setOutstandingMinorUnits(newOutstanding);
+        
+        if (newOutstanding == 0) {
+            receivable.setStatus(ReceivableStatus.PAID);
+            receivable.setPaidDate(now);
+        } else if (newOutstanding < receivable.getOriginalMinorUnits()) {
+            receivable.setStatus(ReceivableStatus.PARTIAL);
+        }
+        return allocation;
+    }
+    
+    /**
+     * Unwind a payment that was returned or reversed, e.g. an ACH return
+     * for insufficient funds: every receivable it paid gets the amount back
+     * and reopens, an offsetting allocation is recorded for each of its
+     * allocations and the payment takes the given status, REVERSED or
+     * FAILED. All of it is committed as one unit of work. A payment already
+     * reversed or failed is returned as it is.
+     */
+    public Payment reversePayment(String paymentId, PaymentStatus status) {
+        if (status != PaymentStatus.REVERSED && status != PaymentStatus.FAILED) {
+            throw new IllegalArgumentException("Not a reversal status: " + status);
+        }
+        Payment payment = paymentRepository.findById(paymentId)
+                .orElseThrow(() -> new RuntimeException("Payment not found: " + paymentId));
+        // Customers whose stripes to take; everything is read again once they are held
+        Set<String> customerIds = new HashSet<>();
+        customerIds.add(payment.getCustomerId());
+        for (PaymentAllocation allocation : allocationRepository.findByPaymentId(paymentId)) {
+            receivableRepository.findById(allocation.getReceivableId())
+                    .ifPresent(receivable -> customerIds.add(receivable.getCustomerId()));
+        }
+        
+        return customerLocks.withCustomers(customerIds, () -> OptimisticRetry.onConflict(() -> {
+            Payment current = paymentRepository.findById(paymentId)
+                    .orElseThrow(() -> new RuntimeException("Payment not found: " + paymentId));
+            if (current.getStatus() == PaymentStatus.REVERSED || current.getStatus() == PaymentStatus.FAILED) {
+                return current;
+            }
+            AllocationUnitOfWork unit = new AllocationUnitOfWork(receivableRepository);
+            LocalDateTime now = LocalDateTime.now();
+            for (PaymentAllocation allocation : allocationRepository.findByPaymentId(paymentId)) {
+                // A receivable deleted since keeps nothing to give back
+                unit.read(allocation.getReceivableId())
+                        .ifPresent(receivable -> unit.record(unapply(allocation, receivable, now)));
             }
-            
-            Receivable receivable = receivableRepository.findById(receivableId)
-                    .orElseThrow(() -> new RuntimeException("Receivable not found: " + receivableId));
-            
-            BigDecimal amountToApply = remainingAmount.min(receivable.getOutstandingAmount());
-            
-            // Create allocation
-            PaymentAllocation allocation = new PaymentAllocation();
-            allocation.setPaymentId(savedPayment.getPaymentId());
-            allocation.setReceivableId(receivableId);
-            allocation.setAmount(amountToApply);
-            allocation.setAllocationDate(LocalDateTime.now());
-            
-            // For simplicity, apply all to principal
-            // In a real system, you'd split between fees, interest, and principal
-            allocation.setPrincipalAmount(amountToApply);
-            allocation.setInterestAmount(BigDecimal.ZERO);
-            allocation.setFeeAmount(BigDecimal.ZERO);
-            
-            allocationRepository.save(allocation);
-            
-            // Update receivable
-            BigDecimal newPaidAmount = receivable.getPaidAmount().add(amountToApply);
-            BigDecimal newOutstanding = receivable.getOutstandingAmount().subtract(amountToApply);
-            
-            receivable.setPaidAmount(newPaidAmount);
-            receivable.setOutstandingAmount(newOutstanding);
-            
-            if (newOutstanding.compareTo(BigDecimal.ZERO) == 0) {
-                receivable.setStatus(ReceivableStatus.PAID);
-                receivable.setPaidDate(LocalDateTime.now());
-            } else if (newOutstanding.compareTo(receivable.getOriginalAmount()) < 0) {
+            current.setStatus(status);
+            return unit.commit(current, paymentRepository, allocationRepository);
+        }));
+    }
+    
+    /**
+     * Reverse a batch of payments, e.g. the returns in a bounced ACH file,
+     * in parallel on a pool shared by all batches (see
+     * openreceivable.payments.reversal-parallelism); payments of different
+     * customers do not wait for each other. Payments not found are skipped. Returns the payments in the
+     * order given; if any reversal failed, the first failure is thrown once
+     * all have been tried.
+     */
+    public List<Payment> reversePayments(List<String> paymentIds, PaymentStatus status) {
+        List<Payment> reversed = new ArrayList<>(paymentIds.size());
+        RuntimeException failure = null;
+        List<ForkJoinTask<Payment>> tasks = new ArrayList<>(paymentIds.size());
+        for (String paymentId : paymentIds) {
+            tasks.add(reversalPool.submit(() -> paymentRepository.exists(paymentId)
+                    ? reversePayment(paymentId, status) : null));
+        }
+        for (ForkJoinTask<Payment> task : tasks) {
+            try {
+                Payment payment = task.join();
+                if (payment != null) {
+                    reversed.add(payment);
+                }
+            } catch (RuntimeException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return reversed;
+    }
+    
+    /**
+     * Take an allocation back off the unit's copy of its receivable and
+     * return the offsetting allocation
+     */
+    private PaymentAllocation unapply(PaymentAllocation allocation, Receivable receivable, LocalDateTime now) {
+        long amount = allocation.getAmountMinorUnits();
+        long paid = Money.subtract(receivable.getPaidMinorUnits(), amount);
+        receivable.setPaidMinorUnits(paid);
+        receivable.setOutstandingMinorUnits(Money.add(receivable.getOutstandingMinorUnits(), amount));
+        if (receivable.getOutstandingMinorUnits() > 0) {
+            // Reopened as it would stand had the payment never been made; the next aging run refines it
+            if (receivable.getAgingDays() != null && receivable.getAgingDays() > 0) {
+                receivable.setStatus(ReceivableStatus.OVERDUE);
+            } else if (paid > 0) {
                 receivable.setStatus(ReceivableStatus.PARTIAL);
+            } else {
+                receivable.setStatus(ReceivableStatus.PENDING);
             }
-            
-            receivableRepository.save(receivable);
-            
-            remainingAmount = remainingAmount.subtract(amountToApply);
+            receivable.setPaidDate(null);
         }
         
-        return savedPayment;
+        PaymentAllocation reversal = new PaymentAllocation();
+        reversal.setPaymentId(allocation.getPaymentId());
+        reversal.setReceivableId(allocation.getReceivableId());
+        reversal.setAmountMinorUnits(Math.negateExact(allocation.getAmountMinorUnits()));
+        reversal.setAllocationDate(now);
+        reversal.setFeeMinorUnits(Math.negateExact(allocation.getFeeMinorUnits()));
+        reversal.setInterestMinorUnits(Math.negateExact(allocation.getInterestMinorUnits()));
+        reversal.setPrincipalMinorUnits(Math.negateExact(allocation.getPrincipalMinorUnits()));
+        return reversal;
     }
     
     /**
@@ -0,0 +1,207 @@
+package org.openreceivable.service;
+
+import org.openreceivable.aging.AgingPolicies;
+import org.openreceivable.enums.AgingCategory;
+import org.openreceivable.enums.AgingGroupBy;
+import org.openreceivable.enums.ContractType;
+import org.openreceivable.enums.CustomerStatus;
+import org.openreceivable.enums.ReceivableType;
+import org.openreceivable.model.Money;
+import org.openreceivable.model.Receivable;
+import org.openreceivable.repository.ContractRepository;
+import org.openreceivable.repository.CustomerRepository;
+import org.openreceivable.repository.ReceivableRepository;
+import org.openreceivable.repository.columnar.ReceivableColumns;
+import org.springframework.stereotype.Service;
+
+import java.math.BigDecimal;
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToIntFunction;
+
+/**
+ * Service for portfolio-wide aging reports.
+ *
+ * A report is one pass over all unpaid receivables: the columnar view when
+ * it is enabled, otherwise a parallel stream over the open receivables.
+ * Contract type and customer status live on other entities, so each
+ * distinct contract or customer is looked up once per report rather than
+ * once per receivable. Receivables are categorized under their contract
+ * type's aging policy.
+ */
+@Service
+public class PortfolioAgingService {
+    
+    /**
+     * Group of receivables that fit no group of the requested grouping,
+     * e.g. whose contract does not exist
+     */
+    public static final String UNKNOWN_GROUP = "UNKNOWN";
+    
+    /**
+     * The single group of an ungrouped report
+     */
+    public static final String ALL_GROUP = "ALL";
+    
+    private static final int CATEGORIES = AgingCategory.values().length;
+    
+    private final ReceivableRepository receivableRepository;
+    private final CustomerRepository customerRepository;
+    private final ContractRepository contractRepository;
+    private final Optional<ReceivableColumns> receivableColumns;
+    private final AgingPolicies agingPolicies;
+    private final Clock clock;
+    
+    public PortfolioAgingService(ReceivableRepository receivableRepository,
+                                 CustomerRepository customerRepository,
+                                 ContractRepository contractRepository,
+                                 Optional<ReceivableColumns> receivableColumns,
+                                 AgingPolicies agingPolicies,
+                                 Clock clock) {
+        this.receivableRepository = receivableRepository;
+        this.customerRepository = customerRepository;
+        this.contractRepository = contractRepository;
+        this.receivableColumns = receivableColumns;
+        this.agingPolicies = agingPolicies;
+        this.clock = clock;
+    }
+    
+    /**
+     * Outstanding amounts of all unpaid receivables by group and aging
+     * category as of the given time, or now if it is null. Every group of
+     * the grouping is present, in enum order; UNKNOWN is added only when
+     * some receivable fits no group. A null grouping yields the single group
+     * ALL.
+     */
+    public Map<String, Map<AgingCategory, BigDecimal>> getPortfolioAgingReport(AgingGroupBy groupBy,
+                                                                               LocalDateTime asOf) {
+        LocalDateTime asOfDate = asOf != null ? asOf : LocalDateTime.now(clock);
+        String[] groups = groupNames(groupBy);
+        
+        // Amounts and counts per group (the extra last one is UNKNOWN) and category
+        long[][] amounts = new long[groups.length + 1][CATEGORIES];
+        long[] counts = new long[groups.length + 1];
+        if (receivableColumns.isPresent()) {
+            ReceivableColumns.AgingTotals[] totals = groupBy == null
+                    ? new ReceivableColumns.AgingTotals[] {receivableColumns.get().getAgingTotals(asOfDate)}
+                    : receivableColumns.get().getAgingTotals(asOfDate, dimensionOf(groupBy),
+                            classifier(groupBy), groups.length);
+            for (int group = 0; group < totals.length; group++) {
+                for (AgingCategory category : AgingCategory.values()) {
+                    amounts[group][category.ordinal()] = totals[group].getOutstandingMinorUnits(category);
+                    counts[group] += totals[group].getCount(category);
+                }
+            }
+        } else {
+            scan(asOfDate, groupBy, groups.length, amounts, counts);
+        }
+        
+        Map<String, Map<AgingCategory, BigDecimal>> report = new LinkedHashMap<>();
+        for (int group = 0; group <= groups.length; group++) {
+            if (group == groups.length && counts[group] == 0) {
+                break;
+            }
+            Map<AgingCategory, BigDecimal> row = new EnumMap<>(AgingCategory.class);
+            for (AgingCategory category : AgingCategory.values()) {
+                row.put(category, Money.toBigDecimal(amounts[group][category.ordinal()]));
+            }
+            report.put(group < groups.length ? groups[group] : UNKNOWN_GROUP, row);
+        }
+        return report;
+    }
+    
+    /**
+     * Fallback without the columnar view: a parallel pass over the open
+     * receivables, classifying each distinct key once
+     */
+    private void scan(LocalDateTime asOfDate, AgingGroupBy groupBy, int groupCount,
+                      long[][] amounts, long[] counts) {
+        ToIntFunction<String> classifier = groupBy != null ? classifier(groupBy) : key -> 0;
+        Map<String, Integer> classified = new ConcurrentHashMap<>();
+        long[] totals = receivableRepository.streamOpenByDueDate(null, null).parallel()
+                .collect(() -> new long[(groupCount + 1) * (CATEGORIES + 1)], (acc, receivable) -> {
+                    String key = groupBy != null ? keyOf(groupBy, receivable) : ALL_GROUP;
+                    int group = key != null ? classified.computeIfAbsent(key, classifier::applyAsInt) : -1;
+                    if (group < 0 || group >= groupCount) {
+                        group = groupCount;
+                    }
+                    int category = agingPolicies.forContract(receivable.getContractId())
+                            .categoryIndex(receivable.calculateAgingDays(asOfDate));
+                    int index = group * (CATEGORIES + 1);
+                    acc[index + category] = Money.add(acc[index + category],
+                            receivable.getOutstandingMinorUnits());
+                    acc[index + CATEGORIES]++;
+                }, (a, b) -> {
+                    for (int i = 0; i < a.length; i++) {
+                        a[i] = Money.add(a[i], b[i]);
+                    }
+                });
+        for (int group = 0; group <= groupCount; group++) {
+            int index = group * (CATEGORIES + 1);
+            System.arraycopy(totals, index, amounts[group], 0, CATEGORIES);
+            counts[group] = totals[index + CATEGORIES];
+        }
+    }
+    
+    private static String[] groupNames(AgingGroupBy groupBy) {
+        if (groupBy == null) {
+            return new String[] {ALL_GROUP};
+        }
+        Enum<?>[] values;
+        switch (groupBy) {
+            case CONTRACT_TYPE:
+                values = ContractType.values();
+                break;
+            case CUSTOMER_STATUS:
+                values = CustomerStatus.values();
+                break;
+            default:
+                values = ReceivableType.values();
+                break;
+        }
+        return Arrays.stream(values).map(Enum::name).toArray(String[]::new);
+    }
+    
+    private static ReceivableColumns.Dimension dimensionOf(AgingGroupBy groupBy) {
+        switch (groupBy) {
+            case CONTRACT_TYPE:
+                return ReceivableColumns.Dimension.CONTRACT;
+            case CUSTOMER_STATUS:
+                return ReceivableColumns.Dimension.CUSTOMER;
+            default:
+                return ReceivableColumns.Dimension.RECEIVABLE_TYPE;
+        }
+    }
+    
+    private static String keyOf(AgingGroupBy groupBy, Receivable receivable) {
+        switch (groupBy) {
+            case CONTRACT_TYPE:
+                return receivable.getContractId();
+            case CUSTOMER_STATUS:
+                return receivable.getCustomerId();
+            default:
+                return receivable.getReceivableType() != null ? receivable.getReceivableType().name() : null;
+        }
+    }
+    
+    /**
+     * Maps a contract ID, customer ID or receivable type name to the
+     * ordinal of its group, or -1
+     */
+    private ToIntFunction<String> classifier(AgingGroupBy groupBy) {
+        switch (groupBy) {
+            case CONTRACT_TYPE:
+                return contractId -> contractRepository.findById(contractId)
+                        .map(contract -> contract.getContractType() != null ? contract.getContractType().ordinal() : -1)
+                        .orElse(-1);
+            case CUSTOMER_STATUS:
+                return customerId -> customerRepository.findById(customerId)
+                        .map(customer -> customer.getStatus() != null ? customer.getStatus().ordinal() : -1)
+                        .orElse(-1);
+            default:
+                return type -> ReceivableType.valueOf(type).ordinal();
+        }
+    }
+}
@@ -1,18 +1,32 @@
 package org.openreceivable.service;
 
+import org.openreceivable.aging.AgingPolicies;
 import org.openreceivable.enums.AgingCategory;
 import org.openreceivable.enums.ReceivableStatus;
 import org.openreceivable.model.AgingBucket;
+import org.openreceivable.model.AgingSummary;
+import org.openreceivable.model.Money;
 import org.openreceivable.model.Receivable;
 import org.openreceivable.repository.AgingBucketRepository;
+import org.openreceivable.repository.AgingSummaryRepository;
 import org.openreceivable.repository.ReceivableRepository;
+import org.openreceivable.repository.aggregate.CustomerAgingAggregates;
+import org.openreceivable.repository.columnar.ReceivableColumns;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
+import java.time.Clock;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
 
 /**
  * Service for managing receivables and aging analysis
@@ -22,11 +36,32 @@ public class ReceivableService {
     
     private final ReceivableRepository receivableRepository;
     private final AgingBucketRepository agingBucketRepository;
+    private final AgingSummaryRepository agingSummaryRepository;
+    private final AgingBatch agingBatch;
+    private final Optional<ReceivableColumns> receivableColumns;
+    private final Optional<CustomerAgingAggregates> customerAggregates;
+    private final AgingPolicies agingPolicies;
+    private final Clock clock;
+    private final int snapshotRetentionDays;
     
     public ReceivableService(ReceivableRepository receivableRepository,
-                            AgingBucketRepository agingBucketRepository) {
+                            AgingBucketRepository agingBucketRepository,
+                            AgingSummaryRepository agingSummaryRepository,
+                            AgingBatch agingBatch,
+                            Optional<ReceivableColumns> receivableColumns,
+                            Optional<CustomerAgingAggregates> customerAggregates,
+                            AgingPolicies agingPolicies,
+                            Clock clock,
+                            @Value("${openreceivable.aging.snapshot-retention-days:90}") int snapshotRetentionDays) {
         this.receivableRepository = receivableRepository;
         this.agingBucketRepository = agingBucketRepository;
+        this.agingSummaryRepository = agingSummaryRepository;
+        this.agingBatch = agingBatch;
+        this.receivableColumns = receivableColumns;
+        this.customerAggregates = customerAggregates;
+        this.agingPolicies = agingPolicies;
+        this.clock = clock;
+        this.snapshotRetentionDays = snapshotRetentionDays;
     }
     
     /**
@@ -54,60 +89,170 @@ public class ReceivableService {
     }
     
     /**
-     * Get overdue receivables
+     * The given as-of time, or the clock's current time if it is null. Read
+     * once per request or batch and passed down, so every row is aged
+     * against the same instant.
      */
-    public List<Receivable> getOverdueReceivables() {
-        return receivableRepository.findOverdue(LocalDateTime.now());
+    public LocalDateTime asOf(LocalDateTime asOfDate) {
+        return asOfDate != null ? asOfDate : LocalDateTime.now(clock);
     }
     
     /**
-     * Update aging for all receivables
+     * Get receivables overdue as of the given time, or now if it is null
      */
-    public void updateAging() {
-        List<Receivable> receivables = receivableRepository.findAll();
-        LocalDateTime asOfDate = LocalDateTime.now();
+    public List<Receivable> getOverdueReceivables(LocalDateTime asOfDate) {
+        return receivableRepository.findOverdue(asOf(asOfDate));
+    }
+    
+    /**
+     * Update aging for receivables that crossed an aging category boundary
+     * since they were last aged, and return how many changed category.
+     * Receivables between boundaries keep their category and are skipped.
+     * Runs as a parallel, checkpointed batch (see AgingBatch); snapshots
+     * older than the retention period are then compacted.
+     */
+    public int updateAging() {
+        return updateAging(null);
+    }
+    
+    /**
+     * Update aging as of the given time, or now if it is null
+     */
+    public int updateAging(LocalDateTime asOfDate) {
+        AgingBatch.Result result = agingBatch.run(asOf(asOfDate));
+        compactAgingSnapshots(result.getAsOfDate());
+        return result.getTransitions();
+    }
+    
+    /**
+     * Fold aging snapshots older than the retention period into per-customer
+     * daily summaries and delete them. Returns the number of snapshots
+     * compacted; a retention of zero or less keeps snapshots forever.
+     *
+     * Each summary records the snapshots folded into it in the same save
+     * that adds their amounts, and forgets them once they are deleted. A
+     * compaction interrupted between the two therefore deletes the
+     * snapshots on its next run without counting them again.
+     */
+    public int compactAgingSnapshots(LocalDateTime asOfDate) {
+        if (snapshotRetentionDays <= 0) {
+            return 0;
+        }
+        LocalDateTime cutoff = asOfDate.toLocalDate().minusDays(snapshotRetentionDays).atStartOfDay();
+        List<AgingBucket> expired = agingBucketRepository.findByAsOfDateBefore(cutoff);
         
-        for (Receivable receivable : receivables) {
-            if (receivable.getStatus() != ReceivableStatus.PAID) {
-                int agingDays = receivable.calculateAgingDays();
-                receivable.setAgingDays(agingDays);
-                
-                if (agingDays > 0) {
-                    receivable.setStatus(ReceivableStatus.OVERDUE);
+        Map<SummaryKey, List<AgingBucket>> byKey = new LinkedHashMap<>();
+        for (AgingBucket bucket : expired) {
+            byKey.computeIfAbsent(new SummaryKey(bucket), key -> new ArrayList<>()).add(bucket);
+        }
+        
+        List<AgingSummary> folded = new ArrayList<>(byKey.size());
+        for (Map.Entry<SummaryKey, List<AgingBucket>> entry : byKey.entrySet()) {
+            SummaryKey key = entry.getKey();
+            AgingSummary summary = agingSummaryRepository.find(key.customerId, key.day, key.category)
+                    .orElseGet(key::newSummary);
+            Set<String> previouslyFolded = summary.getFoldedBucketIds();
+            Set<String> foldedIds = new LinkedHashSet<>();
+            long amount = 0;
+            int count = 0;
+            for (AgingBucket bucket : entry.getValue()) {
+                foldedIds.add(bucket.getBucketId());
+                if (!previouslyFolded.contains(bucket.getBucketId())) {
+                    amount = Money.add(amount, bucket.getAmountMinorUnits());
+                    count++;
                 }
-                
-                receivableRepository.save(receivable);
-                
-                // Create or update aging bucket
-                AgingCategory category = AgingBucket.determineCategory(agingDays);
-                AgingBucket bucket = new AgingBucket();
-                bucket.setReceivableId(receivable.getReceivableId());
-                bucket.setCustomerId(receivable.getCustomerId());
-                bucket.setAgingCategory(category);
-                bucket.setAmount(receivable.getOutstandingAmount());
-                bucket.setAsOfDate(asOfDate);
-                
-                agingBucketRepository.save(bucket);
             }
+            // IDs of snapshots deleted since are dropped with the ones folded before
+            summary.setFoldedBucketIds(foldedIds);
+            summary.setAmountMinorUnits(Money.add(summary.getAmountMinorUnits(), amount));
+            summary.setReceivableCount(summary.getReceivableCount() + count);
+            folded.add(agingSummaryRepository.save(summary));
+        }
+        
+        for (AgingBucket bucket : expired) {
+            agingBucketRepository.delete(bucket.getBucketId());
         }
+        for (AgingSummary summary : folded) {
+            summary.setFoldedBucketIds(new LinkedHashSet<>());
+            agingSummaryRepository.save(summary);
+        }
+        return expired.size();
     }
     
     /**
-     * Get aging report for a customer
+     * The summary a snapshot is folded into: its customer, day and category
      */
-    public Map<AgingCategory, BigDecimal> getCustomerAgingReport(String customerId) {
-        List<AgingBucket> buckets = agingBucketRepository.findByCustomerId(customerId);
-        Map<AgingCategory, BigDecimal> report = new HashMap<>();
+    private static final class SummaryKey {
+        private final String customerId;
+        private final LocalDateTime day;
+        private final AgingCategory category;
         
-        for (AgingCategory category : AgingCategory.values()) {
-            report.put(category, BigDecimal.ZERO);
+        private SummaryKey(AgingBucket bucket) {
+            this.customerId = bucket.getCustomerId();
+            this.day = bucket.getAsOfDate().toLocalDate().atStartOfDay();
+            this.category = bucket.getAgingCategory();
+        }
+        
+        private AgingSummary newSummary() {
+            AgingSummary summary = new AgingSummary();
+            summary.setCustomerId(customerId);
+            summary.setAsOfDate(day);
+            summary.setAgingCategory(category);
+            return summary;
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof SummaryKey)) {
+                return false;
+            }
+            SummaryKey other = (SummaryKey) o;
+            return Objects.equals(customerId, other.customerId) && Objects.equals(day, other.day)
+                    && category == other.category;
         }
         
-        for (AgingBucket bucket : buckets) {
-            BigDecimal currentAmount = report.get(bucket.getAgingCategory());
-            report.put(bucket.getAgingCategory(), currentAmount.add(bucket.getAmount()));
+        @Override
+        public int hashCode() {
+            return Objects.hash(customerId, day, category);
+        }
+    }
+    
+    /**
+     * Get aging report for a customer: outstanding amounts of the
+     * customer's unpaid receivables by aging category. Without an as-of
+     * time the categories are those of the last aging run; with one they
+     * are computed as of that time.
+     */
+    public Map<AgingCategory, BigDecimal> getCustomerAgingReport(String customerId, LocalDateTime asOfDate) {
+        Map<AgingCategory, BigDecimal> report = new HashMap<>();
+        if (asOfDate == null && customerAggregates.isPresent()) {
+            CustomerAgingAggregates.CustomerAging aging = customerAggregates.get().get(customerId);
+            for (AgingCategory category : AgingCategory.values()) {
+                report.put(category, aging.getOutstanding(category));
+            }
+            return report;
         }
         
+        long[] totals = new long[AgingCategory.values().length];
+        for (Receivable receivable : receivableRepository.findByCustomerId(customerId)) {
+            if (receivable.getStatus() == ReceivableStatus.PAID) {
+                continue;
+            }
+            int agingDays;
+            if (asOfDate != null) {
+                agingDays = receivable.calculateAgingDays(asOfDate);
+            } else {
+                agingDays = receivable.getAgingDays() != null ? receivable.getAgingDays() : 0;
+            }
+            int category = agingPolicies.forContract(receivable.getContractId()).categoryIndex(agingDays);
+            totals[category] = Money.add(totals[category], receivable.getOutstandingMinorUnits());
+        }
+        for (AgingCategory category : AgingCategory.values()) {
+            report.put(category, Money.toBigDecimal(totals[category.ordinal()]));
+        }
         return report;
     }
     
@@ -115,9 +260,43 @@ public class ReceivableService {
      * Get total outstanding balance for a customer
      */
     public BigDecimal getCustomerOutstandingBalance(String customerId) {
-        List<Receivable> receivables = receivableRepository.findByCustomerId(customerId);
-        return receivables.stream()
-                .map(Receivable::getOutstandingAmount)
-                .reduce(BigDecimal.ZERO, BigDecimal::add);
+        if (customerAggregates.isPresent()) {
+            return customerAggregates.get().get(customerId).getTotal();
+        }
+        if (receivableColumns.isPresent()) {
+            return receivableColumns.get().getCustomerOutstanding(customerId);
+        }
+        long total = 0;
+        for (Receivable receivable : receivableRepository.findByCustomerId(customerId)) {
+            total = Money.add(total, receivable.getOutstandingMinorUnits());
+        }
+        return Money.toBigDecimal(total);
+    }
+    
+    /**
+     * Get outstanding amounts of all unpaid receivables by aging category
+     * as of the given time, or now if it is null
+     */
+    public Map<AgingCategory, BigDecimal> getPortfolioAging(LocalDateTime asOf) {
+        LocalDateTime asOfDate = asOf(asOf);
+        Map<AgingCategory, BigDecimal> report = new HashMap<>();
+        if (receivableColumns.isPresent()) {
+            ReceivableColumns.AgingTotals totals = receivableColumns.get().getAgingTotals(asOfDate);
+            for (AgingCategory category : AgingCategory.values()) {
+                report.put(category, totals.getOutstanding(category));
+            }
+            return report;
+        }
+        
+        long[] totals = new long[AgingCategory.values().length];
+        receivableRepository.streamOpenByDueDate(null, null).forEach(receivable -> {
+            int category = agingPolicies.forContract(receivable.getContractId())
+                    .categoryIndex(receivable.calculateAgingDays(asOfDate));
+            totals[category] = Money.add(totals[category], receivable.getOutstandingMinorUnits());
+        });
+        for (AgingCategory category : AgingCategory.values()) {
+            report.put(category, Money.toBigDecimal(totals[category.ordinal()]));
+        }
+        return report;
     }
 }
@@ -0,0 +1,30 @@
+package org.openreceivable.time;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * Configures the clock aging calculations take their as-of time from
+ */
+@Configuration
+public class ClockConfig {
+
+    /**
+     * System clock, or a clock fixed at openreceivable.clock.fixed (an ISO
+     * local date-time) so aging results can be reproduced for benchmarks
+     * and audits
+     */
+    @Bean
+    public Clock clock(@Value("${openreceivable.clock.fixed:}") String fixed) {
+        if (fixed.isEmpty()) {
+            return Clock.systemDefaultZone();
+        }
+        ZoneId zone = ZoneId.systemDefault();
+        return Clock.fixed(LocalDateTime.parse(fixed).atZone(zone).toInstant(), zone);
+    }
+}
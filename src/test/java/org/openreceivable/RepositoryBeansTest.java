@@ -20,10 +20,17 @@ import static org.junit.jupiter.api.Assertions.assertNotNull;
         org.openreceivable.repository.impl.InMemoryPaymentRepository.class,
         org.openreceivable.repository.impl.InMemoryReceivableRepository.class,
         org.openreceivable.repository.impl.InMemoryAgingBucketRepository.class,
+        org.openreceivable.repository.impl.InMemoryAgingSummaryRepository.class,
         org.openreceivable.repository.impl.InMemoryContractRepository.class,
         org.openreceivable.repository.impl.InMemoryVehicleRepository.class,
         org.openreceivable.repository.impl.InMemoryPaymentAllocationRepository.class,
+        org.openreceivable.id.IdGeneratorConfig.class,
+        org.openreceivable.time.ClockConfig.class,
+        org.openreceivable.aging.AgingPolicyConfig.class,
+        org.openreceivable.allocation.AllocationWaterfallConfig.class,
+        org.openreceivable.service.AgingBatch.class,
         org.openreceivable.service.ReceivableService.class,
+        org.openreceivable.service.CustomerLocks.class,
         org.openreceivable.service.PaymentService.class,
         org.openreceivable.service.ContractService.class
     }
@@ -60,6 +67,12 @@ public class RepositoryBeansTest {
         assertNotNull(repository, "AgingBucketRepository bean should be created");
     }
 
+    @Test
+    public void testAgingSummaryRepositoryBeanExists() {
+        AgingSummaryRepository repository = context.getBean(AgingSummaryRepository.class);
+        assertNotNull(repository, "AgingSummaryRepository bean should be created");
+    }
+
     @Test
     public void testContractRepositoryBeanExists() {
         ContractRepository repository = context.getBean(ContractRepository.class);
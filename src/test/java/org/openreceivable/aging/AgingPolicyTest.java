@@ -0,0 +1,84 @@
+package org.openreceivable.aging;
+
+import org.junit.jupiter.api.Test;
+import org.openreceivable.enums.AgingCategory;
+import org.openreceivable.enums.ContractType;
+import org.openreceivable.id.TimeOrderedIdGenerator;
+import org.openreceivable.model.Contract;
+import org.openreceivable.model.Receivable;
+import org.openreceivable.model.ReceivableFixtures;
+import org.openreceivable.repository.impl.InMemoryAgingBucketRepository;
+import org.openreceivable.repository.impl.InMemoryContractRepository;
+import org.openreceivable.repository.impl.InMemoryReceivableRepository;
+import org.openreceivable.service.AgingBatch;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests aging policy lookup tables and aging per contract type
+ */
+public class AgingPolicyTest {
+
+    @Test
+    public void testStandardPolicyMatchesThirtyDayBuckets() {
+        AgingCategory[] categories = AgingCategory.values();
+        for (int days = -5; days <= 200; days++) {
+            int expected = days <= 0 ? 0 : Math.min((days - 1) / 30 + 1, categories.length - 1);
+            assertEquals(categories[expected], AgingPolicy.STANDARD.categorize(days), "days " + days);
+            int next = expected == 0 ? 1 : expected < categories.length - 1 ? expected * 30 + 1 : -1;
+            assertEquals(next, AgingPolicy.STANDARD.nextBoundary(days), "days " + days);
+        }
+        assertEquals(AgingPolicy.STANDARD, AgingPolicy.parse("30, 60, 90, 120"));
+        assertEquals(91, AgingPolicy.STANDARD.getFromDays(AgingCategory.DAYS_91_120));
+        assertEquals(120, AgingPolicy.STANDARD.getToDays(AgingCategory.DAYS_91_120));
+        assertNull(AgingPolicy.STANDARD.getToDays(AgingCategory.OVER_120));
+        assertThrows(IllegalArgumentException.class, () -> new AgingPolicy(30, 60, 90));
+        assertThrows(IllegalArgumentException.class, () -> new AgingPolicy(30, 30, 90, 120));
+    }
+
+    @Test
+    public void testReceivablesAgeUnderTheirContractTypePolicy() {
+        InMemoryContractRepository contracts = new InMemoryContractRepository();
+        Contract lease = new Contract();
+        lease.setContractType(ContractType.LEASE);
+        contracts.save(lease);
+        AgingPolicies policies = new AgingPolicies(AgingPolicy.STANDARD,
+                Map.of(ContractType.LEASE, new AgingPolicy(10, 20, 30, 40)), contracts);
+
+        assertSame(AgingPolicy.STANDARD, policies.forContract(null));
+        assertSame(AgingPolicy.STANDARD, policies.forContract("missing"));
+        assertEquals(new AgingPolicy(10, 20, 30, 40), policies.forContract(lease.getContractId()));
+        // Scheduling takes the earliest boundary of either policy
+        assertEquals(11, policies.nextBoundary(5));
+        assertEquals(31, policies.nextBoundary(25));
+        assertEquals(121, policies.nextBoundary(100));
+
+        InMemoryReceivableRepository receivables = new InMemoryReceivableRepository(false, policies, new TimeOrderedIdGenerator(0));
+        InMemoryAgingBucketRepository buckets = new InMemoryAgingBucketRepository();
+        LocalDateTime asOf = LocalDateTime.of(2024, 6, 1, 12, 0);
+        Receivable leased = receivable(receivables, lease.getContractId(), asOf.minusDays(15));
+        Receivable other = receivable(receivables, null, asOf.minusDays(15));
+
+        AgingBatch batch = new AgingBatch(receivables, buckets, policies, 4, 2, 10, "");
+        assertEquals(2, batch.run(asOf).getTransitions());
+        assertEquals(AgingCategory.DAYS_31_60, buckets.findByReceivableId(leased.getReceivableId()).get(0).getAgingCategory());
+        assertEquals(AgingCategory.DAYS_1_30, buckets.findByReceivableId(other.getReceivableId()).get(0).getAgingCategory());
+
+        // The lease crosses its next edge at 21 days; the other receivable is visited but stays put
+        assertEquals(List.of(), receivables.findDueForAging(asOf.plusDays(5)));
+        assertEquals(1, batch.run(asOf.plusDays(6)).getTransitions());
+        assertEquals(AgingCategory.DAYS_61_90, buckets.findByReceivableIdAndAsOfDate(leased.getReceivableId(),
+                asOf.plusDays(6)).orElseThrow().getAgingCategory());
+    }
+
+    private static Receivable receivable(InMemoryReceivableRepository receivables, String contractId,
+                                         LocalDateTime dueDate) {
+        Receivable receivable = ReceivableFixtures.pending("c1", dueDate, "10.00");
+        receivable.setContractId(contractId);
+        return receivables.save(receivable);
+    }
+}
@@ -0,0 +1,142 @@
+package org.openreceivable.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openreceivable.aging.AgingPolicies;
+import org.openreceivable.allocation.AllocationWaterfall;
+import org.openreceivable.enums.AgingCategory;
+import org.openreceivable.enums.PaymentMethod;
+import org.openreceivable.enums.ReceivableStatus;
+import org.openreceivable.enums.ReceivableType;
+import org.openreceivable.model.Money;
+import org.openreceivable.model.Payment;
+import org.openreceivable.model.Receivable;
+import org.openreceivable.repository.aggregate.CustomerOpenReceivables;
+import org.openreceivable.repository.impl.InMemoryAgingBucketRepository;
+import org.openreceivable.repository.impl.InMemoryAgingSummaryRepository;
+import org.openreceivable.repository.impl.InMemoryContractRepository;
+import org.openreceivable.repository.impl.InMemoryCustomerRepository;
+import org.openreceivable.repository.impl.InMemoryPaymentAllocationRepository;
+import org.openreceivable.repository.impl.InMemoryPaymentRepository;
+import org.openreceivable.repository.impl.InMemoryReceivableRepository;
+import org.openreceivable.service.AgingBatch;
+import org.openreceivable.service.CustomerLocks;
+import org.openreceivable.service.PaymentService;
+import org.openreceivable.service.PortfolioAgingService;
+import org.openreceivable.service.ReceivableService;
+
+import java.math.BigDecimal;
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the service calls whose amount arithmetic runs on the entities'
+ * minor units: posting a payment along the waterfall, a customer's balance
+ * and aging report without the aggregates, and the portfolio aging scan.
+ *
+ * Run the main method on the test classpath with -prof gc; standard JMH
+ * command line options (-p, -wi, -i, -f, -prof) are passed through.
+ * gc.alloc.rate.norm then shows the bytes each call allocates, which no
+ * longer grow with a BigDecimal per receivable touched.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xmx2g"})
+public class MoneyBenchmark {
+
+    @Param({"100000"})
+    private int receivableCount;
+
+    @Param({"12"})
+    private int receivablesPerCustomer;
+
+    private int customerCount;
+    private LocalDateTime asOfDate;
+    private PaymentService paymentService;
+    private ReceivableService receivableService;
+    private PortfolioAgingService portfolioAgingService;
+
+    /**
+     * Fresh repositories per iteration, so the payments posted by one do
+     * not pile up in the next. Outstanding amounts are large enough that
+     * no receivable is paid off and every payment makes an allocation.
+     */
+    @Setup(Level.Iteration)
+    public void setUp() {
+        customerCount = Math.max(1, receivableCount / receivablesPerCustomer);
+        asOfDate = LocalDateTime.now();
+        InMemoryReceivableRepository receivables = new InMemoryReceivableRepository();
+        for (int i = 0; i < receivableCount; i++) {
+            Receivable receivable = new Receivable();
+            receivable.setCustomerId(customerOf(i % customerCount));
+            receivable.setContractId("contract-" + (i / receivablesPerCustomer));
+            receivable.setReceivableType(ReceivableType.values()[i % ReceivableType.values().length]);
+            receivable.setDueDate(asOfDate.minusDays(i % 365));
+            receivable.setOriginalMinorUnits(1_000_000_000_00L);
+            receivable.setOutstandingMinorUnits(1_000_000_000_00L);
+            receivable.setStatus(ReceivableStatus.PENDING);
+            receivables.save(receivable);
+        }
+
+        paymentService = new PaymentService(new InMemoryPaymentRepository(), receivables,
+                new InMemoryPaymentAllocationRepository(), AllocationWaterfall.standard(),
+                Optional.of(new CustomerOpenReceivables(receivables)), new CustomerLocks(), Optional.empty());
+        InMemoryAgingBucketRepository buckets = new InMemoryAgingBucketRepository();
+        receivableService = new ReceivableService(receivables, buckets, new InMemoryAgingSummaryRepository(),
+                new AgingBatch(receivables, buckets, AgingPolicies.standard(), 4, 2, 1000, ""),
+                Optional.empty(), Optional.empty(), AgingPolicies.standard(), Clock.systemDefaultZone(), 90);
+        portfolioAgingService = new PortfolioAgingService(receivables, new InMemoryCustomerRepository(),
+                new InMemoryContractRepository(), Optional.empty(), AgingPolicies.standard(), Clock.systemDefaultZone());
+    }
+
+    private static String customerOf(int customer) {
+        return "customer-" + customer;
+    }
+
+    private String randomCustomer() {
+        return customerOf(ThreadLocalRandom.current().nextInt(customerCount));
+    }
+
+    @Benchmark
+    public Payment processPayment() {
+        Payment payment = new Payment();
+        payment.setCustomerId(randomCustomer());
+        payment.setPaymentDate(asOfDate);
+        payment.setAmountMinorUnits(Money.multiply(450_00, receivablesPerCustomer));
+        payment.setPaymentMethod(PaymentMethod.ACH);
+        return paymentService.processPayment(payment);
+    }
+
+    @Benchmark
+    public BigDecimal customerOutstandingBalance() {
+        return receivableService.getCustomerOutstandingBalance(randomCustomer());
+    }
+
+    @Benchmark
+    public Map<AgingCategory, BigDecimal> customerAgingReport() {
+        return receivableService.getCustomerAgingReport(randomCustomer(), asOfDate);
+    }
+
+    @Benchmark
+    public Map<String, Map<AgingCategory, BigDecimal>> portfolioAgingScan() {
+        return portfolioAgingService.getPortfolioAgingReport(null, asOfDate);
+    }
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        new Runner(new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .include(MoneyBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,141 @@
+package org.openreceivable.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openreceivable.allocation.AllocationWaterfall;
+import org.openreceivable.enums.PaymentMethod;
+import org.openreceivable.enums.ReceivableStatus;
+import org.openreceivable.enums.ReceivableType;
+import org.openreceivable.ingest.PaymentFileIngestion;
+import org.openreceivable.model.Customer;
+import org.openreceivable.model.Receivable;
+import org.openreceivable.repository.aggregate.CustomerOpenReceivables;
+import org.openreceivable.repository.aggregate.PaymentReferenceIndex;
+import org.openreceivable.repository.impl.InMemoryContractRepository;
+import org.openreceivable.repository.impl.InMemoryCustomerRepository;
+import org.openreceivable.repository.impl.InMemoryPaymentAllocationRepository;
+import org.openreceivable.repository.impl.InMemoryPaymentRepository;
+import org.openreceivable.repository.impl.InMemoryReceivableRepository;
+import org.openreceivable.service.CustomerLocks;
+import org.openreceivable.service.PaymentService;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ingests a generated CSV remittance file into fresh repositories: half
+ * the lines name an invoice, the rest a customer.
+ *
+ * Run the main method on the test classpath; standard JMH command line
+ * options (-p, -wi, -i, -f, -prof) are passed through.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+public class PaymentIngestionBenchmark {
+
+    @Param({"500000"})
+    private int lineCount;
+
+    @Param({"50000"})
+    private int customerCount;
+
+    @Param({"0"})
+    private int parallelism;
+
+    private static final int RECEIVABLES_PER_CUSTOMER = 12;
+
+    private Path file;
+    private List<String> customerIds;
+    private PaymentFileIngestion ingestion;
+
+    @Setup(Level.Trial)
+    public void writeFile() throws IOException {
+        file = Files.createTempFile("remittance", ".csv");
+        Random random = new Random(42);
+        customerIds = new ArrayList<>(customerCount);
+        for (int i = 0; i < customerCount; i++) {
+            customerIds.add(String.format("CUST%08d", i));
+        }
+        try (BufferedWriter out = Files.newBufferedWriter(file)) {
+            out.write("referenceNumber,paymentDate,amount,paymentMethod,customerId,contractNumber,invoiceNumber\n");
+            for (int i = 0; i < lineCount; i++) {
+                int customer = random.nextInt(customerCount);
+                String cents = BigDecimal.valueOf(1000 + random.nextInt(50_000), 2).toPlainString();
+                String match = random.nextBoolean()
+                        ? customerIds.get(customer) + ",,"
+                        : ",," + invoiceOf(customer, random.nextInt(RECEIVABLES_PER_CUSTOMER));
+                out.write("REF" + i + ",2024-06-01," + cents + ",CHECK," + match + "\n");
+            }
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void loadRepositories() {
+        InMemoryCustomerRepository customers = new InMemoryCustomerRepository();
+        InMemoryReceivableRepository receivables = new InMemoryReceivableRepository();
+        for (int c = 0; c < customerCount; c++) {
+            Customer customer = new Customer();
+            customer.setCustomerId(customerIds.get(c));
+            customers.save(customer);
+            for (int r = 0; r < RECEIVABLES_PER_CUSTOMER; r++) {
+                Receivable receivable = new Receivable();
+                receivable.setCustomerId(customer.getCustomerId());
+                receivable.setReceivableType(ReceivableType.MONTHLY_PAYMENT);
+                receivable.setInvoiceNumber(invoiceOf(c, r));
+                receivable.setDueDate(LocalDateTime.of(2024, 1, 1, 0, 0).plusMonths(r));
+                receivable.setOriginalAmount(new BigDecimal("450.00"));
+                receivable.setOutstandingAmount(new BigDecimal("450.00"));
+                receivable.setStatus(ReceivableStatus.PENDING);
+                receivables.save(receivable);
+            }
+        }
+        InMemoryPaymentRepository payments = new InMemoryPaymentRepository();
+        PaymentService paymentService = new PaymentService(payments, receivables,
+                new InMemoryPaymentAllocationRepository(), AllocationWaterfall.standard(),
+                Optional.of(new CustomerOpenReceivables(receivables)), new CustomerLocks(),
+                Optional.of(new PaymentReferenceIndex(payments, Clock.systemDefaultZone())));
+        ingestion = new PaymentFileIngestion(customers, new InMemoryContractRepository(), receivables,
+                paymentService, file.getParent().toString(), parallelism, 1000, PaymentMethod.CHECK);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFile() throws IOException {
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(file.resolveSibling(file.getFileName() + ".rejects"));
+        Files.deleteIfExists(file.resolveSibling(file.getFileName() + ".summary"));
+    }
+
+    private static String invoiceOf(int customer, int receivable) {
+        return "INV" + customer + "-" + receivable;
+    }
+
+    @Benchmark
+    public PaymentFileIngestion.Result ingest() {
+        return ingestion.ingest(file);
+    }
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        new Runner(new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .include(PaymentIngestionBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,106 @@
+package org.openreceivable.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openreceivable.enums.ReceivableStatus;
+import org.openreceivable.model.Receivable;
+import org.openreceivable.repository.impl.InMemoryReceivableRepository;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Compares the indexed finders of InMemoryReceivableRepository against the
+ * full-scan filters they replaced.
+ *
+ * Run the main method on the test classpath; standard JMH command line
+ * options (-p, -wi, -i, -f, -prof) are passed through.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReceivableFinderBenchmark {
+
+    @Param({"100000", "1000000"})
+    private int receivableCount;
+
+    @Param({"10"})
+    private int receivablesPerCustomer;
+
+    private InMemoryReceivableRepository indexed;
+    private Map<String, Receivable> scanned;
+    private int customerCount;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        indexed = new InMemoryReceivableRepository();
+        scanned = new ConcurrentHashMap<>();
+        customerCount = Math.max(1, receivableCount / receivablesPerCustomer);
+
+        ReceivableStatus[] statuses = ReceivableStatus.values();
+        for (int i = 0; i < receivableCount; i++) {
+            Receivable receivable = new Receivable();
+            receivable.setCustomerId("customer-" + (i % customerCount));
+            receivable.setContractId("contract-" + (i / receivablesPerCustomer));
+            receivable.setStatus(statuses[i % statuses.length]);
+            receivable.setDueDate(LocalDateTime.now().minusDays(i % 365));
+            receivable.setOriginalAmount(BigDecimal.valueOf(350));
+            receivable.setOutstandingAmount(BigDecimal.valueOf(350));
+            indexed.save(receivable);
+            scanned.put(receivable.getReceivableId(), receivable);
+        }
+    }
+
+    private String randomCustomer() {
+        return "customer-" + ThreadLocalRandom.current().nextInt(customerCount);
+    }
+
+    @Benchmark
+    public List<Receivable> indexedFindByCustomerId() {
+        return indexed.findByCustomerId(randomCustomer());
+    }
+
+    @Benchmark
+    public List<Receivable> scanFindByCustomerId() {
+        String customerId = randomCustomer();
+        return scanned.values().stream()
+                .filter(r -> customerId.equals(r.getCustomerId()))
+                .collect(Collectors.toList());
+    }
+
+    @Benchmark
+    public BigDecimal indexedOutstandingBalance() {
+        return indexed.findByCustomerId(randomCustomer()).stream()
+                .map(Receivable::getOutstandingAmount)
+                .reduce(BigDecimal.ZERO, BigDecimal::add);
+    }
+
+    @Benchmark
+    public BigDecimal scanOutstandingBalance() {
+        String customerId = randomCustomer();
+        return scanned.values().stream()
+                .filter(r -> customerId.equals(r.getCustomerId()))
+                .map(Receivable::getOutstandingAmount)
+                .reduce(BigDecimal.ZERO, BigDecimal::add);
+    }
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        new Runner(new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .include(ReceivableFinderBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
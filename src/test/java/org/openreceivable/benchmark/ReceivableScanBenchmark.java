@@ -0,0 +1,121 @@
+package org.openreceivable.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openreceivable.enums.AgingCategory;
+import org.openreceivable.enums.ReceivableStatus;
+import org.openreceivable.model.AgingBucket;
+import org.openreceivable.model.Receivable;
+import org.openreceivable.repository.columnar.ReceivableColumns;
+import org.openreceivable.repository.impl.InMemoryReceivableRepository;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares aging and balance aggregations over ReceivableColumns against the
+ * same aggregations over Receivable objects, plus a grouped aging pass.
+ *
+ * Run the main method on the test classpath; standard JMH command line
+ * options (-p, -wi, -i, -f, -prof) are passed through.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReceivableScanBenchmark {
+
+    @Param({"100000", "1000000"})
+    private int receivableCount;
+
+    @Param({"10"})
+    private int receivablesPerCustomer;
+
+    private InMemoryReceivableRepository repository;
+    private ReceivableColumns columns;
+    private List<Receivable> objects;
+    private LocalDateTime asOfDate;
+    private int customerCount;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        repository = new InMemoryReceivableRepository();
+        columns = new ReceivableColumns(repository);
+        customerCount = Math.max(1, receivableCount / receivablesPerCustomer);
+        asOfDate = LocalDateTime.now();
+
+        ReceivableStatus[] statuses = ReceivableStatus.values();
+        for (int i = 0; i < receivableCount; i++) {
+            Receivable receivable = new Receivable();
+            receivable.setCustomerId("customer-" + (i % customerCount));
+            receivable.setContractId("contract-" + (i / receivablesPerCustomer));
+            receivable.setStatus(statuses[i % statuses.length]);
+            receivable.setDueDate(asOfDate.minusDays(i % 365));
+            receivable.setOriginalAmount(BigDecimal.valueOf(35000 + i % 1000, 2));
+            receivable.setOutstandingAmount(BigDecimal.valueOf(35000 + i % 1000, 2));
+            repository.save(receivable);
+        }
+        objects = repository.findAll();
+    }
+
+    private String randomCustomer() {
+        return "customer-" + ThreadLocalRandom.current().nextInt(customerCount);
+    }
+
+    @Benchmark
+    public Map<AgingCategory, BigDecimal> objectAgingTotals() {
+        Map<AgingCategory, BigDecimal> totals = new EnumMap<>(AgingCategory.class);
+        for (Receivable receivable : objects) {
+            if (receivable.getStatus() == ReceivableStatus.PAID) {
+                continue;
+            }
+            LocalDateTime dueDate = receivable.getDueDate();
+            int days = asOfDate.isBefore(dueDate) ? 0 : (int) ChronoUnit.DAYS.between(dueDate, asOfDate);
+            totals.merge(AgingBucket.determineCategory(days), receivable.getOutstandingAmount(), BigDecimal::add);
+        }
+        return totals;
+    }
+
+    @Benchmark
+    public ReceivableColumns.AgingTotals columnarAgingTotals() {
+        return columns.getAgingTotals(asOfDate);
+    }
+
+    @Benchmark
+    public ReceivableColumns.AgingTotals[] columnarAgingTotalsByCustomerGroup() {
+        // Classifies every distinct customer, as a customer status report does
+        return columns.getAgingTotals(asOfDate, ReceivableColumns.Dimension.CUSTOMER,
+                customerId -> customerId.hashCode() & 3, 4);
+    }
+
+    @Benchmark
+    public BigDecimal objectCustomerOutstanding() {
+        return repository.findByCustomerId(randomCustomer()).stream()
+                .map(Receivable::getOutstandingAmount)
+                .reduce(BigDecimal.ZERO, BigDecimal::add);
+    }
+
+    @Benchmark
+    public BigDecimal columnarCustomerOutstanding() {
+        return columns.getCustomerOutstanding(randomCustomer());
+    }
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        new Runner(new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .include(ReceivableScanBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
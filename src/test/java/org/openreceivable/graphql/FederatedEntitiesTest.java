@@ -0,0 +1,82 @@
+package org.openreceivable.graphql;
+
+import org.junit.jupiter.api.Test;
+import org.openreceivable.model.Customer;
+import org.openreceivable.model.Receivable;
+import org.openreceivable.model.ReceivableFixtures;
+import org.openreceivable.repository.CustomerRepository;
+import org.openreceivable.repository.ReceivableRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.graphql.ExecutionGraphQlResponse;
+import org.springframework.graphql.ExecutionGraphQlService;
+import org.springframework.graphql.support.DefaultExecutionGraphQlRequest;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests that _entities resolves each type's representations with one lookup
+ * and answers in representation order. The context is discarded afterwards
+ * so the entities saved here do not show up in other tests' queries.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE)
+@DirtiesContext
+public class FederatedEntitiesTest {
+
+    private static final String ENTITIES = "query($representations: [_Any!]!) { _entities(representations: $representations) {"
+            + " ... on Customer { email } ... on Receivable { receivableId } } }";
+
+    @Autowired
+    private ExecutionGraphQlService graphQlService;
+
+    @SpyBean
+    private CustomerRepository customerRepository;
+
+    @Autowired
+    private ReceivableRepository receivableRepository;
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testEntitiesAreLoadedInOneBatchPerType() {
+        List<Map<String, Object>> representations = new ArrayList<>();
+        for (int c = 0; c < 3; c++) {
+            Customer customer = new Customer();
+            customer.setEmail("entity" + c + "@example.com");
+            String customerId = customerRepository.save(customer).getCustomerId();
+
+            String receivableId = receivableRepository.save(
+                    ReceivableFixtures.pending(customerId, LocalDateTime.of(2024, 1, 1, 0, 0), "10.00"))
+                    .getReceivableId();
+
+            representations.add(Map.of("__typename", "Customer", "customerId", customerId));
+            representations.add(Map.of("__typename", "Receivable", "receivableId", receivableId));
+        }
+        representations.add(1, Map.of("__typename", "Customer", "customerId", "missing"));
+        clearInvocations(customerRepository);
+
+        ExecutionGraphQlResponse response = graphQlService.execute(new DefaultExecutionGraphQlRequest(
+                ENTITIES, null, Map.of("representations", representations), null, "1", null)).block();
+        assertTrue(response.getErrors().isEmpty(), () -> response.getErrors().toString());
+
+        List<Map<String, Object>> entities = (List<Map<String, Object>>) ((Map<String, Object>) response.getData())
+                .get("_entities");
+        assertEquals(representations.size(), entities.size());
+        assertEquals("entity0@example.com", entities.get(0).get("email"));
+        assertNull(entities.get(1));
+        assertEquals(representations.get(2).get("receivableId"), entities.get(2).get("receivableId"));
+        assertEquals("entity2@example.com", entities.get(5).get("email"));
+        assertEquals(representations.get(6).get("receivableId"), entities.get(6).get("receivableId"));
+        verify(customerRepository, times(1)).findAllById(any());
+        verify(customerRepository, never()).findById(anyString());
+    }
+}
@@ -0,0 +1,74 @@
+package org.openreceivable.graphql;
+
+import org.junit.jupiter.api.Test;
+import org.openreceivable.model.Customer;
+import org.openreceivable.model.ReceivableFixtures;
+import org.openreceivable.repository.CustomerRepository;
+import org.openreceivable.repository.ReceivableRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.graphql.ExecutionGraphQlResponse;
+import org.springframework.graphql.ExecutionGraphQlService;
+import org.springframework.graphql.support.DefaultExecutionGraphQlRequest;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests that relationship fields resolve through one batched lookup per
+ * level of a response
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE)
+public class RelationshipFieldsTest {
+
+    @Autowired
+    private ExecutionGraphQlService graphQlService;
+
+    @SpyBean
+    private CustomerRepository customerRepository;
+
+    @Autowired
+    private ReceivableRepository receivableRepository;
+
+    private Map<String, Object> execute(String document) {
+        ExecutionGraphQlResponse response = graphQlService.execute(
+                new DefaultExecutionGraphQlRequest(document, null, null, null, "1", null)).block();
+        assertTrue(response.getErrors().isEmpty(), () -> response.getErrors().toString());
+        return response.getData();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testReceivableCustomersAreLoadedInOneBatch() {
+        for (int c = 0; c < 3; c++) {
+            Customer customer = new Customer();
+            customer.setEmail("customer" + c + "@example.com");
+            String customerId = customerRepository.save(customer).getCustomerId();
+            for (int r = 0; r < 4; r++) {
+                receivableRepository.save(
+                        ReceivableFixtures.pending(customerId, LocalDateTime.of(2024, 1, 1, 0, 0), "10.00"));
+            }
+        }
+        clearInvocations(customerRepository);
+
+        Map<String, Object> data = execute("{ customers { customerId receivables { receivableId customer { email } } } }");
+        List<Map<String, Object>> customers = (List<Map<String, Object>>) data.get("customers");
+        assertEquals(3, customers.size());
+        for (Map<String, Object> customer : customers) {
+            List<Map<String, Object>> receivables = (List<Map<String, Object>>) customer.get("receivables");
+            assertEquals(4, receivables.size());
+            assertTrue(receivables.stream().allMatch(receivable ->
+                    ((Map<String, Object>) receivable.get("customer")).get("email") != null));
+        }
+        // Twelve receivables, one customer lookup
+        verify(customerRepository, times(1)).findAllById(any());
+        verify(customerRepository, never()).findById(anyString());
+    }
+}
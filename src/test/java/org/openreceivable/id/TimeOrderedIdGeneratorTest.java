@@ -0,0 +1,128 @@
+package org.openreceivable.id;
+
+import org.junit.jupiter.api.Test;
+import org.openreceivable.model.Customer;
+import org.openreceivable.repository.impl.InMemoryCustomerRepository;
+import org.openreceivable.repository.impl.InMemoryPaymentRepository;
+import org.openreceivable.repository.store.OptimisticLockException;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for TimeOrderedIdGenerator and the Ids string form
+ */
+public class TimeOrderedIdGeneratorTest {
+
+    @Test
+    public void testIdsStayOrderedWhenClockStepsBackOrSequenceOverflows() {
+        AtomicLong now = new AtomicLong(TimeOrderedIdGenerator.EPOCH_MILLIS + 1_000);
+        TimeOrderedIdGenerator generator = new TimeOrderedIdGenerator(7, now::get);
+
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            ids.add(generator.nextString());
+            if (i == 5_000) {
+                now.addAndGet(-500);
+            }
+        }
+        List<String> sorted = new ArrayList<>(ids);
+        sorted.sort(null);
+        assertEquals(sorted, ids);
+        assertEquals(ids.size(), Set.copyOf(ids).size());
+
+        long first = Ids.parse(ids.get(0));
+        assertEquals(TimeOrderedIdGenerator.EPOCH_MILLIS + 1_000,
+                TimeOrderedIdGenerator.timestampOf(first).toEpochMilli());
+    }
+
+    @Test
+    public void testConcurrentGenerationIsUnique() throws Exception {
+        TimeOrderedIdGenerator generator = new TimeOrderedIdGenerator(1);
+        Set<Long> ids = ConcurrentHashMap.newKeySet();
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        for (int t = 0; t < 4; t++) {
+            pool.submit(() -> {
+                for (int i = 0; i < 25_000; i++) {
+                    ids.add(generator.nextId());
+                }
+            });
+        }
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(30, TimeUnit.SECONDS));
+        assertEquals(100_000, ids.size());
+    }
+
+    @Test
+    public void testStringFormRoundTrips() {
+        for (long id : new long[] {0, 1, 31, 32, Long.MAX_VALUE, -1}) {
+            String text = Ids.format(id);
+            assertEquals(Ids.STRING_LENGTH, text.length());
+            assertEquals(id, Ids.parse(text));
+            assertEquals(id, Ids.parse(text.toLowerCase()));
+        }
+        assertThrows(IllegalArgumentException.class, () -> Ids.parse("0123456789ABU"));
+        assertThrows(IllegalArgumentException.class, () -> Ids.parse("short"));
+    }
+
+    private static long nodeOf(String id) {
+        return (Ids.parse(id) >>> TimeOrderedIdGenerator.SEQUENCE_BITS) & TimeOrderedIdGenerator.MAX_NODE_ID;
+    }
+
+    @Test
+    public void testRepositoriesAssignIdsFromTheirInjectedGenerator() {
+        TimeOrderedIdGenerator node3 = new TimeOrderedIdGenerator(3);
+        InMemoryCustomerRepository customers = new InMemoryCustomerRepository(node3);
+        InMemoryPaymentRepository payments = new InMemoryPaymentRepository(false, node3, Clock.systemDefaultZone());
+
+        String customerId = customers.save(new Customer()).getCustomerId();
+        assertEquals(3, nodeOf(customerId));
+        assertEquals(3, nodeOf(payments.nextId()));
+        // Another repository's generator is its own, not a process-wide one
+        assertEquals(0, nodeOf(new InMemoryCustomerRepository()
+                .save(new Customer()).getCustomerId()));
+    }
+
+    @Test
+    public void testNewEntityDoesNotReplaceOneHoldingItsId() {
+        String taken = Ids.format(42);
+        InMemoryCustomerRepository customers = new InMemoryCustomerRepository(() -> 42);
+        Customer first = customers.save(new Customer());
+        assertEquals(taken, first.getCustomerId());
+
+        Customer second = new Customer();
+        second.setEmail("second@example.com");
+        assertThrows(OptimisticLockException.class, () -> customers.save(second));
+        assertNull(customers.findById(taken).orElseThrow().getEmail());
+
+        // Never stored, though it carries an ID
+        Customer copy = new Customer();
+        copy.setCustomerId(taken);
+        assertThrows(OptimisticLockException.class, () -> customers.save(copy));
+    }
+
+    @Test
+    public void testSeededGeneratorContinuesPastStoredIds() {
+        AtomicLong now = new AtomicLong(TimeOrderedIdGenerator.EPOCH_MILLIS + 60_000);
+        InMemoryCustomerRepository before = new InMemoryCustomerRepository(new TimeOrderedIdGenerator(0, now::get));
+        Customer stored = before.save(new Customer());
+
+        // Restarted with the clock a second behind
+        now.addAndGet(-1_000);
+        InMemoryCustomerRepository after = new InMemoryCustomerRepository(new TimeOrderedIdGenerator(0, now::get));
+        after.getStore().restore(stored);
+        after.getStore().seedIdGenerator();
+
+        String next = after.save(new Customer()).getCustomerId();
+        assertTrue(next.compareTo(stored.getCustomerId()) > 0);
+    }
+}
@@ -0,0 +1,150 @@
+package org.openreceivable.ingest;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.openreceivable.allocation.AllocationWaterfall;
+import org.openreceivable.enums.PaymentMethod;
+import org.openreceivable.enums.ReceivableType;
+import org.openreceivable.model.Contract;
+import org.openreceivable.model.Customer;
+import org.openreceivable.model.Payment;
+import org.openreceivable.model.Receivable;
+import org.openreceivable.model.ReceivableFixtures;
+import org.openreceivable.repository.aggregate.CustomerOpenReceivables;
+import org.openreceivable.repository.aggregate.PaymentReferenceIndex;
+import org.openreceivable.repository.impl.InMemoryContractRepository;
+import org.openreceivable.repository.impl.InMemoryCustomerRepository;
+import org.openreceivable.repository.impl.InMemoryPaymentAllocationRepository;
+import org.openreceivable.repository.impl.InMemoryPaymentRepository;
+import org.openreceivable.repository.impl.InMemoryReceivableRepository;
+import org.openreceivable.service.CustomerLocks;
+import org.openreceivable.service.PaymentService;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests matching, posting, rejects and summaries of remittance files
+ */
+public class PaymentFileIngestionTest {
+
+    @TempDir
+    Path inbox;
+
+    private final InMemoryCustomerRepository customers = new InMemoryCustomerRepository();
+    private final InMemoryContractRepository contracts = new InMemoryContractRepository();
+    private final InMemoryReceivableRepository receivables = new InMemoryReceivableRepository();
+    private final InMemoryPaymentRepository payments = new InMemoryPaymentRepository();
+    private final InMemoryPaymentAllocationRepository allocations = new InMemoryPaymentAllocationRepository();
+    private final PaymentService paymentService = new PaymentService(payments, receivables, allocations,
+            AllocationWaterfall.standard(), Optional.of(new CustomerOpenReceivables(receivables)), new CustomerLocks(),
+            Optional.of(new PaymentReferenceIndex(payments, Clock.systemDefaultZone())));
+
+    private String customer(String email) {
+        Customer customer = new Customer();
+        customer.setEmail(email);
+        return customers.save(customer).getCustomerId();
+    }
+
+    private Receivable receivable(String customerId, String invoiceNumber, int dueDay) {
+        Receivable receivable = ReceivableFixtures.pending(customerId, LocalDateTime.of(2024, 1, dueDay, 0, 0), "100.00");
+        receivable.setReceivableType(ReceivableType.MONTHLY_PAYMENT);
+        receivable.setInvoiceNumber(invoiceNumber);
+        return receivables.save(receivable);
+    }
+
+    private PaymentFileIngestion ingestion() {
+        return new PaymentFileIngestion(customers, contracts, receivables, paymentService,
+                inbox.toString(), 2, 2, PaymentMethod.CHECK);
+    }
+
+    @Test
+    public void testPostsMatchedLinesAndRejectsTheRest() throws IOException {
+        String alice = customer("alice@example.com");
+        String bob = customer("bob@example.com");
+        Receivable older = receivable(alice, "INV-1", 1);
+        Receivable invoiced = receivable(alice, "INV-2", 2);
+        Receivable bobs = receivable(bob, "INV-3", 1);
+        Contract contract = new Contract();
+        contract.setCustomerId(bob);
+        contract.setContractNumber("C-100");
+        contracts.save(contract);
+
+        Files.write(inbox.resolve("lockbox.csv"), List.of(
+                "referenceNumber,paymentDate,amount,paymentMethod,customerId,contractNumber,invoiceNumber",
+                "R1,2024-02-01,30.00,," + alice + ",,",
+                "R2,2024-02-01,150.00,ACH,,,INV-2",
+                "R3,2024-02-01,40.00,,,C-100,",
+                "R4,2024-02-01,10.00,,nobody,,",
+                "R5,2024-02-01,ten,,," + alice + ",",
+                "R6,2024-02-01,10.00,," + bob + ",,INV-1",
+                "",
+                "R7,2024-02-01,-5.00,," + alice + ",,",
+                " ,2024-02-01,5.00,," + alice + ",,",
+                "R8,2024-02-01,125.505,," + alice + ",,"));
+
+        PaymentFileIngestion.Result result = ingestion().ingest(inbox.resolve("lockbox.csv"));
+        assertEquals(9, result.getLines());
+        assertEquals(3, result.getPosted());
+        assertEquals(6, result.getRejected());
+        assertEquals(new BigDecimal("220.00"), result.getAmountPosted());
+
+        // The invoice is paid first and the rest goes along the waterfall
+        assertEquals(new BigDecimal("0.00"), receivables.findById(invoiced.getReceivableId()).orElseThrow()
+                .getOutstandingAmount());
+        assertEquals(new BigDecimal("20.00"), receivables.findById(older.getReceivableId()).orElseThrow()
+                .getOutstandingAmount());
+        assertEquals(new BigDecimal("60.00"), receivables.findById(bobs.getReceivableId()).orElseThrow()
+                .getOutstandingAmount());
+        Payment byInvoice = payments.findAll().stream()
+                .filter(payment -> "R2".equals(payment.getReferenceNumber())).findFirst().orElseThrow();
+        assertEquals(PaymentMethod.ACH, byInvoice.getPaymentMethod());
+        assertEquals(invoiced.getReceivableId(), byInvoice.getReceivableId());
+
+        List<String> rejects = Files.readAllLines(inbox.resolve("lockbox.csv.rejects"));
+        assertEquals(List.of(5L, 6L, 7L, 9L, 10L, 11L), rejects.stream()
+                .map(line -> Long.parseLong(line.split("\t")[0])).sorted().collect(Collectors.toList()));
+        assertTrue(rejects.stream().anyMatch(line -> line.startsWith("7\tInvoice INV-1 belongs to another customer")));
+        assertTrue(rejects.stream().anyMatch(line -> line.startsWith("10\tMalformed line: Missing reference number")));
+        assertTrue(rejects.stream().anyMatch(line -> line.startsWith("11\tMalformed line: Amount 125.505 has more")));
+
+        // Ingested files are skipped from then on
+        assertTrue(Files.exists(inbox.resolve("lockbox.csv.summary")));
+        assertTrue(ingestion().ingestPending().isEmpty());
+
+        // Ingesting it again posts nothing twice, the line without a reference included
+        PaymentFileIngestion.Result again = ingestion().ingest(inbox.resolve("lockbox.csv"));
+        assertEquals(0, again.getPosted());
+        assertEquals(3, again.getDuplicates());
+        assertEquals(6, again.getRejected());
+        assertEquals(3, payments.findAll().size());
+        assertEquals(new BigDecimal("20.00"), receivables.findById(older.getReceivableId()).orElseThrow()
+                .getOutstandingAmount());
+    }
+
+    @Test
+    public void testReadsFixedWidthFiles() throws IOException {
+        String alice = customer("alice@example.com");
+        Receivable receivable = receivable(alice, "INV-1", 1);
+        Files.write(inbox.resolve("ach-20240201.txt"), List.of(
+                String.format("%-20s%s%012d%-32s", "TRACE1", "20240201", 2550, alice),
+                String.format("%-20s%s%012d", "TRACE2", "2024-02-", 100)));
+
+        List<PaymentFileIngestion.Result> results = ingestion().ingestPending();
+        assertEquals(1, results.size());
+        assertEquals(1, results.get(0).getPosted());
+        assertEquals(1, results.get(0).getRejected());
+        assertEquals(new BigDecimal("74.50"), receivables.findById(receivable.getReceivableId()).orElseThrow()
+                .getOutstandingAmount());
+        assertEquals(LocalDateTime.of(2024, 2, 1, 0, 0), payments.findAll().get(0).getPaymentDate());
+    }
+}
@@ -0,0 +1,42 @@
+package org.openreceivable.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for Money conversion and checked arithmetic
+ */
+public class MoneyTest {
+
+    @Test
+    public void testConversionUsesCurrencyScale() {
+        assertEquals(35000, Money.toMinorUnits(new BigDecimal("350")));
+        assertEquals(12346, Money.toMinorUnits(new BigDecimal("123.455")));
+        assertEquals(12344, Money.toMinorUnits(new BigDecimal("123.445")));
+        assertEquals(0, Money.toMinorUnits(null));
+        assertEquals(new BigDecimal("350.00"), Money.toBigDecimal(35000));
+        assertEquals("-0.05", Money.ofMinorUnits(-5).toString());
+        assertEquals(Money.of(new BigDecimal("1.5")), Money.ofMinorUnits(150));
+    }
+
+    @Test
+    public void testExactConversionRejectsExtraDecimalPlaces() {
+        assertEquals(12550, Money.toMinorUnitsExact(new BigDecimal("125.5")));
+        assertEquals(12550, Money.toMinorUnitsExact(new BigDecimal("125.500")));
+        assertEquals(0, Money.toMinorUnitsExact(null));
+        ArithmeticException e = assertThrows(ArithmeticException.class,
+                () -> Money.toMinorUnitsExact(new BigDecimal("125.505")));
+        assertEquals("Amount 125.505 has more than 2 decimal places", e.getMessage());
+    }
+
+    @Test
+    public void testArithmeticIsOverflowChecked() {
+        assertEquals(Money.ofMinorUnits(50), Money.ofMinorUnits(80).minus(Money.ofMinorUnits(30)));
+        assertThrows(ArithmeticException.class, () -> Money.add(Long.MAX_VALUE, 1));
+        assertThrows(ArithmeticException.class, () -> Money.subtract(Long.MIN_VALUE, 1));
+        assertThrows(ArithmeticException.class, () -> Money.toMinorUnits(new BigDecimal("1e20")));
+    }
+}
@@ -0,0 +1,29 @@
+package org.openreceivable.model;
+
+import org.openreceivable.enums.ReceivableStatus;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * Receivables for tests, built the same way everywhere
+ */
+public final class ReceivableFixtures {
+
+    private ReceivableFixtures() {
+    }
+
+    /**
+     * A new PENDING receivable of a customer with the whole amount still
+     * outstanding, for the caller to add any other fields to and save
+     */
+    public static Receivable pending(String customerId, LocalDateTime dueDate, String amount) {
+        Receivable receivable = new Receivable();
+        receivable.setCustomerId(customerId);
+        receivable.setDueDate(dueDate);
+        receivable.setOriginalAmount(new BigDecimal(amount));
+        receivable.setOutstandingAmount(new BigDecimal(amount));
+        receivable.setStatus(ReceivableStatus.PENDING);
+        return receivable;
+    }
+}
@@ -0,0 +1,74 @@
+package org.openreceivable.repository.aggregate;
+
+import org.junit.jupiter.api.Test;
+import org.openreceivable.enums.AgingCategory;
+import org.openreceivable.enums.ReceivableStatus;
+import org.openreceivable.model.Receivable;
+import org.openreceivable.model.ReceivableFixtures;
+import org.openreceivable.repository.impl.InMemoryReceivableRepository;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests that CustomerAgingAggregates follows receivable writes and that
+ * verification detects drift
+ */
+public class CustomerAgingAggregatesTest {
+
+    private final InMemoryReceivableRepository repository = new InMemoryReceivableRepository();
+
+    private Receivable receivable(String customerId, String amount) {
+        return repository.save(ReceivableFixtures.pending(customerId, LocalDateTime.of(2024, 1, 1, 0, 0), amount));
+    }
+
+    @Test
+    public void testTotalsFollowWrites() {
+        Receivable existing = receivable("c1", "100.00");
+        CustomerAgingAggregates aggregates = new CustomerAgingAggregates(repository);
+        Receivable aged = receivable("c1", "40.00");
+        receivable("c2", "5.00");
+
+        assertEquals(new BigDecimal("140.00"), aggregates.get("c1").getTotal());
+        assertEquals(new BigDecimal("140.00"), aggregates.get("c1").getOutstanding(AgingCategory.CURRENT));
+
+        // Aging transition moves the amount between categories
+        aged.setAgingDays(45);
+        aged.setStatus(ReceivableStatus.OVERDUE);
+        repository.save(aged);
+        assertEquals(new BigDecimal("100.00"), aggregates.get("c1").getOutstanding(AgingCategory.CURRENT));
+        assertEquals(new BigDecimal("40.00"), aggregates.get("c1").getOutstanding(AgingCategory.DAYS_31_60));
+
+        // Payment in full leaves the categories but keeps the total consistent
+        existing.setOutstandingAmount(BigDecimal.ZERO);
+        existing.setStatus(ReceivableStatus.PAID);
+        repository.save(existing);
+        assertEquals(new BigDecimal("0.00"), aggregates.get("c1").getOutstanding(AgingCategory.CURRENT));
+        assertEquals(new BigDecimal("40.00"), aggregates.get("c1").getTotal());
+
+        repository.delete(aged.getReceivableId());
+        assertEquals(new BigDecimal("0.00"), aggregates.get("c1").getTotal());
+        assertEquals(new BigDecimal("5.00"), aggregates.get("c2").getTotal());
+        assertEquals(new BigDecimal("0.00"), aggregates.get("unknown").getTotal());
+        assertTrue(aggregates.verify().isEmpty());
+    }
+
+    @Test
+    public void testVerifyReportsDrift() {
+        CustomerAgingAggregates aggregates = new CustomerAgingAggregates(repository);
+        Receivable receivable = receivable("c1", "10.00");
+        receivable("c2", "20.00");
+
+        // Simulate an update the aggregates never saw
+        aggregates.apply("missing", null, aggregates.capture(receivable));
+
+        List<CustomerAgingAggregates.Drift> drift = aggregates.verify();
+        assertEquals(1, drift.size());
+        assertEquals("c1", drift.get(0).getCustomerId());
+        assertEquals(new BigDecimal("20.00"), drift.get(0).getMaterialized().getTotal());
+        assertEquals(new BigDecimal("10.00"), drift.get(0).getRecomputed().getTotal());
+    }
+}
@@ -0,0 +1,158 @@
+package org.openreceivable.repository.aggregate;
+
+import org.junit.jupiter.api.Test;
+import org.openreceivable.enums.PaymentMethod;
+import org.openreceivable.id.TimeOrderedIdGenerator;
+import org.openreceivable.model.Payment;
+import org.openreceivable.repository.impl.InMemoryPaymentRepository;
+
+import java.math.BigDecimal;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests that PaymentReferenceIndex posts each key once within its
+ * retention window
+ */
+public class PaymentReferenceIndexTest {
+
+    // Behind the system clock, as with openreceivable.clock.fixed, so the
+    // retention window only holds if payments are stamped from this clock
+    private final MovableClock clock = new MovableClock(Instant.now().minus(Duration.ofDays(100)));
+    private final InMemoryPaymentRepository repository =
+            new InMemoryPaymentRepository(false, new TimeOrderedIdGenerator(0), clock);
+    private final AtomicInteger saves = new AtomicInteger();
+
+    private Payment payment(String customerId, PaymentMethod method, String referenceNumber) {
+        Payment payment = new Payment();
+        payment.setCustomerId(customerId);
+        payment.setPaymentMethod(method);
+        payment.setReferenceNumber(referenceNumber);
+        payment.setAmount(new BigDecimal("10.00"));
+        return payment;
+    }
+
+    private Payment save(Payment payment) {
+        saves.incrementAndGet();
+        return repository.save(payment);
+    }
+
+    @Test
+    public void testReplayReturnsTheOriginal() {
+        Payment recovered = repository.save(payment("c1", PaymentMethod.ACH, "R0"));
+        PaymentReferenceIndex index = new PaymentReferenceIndex(repository, clock);
+
+        Payment original = index.postOnce(payment("c1", PaymentMethod.ACH, "R1"), this::save);
+        Payment replay = index.postOnce(payment("c1", PaymentMethod.ACH, "R1"), this::save);
+        assertEquals(original.getPaymentId(), replay.getPaymentId());
+        assertEquals(1, saves.get());
+
+        // Payments saved before the index existed are keys too
+        assertEquals(recovered.getPaymentId(),
+                index.postOnce(payment("c1", PaymentMethod.ACH, "R0"), this::save).getPaymentId());
+        assertNull(index.tryClaim(payment("c1", PaymentMethod.ACH, "R1")));
+
+        // Another customer, method or no reference at all is a different payment
+        index.postOnce(payment("c2", PaymentMethod.ACH, "R1"), this::save);
+        index.postOnce(payment("c1", PaymentMethod.CHECK, "R1"), this::save);
+        index.postOnce(payment("c1", PaymentMethod.ACH, null), this::save);
+        index.postOnce(payment("c1", PaymentMethod.ACH, null), this::save);
+        assertEquals(5, saves.get());
+
+        // A failed post frees its key
+        assertThrows(IllegalStateException.class, () -> index.postOnce(payment("c3", PaymentMethod.ACH, "R1"),
+                payment -> { throw new IllegalStateException("down"); }));
+        index.postOnce(payment("c3", PaymentMethod.ACH, "R1"), this::save);
+        assertEquals(6, saves.get());
+
+        // A claim released after its payment was saved leaves the payment indexed
+        PaymentReferenceIndex.Claim claim = index.tryClaim(payment("c4", PaymentMethod.ACH, "R1"));
+        save(payment("c4", PaymentMethod.ACH, "R1"));
+        claim.release();
+        assertNull(index.tryClaim(payment("c4", PaymentMethod.ACH, "R1")));
+    }
+
+    @Test
+    public void testConcurrentPostsOfOneKeyPostOnce() throws Exception {
+        PaymentReferenceIndex index = new PaymentReferenceIndex(repository, clock);
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Payment>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                return index.postOnce(payment("c1", PaymentMethod.CREDIT_CARD, "W1"), payment -> {
+                    Thread.yield();
+                    return save(payment);
+                });
+            }));
+        }
+        start.countDown();
+        String paymentId = futures.get(0).get().getPaymentId();
+        for (Future<Payment> future : futures) {
+            assertEquals(paymentId, future.get().getPaymentId());
+        }
+        executor.shutdown();
+        assertEquals(1, saves.get());
+        assertEquals(1, repository.findAll().size());
+    }
+
+    @Test
+    public void testKeysExpireAfterRetention() {
+        PaymentReferenceIndex index = new PaymentReferenceIndex(repository, clock, 35, 0);
+        index.postOnce(payment("c1", PaymentMethod.ACH, "R1"), this::save);
+        index.postOnce(payment("c1", PaymentMethod.ACH, "R2"), this::save);
+        assertEquals(2, index.size());
+
+        clock.advance(Duration.ofDays(34));
+        assertEquals(0, index.sweep());
+        index.postOnce(payment("c1", PaymentMethod.ACH, "R1"), this::save);
+        assertEquals(2, saves.get());
+
+        clock.advance(Duration.ofDays(2));
+        assertEquals(2, index.sweep());
+        assertEquals(0, index.size());
+        index.postOnce(payment("c1", PaymentMethod.ACH, "R1"), this::save);
+        assertEquals(3, saves.get());
+    }
+
+    private static final class MovableClock extends Clock {
+        private volatile Instant now;
+
+        private MovableClock(Instant now) {
+            this.now = now;
+        }
+
+        private void advance(Duration duration) {
+            now = now.plus(duration);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package org.openreceivable.repository.columnar;
+
+import org.junit.jupiter.api.Test;
+import org.openreceivable.enums.AgingCategory;
+import org.openreceivable.enums.ReceivableStatus;
+import org.openreceivable.model.AgingBucket;
+import org.openreceivable.model.Receivable;
+import org.openreceivable.model.ReceivableFixtures;
+import org.openreceivable.repository.impl.InMemoryReceivableRepository;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests that ReceivableColumns follows the repository and aggregates like
+ * the object scan it replaces
+ */
+public class ReceivableColumnsTest {
+
+    private final InMemoryReceivableRepository repository = new InMemoryReceivableRepository();
+
+    private Receivable receivable(String customerId, String amount, LocalDateTime dueDate) {
+        return repository.save(ReceivableFixtures.pending(customerId, dueDate, amount));
+    }
+
+    @Test
+    public void testCustomerOutstandingFollowsSavesAndDeletes() {
+        LocalDateTime due = LocalDateTime.of(2024, 1, 1, 0, 0);
+        Receivable before = receivable("c1", "100.00", due);
+        ReceivableColumns columns = new ReceivableColumns(repository);
+        Receivable moved = receivable("c1", "50.25", due);
+        Receivable deleted = receivable("c1", "10", due);
+        receivable("c2", "7.5", due);
+
+        assertEquals(new BigDecimal("160.25"), columns.getCustomerOutstanding("c1"));
+
+        moved.setCustomerId("c2");
+        repository.save(moved);
+        before.setOutstandingAmount(new BigDecimal("40.00"));
+        repository.save(before);
+        repository.delete(deleted.getReceivableId());
+        // The freed slot is reused
+        receivable("c3", "1.00", due);
+
+        assertEquals(new BigDecimal("40.00"), columns.getCustomerOutstanding("c1"));
+        assertEquals(new BigDecimal("57.75"), columns.getCustomerOutstanding("c2"));
+        assertEquals(new BigDecimal("1.00"), columns.getCustomerOutstanding("c3"));
+        assertEquals(BigDecimal.ZERO.setScale(2), columns.getCustomerOutstanding("unknown"));
+        assertEquals(4, columns.size());
+    }
+
+    @Test
+    public void testAgingTotalsMatchObjectScan() {
+        ReceivableColumns columns = new ReceivableColumns(repository);
+        LocalDateTime asOf = LocalDateTime.of(2024, 6, 1, 12, 0);
+        for (int i = 0; i < 400; i++) {
+            Receivable r = receivable("c" + (i % 7), (i + 1) + ".01", asOf.minusDays(i).plusHours(i % 24 - 12));
+            if (i % 5 == 0) {
+                r.setStatus(ReceivableStatus.PAID);
+                repository.save(r);
+            }
+        }
+
+        ReceivableColumns.AgingTotals totals = columns.getAgingTotals(asOf);
+        for (AgingCategory category : AgingCategory.values()) {
+            BigDecimal expected = BigDecimal.ZERO.setScale(2);
+            long count = 0;
+            for (Receivable r : repository.findAll()) {
+                if (r.getStatus() == ReceivableStatus.PAID) {
+                    continue;
+                }
+                int days = asOf.isBefore(r.getDueDate()) ? 0
+                        : (int) ChronoUnit.DAYS.between(r.getDueDate(), asOf);
+                if (AgingBucket.determineCategory(days) == category) {
+                    expected = expected.add(r.getOutstandingAmount());
+                    count++;
+                }
+            }
+            assertEquals(expected, totals.getOutstanding(category), category.name());
+            assertEquals(count, totals.getCount(category), category.name());
+        }
+    }
+
+    @Test
+    public void testScansRunWhileNewCustomersAreSaved() throws Exception {
+        ReceivableColumns columns = new ReceivableColumns(repository);
+        LocalDateTime asOf = LocalDateTime.of(2024, 6, 1, 12, 0);
+        int saves = 40_000;
+        ExecutorService writer = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> writes = writer.submit(() -> {
+                for (int i = 0; i < saves; i++) {
+                    receivable("c" + i, "1.00", asOf);
+                }
+            });
+            long seen = 0;
+            while (!writes.isDone()) {
+                // Every customer is new, so each range may meet keys not classified yet
+                ReceivableColumns.AgingTotals totals = columns.getAgingTotals(asOf,
+                        ReceivableColumns.Dimension.CUSTOMER, customerId -> 0, 1)[0];
+                long count = totals.getCount(AgingCategory.CURRENT);
+                assertTrue(count >= seen, "Saved receivables do not disappear from later scans");
+                assertEquals(count * 100, totals.getOutstandingMinorUnits(AgingCategory.CURRENT));
+                seen = count;
+            }
+            writes.get();
+        } finally {
+            writer.shutdown();
+        }
+
+        ReceivableColumns.AgingTotals totals = columns.getAgingTotals(asOf);
+        assertEquals(saves, totals.getCount(AgingCategory.CURRENT));
+        assertEquals(saves, columns.size());
+    }
+}
@@ -0,0 +1,214 @@
+package org.openreceivable.repository.persistence;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.openreceivable.enums.ContractType;
+import org.openreceivable.enums.ReceivableStatus;
+import org.openreceivable.model.Address;
+import org.openreceivable.model.Contract;
+import org.openreceivable.model.Customer;
+import org.openreceivable.model.Receivable;
+import org.openreceivable.model.ReceivableFixtures;
+import org.openreceivable.repository.impl.InMemoryCustomerRepository;
+import org.openreceivable.repository.impl.InMemoryReceivableRepository;
+import org.openreceivable.repository.store.WriteGroup;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests recovery of the in-memory repositories from snapshot plus log
+ */
+public class RepositoryPersistenceTest {
+
+    @TempDir
+    Path directory;
+
+    private InMemoryCustomerRepository customers;
+    private InMemoryReceivableRepository receivables;
+
+    private RepositoryPersistence open() throws IOException {
+        customers = new InMemoryCustomerRepository();
+        receivables = new InMemoryReceivableRepository();
+        RepositoryPersistence persistence = new RepositoryPersistence(
+                List.of(customers, receivables), directory.toString(), 1, 0, true);
+        persistence.start();
+        return persistence;
+    }
+
+    private Receivable receivable(String customerId, int amount) {
+        return ReceivableFixtures.pending(customerId, LocalDateTime.of(2024, 1, 1, 0, 0), String.valueOf(amount));
+    }
+
+    @Test
+    public void testRecoversFromSnapshotAndLogTail() throws IOException {
+        RepositoryPersistence persistence = open();
+        Customer customer = new Customer();
+        customer.setEmail("a@example.com");
+        customers.save(customer);
+        Receivable kept = receivables.save(receivable(customer.getCustomerId(), 100));
+        Receivable deleted = receivables.save(receivable(customer.getCustomerId(), 200));
+
+        persistence.snapshot();
+
+        // Written after the snapshot, so only the log has them
+        kept.setStatus(ReceivableStatus.PAID);
+        kept.setOutstandingAmount(BigDecimal.ZERO);
+        receivables.save(kept);
+        receivables.delete(deleted.getReceivableId());
+        Receivable added = receivables.save(receivable(customer.getCustomerId(), 300));
+
+        // Simulate a crash: no shutdown snapshot, open a fresh set of repositories
+        open();
+
+        assertEquals("a@example.com", customers.findByEmail("a@example.com").orElseThrow().getEmail());
+        Receivable recovered = receivables.findById(kept.getReceivableId()).orElseThrow();
+        assertEquals(ReceivableStatus.PAID, recovered.getStatus());
+        assertEquals(0, BigDecimal.ZERO.compareTo(recovered.getOutstandingAmount()));
+        assertFalse(receivables.exists(deleted.getReceivableId()));
+        assertTrue(receivables.exists(added.getReceivableId()));
+        assertEquals(2, receivables.findByCustomerId(customer.getCustomerId()).size());
+        assertEquals(List.of(added.getReceivableId()),
+                receivables.findByStatus(ReceivableStatus.PENDING).stream()
+                        .map(Receivable::getReceivableId).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testTornLogTailIsTruncated() throws IOException {
+        open();
+        Receivable first = receivables.save(receivable("c1", 100));
+        receivables.save(receivable("c1", 200));
+
+        Path segment;
+        try (Stream<Path> files = Files.list(directory)) {
+            segment = files.filter(p -> p.getFileName().toString().startsWith("wal-"))
+                    .reduce((a, b) -> b).orElseThrow();
+        }
+        // A partially written record: a header claiming more bytes than exist
+        Files.write(segment, new byte[] {0, 0, 1, 0, 1, 2, 3}, StandardOpenOption.APPEND);
+        long sizeWithGarbage = Files.size(segment);
+
+        RepositoryPersistence reopened = open();
+        assertEquals(2, receivables.findByCustomerId("c1").size());
+        assertTrue(Files.size(segment) < sizeWithGarbage);
+
+        // The log stays usable after truncation
+        receivables.delete(first.getReceivableId());
+        reopened.stop();
+        open();
+        assertEquals(1, receivables.findByCustomerId("c1").size());
+    }
+
+    @Test
+    public void testBatchedWritesAreRecovered() throws IOException {
+        open();
+        receivables.saveAll(List.of(receivable("c1", 100), receivable("c1", 200), receivable("c2", 300)));
+
+        open();
+        assertEquals(2, receivables.findByCustomerId("c1").size());
+        assertEquals(1, receivables.findByCustomerId("c2").size());
+    }
+
+    @Test
+    public void testWriteGroupIsRecoveredWhole() throws IOException {
+        open();
+        writeGroup();
+
+        open();
+        assertEquals(2, receivables.findByCustomerId("c1").size());
+        assertTrue(customers.findByEmail("a@example.com").isPresent());
+    }
+
+    @Test
+    public void testTornWriteGroupIsNotRecoveredAtAll() throws IOException {
+        open();
+        receivables.save(receivable("c0", 50));
+        writeGroup();
+
+        // Crash while the group's record was being flushed
+        Path segment = lastSegment();
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 1);
+        }
+
+        open();
+        assertEquals(1, receivables.findByCustomerId("c0").size());
+        assertTrue(receivables.findByCustomerId("c1").isEmpty());
+        assertFalse(customers.findByEmail("a@example.com").isPresent());
+    }
+
+    @Test
+    public void testAbortedWriteGroupIsNotLogged() throws IOException {
+        open();
+        receivables.save(receivable("c0", 50));
+        WriteGroup group = WriteGroup.begin();
+        receivables.save(receivable("c1", 100));
+        group.abort(new IllegalStateException("could not undo"));
+
+        // The stores hold writes the log does not, so it takes no more
+        assertThrows(UncheckedIOException.class, () -> receivables.save(receivable("c2", 200)));
+
+        open();
+        assertEquals(1, receivables.findByCustomerId("c0").size());
+        assertTrue(receivables.findByCustomerId("c1").isEmpty());
+    }
+
+    private void writeGroup() {
+        WriteGroup group = WriteGroup.begin();
+        Customer customer = new Customer();
+        customer.setEmail("a@example.com");
+        customers.save(customer);
+        receivables.saveAll(List.of(receivable("c1", 100), receivable("c1", 200)));
+        group.commit();
+    }
+
+    private Path lastSegment() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(p -> p.getFileName().toString().startsWith("wal-"))
+                    .reduce((a, b) -> b).orElseThrow();
+        }
+    }
+
+    @Test
+    public void testBinaryCodecRoundTrip() {
+        Contract contract = new Contract();
+        contract.setContractType(ContractType.LEASE);
+        contract.setPrincipalAmount(new BigDecimal("25000.00"));
+        contract.setInterestRate(new BigDecimal("0.0599"));
+        contract.setResidualValue(new BigDecimal("123456789012345678901234567890.12"));
+        contract.setTerm(36);
+        contract.setStartDate(LocalDateTime.of(2024, 3, 1, 9, 30, 15, 500));
+        EntityCodec<Contract> contracts = BinaryEntityCodecs.forType(Contract.class);
+        Contract decoded = contracts.decode(ByteBuffer.wrap(contracts.encode(contract)));
+        assertEquals(contract.getContractId(), decoded.getContractId());
+        assertEquals(ContractType.LEASE, decoded.getContractType());
+        assertEquals(contract.getPrincipalAmount(), decoded.getPrincipalAmount());
+        assertEquals(contract.getInterestRate(), decoded.getInterestRate());
+        assertEquals(contract.getResidualValue(), decoded.getResidualValue());
+        assertEquals(36, decoded.getTerm());
+        assertEquals(contract.getStartDate(), decoded.getStartDate());
+        assertNull(decoded.getMileageLimit());
+        assertNull(decoded.getSecurityDeposit());
+
+        Customer customer = new Customer();
+        Address address = new Address();
+        address.setCity("Detroit");
+        customer.setAddress(address);
+        EntityCodec<Customer> customersCodec = BinaryEntityCodecs.forType(Customer.class);
+        Customer decodedCustomer = customersCodec.decode(ByteBuffer.wrap(customersCodec.encode(customer)));
+        assertEquals("Detroit", decodedCustomer.getAddress().getCity());
+        assertNull(decodedCustomer.getAddress().getStreet1());
+    }
+}
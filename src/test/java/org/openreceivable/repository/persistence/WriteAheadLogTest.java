@@ -0,0 +1,160 @@
+package org.openreceivable.repository.persistence;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.openreceivable.model.Receivable;
+import org.openreceivable.model.ReceivableFixtures;
+import org.openreceivable.repository.impl.InMemoryReceivableRepository;
+import org.openreceivable.repository.store.IndexedStore;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests how the write-ahead log and the stores logging to it behave once a
+ * flush fails
+ */
+public class WriteAheadLogTest {
+
+    @TempDir
+    Path directory;
+
+    private WriteAheadLog failingLog() throws IOException {
+        return new WriteAheadLog(directory, 1 << 20, true, 0, path -> new FailingChannel());
+    }
+
+    @Test
+    public void testAppendIsRefusedAfterFlushFailure() throws IOException {
+        WriteAheadLog wal = failingLog();
+        long lsn = wal.append(WriteAheadLog.OP_DELETE, "receivables", "r1", null);
+
+        UncheckedIOException flush = assertThrows(UncheckedIOException.class, () -> wal.awaitDurable(lsn));
+        assertEquals("disk full", flush.getCause().getMessage());
+        assertThrows(UncheckedIOException.class,
+                () -> wal.append(WriteAheadLog.OP_DELETE, "receivables", "r2", null));
+        assertEquals(lsn, wal.lastAssignedLsn());
+        assertThrows(IOException.class, wal::close);
+    }
+
+    @Test
+    public void testStoreRejectsWritesAfterFlushFailure() throws IOException {
+        WriteAheadLog wal = failingLog();
+        InMemoryReceivableRepository receivables = new InMemoryReceivableRepository();
+        IndexedStore<Receivable> store = receivables.getStore();
+        store.attachLogView(new WalView<>(store.getName(), BinaryEntityCodecs.forType(Receivable.class), wal,
+                new ReentrantReadWriteLock().readLock(), true));
+
+        // Visible in memory, but its flush failed
+        assertThrows(UncheckedIOException.class, () -> receivables.save(receivable()));
+
+        Receivable rejected = receivable();
+        assertThrows(UncheckedIOException.class, () -> receivables.save(rejected));
+        assertFalse(receivables.exists(rejected.getReceivableId()));
+        assertEquals(1, receivables.findByCustomerId("c1").size());
+    }
+
+    private static Receivable receivable() {
+        return ReceivableFixtures.pending("c1", LocalDateTime.of(2024, 1, 1, 0, 0), "100");
+    }
+
+    /**
+     * A segment on a device that has run out of space
+     */
+    private static final class FailingChannel extends FileChannel {
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            throw new IOException("disk full");
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+            throw new IOException("disk full");
+        }
+
+        @Override
+        public int write(ByteBuffer src, long position) throws IOException {
+            throw new IOException("disk full");
+        }
+
+        @Override
+        public void force(boolean metaData) throws IOException {
+            throw new IOException("disk full");
+        }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            return -1;
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts, int offset, int length) {
+            return -1;
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) {
+            return -1;
+        }
+
+        @Override
+        public long position() {
+            return 0;
+        }
+
+        @Override
+        public FileChannel position(long newPosition) {
+            return this;
+        }
+
+        @Override
+        public long size() {
+            return 0;
+        }
+
+        @Override
+        public FileChannel truncate(long size) {
+            return this;
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) {
+            return 0;
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel src, long position, long count) {
+            return 0;
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected void implCloseChannel() {
+        }
+    }
+}
@@ -0,0 +1,362 @@
+package org.openreceivable.repository.store;
+
+import org.junit.jupiter.api.Test;
+import org.openreceivable.enums.ReceivableStatus;
+import org.openreceivable.model.Customer;
+import org.openreceivable.model.Receivable;
+import org.openreceivable.model.ReceivableFixtures;
+import org.openreceivable.repository.impl.InMemoryReceivableRepository;
+import org.openreceivable.repository.persistence.BinaryEntityCodecs;
+import org.openreceivable.repository.persistence.EntityCodec;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for IndexedStore and its index views
+ */
+public class IndexedStoreTest {
+
+    private static final LocalDateTime BASE = LocalDateTime.of(2024, 1, 1, 0, 0);
+
+    private Receivable receivable(String id, String customerId, int dueDay, ReceivableStatus status) {
+        Receivable receivable = ReceivableFixtures.pending(customerId, BASE.plusDays(dueDay), "0.00");
+        receivable.setReceivableId(id);
+        receivable.setStatus(status);
+        return receivable;
+    }
+
+    private static List<String> ids(List<Receivable> receivables) {
+        return receivables.stream().map(Receivable::getReceivableId).sorted().collect(Collectors.toList());
+    }
+
+    @Test
+    public void testHashIndexFollowsInPlaceMutation() {
+        IndexedStore<Receivable> store =
+                new IndexedStore<>("receivables", Receivable.class, Receivable::getReceivableId, Receivable::setReceivableId);
+        HashIndex<Receivable, String> byCustomer = store.hashIndex("customerId", Receivable::getCustomerId);
+        HashIndex<Receivable, ReceivableStatus> byStatus = store.hashIndex("status", Receivable::getStatus);
+
+        Receivable r = store.put(receivable("r1", "c1", 0, ReceivableStatus.PENDING));
+        store.put(receivable("r2", "c1", 0, ReceivableStatus.PENDING));
+
+        r.setCustomerId("c2");
+        r.setStatus(ReceivableStatus.PAID);
+        store.put(r);
+
+        assertEquals(List.of("r2"), ids(byCustomer.find("c1")));
+        assertEquals(List.of("r1"), ids(byCustomer.find("c2")));
+        assertEquals(List.of("r1"), ids(byStatus.find(ReceivableStatus.PAID)));
+        assertEquals(1, byStatus.count(ReceivableStatus.PENDING));
+
+        store.remove("r1");
+        assertTrue(byCustomer.find("c2").isEmpty());
+        assertEquals(0, byStatus.count(ReceivableStatus.PAID));
+    }
+
+    @Test
+    public void testOrderedIndexRangesAndPartialCoverage() {
+        IndexedStore<Receivable> store =
+                new IndexedStore<>("receivables", Receivable.class, Receivable::getReceivableId, Receivable::setReceivableId);
+        OrderedIndex<Receivable, LocalDateTime> openByDueDate = store.orderedIndex("openDueDate",
+                r -> r.getStatus() != ReceivableStatus.PAID ? r.getDueDate() : null);
+
+        for (int day = 0; day < 10; day++) {
+            store.put(receivable("r" + day, "c1", day, ReceivableStatus.PENDING));
+        }
+        store.put(receivable("r3b", "c1", 3, ReceivableStatus.PENDING));
+
+        List<String> inclusive = openByDueDate.range(BASE.plusDays(3), true, BASE.plusDays(5), true)
+                .map(Receivable::getReceivableId).collect(Collectors.toList());
+        assertEquals(List.of("r3", "r3b", "r4", "r5"), inclusive);
+
+        List<String> exclusive = openByDueDate.range(BASE.plusDays(3), false, BASE.plusDays(5), false)
+                .map(Receivable::getReceivableId).collect(Collectors.toList());
+        assertEquals(List.of("r4"), exclusive);
+
+        assertEquals(0, openByDueDate.range(BASE.plusDays(5), true, BASE.plusDays(3), true).count());
+        assertEquals(2, openByDueDate.equalTo(BASE.plusDays(3)).count());
+
+        Receivable paid = store.get("r4").orElseThrow();
+        paid.setStatus(ReceivableStatus.PAID);
+        store.put(paid);
+        assertEquals(10, openByDueDate.size());
+        assertEquals(List.of("r5"), openByDueDate.range(BASE.plusDays(4), true, BASE.plusDays(5), true)
+                .map(Receivable::getReceivableId).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testUniqueIndexRejectsDuplicateAndRollsBack() {
+        IndexedStore<Customer> store =
+                new IndexedStore<>("customers", Customer.class, Customer::getCustomerId, Customer::setCustomerId);
+        UniqueIndex<Customer, String> byEmail = store.uniqueIndex("email", Customer::getEmail);
+        UniqueIndex<Customer, String> byTaxId = store.uniqueIndex("taxId", Customer::getTaxId);
+
+        Customer first = new Customer();
+        first.setEmail("a@example.com");
+        first.setTaxId("111");
+        store.put(first);
+
+        Customer second = new Customer();
+        second.setEmail("b@example.com");
+        second.setTaxId("111");
+        assertThrows(DuplicateKeyException.class, () -> store.put(second));
+
+        // The email claimed before the tax ID conflict must have been released
+        assertTrue(byEmail.find("b@example.com").isEmpty());
+        assertEquals(first, byTaxId.find("111").orElseThrow());
+        assertFalse(store.contains(second.getCustomerId()));
+
+        first.setEmail("c@example.com");
+        store.put(first);
+        assertTrue(byEmail.find("a@example.com").isEmpty());
+        assertEquals(first, byEmail.find("c@example.com").orElseThrow());
+    }
+
+    @Test
+    public void testFailedLogWriteRollsBackEveryView() {
+        IndexedStore<Receivable> store =
+                new IndexedStore<>("receivables", Receivable.class, Receivable::getReceivableId, Receivable::setReceivableId);
+        AtomicBoolean diskFull = new AtomicBoolean();
+        List<String> logged = new ArrayList<>();
+        // Attached first, but applied after the indexes registered later
+        store.attachLogView(new StoreView<Receivable, Receivable>() {
+            @Override
+            public Receivable capture(Receivable entity) {
+                return entity;
+            }
+
+            @Override
+            public void apply(String id, Receivable before, Receivable after) {
+                if (diskFull.get()) {
+                    throw new IllegalStateException("No space left on device");
+                }
+                logged.add(id);
+            }
+        });
+        HashIndex<Receivable, String> byCustomer = store.hashIndex("customerId", Receivable::getCustomerId);
+        OrderedIndex<Receivable, LocalDateTime> byDueDate = store.orderedIndex("dueDate", Receivable::getDueDate);
+
+        Receivable r = store.put(receivable("r1", "c1", 0, ReceivableStatus.PENDING));
+        diskFull.set(true);
+        r.setCustomerId("c2");
+        r.setDueDate(BASE.plusDays(5));
+        assertThrows(IllegalStateException.class, () -> store.put(r));
+
+        assertEquals(List.of("r1"), ids(byCustomer.find("c1")));
+        assertTrue(byCustomer.find("c2").isEmpty());
+        assertEquals(List.of("r1"), byDueDate.range(BASE, true, BASE, true).map(Receivable::getReceivableId)
+                .collect(Collectors.toList()));
+        assertEquals(1L, store.versionOf("r1"));
+        assertEquals(List.of("r1"), logged);
+
+        diskFull.set(false);
+        store.put(r);
+        assertEquals(List.of("r1"), ids(byCustomer.find("c2")));
+        assertEquals(List.of("r1", "r1"), logged);
+    }
+
+    @Test
+    public void testViewRegisteredLateSeesExistingEntities() {
+        IndexedStore<Receivable> store =
+                new IndexedStore<>("receivables", Receivable.class, Receivable::getReceivableId, Receivable::setReceivableId);
+        store.put(receivable("r1", "c1", 0, ReceivableStatus.PENDING));
+
+        HashIndex<Receivable, String> byCustomer = store.hashIndex("customerId", Receivable::getCustomerId);
+        assertEquals(List.of("r1"), ids(byCustomer.find("c1")));
+    }
+
+    @Test
+    public void testConcurrentWritersKeepIndexesConsistent() throws Exception {
+        IndexedStore<Receivable> store =
+                new IndexedStore<>("receivables", Receivable.class, Receivable::getReceivableId, Receivable::setReceivableId);
+        HashIndex<Receivable, String> byCustomer = store.hashIndex("customerId", Receivable::getCustomerId);
+
+        int threads = 8;
+        int perThread = 2_000;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            pool.submit(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    // Every thread moves a shared set of receivables between customers
+                    String id = "r" + (i % 500);
+                    Receivable r = receivable(id, "c" + ((i + thread) % 7), 0, ReceivableStatus.PENDING);
+                    store.put(r);
+                }
+            });
+        }
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(30, TimeUnit.SECONDS));
+
+        int indexed = 0;
+        for (int c = 0; c < 7; c++) {
+            for (Receivable r : byCustomer.find("c" + c)) {
+                assertEquals("c" + c, r.getCustomerId());
+                indexed++;
+            }
+        }
+        assertEquals(store.size(), indexed);
+    }
+
+    @Test
+    public void testOffHeapStoreReturnsCopiesAndReusesBlocks() throws Exception {
+        IndexedStore<Receivable> store =
+                new IndexedStore<>("receivables", Receivable.class, Receivable::getReceivableId, Receivable::setReceivableId);
+        HashIndex<Receivable, String> byCustomer = store.hashIndex("customerId", Receivable::getCustomerId);
+        EntityCodec<Receivable> codec = BinaryEntityCodecs.forType(Receivable.class);
+        OffHeapRecordStorage storage = new OffHeapRecordStorage(1 << 16);
+        store.storeOffHeap(storage, codec::encode, codec::decode);
+
+        for (int i = 0; i < 100; i++) {
+            store.put(receivable("r" + i, "c" + (i % 3), i, ReceivableStatus.PENDING));
+        }
+        long used = storage.getUsedBytes();
+
+        Receivable r = store.get("r1").orElseThrow();
+        r.setOutstandingAmount(BigDecimal.TEN);
+        assertEquals(0, store.get("r1").orElseThrow().getOutstandingMinorUnits());
+        store.put(r);
+        assertEquals(new BigDecimal("10.00"), store.get("r1").orElseThrow().getOutstandingAmount());
+        assertEquals(used, storage.getUsedBytes());
+        assertEquals(33, byCustomer.find("c1").size());
+
+        // Readers racing with writers that keep replacing the same records
+        AtomicBoolean running = new AtomicBoolean(true);
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        for (int t = 0; t < 2; t++) {
+            int thread = t;
+            pool.submit(() -> {
+                for (int i = 0; running.get(); i++) {
+                    store.put(receivable("r" + (i % 100), "c" + (i % 3), thread, ReceivableStatus.PENDING));
+                }
+            });
+        }
+        List<Future<?>> readers = new ArrayList<>();
+        for (int t = 0; t < 2; t++) {
+            readers.add(pool.submit(() -> {
+                for (int i = 0; i < 20_000; i++) {
+                    Receivable read = store.get("r" + (i % 100)).orElseThrow();
+                    assertEquals("r" + (i % 100), read.getReceivableId());
+                }
+            }));
+        }
+        for (Future<?> reader : readers) {
+            reader.get(30, TimeUnit.SECONDS);
+        }
+        running.set(false);
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(30, TimeUnit.SECONDS));
+
+        assertEquals(100, store.stream().count());
+        assertEquals(used, storage.getUsedBytes());
+        store.remove("r1");
+        assertTrue(storage.getUsedBytes() < used);
+    }
+
+    @Test
+    public void testConditionalPutsCompareAndSetVersions() throws Exception {
+        IndexedStore<Receivable> store =
+                new IndexedStore<>("receivables", Receivable.class, Receivable::getReceivableId, Receivable::setReceivableId);
+        EntityCodec<Receivable> codec = BinaryEntityCodecs.forType(Receivable.class);
+        store.copyOnRead(codec::encode, codec::decode);
+
+        Receivable stored = store.putIfVersion(receivable("r1", "c1", 0, ReceivableStatus.PENDING), null);
+        assertEquals(1L, stored.getVersion());
+        assertThrows(OptimisticLockException.class,
+                () -> store.putIfVersion(receivable("r1", "c2", 0, ReceivableStatus.PENDING), null));
+
+        // Each reader gets its own copy; the first conditional put wins
+        Receivable first = store.get("r1").orElseThrow();
+        Receivable second = store.get("r1").orElseThrow();
+        first.setStatus(ReceivableStatus.PARTIAL);
+        assertEquals(ReceivableStatus.PENDING, second.getStatus());
+        store.putIfVersion(first, first.getVersion());
+        assertEquals(2L, first.getVersion());
+        second.setStatus(ReceivableStatus.PAID);
+        OptimisticLockException conflict = assertThrows(OptimisticLockException.class,
+                () -> store.putIfVersion(second, second.getVersion()));
+        assertEquals(2L, conflict.getActualVersion());
+        assertEquals(1L, second.getVersion());
+        assertEquals(ReceivableStatus.PARTIAL, store.get("r1").orElseThrow().getStatus());
+
+        // Batches skip and return the stale entities
+        store.put(receivable("r2", "c1", 0, ReceivableStatus.PENDING));
+        Receivable stale = store.get("r2").orElseThrow();
+        store.put(store.get("r2").orElseThrow());
+        assertEquals(List.of(stale), store.putAllIfCurrent(List.of(store.get("r1").orElseThrow(), stale)));
+        assertEquals(3L, store.versionOf("r1"));
+        assertEquals(2L, store.versionOf("r2"));
+
+        // Recovery keeps the saved version
+        IndexedStore<Receivable> recovered =
+                new IndexedStore<>("receivables", Receivable.class, Receivable::getReceivableId, Receivable::setReceivableId);
+        recovered.restore(codec.decode(ByteBuffer.wrap(codec.encode(store.get("r1").orElseThrow()))));
+        assertEquals(3L, recovered.versionOf("r1"));
+
+        // Concurrent read-modify-write loops lose no increments
+        store.put(receivable("counter", "c1", 0, ReceivableStatus.PENDING));
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        List<Future<?>> writers = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            writers.add(pool.submit(() -> {
+                for (int i = 0; i < 500; i++) {
+                    while (true) {
+                        Receivable counter = store.get("counter").orElseThrow();
+                        counter.setPaidAmount(counter.getPaidAmount().add(BigDecimal.ONE));
+                        try {
+                            store.putIfVersion(counter, counter.getVersion());
+                            break;
+                        } catch (OptimisticLockException e) {
+                            // Read again and retry
+                        }
+                    }
+                }
+            }));
+        }
+        for (Future<?> writer : writers) {
+            writer.get(30, TimeUnit.SECONDS);
+        }
+        pool.shutdown();
+        assertEquals(new BigDecimal("4000.00"), store.get("counter").orElseThrow().getPaidAmount());
+        assertEquals(4001L, store.versionOf("counter"));
+    }
+
+    @Test
+    public void testReceivableFindersReturnCopies() {
+        InMemoryReceivableRepository repository = new InMemoryReceivableRepository();
+        Receivable saved = repository.save(receivable(null, "c1", 0, ReceivableStatus.PENDING));
+        saved.setInvoiceNumber("INV-1");
+        repository.save(saved);
+        String id = saved.getReceivableId();
+
+        List<List<Receivable>> found = List.of(
+                repository.findAllById(List.of(id)),
+                repository.findByCustomerId("c1"),
+                repository.findByCustomerIds(List.of("c1")),
+                repository.findByInvoiceNumber("INV-1"),
+                repository.findByStatus(ReceivableStatus.PENDING),
+                repository.findOverdue(BASE.plusDays(1)),
+                repository.findByDueDateBetween(BASE, BASE),
+                repository.streamOpenByDueDate(null, null).collect(Collectors.toList()),
+                repository.findAll());
+        for (List<Receivable> receivables : found) {
+            Receivable receivable = receivables.get(0);
+            assertNotSame(saved, receivable);
+            receivable.setStatus(ReceivableStatus.PAID);
+        }
+        assertEquals(1, repository.findByStatus(ReceivableStatus.PENDING).size());
+        assertEquals(ReceivableStatus.PENDING, repository.findById(id).orElseThrow().getStatus());
+    }
+}
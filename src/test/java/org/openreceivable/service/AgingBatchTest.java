@@ -0,0 +1,91 @@
+package org.openreceivable.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.openreceivable.aging.AgingPolicies;
+import org.openreceivable.model.Receivable;
+import org.openreceivable.model.ReceivableFixtures;
+import org.openreceivable.repository.impl.InMemoryAgingBucketRepository;
+import org.openreceivable.repository.impl.InMemoryReceivableRepository;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the partitioned aging batch and its checkpoint/resume
+ */
+public class AgingBatchTest {
+
+    @TempDir
+    Path directory;
+
+    private final InMemoryReceivableRepository receivables = new InMemoryReceivableRepository();
+    private final InMemoryAgingBucketRepository buckets = new InMemoryAgingBucketRepository();
+
+    private Receivable receivable(String customerId, LocalDateTime dueDate) {
+        return receivables.save(ReceivableFixtures.pending(customerId, dueDate, "10.00"));
+    }
+
+    @Test
+    public void testAgesEveryPartition() {
+        LocalDateTime asOf = LocalDateTime.of(2024, 6, 1, 12, 0);
+        for (int i = 0; i < 100; i++) {
+            receivable("c" + (i % 17), asOf.minusDays(i));
+        }
+        AgingBatch batch = new AgingBatch(receivables, buckets, AgingPolicies.standard(), 8, 4, 7, "");
+
+        AgingBatch.Result result = batch.run(asOf);
+        assertEquals(100, result.getProcessed());
+        assertEquals(100, result.getTransitions());
+        assertEquals(100, buckets.findAll().size());
+        assertEquals(0, result.getPartitionsSkipped());
+        assertEquals(asOf.minusDays(45), receivables.findAll().stream()
+                .filter(r -> r.getAgingDays() == 45).findFirst().orElseThrow().getDueDate());
+
+        assertEquals(0, batch.run(asOf).getProcessed());
+    }
+
+    @Test
+    public void testResumesFromCheckpoint() throws IOException {
+        LocalDateTime interrupted = LocalDateTime.of(2024, 6, 1, 12, 0);
+        Receivable done = receivable("a", interrupted.minusDays(10));
+        Receivable pending = receivable("b", interrupted.minusDays(10));
+        Path checkpoint = directory.resolve("aging.checkpoint");
+        AgingBatch batch = new AgingBatch(receivables, buckets, AgingPolicies.standard(), 2, 2, 100, checkpoint.toString());
+        assertNotEquals(batch.partitionOf("a"), batch.partitionOf("b"));
+
+        // A run as of June 1 committed the partition holding customer "a" before it was killed
+        Files.writeString(checkpoint, "asOfDate=2024-06-01T12:00\npartitions=2\ncompleted=" + batch.partitionOf("a") + "\n");
+
+        AgingBatch.Result result = batch.run(interrupted);
+        assertEquals(interrupted, result.getAsOfDate());
+        assertEquals(1, result.getPartitionsSkipped());
+        assertEquals(1, result.getProcessed());
+        assertNull(receivables.findById(done.getReceivableId()).orElseThrow().getAgingDays());
+        assertEquals(10, receivables.findById(pending.getReceivableId()).orElseThrow().getAgingDays());
+        assertFalse(Files.exists(checkpoint));
+    }
+
+    @Test
+    public void testDiscardsCheckpointOfAnotherAsOfDate() throws IOException {
+        LocalDateTime interrupted = LocalDateTime.of(2024, 6, 1, 12, 0);
+        Receivable done = receivable("a", interrupted.minusDays(10));
+        Receivable pending = receivable("b", interrupted.minusDays(10));
+        Path checkpoint = directory.resolve("aging.checkpoint");
+        AgingBatch batch = new AgingBatch(receivables, buckets, AgingPolicies.standard(), 2, 2, 100, checkpoint.toString());
+        Files.writeString(checkpoint, "asOfDate=2024-06-01T12:00\npartitions=2\ncompleted=" + batch.partitionOf("a") + "\n");
+
+        LocalDateTime asOf = interrupted.plusDays(30);
+        AgingBatch.Result result = batch.run(asOf);
+        assertEquals(asOf, result.getAsOfDate());
+        assertEquals(0, result.getPartitionsSkipped());
+        assertEquals(2, result.getProcessed());
+        assertEquals(40, receivables.findById(done.getReceivableId()).orElseThrow().getAgingDays());
+        assertEquals(40, receivables.findById(pending.getReceivableId()).orElseThrow().getAgingDays());
+        assertFalse(Files.exists(checkpoint));
+    }
+}
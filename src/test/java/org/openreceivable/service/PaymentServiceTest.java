@@ -0,0 +1,319 @@
+package org.openreceivable.service;
+
+import org.junit.jupiter.api.Test;
+import org.openreceivable.allocation.AllocationWaterfall;
+import org.openreceivable.enums.PaymentMethod;
+import org.openreceivable.enums.PaymentStatus;
+import org.openreceivable.enums.ReceivableStatus;
+import org.openreceivable.enums.ReceivableType;
+import org.openreceivable.model.Money;
+import org.openreceivable.model.Payment;
+import org.openreceivable.model.PaymentAllocation;
+import org.openreceivable.model.Receivable;
+import org.openreceivable.model.ReceivableFixtures;
+import org.openreceivable.repository.aggregate.CustomerOpenReceivables;
+import org.openreceivable.repository.aggregate.PaymentReferenceIndex;
+import org.openreceivable.repository.impl.InMemoryPaymentAllocationRepository;
+import org.openreceivable.repository.impl.InMemoryPaymentRepository;
+import org.openreceivable.repository.impl.InMemoryReceivableRepository;
+
+import java.math.BigDecimal;
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests waterfall allocation of payments, with and without the open
+ * receivables view, under concurrent posting and when posting fails, and
+ * their reversal
+ */
+public class PaymentServiceTest {
+
+    private final InMemoryReceivableRepository receivables = new InMemoryReceivableRepository();
+    private final InMemoryPaymentRepository payments = new InMemoryPaymentRepository();
+    private final InMemoryPaymentAllocationRepository allocations = new InMemoryPaymentAllocationRepository();
+    private final LocalDateTime due = LocalDateTime.of(2024, 1, 1, 0, 0);
+
+    private Receivable receivable(ReceivableType type, LocalDateTime dueDate, String amount) {
+        return receivable("c1", type, dueDate, amount);
+    }
+
+    private Receivable receivable(String customerId, ReceivableType type, LocalDateTime dueDate, String amount) {
+        Receivable receivable = ReceivableFixtures.pending(customerId, dueDate, amount);
+        receivable.setReceivableType(type);
+        return receivables.save(receivable);
+    }
+
+    private Payment payment(String amount) {
+        return payment("c1", amount);
+    }
+
+    private Payment payment(String customerId, String amount) {
+        Payment payment = new Payment();
+        payment.setCustomerId(customerId);
+        payment.setAmount(new BigDecimal(amount));
+        return payment;
+    }
+
+    private Payment payment(String customerId, String amount, String referenceNumber) {
+        Payment payment = payment(customerId, amount);
+        payment.setPaymentMethod(PaymentMethod.ACH);
+        payment.setReferenceNumber(referenceNumber);
+        return payment;
+    }
+
+    @Test
+    public void testPaysOldestFirstAndFeesBeforePrincipal() {
+        Receivable later = receivable(ReceivableType.MONTHLY_PAYMENT, due.plusMonths(1), "300.00");
+        Receivable installment = receivable(ReceivableType.MONTHLY_PAYMENT, due, "300.00");
+        Receivable fee = receivable(ReceivableType.LATE_FEE, due, "25.00");
+        Receivable paid = receivable(ReceivableType.MONTHLY_PAYMENT, due.minusMonths(1), "300.00");
+        paid.setStatus(ReceivableStatus.PAID);
+        receivables.save(paid);
+
+        CustomerOpenReceivables open = new CustomerOpenReceivables(receivables);
+        PaymentService service = new PaymentService(payments, receivables, allocations,
+                AllocationWaterfall.standard(), Optional.of(open), new CustomerLocks(), Optional.empty());
+        assertEquals(3, open.count("c1"));
+
+        Payment payment = service.processPayment(payment("400.00"));
+        List<PaymentAllocation> applied = service.getPaymentAllocations(payment.getPaymentId());
+        assertEquals(List.of(fee.getReceivableId(), installment.getReceivableId(), later.getReceivableId()),
+                applied.stream().sorted((a, b) -> a.getAllocationId().compareTo(b.getAllocationId()))
+                        .map(PaymentAllocation::getReceivableId).collect(Collectors.toList()));
+        PaymentAllocation feeAllocation = allocationOf(applied, fee);
+        assertEquals(new BigDecimal("25.00"), feeAllocation.getFeeAmount());
+        assertEquals(new BigDecimal("0.00"), feeAllocation.getPrincipalAmount());
+        assertEquals(new BigDecimal("75.00"), allocationOf(applied, later).getPrincipalAmount());
+
+        assertEquals(ReceivableStatus.PAID, receivables.findById(installment.getReceivableId()).orElseThrow().getStatus());
+        Receivable partial = receivables.findById(later.getReceivableId()).orElseThrow();
+        assertEquals(ReceivableStatus.PARTIAL, partial.getStatus());
+        assertEquals(new BigDecimal("225.00"), partial.getOutstandingAmount());
+        assertEquals(1, open.count("c1"));
+
+        // The fallback scan allocates the same way
+        PaymentService scanning = new PaymentService(payments, receivables, allocations,
+                AllocationWaterfall.standard(), Optional.empty(), new CustomerLocks(), Optional.empty());
+        Payment rest = scanning.processPayment(payment("500.00"));
+        assertEquals(List.of(later.getReceivableId()), scanning.getPaymentAllocations(rest.getPaymentId()).stream()
+                .map(PaymentAllocation::getReceivableId).collect(Collectors.toList()));
+        assertEquals(0, open.count("c1"));
+    }
+
+    @Test
+    public void testConcurrentPaymentsLoseNoUpdates() throws Exception {
+        // Two hot customers share all the threads; a third customer proves they do not block others
+        List<String> customerIds = List.of("hot1", "hot2", "cold");
+        for (String customerId : customerIds) {
+            for (int i = 0; i < 20; i++) {
+                receivable(customerId, ReceivableType.values()[i % ReceivableType.values().length],
+                        due.plusDays(i % 5), "1000.00");
+            }
+        }
+        CustomerOpenReceivables open = new CustomerOpenReceivables(receivables);
+        PaymentService service = new PaymentService(payments, receivables, allocations,
+                AllocationWaterfall.standard(), Optional.of(open), new CustomerLocks(4), Optional.empty());
+
+        int threads = 16;
+        int paymentsPerThread = 300;
+        Map<String, LongAdder> posted = new ConcurrentHashMap<>();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            futures.add(executor.submit(() -> {
+                start.await();
+                Random random = new Random(thread);
+                for (int i = 0; i < paymentsPerThread; i++) {
+                    String customerId = customerIds.get(random.nextInt(10) == 0 ? 2 : random.nextInt(2));
+                    long cents = 1 + random.nextInt(500);
+                    service.processPayment(payment(customerId, BigDecimal.valueOf(cents, 2).toPlainString()));
+                    posted.computeIfAbsent(customerId, key -> new LongAdder()).add(cents);
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        for (String customerId : customerIds) {
+            long paid = 0;
+            long outstanding = 0;
+            for (Receivable receivable : receivables.findByCustomerId(customerId)) {
+                paid += Money.toMinorUnits(receivable.getPaidAmount());
+                outstanding += Money.toMinorUnits(receivable.getOutstandingAmount());
+            }
+            assertEquals(posted.get(customerId).sum(), paid, customerId);
+            assertEquals(20 * 100_000L, paid + outstanding, customerId);
+        }
+        long allocated = allocations.findAll().stream().mapToLong(a -> Money.toMinorUnits(a.getAmount())).sum();
+        assertEquals(posted.values().stream().mapToLong(LongAdder::sum).sum(), allocated);
+    }
+
+    @Test
+    public void testFailedPostingLeavesNoTrace() {
+        Receivable first = receivable(ReceivableType.MONTHLY_PAYMENT, due, "100.00");
+        Receivable second = receivable(ReceivableType.MONTHLY_PAYMENT, due.plusMonths(1), "100.00");
+        InMemoryPaymentAllocationRepository failing = new InMemoryPaymentAllocationRepository() {
+            @Override
+            public List<PaymentAllocation> saveAll(List<PaymentAllocation> batch) {
+                save(batch.get(0));
+                throw new IllegalStateException("disk full");
+            }
+        };
+        PaymentService service = new PaymentService(payments, receivables, failing,
+                AllocationWaterfall.standard(), Optional.of(new CustomerOpenReceivables(receivables)),
+                new CustomerLocks(), Optional.empty());
+
+        assertThrows(IllegalStateException.class, () -> service.processPayment(payment("150.00")));
+        assertThrows(IllegalStateException.class, () -> service.processPayment(payment("150.00"),
+                List.of(first.getReceivableId(), second.getReceivableId())));
+        assertThrows(RuntimeException.class, () -> service.processPayment(payment("150.00"),
+                List.of(first.getReceivableId(), "missing")));
+        for (Receivable receivable : List.of(first, second)) {
+            Receivable stored = receivables.findById(receivable.getReceivableId()).orElseThrow();
+            assertEquals(new BigDecimal("100.00"), stored.getOutstandingAmount());
+            assertEquals(ReceivableStatus.PENDING, stored.getStatus());
+        }
+        assertTrue(payments.findAll().isEmpty());
+        assertTrue(failing.findAll().isEmpty());
+
+        // Once the repository recovers the same payment posts in full
+        Payment posted = new PaymentService(payments, receivables, allocations, AllocationWaterfall.standard(),
+                Optional.empty(), new CustomerLocks(), Optional.empty()).processPayment(payment("150.00"));
+        assertEquals(2, allocations.findByPaymentId(posted.getPaymentId()).size());
+        assertEquals(new BigDecimal("50.00"), receivables.findById(second.getReceivableId()).orElseThrow()
+                .getOutstandingAmount());
+    }
+
+    @Test
+    public void testFailedBatchKeepsCommittedCustomersPosted() {
+        Receivable first = receivable("c1", ReceivableType.MONTHLY_PAYMENT, due, "100.00");
+        Receivable second = receivable("c2", ReceivableType.MONTHLY_PAYMENT, due, "100.00");
+        AtomicBoolean down = new AtomicBoolean(true);
+        InMemoryPaymentAllocationRepository failing = new InMemoryPaymentAllocationRepository() {
+            @Override
+            public List<PaymentAllocation> saveAll(List<PaymentAllocation> batch) {
+                if (down.get() && batch.get(0).getReceivableId().equals(second.getReceivableId())) {
+                    throw new IllegalStateException("disk full");
+                }
+                return super.saveAll(batch);
+            }
+        };
+        PaymentService service = new PaymentService(payments, receivables, failing,
+                AllocationWaterfall.standard(), Optional.of(new CustomerOpenReceivables(receivables)),
+                new CustomerLocks(), Optional.of(new PaymentReferenceIndex(payments, Clock.systemDefaultZone())));
+
+        assertThrows(IllegalStateException.class, () -> service.processPayments(
+                List.of(payment("c1", "60.00", "R1"), payment("c2", "60.00", "R2"))));
+        assertEquals(new BigDecimal("40.00"), receivables.findById(first.getReceivableId()).orElseThrow()
+                .getOutstandingAmount());
+        assertEquals(new BigDecimal("100.00"), receivables.findById(second.getReceivableId()).orElseThrow()
+                .getOutstandingAmount());
+        assertEquals(1, payments.findAll().size());
+
+        // Ingesting the file again posts only the payment that failed
+        down.set(false);
+        List<Payment> posted = service.processPayments(
+                List.of(payment("c1", "60.00", "R1"), payment("c2", "60.00", "R2")));
+        assertEquals(List.of("c2"), posted.stream().map(Payment::getCustomerId).collect(Collectors.toList()));
+        for (Receivable receivable : List.of(first, second)) {
+            assertEquals(new BigDecimal("40.00"), receivables.findById(receivable.getReceivableId()).orElseThrow()
+                    .getOutstandingAmount());
+        }
+        assertEquals(2, payments.findAll().size());
+    }
+
+    @Test
+    public void testBatchPostsPaymentOnceOtherPostOfItsReferenceGivesUp() throws Exception {
+        Receivable receivable = receivable("c1", ReceivableType.MONTHLY_PAYMENT, due, "100.00");
+        PaymentReferenceIndex references = new PaymentReferenceIndex(payments, Clock.systemDefaultZone());
+        PaymentService service = new PaymentService(payments, receivables, allocations,
+                AllocationWaterfall.standard(), Optional.empty(), new CustomerLocks(), Optional.of(references));
+        PaymentReferenceIndex.Claim other = references.tryClaim(payment("c1", "10.00", "R1"));
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<List<Payment>> batch = executor.submit(() -> service.processPayments(List.of(
+                payment("c1", "10.00", "R1"), payment("c1", "20.00", "R2"), payment("c1", "10.00", "R1"))));
+        // R2 is posted while both R1 lines wait for the other post
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (payments.findAll().isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertFalse(batch.isDone());
+        other.release();
+
+        List<Payment> posted = batch.get(10, TimeUnit.SECONDS);
+        executor.shutdown();
+        assertEquals(List.of("R2", "R1"), posted.stream().map(Payment::getReferenceNumber)
+                .collect(Collectors.toList()));
+        assertEquals(new BigDecimal("70.00"), receivables.findById(receivable.getReceivableId()).orElseThrow()
+                .getOutstandingAmount());
+    }
+
+    @Test
+    public void testReversalReopensReceivables() {
+        Receivable overdue = receivable(ReceivableType.MONTHLY_PAYMENT, due, "100.00");
+        overdue.setAgingDays(30);
+        overdue.setStatus(ReceivableStatus.OVERDUE);
+        receivables.save(overdue);
+        Receivable current = receivable(ReceivableType.MONTHLY_PAYMENT, due.plusMonths(1), "100.00");
+        CustomerOpenReceivables open = new CustomerOpenReceivables(receivables);
+        PaymentService service = new PaymentService(payments, receivables, allocations,
+                AllocationWaterfall.standard(), Optional.of(open), new CustomerLocks(), Optional.empty());
+
+        Payment bounced = service.processPayment(payment("150.00"));
+        Payment cleared = service.processPayment(payment("30.00"));
+        assertEquals(0, Money.toMinorUnits(receivables.findById(overdue.getReceivableId()).orElseThrow()
+                .getOutstandingAmount()));
+        assertEquals(1, open.count("c1"));
+
+        List<Payment> reversed = service.reversePayments(List.of(bounced.getPaymentId(), "unknown"),
+                PaymentStatus.FAILED);
+        assertEquals(1, reversed.size());
+        assertEquals(PaymentStatus.FAILED, payments.findById(bounced.getPaymentId()).orElseThrow().getStatus());
+        Receivable reopened = receivables.findById(overdue.getReceivableId()).orElseThrow();
+        assertEquals(new BigDecimal("100.00"), reopened.getOutstandingAmount());
+        assertEquals(ReceivableStatus.OVERDUE, reopened.getStatus());
+        assertNull(reopened.getPaidDate());
+        Receivable partial = receivables.findById(current.getReceivableId()).orElseThrow();
+        assertEquals(new BigDecimal("70.00"), partial.getOutstandingAmount());
+        assertEquals(ReceivableStatus.PARTIAL, partial.getStatus());
+        assertEquals(2, open.count("c1"));
+        assertEquals(0, service.getPaymentAllocations(bounced.getPaymentId()).stream()
+                .mapToLong(allocation -> Money.toMinorUnits(allocation.getAmount())).sum());
+
+        // Reversing again changes nothing
+        service.reversePayment(bounced.getPaymentId(), PaymentStatus.REVERSED);
+        assertEquals(PaymentStatus.FAILED, payments.findById(bounced.getPaymentId()).orElseThrow().getStatus());
+        assertEquals(new BigDecimal("100.00"), receivables.findById(overdue.getReceivableId()).orElseThrow()
+                .getOutstandingAmount());
+        assertEquals(1, service.getPaymentAllocations(cleared.getPaymentId()).size());
+    }
+
+    private static PaymentAllocation allocationOf(List<PaymentAllocation> allocations, Receivable receivable) {
+        return allocations.stream()
+                .filter(allocation -> allocation.getReceivableId().equals(receivable.getReceivableId()))
+                .findFirst().orElseThrow();
+    }
+}
@@ -0,0 +1,94 @@
+package org.openreceivable.service;
+
+import org.junit.jupiter.api.Test;
+import org.openreceivable.aging.AgingPolicies;
+import org.openreceivable.aging.AgingPolicy;
+import org.openreceivable.enums.AgingCategory;
+import org.openreceivable.enums.AgingGroupBy;
+import org.openreceivable.enums.ContractType;
+import org.openreceivable.enums.CustomerStatus;
+import org.openreceivable.enums.ReceivableStatus;
+import org.openreceivable.enums.ReceivableType;
+import org.openreceivable.model.Contract;
+import org.openreceivable.model.Customer;
+import org.openreceivable.model.Receivable;
+import org.openreceivable.model.ReceivableFixtures;
+import org.openreceivable.repository.columnar.ReceivableColumns;
+import org.openreceivable.repository.impl.InMemoryContractRepository;
+import org.openreceivable.repository.impl.InMemoryCustomerRepository;
+import org.openreceivable.repository.impl.InMemoryReceivableRepository;
+
+import java.math.BigDecimal;
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests that the grouped portfolio aging report agrees between the
+ * columnar pass and the object scan
+ */
+public class PortfolioAgingServiceTest {
+
+    private final InMemoryReceivableRepository receivables = new InMemoryReceivableRepository();
+    private final InMemoryCustomerRepository customers = new InMemoryCustomerRepository();
+    private final InMemoryContractRepository contracts = new InMemoryContractRepository();
+
+    @Test
+    public void testGroupedReportMatchesScan() {
+        // Leases age faster, so both passes must categorize per contract
+        AgingPolicies policies = new AgingPolicies(AgingPolicy.STANDARD,
+                Map.of(ContractType.LEASE, new AgingPolicy(10, 20, 30, 40)), contracts);
+        ReceivableColumns columns = new ReceivableColumns(receivables, policies);
+        Customer active = customer(CustomerStatus.ACTIVE);
+        Customer closed = customer(CustomerStatus.CLOSED);
+        Contract lease = contract(ContractType.LEASE);
+        Contract loan = contract(ContractType.LOAN);
+        List<Customer> customerList = List.of(active, closed);
+        List<String> contractIds = List.of(lease.getContractId(), loan.getContractId(), "missing");
+
+        LocalDateTime now = LocalDateTime.now();
+        // Both reports age against the same instant
+        Clock clock = Clock.fixed(Clock.systemDefaultZone().instant(), Clock.systemDefaultZone().getZone());
+        for (int i = 0; i < 40_000; i++) {
+            Receivable receivable = ReceivableFixtures.pending(customerList.get(i % 2).getCustomerId(),
+                    now.minusDays(i % 200 - 20), BigDecimal.valueOf(i % 997 + 1, 2).toPlainString());
+            receivable.setContractId(contractIds.get(i % 3));
+            receivable.setReceivableType(ReceivableType.values()[i % ReceivableType.values().length]);
+            receivable.setStatus(i % 11 == 0 ? ReceivableStatus.PAID : ReceivableStatus.PENDING);
+            receivables.save(receivable);
+        }
+
+        PortfolioAgingService columnar = new PortfolioAgingService(receivables, customers, contracts, Optional.of(columns), policies, clock);
+        PortfolioAgingService scan = new PortfolioAgingService(receivables, customers, contracts, Optional.empty(), policies, clock);
+        for (AgingGroupBy groupBy : new AgingGroupBy[] {null, AgingGroupBy.CONTRACT_TYPE,
+                AgingGroupBy.CUSTOMER_STATUS, AgingGroupBy.RECEIVABLE_TYPE}) {
+            assertEquals(scan.getPortfolioAgingReport(groupBy, null), columnar.getPortfolioAgingReport(groupBy, null),
+                    String.valueOf(groupBy));
+        }
+
+        Map<String, Map<AgingCategory, BigDecimal>> byContractType =
+                columnar.getPortfolioAgingReport(AgingGroupBy.CONTRACT_TYPE, null);
+        assertEquals(ContractType.values().length + 1, byContractType.size());
+        assertTrue(byContractType.get(PortfolioAgingService.UNKNOWN_GROUP).get(AgingCategory.CURRENT).signum() > 0);
+        assertEquals(BigDecimal.ZERO.setScale(2),
+                columnar.getPortfolioAgingReport(AgingGroupBy.CUSTOMER_STATUS, null).get("SUSPENDED").get(AgingCategory.OVER_120));
+        assertEquals(List.of(PortfolioAgingService.ALL_GROUP), List.copyOf(columnar.getPortfolioAgingReport(null, null).keySet()));
+    }
+
+    private Customer customer(CustomerStatus status) {
+        Customer customer = new Customer();
+        customer.setEmail(status + "@example.com");
+        customer.setStatus(status);
+        return customers.save(customer);
+    }
+
+    private Contract contract(ContractType type) {
+        Contract contract = new Contract();
+        contract.setContractType(type);
+        return contracts.save(contract);
+    }
+}
@@ -0,0 +1,172 @@
+package org.openreceivable.service;
+
+import org.junit.jupiter.api.Test;
+import org.openreceivable.aging.AgingPolicies;
+import org.openreceivable.enums.AgingCategory;
+import org.openreceivable.enums.ReceivableStatus;
+import org.openreceivable.model.AgingBucket;
+import org.openreceivable.model.AgingSummary;
+import org.openreceivable.model.Receivable;
+import org.openreceivable.model.ReceivableFixtures;
+import org.openreceivable.repository.impl.InMemoryAgingBucketRepository;
+import org.openreceivable.repository.impl.InMemoryAgingSummaryRepository;
+import org.openreceivable.repository.impl.InMemoryReceivableRepository;
+
+import java.math.BigDecimal;
+import java.time.Clock;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for ReceivableService aging
+ */
+public class ReceivableServiceTest {
+
+    private final InMemoryReceivableRepository receivables = new InMemoryReceivableRepository();
+    private final InMemoryAgingBucketRepository buckets = new InMemoryAgingBucketRepository();
+    private final InMemoryAgingSummaryRepository summaries = new InMemoryAgingSummaryRepository();
+    private final ReceivableService service =
+            new ReceivableService(receivables, buckets, summaries,
+                    new AgingBatch(receivables, buckets, AgingPolicies.standard(), 4, 2, 2, ""), Optional.empty(), Optional.empty(), AgingPolicies.standard(),
+                    Clock.systemDefaultZone(), 30);
+
+    private Receivable receivable(LocalDateTime dueDate) {
+        return service.createReceivable(ReceivableFixtures.pending("c1", dueDate, "100.00"));
+    }
+
+    private static List<String> ids(List<Receivable> list) {
+        return list.stream().map(Receivable::getReceivableId).collect(Collectors.toList());
+    }
+
+    @Test
+    public void testUpdateAgingOnlyVisitsBoundaryCrossings() {
+        LocalDateTime now = LocalDateTime.now();
+        Receivable current = receivable(now.plusDays(5));
+        Receivable overdue = receivable(now.minusDays(45));
+        Receivable paid = receivable(now.minusDays(200));
+        paid.setStatus(ReceivableStatus.PAID);
+        receivables.save(paid);
+
+        assertEquals(2, service.updateAging());
+        assertEquals(ReceivableStatus.OVERDUE, receivables.findById(overdue.getReceivableId()).orElseThrow().getStatus());
+        assertEquals(AgingCategory.DAYS_31_60, buckets.findByReceivableId(overdue.getReceivableId()).get(0).getAgingCategory());
+        assertEquals(AgingCategory.CURRENT, buckets.findByReceivableId(current.getReceivableId()).get(0).getAgingCategory());
+        assertTrue(buckets.findByReceivableId(paid.getReceivableId()).isEmpty());
+
+        // Nothing has reached its next boundary yet
+        assertEquals(0, service.updateAging());
+        assertTrue(receivables.findDueForAging(now.plusDays(5)).isEmpty());
+
+        // Current crosses into 1-30 tomorrow; the overdue one crosses into 61-90 at day 61
+        assertEquals(List.of(current.getReceivableId()), ids(receivables.findDueForAging(now.plusDays(7))));
+        assertEquals(2, receivables.findDueForAging(now.plusDays(17)).size());
+        assertEquals(2, buckets.findAll().size());
+    }
+
+    private AgingBucket snapshot(String receivableId, LocalDateTime asOfDate, AgingCategory category, String amount) {
+        AgingBucket bucket = new AgingBucket();
+        bucket.setReceivableId(receivableId);
+        bucket.setCustomerId("c1");
+        bucket.setAgingCategory(category);
+        bucket.setAmount(new BigDecimal(amount));
+        bucket.setAsOfDate(asOfDate);
+        return buckets.save(bucket);
+    }
+
+    @Test
+    public void testSnapshotsUpsertAndCompactPastRetention() {
+        LocalDateTime now = LocalDateTime.of(2024, 6, 1, 12, 0);
+        LocalDateTime old = now.minusDays(40);
+
+        // Same receivable and day: the second save replaces the first
+        AgingBucket first = snapshot("r1", old.withHour(1), AgingCategory.DAYS_1_30, "10.00");
+        AgingBucket second = snapshot("r1", old.withHour(23), AgingCategory.DAYS_1_30, "15.00");
+        assertEquals(first.getBucketId(), second.getBucketId());
+        snapshot("r2", old, AgingCategory.DAYS_1_30, "20.00");
+        snapshot("r3", old, AgingCategory.DAYS_31_60, "5.00");
+        AgingBucket recent = snapshot("r1", now.minusDays(2), AgingCategory.DAYS_31_60, "15.00");
+        assertEquals(3, buckets.findByAsOfDate(old).size());
+
+        assertEquals(3, service.compactAgingSnapshots(now));
+        assertEquals(List.of(recent.getBucketId()),
+                buckets.findAll().stream().map(AgingBucket::getBucketId).collect(Collectors.toList()));
+        AgingSummary summary = summaries.find("c1", old, AgingCategory.DAYS_1_30).orElseThrow();
+        assertEquals(new BigDecimal("35.00"), summary.getAmount());
+        assertEquals(2, summary.getReceivableCount());
+        assertEquals(2, summaries.findByAsOfDate(old).size());
+
+        // Compacting the same day again adds to the existing summary
+        snapshot("r4", old, AgingCategory.DAYS_1_30, "1.00");
+        assertEquals(1, service.compactAgingSnapshots(now));
+        assertEquals(new BigDecimal("36.00"), summaries.find("c1", old, AgingCategory.DAYS_1_30).orElseThrow().getAmount());
+        assertEquals(2, summaries.findAll().size());
+    }
+
+    @Test
+    public void testInterruptedCompactionDoesNotCountTwice() {
+        AtomicBoolean crash = new AtomicBoolean(true);
+        InMemoryAgingBucketRepository crashing = new InMemoryAgingBucketRepository() {
+            @Override
+            public void delete(String bucketId) {
+                if (crash.get()) {
+                    throw new IllegalStateException("Crashed before deleting " + bucketId);
+                }
+                super.delete(bucketId);
+            }
+        };
+        ReceivableService compacting = new ReceivableService(receivables, crashing, summaries,
+                new AgingBatch(receivables, crashing, AgingPolicies.standard(), 4, 2, 2, ""), Optional.empty(), Optional.empty(), AgingPolicies.standard(),
+                Clock.systemDefaultZone(), 30);
+        LocalDateTime now = LocalDateTime.of(2024, 6, 1, 12, 0);
+        LocalDateTime old = now.minusDays(40);
+        for (String receivableId : List.of("r1", "r2")) {
+            AgingBucket bucket = new AgingBucket();
+            bucket.setReceivableId(receivableId);
+            bucket.setCustomerId("c1");
+            bucket.setAgingCategory(AgingCategory.DAYS_1_30);
+            bucket.setAmount(new BigDecimal("10.00"));
+            bucket.setAsOfDate(old);
+            crashing.save(bucket);
+        }
+
+        assertThrows(IllegalStateException.class, () -> compacting.compactAgingSnapshots(now));
+        assertEquals(new BigDecimal("20.00"), summaries.find("c1", old, AgingCategory.DAYS_1_30).orElseThrow().getAmount());
+        assertEquals(2, crashing.findAll().size());
+
+        crash.set(false);
+        assertEquals(2, compacting.compactAgingSnapshots(now));
+        AgingSummary summary = summaries.find("c1", old, AgingCategory.DAYS_1_30).orElseThrow();
+        assertEquals(new BigDecimal("20.00"), summary.getAmount());
+        assertEquals(2, summary.getReceivableCount());
+        assertTrue(summary.getFoldedBucketIds().isEmpty());
+        assertTrue(crashing.findAll().isEmpty());
+    }
+
+    @Test
+    public void testAsOfComesFromClockUnlessGiven() {
+        LocalDateTime fixed = LocalDateTime.of(2024, 6, 1, 12, 0);
+        ZoneId zone = ZoneId.systemDefault();
+        ReceivableService fixedService = new ReceivableService(receivables, buckets, summaries,
+                new AgingBatch(receivables, buckets, AgingPolicies.standard(), 4, 2, 2, ""), Optional.empty(), Optional.empty(), AgingPolicies.standard(),
+                Clock.fixed(fixed.atZone(zone).toInstant(), zone), 30);
+        Receivable receivable = receivable(fixed.minusDays(10));
+
+        assertEquals(fixed, fixedService.asOf(null));
+        assertEquals(List.of(receivable.getReceivableId()), ids(fixedService.getOverdueReceivables(null)));
+        assertTrue(fixedService.getOverdueReceivables(fixed.minusDays(20)).isEmpty());
+        assertEquals(new BigDecimal("100.00"),
+                fixedService.getCustomerAgingReport("c1", fixed.minusDays(20)).get(AgingCategory.CURRENT));
+        assertEquals(new BigDecimal("100.00"),
+                fixedService.getCustomerAgingReport("c1", fixed).get(AgingCategory.DAYS_1_30));
+
+        assertEquals(1, fixedService.updateAging(null));
+        assertEquals(fixed.toLocalDate().atStartOfDay(),
+                buckets.findByReceivableId(receivable.getReceivableId()).get(0).getAsOfDate());
+    }
+}